@@ -151,6 +151,14 @@ CREATE TABLE user_action (
 	PRIMARY KEY (id)
 );
 
+CREATE TABLE user_action_statistics (
+	mediapackage_id VARCHAR(128) NOT NULL,
+	views BIGINT,
+	outpoint INTEGER,
+	footprints LONGBLOB,
+	PRIMARY KEY (mediapackage_id)
+);
+
 CREATE TABLE oaipmh_harvesting (
 	url varchar(255) NOT NULL,
 	last_harvested datetime DEFAULT NULL,
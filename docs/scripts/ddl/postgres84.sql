@@ -204,6 +204,14 @@ CREATE TABLE "user_action" (
   PRIMARY KEY ("id")
 );
 
+CREATE TABLE "user_action_statistics" (
+  "mediapackage_id" character varying(128) NOT NULL,
+  "views" bigint DEFAULT NULL,
+  "outpoint" integer DEFAULT NULL,
+  "footprints" bytea,
+  PRIMARY KEY ("mediapackage_id")
+);
+
 CREATE TABLE "oaipmh_harvesting" (
 	"url" text NOT NULL,
 	"last_harvested" timestamp DEFAULT NULL,
@@ -27,6 +27,8 @@ import org.opencastproject.security.api.AccessControlList;
 import org.opencastproject.security.api.AuthorizationService;
 import org.opencastproject.security.api.SecurityService;
 import org.opencastproject.security.api.User;
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
 import org.opencastproject.util.NotFoundException;
 import org.opencastproject.workspace.api.Workspace;
 
@@ -47,18 +49,26 @@ import org.jboss.security.xacml.factories.RequestResponseContextFactory;
 import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
 import org.jboss.security.xacml.interfaces.RequestContext;
 import org.jboss.security.xacml.interfaces.XACMLConstants;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 
@@ -78,12 +88,48 @@ public class XACMLAuthorizationService implements AuthorizationService {
 
   public static final String READ_PERMISSION = "read";
 
+  /** The name of the policy cache's JMX bean */
+  protected static final String JMX_POLICY_CACHE_NAME = "org.opencastproject.security.api.AuthorizationService:type=XACMLPolicyCache";
+
   /** The workspace */
   protected Workspace workspace;
 
   /** The security service */
   protected SecurityService securityService;
 
+  /** The compiled policies and the decisions based on them */
+  protected XACMLPolicyCache policyCache = new XACMLPolicyCache();
+
+  /**
+   * OSGi callback on component activation.
+   * 
+   * @param cc
+   *          the component context
+   */
+  protected void activate(ComponentContext cc) {
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(JMX_POLICY_CACHE_NAME);
+      if (mbs.isRegistered(name)) {
+        mbs.unregisterMBean(name);
+      }
+      mbs.registerMBean(policyCache, name);
+    } catch (Exception e) {
+      logger.warn("Unable to register {} as an mbean: {}", policyCache, e);
+    }
+  }
+
+  /**
+   * OSGi callback on component deactivation.
+   */
+  protected void deactivate() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(JMX_POLICY_CACHE_NAME));
+    } catch (Exception e) {
+      logger.debug("Unable to unregister the xacml policy cache mbean: {}", e.getMessage());
+    }
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -219,27 +265,55 @@ public class XACMLAuthorizationService implements AuthorizationService {
     ClassLoader originalClassLoader = currentThread.getContextClassLoader();
     try {
       currentThread.setContextClassLoader(XACMLAuthorizationService.class.getClassLoader());
+      String mediaPackageId = mediapackage.getIdentifier().toString();
       Attachment[] xacmlAttachments = mediapackage.getAttachments(MediaPackageElements.XACML_POLICY);
       if (xacmlAttachments.length == 0) {
         logger.info("No XACML attachment found in {}", mediapackage);
+        policyCache.removeDecisions(mediaPackageId);
         return true;
       } else if (xacmlAttachments.length > 1) {
         logger.warn("More than one XACML policy is attached to {}", mediapackage);
+        policyCache.removeDecisions(mediaPackageId);
         return false;
       }
+      Attachment xacmlAttachment = xacmlAttachments[0];
+      User user = securityService.getUser();
+
+      // Attachments with a checksum can be identified without accessing the workspace
+      long generation = policyCache.getGeneration();
       File xacmlPolicyFile = null;
-      try {
-        xacmlPolicyFile = workspace.get(xacmlAttachments[0].getURI());
-      } catch (NotFoundException e) {
-        logger.warn("XACML policy file not found", e);
-      } catch (IOException e) {
-        logger.warn("Unable to access XACML policy file {}", xacmlPolicyFile, e);
+      String version = null;
+      if (xacmlAttachment.getChecksum() != null) {
+        version = xacmlAttachment.getChecksum().toString();
+      } else {
+        xacmlPolicyFile = getPolicyFile(xacmlAttachment.getURI());
+        if (xacmlPolicyFile == null) {
+          policyCache.invalidate(xacmlAttachment.getURI());
+          return false;
+        }
+        version = xacmlPolicyFile.lastModified() + "-" + xacmlPolicyFile.length();
+      }
+      String policyKey = XACMLPolicyCache.getPolicyKey(xacmlAttachment.getURI(), version);
+      String decisionKey = XACMLPolicyCache.getDecisionKey(policyKey, mediaPackageId, action, user.getRoles());
+
+      Boolean decision = policyCache.getDecision(mediaPackageId, policyKey, decisionKey);
+      if (decision != null)
+        return decision;
+
+      PolicyDecisionPoint pdp = policyCache.getPolicyDecisionPoint(policyKey);
+      if (pdp == null) {
+        if (xacmlPolicyFile == null)
+          xacmlPolicyFile = getPolicyFile(xacmlAttachment.getURI());
+        if (xacmlPolicyFile == null) {
+          policyCache.invalidate(xacmlAttachment.getURI());
+          return false;
+        }
+        pdp = getPolicyDecisionPoint(xacmlPolicyFile);
+        policyCache.putPolicyDecisionPoint(policyKey, pdp, generation);
       }
 
       RequestContext requestCtx = RequestResponseContextFactory.createRequestCtx();
 
-      User user = securityService.getUser();
-
       // Create a subject type
       SubjectType subject = new SubjectType();
       subject.getAttribute().add(
@@ -282,17 +356,39 @@ public class XACMLAuthorizationService implements AuthorizationService {
         return false;
       }
 
-      PolicyDecisionPoint pdp = getPolicyDecisionPoint(xacmlPolicyFile);
-
-      return pdp.evaluate(requestCtx).getDecision() == XACMLConstants.DECISION_PERMIT;
+      boolean permitted = pdp.evaluate(requestCtx).getDecision() == XACMLConstants.DECISION_PERMIT;
+      policyCache.putDecision(mediaPackageId, policyKey, decisionKey, permitted, generation);
+      return permitted;
     } finally {
       Thread.currentThread().setContextClassLoader(originalClassLoader);
     }
   }
 
   /**
-   * @param xacmlAttachment
-   * @return
+   * Returns the XACML policy file from the workspace.
+   * 
+   * @param uri
+   *          the URI of the XACML attachment
+   * @return the file, or <code>null</code> if it is not available
+   */
+  private File getPolicyFile(URI uri) {
+    try {
+      return workspace.get(uri);
+    } catch (NotFoundException e) {
+      logger.warn("XACML policy file not found", e);
+    } catch (IOException e) {
+      logger.warn("Unable to access XACML policy file {}", uri, e);
+    }
+    return null;
+  }
+
+  /**
+   * Builds a policy decision point for the XACML policy file. The policy is parsed once, so the decision point can be
+   * reused as long as the file does not change.
+   * 
+   * @param xacmlFile
+   *          the XACML policy file
+   * @return the policy decision point
    */
   private PolicyDecisionPoint getPolicyDecisionPoint(File xacmlFile) {
     // Build a JBoss PDP configuration. This is a custom jboss format, so we're just hacking it together here
@@ -342,6 +438,7 @@ public class XACMLAuthorizationService implements AuthorizationService {
 
       // Remove the old xacml file(s)
       for (Attachment a : mediapackage.getAttachments(XACML_POLICY)) {
+        policyCache.invalidate(a.getURI());
         try {
           workspace.delete(a.getURI());
         } catch (Exception e) {
@@ -357,11 +454,27 @@ public class XACMLAuthorizationService implements AuthorizationService {
       attachment.setIdentifier(XACML_ELEMENT_ID);
       mediapackage.add(attachment);
 
+      // The checksum identifies the policy version, which allows to look up cached decisions without touching the file
+      byte[] xacmlBytes = null;
+      try {
+        xacmlBytes = xacmlContent.getBytes("UTF-8");
+        MessageDigest md = MessageDigest.getInstance(ChecksumType.DEFAULT_TYPE.getName());
+        attachment.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, md.digest(xacmlBytes)));
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException("UTF-8 is not supported");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("This system does not support checksums of type "
+                + ChecksumType.DEFAULT_TYPE.getName());
+      }
+
       try {
         workspace.put(mediapackage.getIdentifier().toString(), attachment.getIdentifier(), XACML_FILENAME,
-                IOUtils.toInputStream(xacmlContent));
+                new ByteArrayInputStream(xacmlBytes));
       } catch (IOException e) {
         throw new MediaPackageException("Can not store xacml for mediapackage " + mediapackage.getIdentifier());
+      } finally {
+        // The file may have been replaced in place, so drop whatever has been derived from it
+        policyCache.invalidate(uri);
       }
       attachment.setURI(uri);
 
@@ -0,0 +1,362 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.authorization.xacml;
+
+import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for compiled XACML policies and the decisions made based on them.
+ * <p>
+ * Policies are identified by the URI of the XACML attachment and a version, which is either the attachment's checksum
+ * or, if the attachment has none, the modification date and size of the policy file. A decision is identified by the
+ * policy, the media package, the action and the roles of the user, since these are the only attributes that the
+ * policies created by {@link XACMLUtils} refer to.
+ * <p>
+ * For every media package, the cache remembers the policy its decisions are based on. Decisions are only returned for
+ * the policy that is currently attached to the media package, so that a decision does not outlive the attachment.
+ */
+public class XACMLPolicyCache implements XACMLPolicyCacheMXBean {
+
+  /** The maximum number of compiled policies kept in memory */
+  public static final int MAX_POLICIES = 1000;
+
+  /** The maximum number of decisions kept in memory */
+  public static final int MAX_DECISIONS = 10000;
+
+  /** Separates the parts of a cache key */
+  private static final char SEPARATOR = '|';
+
+  /** The most recently used policy decision points, keyed by policy */
+  private final Map<String, PolicyDecisionPoint> policies = new LinkedHashMap<String, PolicyDecisionPoint>(16, 0.75f,
+          true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, PolicyDecisionPoint> eldest) {
+      return size() > MAX_POLICIES;
+    }
+  };
+
+  /** The most recently used decisions */
+  private final Map<String, Boolean> decisions = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > MAX_DECISIONS;
+    }
+  };
+
+  /** The policy that the cached decisions of a media package are based on, by media package identifier */
+  private final Map<String, String> currentPolicies = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > MAX_DECISIONS;
+    }
+  };
+
+  /** Incremented on every invalidation, so that results based on a replaced policy are not cached */
+  private final AtomicLong generation = new AtomicLong();
+
+  /** Number of policies found in the cache */
+  private final AtomicLong policyHits = new AtomicLong();
+
+  /** Number of policies that were not found in the cache */
+  private final AtomicLong policyMisses = new AtomicLong();
+
+  /** Number of decisions found in the cache */
+  private final AtomicLong decisionHits = new AtomicLong();
+
+  /** Number of decisions that were not found in the cache */
+  private final AtomicLong decisionMisses = new AtomicLong();
+
+  /** Number of invalidated policies */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * Returns the key of a policy.
+   * 
+   * @param uri
+   *          the URI of the XACML attachment
+   * @param version
+   *          the version of the policy, e.g. its checksum
+   * @return the policy key
+   */
+  public static String getPolicyKey(URI uri, String version) {
+    return uri.toString() + SEPARATOR + version;
+  }
+
+  /**
+   * Returns the key of a decision.
+   * 
+   * @param policyKey
+   *          the policy
+   * @param mediaPackageId
+   *          the media package identifier
+   * @param action
+   *          the action
+   * @param roles
+   *          the user's roles
+   * @return the decision key
+   */
+  public static String getDecisionKey(String policyKey, String mediaPackageId, String action, String[] roles) {
+    String[] sortedRoles = roles.clone();
+    Arrays.sort(sortedRoles);
+    StringBuilder key = new StringBuilder(policyKey);
+    key.append(SEPARATOR).append(mediaPackageId);
+    key.append(SEPARATOR).append(action);
+    for (String role : sortedRoles) {
+      key.append(SEPARATOR).append(role);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns the current generation of the cache, which needs to be passed when adding entries.
+   * 
+   * @return the generation
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Returns the compiled policy.
+   * 
+   * @param policyKey
+   *          the policy key
+   * @return the policy decision point, or <code>null</code> if the policy is not in the cache
+   */
+  public PolicyDecisionPoint getPolicyDecisionPoint(String policyKey) {
+    PolicyDecisionPoint pdp = null;
+    synchronized (policies) {
+      pdp = policies.get(policyKey);
+    }
+    if (pdp == null) {
+      policyMisses.incrementAndGet();
+    } else {
+      policyHits.incrementAndGet();
+    }
+    return pdp;
+  }
+
+  /**
+   * Adds a compiled policy, unless the cache has been invalidated since <code>generation</code>.
+   * 
+   * @param policyKey
+   *          the policy key
+   * @param pdp
+   *          the policy decision point
+   * @param generation
+   *          the generation of the cache when the policy was loaded
+   */
+  public void putPolicyDecisionPoint(String policyKey, PolicyDecisionPoint pdp, long generation) {
+    synchronized (policies) {
+      if (generation == this.generation.get())
+        policies.put(policyKey, pdp);
+    }
+  }
+
+  /**
+   * Returns a cached decision, provided that it is based on the policy that is currently attached to the media package.
+   * Decisions based on a different policy are removed.
+   * 
+   * @param mediaPackageId
+   *          the media package identifier
+   * @param policyKey
+   *          the policy currently attached to the media package
+   * @param decisionKey
+   *          the decision key
+   * @return <code>true</code> if permission has been granted, <code>false</code> if it has been denied, or
+   *         <code>null</code> if the decision is not in the cache
+   */
+  public Boolean getDecision(String mediaPackageId, String policyKey, String decisionKey) {
+    Boolean decision = null;
+    synchronized (decisions) {
+      String currentPolicy = currentPolicies.get(mediaPackageId);
+      if (policyKey.equals(currentPolicy)) {
+        decision = decisions.get(decisionKey);
+      } else if (currentPolicy != null) {
+        currentPolicies.remove(mediaPackageId);
+        removeByPrefix(decisions, currentPolicy + SEPARATOR + mediaPackageId + SEPARATOR);
+      }
+    }
+    if (decision == null) {
+      decisionMisses.incrementAndGet();
+    } else {
+      decisionHits.incrementAndGet();
+    }
+    return decision;
+  }
+
+  /**
+   * Adds a decision, unless the cache has been invalidated since <code>generation</code>. Decisions based on another
+   * policy than <code>policyKey</code> are removed.
+   * 
+   * @param mediaPackageId
+   *          the media package identifier
+   * @param policyKey
+   *          the policy the decision is based on
+   * @param decisionKey
+   *          the decision key
+   * @param decision
+   *          whether permission has been granted
+   * @param generation
+   *          the generation of the cache when the policy was loaded
+   */
+  public void putDecision(String mediaPackageId, String policyKey, String decisionKey, boolean decision,
+          long generation) {
+    synchronized (decisions) {
+      if (generation != this.generation.get())
+        return;
+      String currentPolicy = currentPolicies.put(mediaPackageId, policyKey);
+      if (currentPolicy != null && !currentPolicy.equals(policyKey))
+        removeByPrefix(decisions, currentPolicy + SEPARATOR + mediaPackageId + SEPARATOR);
+      decisions.put(decisionKey, decision);
+    }
+  }
+
+  /**
+   * Removes the decisions about a media package, e. g. because its policy has been removed.
+   * 
+   * @param mediaPackageId
+   *          the media package identifier
+   */
+  public void removeDecisions(String mediaPackageId) {
+    synchronized (decisions) {
+      String currentPolicy = currentPolicies.remove(mediaPackageId);
+      if (currentPolicy != null)
+        removeByPrefix(decisions, currentPolicy + SEPARATOR + mediaPackageId + SEPARATOR);
+    }
+  }
+
+  /**
+   * Removes all versions of a policy and the decisions based on them.
+   * 
+   * @param uri
+   *          the URI of the XACML attachment
+   */
+  public void invalidate(URI uri) {
+    String prefix = uri.toString() + SEPARATOR;
+    // lock both maps so that no entry based on the old policy can be added after the generation has changed
+    synchronized (policies) {
+      synchronized (decisions) {
+        generation.incrementAndGet();
+        removeByPrefix(policies, prefix);
+        removeByPrefix(decisions, prefix);
+        for (Iterator<String> i = currentPolicies.values().iterator(); i.hasNext();) {
+          if (i.next().startsWith(prefix))
+            i.remove();
+        }
+      }
+    }
+    invalidations.incrementAndGet();
+  }
+
+  /**
+   * Removes all entries whose key starts with <code>prefix</code>.
+   */
+  private static void removeByPrefix(Map<String, ?> map, String prefix) {
+    for (Iterator<String> i = map.keySet().iterator(); i.hasNext();) {
+      if (i.next().startsWith(prefix))
+        i.remove();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.authorization.xacml.XACMLPolicyCacheMXBean#getCachedPolicies()
+   */
+  @Override
+  public int getCachedPolicies() {
+    synchronized (policies) {
+      return policies.size();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.authorization.xacml.XACMLPolicyCacheMXBean#getPolicyCacheHits()
+   */
+  @Override
+  public long getPolicyCacheHits() {
+    return policyHits.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.authorization.xacml.XACMLPolicyCacheMXBean#getPolicyCacheMisses()
+   */
+  @Override
+  public long getPolicyCacheMisses() {
+    return policyMisses.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.authorization.xacml.XACMLPolicyCacheMXBean#getCachedDecisions()
+   */
+  @Override
+  public int getCachedDecisions() {
+    synchronized (decisions) {
+      return decisions.size();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.authorization.xacml.XACMLPolicyCacheMXBean#getDecisionCacheHits()
+   */
+  @Override
+  public long getDecisionCacheHits() {
+    return decisionHits.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.authorization.xacml.XACMLPolicyCacheMXBean#getDecisionCacheMisses()
+   */
+  @Override
+  public long getDecisionCacheMisses() {
+    return decisionMisses.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.authorization.xacml.XACMLPolicyCacheMXBean#getInvalidations()
+   */
+  @Override
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+}
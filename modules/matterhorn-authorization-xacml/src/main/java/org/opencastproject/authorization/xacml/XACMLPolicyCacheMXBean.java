@@ -0,0 +1,42 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.authorization.xacml;
+
+/**
+ * An MXBean that exposes the state and the effectiveness of the XACML policy and decision caches to a JMX agent
+ */
+public interface XACMLPolicyCacheMXBean {
+  /** Gets the number of compiled policies in the cache */
+  int getCachedPolicies();
+
+  /** Gets the number of times a compiled policy was found in the cache */
+  long getPolicyCacheHits();
+
+  /** Gets the number of times a policy had to be compiled */
+  long getPolicyCacheMisses();
+
+  /** Gets the number of decisions in the cache */
+  int getCachedDecisions();
+
+  /** Gets the number of authorization requests answered from the cache */
+  long getDecisionCacheHits();
+
+  /** Gets the number of authorization requests that had to be evaluated */
+  long getDecisionCacheMisses();
+
+  /** Gets the number of times a policy was removed from the caches because it has been replaced */
+  long getInvalidations();
+}
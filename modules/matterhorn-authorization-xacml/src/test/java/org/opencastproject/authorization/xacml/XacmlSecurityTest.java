@@ -17,8 +17,10 @@ package org.opencastproject.authorization.xacml;
 
 import static org.opencastproject.security.api.SecurityConstants.DEFAULT_ORGANIZATION_ANONYMOUS;
 
+import org.opencastproject.mediapackage.Attachment;
 import org.opencastproject.mediapackage.MediaPackage;
 import org.opencastproject.mediapackage.MediaPackageBuilderFactory;
+import org.opencastproject.mediapackage.MediaPackageElements;
 import org.opencastproject.security.api.AccessControlEntry;
 import org.opencastproject.security.api.AccessControlList;
 import org.opencastproject.security.api.DefaultOrganization;
@@ -152,6 +154,49 @@ public class XacmlSecurityTest {
 
   }
 
+  @Test
+  public void testDecisionCache() throws Exception {
+    MediaPackage mediapackage = MediaPackageBuilderFactory.newInstance().newMediaPackageBuilder().createNew();
+
+    AccessControlList accessControlList = new AccessControlList();
+    accessControlList.getEntries().add(new AccessControlEntry("student", "read", true));
+    mediapackage = authzService.setAccessControl(mediapackage, accessControlList);
+
+    currentRoles.clear();
+    currentRoles.add("student");
+    Assert.assertTrue(authzService.hasPermission(mediapackage, "read"));
+    Assert.assertTrue(authzService.hasPermission(mediapackage, "read"));
+    Assert.assertEquals(1, authzService.policyCache.getPolicyCacheMisses());
+    Assert.assertEquals(1, authzService.policyCache.getDecisionCacheMisses());
+    Assert.assertEquals(1, authzService.policyCache.getDecisionCacheHits());
+
+    // The same roles in a different order lead to the same decision
+    currentRoles.add(0, "guest");
+    Assert.assertTrue(authzService.hasPermission(mediapackage, "read"));
+    currentRoles.clear();
+    currentRoles.add("student");
+    currentRoles.add("guest");
+    Assert.assertTrue(authzService.hasPermission(mediapackage, "read"));
+    Assert.assertEquals(1, authzService.policyCache.getPolicyCacheMisses());
+    Assert.assertEquals(2, authzService.policyCache.getDecisionCacheHits());
+
+    // Replacing the policy must not leave stale decisions behind
+    accessControlList.getEntries().clear();
+    accessControlList.getEntries().add(new AccessControlEntry("student", "read", false));
+    mediapackage = authzService.setAccessControl(mediapackage, accessControlList);
+    Assert.assertEquals(0, authzService.policyCache.getCachedDecisions());
+    Assert.assertFalse(authzService.hasPermission(mediapackage, "read"));
+    Assert.assertEquals(2, authzService.policyCache.getPolicyCacheMisses());
+    Assert.assertEquals(1, authzService.policyCache.getCachedDecisions());
+
+    // Removing the policy drops the decisions that were based on it
+    for (Attachment attachment : mediapackage.getAttachments(MediaPackageElements.XACML_POLICY)) {
+      mediapackage.remove(attachment);
+    }
+    Assert.assertTrue(authzService.hasPermission(mediapackage, "read"));
+    Assert.assertEquals(0, authzService.policyCache.getCachedDecisions());
+  }
+
   static class WorkspaceStub implements Workspace {
     protected File file = null;
 
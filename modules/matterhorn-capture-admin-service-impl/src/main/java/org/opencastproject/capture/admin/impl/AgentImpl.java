@@ -49,7 +49,8 @@ import javax.persistence.Transient;
 @Table(name = "capture_agent_state")
 @NamedQueries({
   @NamedQuery(name = "Agent.get", query = "select a from AgentImpl a where a.name = :id and a.organization = :org"),
-  @NamedQuery(name = "Agent.byOrganization", query = "SELECT a FROM AgentImpl a where a.organization = :org")
+  @NamedQuery(name = "Agent.byOrganization", query = "SELECT a FROM AgentImpl a where a.organization = :org"),
+  @NamedQuery(name = "Agent.findAll", query = "SELECT a FROM AgentImpl a")
 })
 public class AgentImpl implements Agent {
 
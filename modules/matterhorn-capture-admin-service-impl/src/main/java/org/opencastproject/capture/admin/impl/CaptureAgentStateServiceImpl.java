@@ -42,8 +42,11 @@ import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -53,6 +56,11 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -72,6 +80,9 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
   /** The name of the persistence unit for this class */
   public static final String PERSISTENCE_UNIT = "org.opencastproject.capture.admin.impl.CaptureAgentStateServiceImpl";
 
+  /** The number of milliseconds to wait for pending agent writes when the service is deactivated */
+  private static final long AGENT_WRITER_TIMEOUT = 30000L;
+
   /** The JPA provider */
   protected PersistenceProvider persistenceProvider;
 
@@ -90,8 +101,31 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
   // TODO: Remove the in-memory recordings map, and use the database instead
   private HashMap<String, Recording> recordings;
 
-  /** Maps the configuration PID to the agent ID, so agents can be updated via the configuration factory pattern */
-  protected Map<String, String> pidMap = new ConcurrentHashMap<String, String>();
+  /** Maps the configuration PID to the agent, so agents can be updated via the configuration factory pattern */
+  protected Map<String, AgentKey> pidMap = new ConcurrentHashMap<String, AgentKey>();
+
+  /**
+   * The known agents, keyed by organization and agent name. This is where agents are read from, while the database is
+   * updated in the background.
+   */
+  protected final ConcurrentMap<String, ConcurrentMap<String, AgentImpl>> agents = new ConcurrentHashMap<String, ConcurrentMap<String, AgentImpl>>();
+
+  /** The agents that have changed since they were last written to the database */
+  protected final Set<AgentKey> modifiedAgents = Collections.newSetFromMap(new ConcurrentHashMap<AgentKey, Boolean>());
+
+  /** Writes modified agents to the database */
+  protected ExecutorService agentWriter = null;
+
+  /** Whether the last attempt to write the modified agents failed, in which case every modification is retried */
+  private volatile boolean agentWriteFailed = false;
+
+  /** The task that writes the modified agents to the database */
+  private final Runnable writeModifiedAgents = new Runnable() {
+    @Override
+    public void run() {
+      writeModifiedAgents();
+    }
+  };
 
   /**
    * @param persistenceProvider
@@ -135,14 +169,141 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
   public void activate(ComponentContext cc) {
     emf = persistenceProvider.createEntityManagerFactory(
             "org.opencastproject.capture.admin.impl.CaptureAgentStateServiceImpl", persistenceProperties);
+    loadAgents();
+    agentWriter = Executors.newSingleThreadExecutor();
   }
 
   public void deactivate() {
+    if (agentWriter != null) {
+      agentWriter.shutdown();
+      try {
+        if (!agentWriter.awaitTermination(AGENT_WRITER_TIMEOUT, TimeUnit.MILLISECONDS))
+          logger.warn("Agent states are still being written after {} ms", AGENT_WRITER_TIMEOUT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      agentWriter = null;
+    }
+    // Make sure no modification is lost
+    writeModifiedAgents();
     if (emf != null) {
       emf.close();
     }
   }
 
+  /**
+   * Loads all agents from the database into memory.
+   */
+  @SuppressWarnings("unchecked")
+  protected void loadAgents() {
+    agents.clear();
+    EntityManager em = emf.createEntityManager();
+    try {
+      Query q = em.createNamedQuery("Agent.findAll");
+      for (AgentImpl agent : (List<AgentImpl>) q.getResultList()) {
+        getAgents(agent.getOrganization()).put(agent.getName(), agent);
+      }
+    } finally {
+      em.close();
+    }
+  }
+
+  /**
+   * Returns the agents of an organization.
+   * 
+   * @param organization
+   *          the organization identifier
+   * @return the agents, keyed by name
+   */
+  protected ConcurrentMap<String, AgentImpl> getAgents(String organization) {
+    ConcurrentMap<String, AgentImpl> organizationAgents = agents.get(organization);
+    if (organizationAgents == null) {
+      organizationAgents = new ConcurrentHashMap<String, AgentImpl>();
+      ConcurrentMap<String, AgentImpl> existing = agents.putIfAbsent(organization, organizationAgents);
+      if (existing != null)
+        organizationAgents = existing;
+    }
+    return organizationAgents;
+  }
+
+  /**
+   * Adds a new agent, unless an agent of the same name has been added to the organization in the meantime.
+   * 
+   * @param agent
+   *          the new agent
+   * @return the agent that is known by the agent's name after this call
+   */
+  protected AgentImpl addAgent(AgentImpl agent) {
+    AgentImpl existing = getAgents(agent.getOrganization()).putIfAbsent(agent.getName(), agent);
+    if (existing != null)
+      return existing;
+    agentModified(agent.getName(), agent.getOrganization());
+    return agent;
+  }
+
+  /**
+   * Schedules an agent to be written to the database. Modifications that happen before the agent is written are
+   * coalesced into a single write.
+   * 
+   * @param name
+   *          the agent name
+   * @param organization
+   *          the organization identifier
+   */
+  protected void agentModified(String name, String organization) {
+    if (!modifiedAgents.add(new AgentKey(name, organization)) && !agentWriteFailed)
+      return;
+    ExecutorService writer = agentWriter;
+    try {
+      if (writer != null)
+        writer.execute(writeModifiedAgents);
+    } catch (RejectedExecutionException e) {
+      // The service is being deactivated and will write the agent before it goes away
+    }
+  }
+
+  /**
+   * Writes the agents that have been modified to the database, or removes them from the database if they no longer
+   * exist. Agents that can't be written are kept and written again along with the next modification.
+   */
+  protected synchronized void writeModifiedAgents() {
+    List<AgentKey> failed = new ArrayList<AgentKey>();
+    for (Iterator<AgentKey> i = modifiedAgents.iterator(); i.hasNext();) {
+      AgentKey key = i.next();
+      i.remove();
+      AgentImpl agent = getAgent(key.name, key.organization);
+      try {
+        if (agent == null) {
+          deleteAgentFromDatabase(key.name, key.organization);
+        } else {
+          updateAgentInDatabase(copyOf(agent));
+        }
+      } catch (Exception e) {
+        logger.warn("Unable to write the state of agent '{}' to the database: {}", key.name, e);
+        failed.add(key);
+      }
+    }
+    modifiedAgents.addAll(failed);
+    agentWriteFailed = !failed.isEmpty();
+  }
+
+  /**
+   * Creates a copy of the agent that can be handed to the entity manager while the original keeps being updated.
+   * 
+   * @param agent
+   *          the agent
+   * @return the copy
+   */
+  private AgentImpl copyOf(AgentImpl agent) {
+    synchronized (agent) {
+      AgentImpl copy = new AgentImpl(agent.name, agent.organization, agent.state, agent.url, agent.getConfiguration());
+      copy.setLastHeardFrom(agent.getLastHeardFrom());
+      if (agent.getSchedulerRoles() != null)
+        copy.setSchedulerRoles(new HashSet<String>(agent.getSchedulerRoles()));
+      return copy;
+    }
+  }
+
   /**
    * Gets an agent by name, using the current user's organizational context.
    * 
@@ -151,12 +312,7 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
    * @return the agent
    */
   protected AgentImpl getAgent(String name) {
-    EntityManager em = emf.createEntityManager();
-    try {
-      return getAgent(name, securityService.getOrganization().getId(), em);
-    } finally {
-      em.close();
-    }
+    return getAgent(name, securityService.getOrganization().getId());
   }
 
   /**
@@ -169,12 +325,10 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
    * @return the agent
    */
   protected AgentImpl getAgent(String name, String org) {
-    EntityManager em = emf.createEntityManager();
-    try {
-      return getAgent(name, org, em);
-    } finally {
-      em.close();
-    }
+    if (name == null)
+      return null;
+    Map<String, AgentImpl> organizationAgents = agents.get(org);
+    return organizationAgents != null ? organizationAgents.get(name) : null;
   }
 
   /**
@@ -243,13 +397,21 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
       logger.debug("Creating Agent {} with state {}.", agentName, state);
       Organization org = securityService.getOrganization();
       AgentImpl a = new AgentImpl(agentName, org.getId(), state, "", new Properties());
-      updateAgentInDatabase(a);
-    } else {
-      // the agent is known, so set the state
-      logger.debug("Setting Agent {} to state {}.", agentName, state);
+      agent = addAgent(a);
+      if (agent == a)
+        return OK;
+    }
+
+    // the agent is known, so set the state. Only actual changes need to be written, the time the agent was last heard
+    // from is kept in memory.
+    logger.debug("Setting Agent {} to state {}.", agentName, state);
+    boolean modified = false;
+    synchronized (agent) {
+      modified = !state.equals(agent.getState());
       agent.setState(state);
-      updateAgentInDatabase(agent);
     }
+    if (modified)
+      agentModified(agent.getName(), agent.getOrganization());
 
     return OK;
   }
@@ -258,10 +420,14 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
     AgentImpl agent = getAgent(agentName);
     if (agent == null) {
       return false;
-    } else {
+    }
+    boolean modified = false;
+    synchronized (agent) {
+      modified = !StringUtils.equals(agentUrl, agent.getUrl());
       agent.setUrl(agentUrl);
-      updateAgentInDatabase(agent);
     }
+    if (modified)
+      agentModified(agent.getName(), agent.getOrganization());
     return true;
   }
 
@@ -271,11 +437,13 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
    * @see org.opencastproject.capture.admin.api.CaptureAgentStateService#removeAgent(java.lang.String)
    */
   public int removeAgent(String agentName) {
-    if (getAgent(agentName) == null) {
+    String organization = securityService.getOrganization().getId();
+    Map<String, AgentImpl> organizationAgents = agents.get(organization);
+    if (agentName == null || organizationAgents == null || organizationAgents.remove(agentName) == null) {
       return NO_SUCH_AGENT;
     } else {
       logger.debug("Removing Agent {}.", agentName);
-      deleteAgentFromDatabase(agentName);
+      agentModified(agentName, organization);
       return OK;
     }
   }
@@ -286,26 +454,27 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
    * @see org.opencastproject.capture.admin.api.CaptureAgentStateService#getKnownAgents()
    */
   public Map<String, Agent> getKnownAgents() {
-    EntityManager em = emf.createEntityManager();
     User user = securityService.getUser();
     Organization org = securityService.getOrganization();
     String orgAdmin = org.getAdminRole();
     String[] roles = user.getRoles();
-    try {
-      Query q = em.createNamedQuery("Agent.byOrganization");
-      q.setParameter("org", securityService.getOrganization().getId());
-
-      // Filter the results in memory if this user is not an administrator
-      List<AgentImpl> agents = q.getResultList();
-      if (!user.hasRole(SecurityConstants.GLOBAL_ADMIN_ROLE) && !user.hasRole(orgAdmin)) {
-        for (Iterator<AgentImpl> iter = agents.iterator(); iter.hasNext();) {
-          AgentImpl agent = iter.next();
-          Set<String> schedulerRoles = agent.getSchedulerRoles();
-          // If there are no roles associated with this capture agent, it is available to anyone who can pass the
-          // coarse-grained web layer security
-          if (schedulerRoles == null || schedulerRoles.isEmpty()) {
-            continue;
-          }
+    boolean isAdmin = user.hasRole(SecurityConstants.GLOBAL_ADMIN_ROLE) || user.hasRole(orgAdmin);
+
+    // Build the map that the API defines as agent name->agent
+    Map<String, Agent> map = new TreeMap<String, Agent>();
+    Map<String, AgentImpl> organizationAgents = agents.get(org.getId());
+    if (organizationAgents == null)
+      return map;
+    for (AgentImpl knownAgent : organizationAgents.values()) {
+      // Hand out a copy, so that the agent's state can be read without holding its lock
+      AgentImpl agent = copyOf(knownAgent);
+
+      // Filter the agents if this user is not an administrator
+      if (!isAdmin) {
+        Set<String> schedulerRoles = agent.getSchedulerRoles();
+        // If there are no roles associated with this capture agent, it is available to anyone who can pass the
+        // coarse-grained web layer security
+        if (schedulerRoles != null && !schedulerRoles.isEmpty()) {
           boolean hasSchedulerRole = false;
           for (String role : roles) {
             if (schedulerRoles.contains(role)) {
@@ -314,20 +483,13 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
             }
           }
           if (!hasSchedulerRole) {
-            iter.remove();
+            continue;
           }
         }
       }
-
-      // Build the map that the API defines as agent name->agent
-      Map<String, Agent> map = new TreeMap<String, Agent>();
-      for (AgentImpl agent : agents) {
-        map.put(agent.getName(), agent);
-      }
-      return map;
-    } finally {
-      em.close();
+      map.put(agent.getName(), agent);
     }
+    return map;
   }
 
   /**
@@ -368,11 +530,7 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
   public int setAgentConfiguration(String agentName, Properties configuration) {
 
     AgentImpl agent = getAgent(agentName);
-    if (agent != null) {
-      logger.debug("Setting Agent {}'s capabilities", agentName);
-      agent.setConfiguration(configuration);
-      updateAgentInDatabase(agent);
-    } else {
+    if (agent == null) {
       // If the agent doesn't exists, but the name is not null nor empty, create a new one.
       if (StringUtils.isBlank(agentName)) {
         logger.debug("Unable to set agent state, agent name is blank or null.");
@@ -381,19 +539,31 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
       logger.debug("Creating Agent {} with state {}.", agentName, UNKNOWN);
       Organization org = securityService.getOrganization();
       AgentImpl a = new AgentImpl(agentName, org.getId(), UNKNOWN, "", configuration);
-      updateAgentInDatabase(a);
+      agent = addAgent(a);
+      if (agent == a)
+        return OK;
+    }
+
+    logger.debug("Setting Agent {}'s capabilities", agentName);
+    boolean modified = false;
+    synchronized (agent) {
+      modified = configuration != null && !configuration.equals(agent.getConfiguration());
+      if (modified)
+        agent.setConfiguration(configuration);
     }
+    if (modified)
+      agentModified(agent.getName(), agent.getOrganization());
 
     return OK;
   }
 
   /**
-   * Updates or adds an agent to the database.
+   * Updates or adds an agent to the database. Writes are serialized, so that the same agent is never inserted twice.
    * 
    * @param agent
    *          The Agent you wish to modify or add in the database.
    */
-  protected void updateAgentInDatabase(AgentImpl agent) {
+  protected synchronized void updateAgentInDatabase(AgentImpl agent) {
     EntityManager em = emf.createEntityManager();
     EntityTransaction tx = null;
     try {
@@ -404,6 +574,7 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
         em.persist(agent);
       } else {
         existing.setConfiguration(agent.getConfiguration());
+        existing.setUrl(agent.getUrl());
         existing.setLastHeardFrom(agent.getLastHeardFrom());
         existing.setState(agent.getState());
         existing.setSchedulerRoles(agent.getSchedulerRoles());
@@ -423,14 +594,16 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
    * 
    * @param agentName
    *          The name of the agent you wish to remove.
+   * @param organization
+   *          The organization identifier
    */
-  private void deleteAgentFromDatabase(String agentName) {
+  private synchronized void deleteAgentFromDatabase(String agentName, String organization) {
     EntityManager em = emf.createEntityManager();
     EntityTransaction tx = null;
     try {
       tx = em.getTransaction();
       tx.begin();
-      Agent existing = getAgent(agentName, securityService.getOrganization().getId(), em);
+      Agent existing = getAgent(agentName, organization, em);
       if (existing != null) {
         em.remove(existing);
       }
@@ -619,27 +792,40 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
     }
     schedulerRolesConfig = schedulerRolesConfig.trim();
 
-    // If we don't already have a mapping for this PID, create one
-    if (!pidMap.containsKey(pid)) {
-      pidMap.put(pid, nameConfig);
-    }
-
+    // The configuration may move a previously configured agent to another organization
+    AgentKey previous = pidMap.put(pid, new AgentKey(nameConfig, orgConfig));
     AgentImpl agent = getAgent(nameConfig, orgConfig);
+    if (agent == null && previous != null && previous.name.equals(nameConfig))
+      agent = getAgent(previous.name, previous.organization);
+
     if (agent == null) {
-      agent = new AgentImpl(nameConfig, orgConfig, UNKNOWN, urlConfig, new Properties());
+      agent = addAgent(new AgentImpl(nameConfig, orgConfig, UNKNOWN, urlConfig, new Properties()));
     } else {
-      agent.url = urlConfig.trim();
-      agent.organization = orgConfig.trim();
-      agent.state = UNKNOWN;
-      String[] schedulerRoles = schedulerRolesConfig.split(",");
-      for (String role : schedulerRoles) {
-        agent.schedulerRoles.add(role.trim());
+      String previousOrg;
+      synchronized (agent) {
+        previousOrg = agent.organization;
+        if (!previousOrg.equals(orgConfig)) {
+          // Move the agent before its organization changes, so that it is written to the new organization and
+          // removed from the old one
+          Map<String, AgentImpl> previousOrgAgents = agents.get(previousOrg);
+          if (previousOrgAgents != null)
+            previousOrgAgents.remove(nameConfig, agent);
+          getAgents(orgConfig).put(nameConfig, agent);
+          agent.organization = orgConfig;
+        }
+        agent.url = urlConfig;
+        agent.state = UNKNOWN;
+        String[] schedulerRoles = schedulerRolesConfig.split(",");
+        for (String role : schedulerRoles) {
+          agent.schedulerRoles.add(role.trim());
+        }
       }
+      if (!previousOrg.equals(orgConfig))
+        agentModified(nameConfig, previousOrg);
+      agentModified(nameConfig, orgConfig);
     }
 
-    // Update the database
     logger.info("Roles '{}' may schedule '{}'", schedulerRolesConfig, agent.name);
-    updateAgentInDatabase(agent);
   }
 
   /**
@@ -649,11 +835,56 @@ public class CaptureAgentStateServiceImpl implements CaptureAgentStateService, M
    */
   @Override
   public void deleted(String pid) {
-    String agentId = pidMap.remove(pid);
-    if (agentId == null) {
+    AgentKey key = pidMap.remove(pid);
+    if (key == null) {
       logger.warn("{} was not a managed capture agent pid", pid);
     } else {
-      deleteAgentFromDatabase(agentId);
+      Map<String, AgentImpl> organizationAgents = agents.get(key.organization);
+      if (organizationAgents != null && organizationAgents.remove(key.name) != null)
+        agentModified(key.name, key.organization);
     }
   }
+
+  /**
+   * Identifies an agent across organizations.
+   */
+  protected static final class AgentKey {
+
+    /** The agent name */
+    private final String name;
+
+    /** The organization identifier */
+    private final String organization;
+
+    AgentKey(String name, String organization) {
+      this.name = name;
+      this.organization = organization;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof AgentKey))
+        return false;
+      AgentKey other = (AgentKey) o;
+      return name.equals(other.name) && organization.equals(other.organization);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+      return 31 * name.hashCode() + organization.hashCode();
+    }
+
+  }
 }
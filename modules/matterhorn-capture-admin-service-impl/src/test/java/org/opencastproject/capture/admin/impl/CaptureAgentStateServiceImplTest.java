@@ -47,10 +47,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.osgi.service.cm.ConfigurationException;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -75,6 +78,10 @@ public class CaptureAgentStateServiceImplTest {
   }
 
   private void setupService() throws Exception {
+    setupService(new CaptureAgentStateServiceImpl());
+  }
+
+  private void setupService(CaptureAgentStateServiceImpl service) throws Exception {
     pooledDataSource = new ComboPooledDataSource();
     pooledDataSource.setDriverClass("org.h2.Driver");
     pooledDataSource.setJdbcUrl("jdbc:h2:./target/db" + timestamp);
@@ -87,7 +94,7 @@ public class CaptureAgentStateServiceImplTest {
     props.put("eclipselink.ddl-generation", "create-tables");
     props.put("eclipselink.ddl-generation.output-mode", "database");
 
-    service = new CaptureAgentStateServiceImpl();
+    this.service = service;
     service.setPersistenceProvider(new PersistenceProvider());
     service.setPersistenceProperties(props);
 
@@ -278,6 +285,74 @@ public class CaptureAgentStateServiceImplTest {
     Assert.assertNull(service.getAgentState("sticky4"));
   }
 
+  @Test
+  public void testOnlyModificationsAreWritten() throws Exception {
+    final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+    service.deactivate();
+    pooledDataSource.close();
+    setupService(new CaptureAgentStateServiceImpl() {
+      @Override
+      protected void updateAgentInDatabase(AgentImpl agent) {
+        writes.add(agent.getState());
+        super.updateAgentInDatabase(agent);
+      }
+    });
+
+    service.setAgentState("agent1", IDLE);
+    service.setAgentConfiguration("agent1", capabilities);
+    service.writeModifiedAgents();
+    int writesAfterRegistration = writes.size();
+    Assert.assertTrue(writesAfterRegistration > 0);
+
+    // Heartbeats with an unchanged state and configuration must not hit the database
+    service.getAgentState("agent1").setLastHeardFrom(0L);
+    service.writeModifiedAgents();
+    service.setAgentState("agent1", IDLE);
+    service.setAgentConfiguration("agent1", (Properties) capabilities.clone());
+    service.writeModifiedAgents();
+    Assert.assertEquals(writesAfterRegistration, writes.size());
+    Assert.assertTrue(service.getAgentState("agent1").getLastHeardFrom() > 0L);
+
+    service.setAgentState("agent1", CAPTURING);
+    service.writeModifiedAgents();
+    Assert.assertEquals(writesAfterRegistration + 1, writes.size());
+    Assert.assertEquals(CAPTURING, writes.get(writesAfterRegistration));
+
+    // Removed agents must not come back after a restart
+    service.removeAgent("agent1");
+    service.deactivate();
+    pooledDataSource.close();
+    setupService();
+    Assert.assertNull(service.getAgentState("agent1"));
+  }
+
+  @Test
+  public void testFailedWritesAreRetried() throws Exception {
+    final boolean[] failing = new boolean[] { true };
+    service.deactivate();
+    pooledDataSource.close();
+    setupService(new CaptureAgentStateServiceImpl() {
+      @Override
+      protected void updateAgentInDatabase(AgentImpl agent) {
+        if (failing[0])
+          throw new IllegalStateException("Database is down");
+        super.updateAgentInDatabase(agent);
+      }
+    });
+
+    service.setAgentState("agent1", CAPTURING);
+    service.writeModifiedAgents();
+    Assert.assertEquals(1, service.modifiedAgents.size());
+
+    failing[0] = false;
+    service.writeModifiedAgents();
+    Assert.assertTrue(service.modifiedAgents.isEmpty());
+    service.deactivate();
+    pooledDataSource.close();
+    setupService();
+    Assert.assertEquals(CAPTURING, service.getAgentState("agent1").getState());
+  }
+
   @Test
   public void nonExistantRecording() {
     Recording recording = service.getRecordingState("doesNotExist");
@@ -388,6 +463,18 @@ public class CaptureAgentStateServiceImplTest {
     properties.put("schedulerRoles", DEFAULT_ORGANIZATION_ADMIN + ", SOME_OTHER_ROLE");
     service.updated(pid, properties);
 
+    // Moving the agent to another organization must not leave it behind in the old one
+    properties.put("organization", "other");
+    service.updated(pid, properties);
+    service.writeModifiedAgents();
+    Assert.assertNull(service.getAgent("agent1", DEFAULT_ORGANIZATION_ID));
+    Assert.assertEquals("other", service.getAgent("agent1", "other").getOrganization());
+    service.deactivate();
+    pooledDataSource.close();
+    setupService();
+    Assert.assertNull(service.getAgent("agent1", DEFAULT_ORGANIZATION_ID));
+    Assert.assertNotNull(service.getAgent("agent1", "other"));
+
     // If any of the three values are missing, we should throw
     properties.remove("id");
     try {
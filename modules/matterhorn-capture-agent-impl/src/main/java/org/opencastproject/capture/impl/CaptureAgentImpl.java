@@ -38,6 +38,7 @@ import org.opencastproject.mediapackage.MediaPackageElementFlavor;
 import org.opencastproject.mediapackage.MediaPackageException;
 import org.opencastproject.mediapackage.MediaPackageParser;
 import org.opencastproject.mediapackage.MediaPackageSerializer;
+import org.opencastproject.mediapackage.Track;
 import org.opencastproject.mediapackage.UnsupportedElementException;
 import org.opencastproject.mediapackage.track.TrackImpl;
 import org.opencastproject.security.api.TrustedHttpClient;
@@ -55,10 +56,16 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.command.CommandProcessor;
@@ -70,7 +77,10 @@ import org.quartz.impl.StdSchedulerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -78,12 +88,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Dictionary;
@@ -98,6 +113,8 @@ import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.activation.MimetypesFileTypeMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -121,6 +138,12 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
   /** The default maximum length to capture, measured in seconds. */
   public static final long DEFAULT_MAX_CAPTURE_LENGTH = 8 * CaptureParameters.HOURS;
 
+  /** The default size of the chunks used when streaming tracks to the core, measured in bytes */
+  public static final int DEFAULT_INGEST_CHUNK_SIZE = 8 * 1024 * 1024;
+
+  /** Prefix of the recording properties used to keep track of the track uploads when streaming */
+  private static final String UPLOAD_PROPERTY_PREFIX = "capture.ingest.upload.";
+
   /** The amount of time between the recording load task running, measured in seconds **/
   private static final int RECORDING_LOAD_TASK_DELAY = 60;
   
@@ -130,6 +153,9 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
   /** Keeps the recordings which have been successfully ingested. */
   private Map<String, AgentRecording> completedRecordings = new ConcurrentHashMap<String, AgentRecording>();
 
+  /** The digests of the track uploads that have been interrupted, by upload job */
+  private Map<String, TrackUpload> trackUploads = new ConcurrentHashMap<String, TrackUpload>();
+
   /** The agent's name. */
   private String agentName = null;
 
@@ -591,7 +617,9 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
           t.setSize(outputFile.length());
           String[] detectedMimeType = new MimetypesFileTypeMap().getContentType(outputFile).split("/");
           t.setMimeType(new MimeType(detectedMimeType[0], detectedMimeType[1]));
-          t.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, outputFile));
+          // When streaming, the checksum is computed while the track is being uploaded
+          if (!isStreamingIngest())
+            t.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, outputFile));
           if (recording.getProperty(CaptureParameters.RECORDING_DURATION) != null) {
             t.setDuration(Long.parseLong(recording.getProperty(CaptureParameters.RECORDING_DURATION)));
           }
@@ -689,16 +717,7 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
 
     // Now adds the files from the MediaPackage
     for (MediaPackageElement item : mpElements) {
-      File tmpFile = null;
-      String elementPath = item.getURI().getPath();
-
-      // Relative and absolute paths are mixed
-      if (elementPath.startsWith("file:") || elementPath.startsWith(File.separator)) {
-        tmpFile = new File(elementPath);
-      } else {
-        tmpFile = new File(recording.getBaseDir(), elementPath);
-      }
-
+      File tmpFile = getElementFile(recording, item);
       if (!tmpFile.isFile()) {
         // TODO: Is this really a warning or should we fail completely and return an error?
         logger.warn("Required file {} doesn't exist!", tmpFile.getAbsolutePath());
@@ -729,6 +748,26 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
 
   }
 
+  /**
+   * Returns the local file of a media package element of the recording.
+   * 
+   * @param recording
+   *          the recording
+   * @param element
+   *          the media package element
+   * @return the file
+   */
+  private File getElementFile(AgentRecording recording, MediaPackageElement element) {
+    String elementPath = element.getURI().getPath();
+
+    // Relative and absolute paths are mixed
+    if (elementPath.startsWith("file:") || elementPath.startsWith(File.separator)) {
+      return new File(elementPath);
+    } else {
+      return new File(recording.getBaseDir(), elementPath);
+    }
+  }
+
   // FIXME: Replace HTTP-based ingest with remote implementation of the Ingest Service. (jt)
   // See the ComposerServiceRemoteImpl to get an idea of the approach
   // The idea is to get the details of the HTTP interaction out of the client code
@@ -750,6 +789,9 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
       return -1;
     }
 
+    if (isStreamingIngest())
+      return streamingIngest(recording);
+
     // Find all the available ingest services
     List<ServiceRegistration> ingestServices = null;
     URL url = null;
@@ -832,6 +874,21 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
       }
     }
 
+    return ingestFinished(recording, retValue);
+  }
+
+  /**
+   * Updates the state of a recording once an ingest attempt is over and moves it to the completed recordings if the
+   * attempt was successful.
+   * 
+   * @param recording
+   *          the recording
+   * @param retValue
+   *          the result of the ingest attempt
+   * @return <code>retValue</code>
+   */
+  private int ingestFinished(AgentRecording recording, int retValue) {
+    String recID = recording.getID();
     if (retValue == HttpURLConnection.HTTP_OK) {
       setRecordingState(recID, RecordingState.UPLOAD_FINISHED);
     } else {
@@ -846,6 +903,438 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
     return retValue;
   }
 
+  /**
+   * Returns <code>true</code> if recordings are streamed to the core track by track instead of being zipped and
+   * ingested as a whole.
+   * 
+   * @return <code>true</code> if streaming ingest is enabled
+   */
+  public boolean isStreamingIngest() {
+    return configService != null && Boolean.parseBoolean(configService.getItem(CaptureParameters.INGEST_STREAMING));
+  }
+
+  /**
+   * Returns the size of the chunks used to upload tracks when streaming is enabled.
+   * 
+   * @return the chunk size in bytes
+   */
+  private int getIngestChunkSize() {
+    String chunkSize = configService.getItem(CaptureParameters.INGEST_STREAMING_CHUNK_SIZE);
+    if (StringUtils.isBlank(chunkSize))
+      return DEFAULT_INGEST_CHUNK_SIZE;
+    try {
+      int size = Integer.parseInt(chunkSize.trim());
+      if (size > 0)
+        return size;
+    } catch (NumberFormatException e) {
+      // Fall through to the default
+    }
+    logger.warn("Invalid ingest chunk size '{}', using {} bytes", chunkSize, DEFAULT_INGEST_CHUNK_SIZE);
+    return DEFAULT_INGEST_CHUNK_SIZE;
+  }
+
+  /**
+   * Streams a recording to the core. Instead of zipping the recording and sending the zip file, every track is uploaded
+   * on its own using the chunked file upload service, with the checksum being computed while the track is read for the
+   * upload. Catalogs and attachments are added using the ingest service, which is then asked to start processing the
+   * media package.
+   * <p>
+   * The upload jobs are kept in the recording's properties, so if an attempt fails, the next one resumes each upload
+   * with the first chunk that the core is missing.
+   * 
+   * @param recording
+   *          the recording
+   * @return The status code of the final ingest request, or one of the error values described in {@link #ingest(String)}
+   */
+  protected int streamingIngest(AgentRecording recording) {
+    String recID = recording.getID();
+    String ingestUrl = null;
+    String uploadUrl = null;
+    try {
+      ingestUrl = getServiceUrl("org.opencastproject.ingest");
+      uploadUrl = getServiceUrl("org.opencastproject.fileupload");
+    } catch (ServiceRegistryException e) {
+      logger.warn("Unable to ingest media because communication with the remote service registry failed.", e);
+      return -4;
+    }
+    if (ingestUrl == null || uploadUrl == null) {
+      logger.warn("Unable to ingest media because no ingest or file upload service is available");
+      return -4;
+    }
+
+    setRecordingState(recID, RecordingState.UPLOADING);
+
+    int retValue = -1;
+    try {
+      // The local media package keeps pointing to the files of the recording
+      MediaPackage mp = (MediaPackage) recording.getMediaPackage().clone();
+      for (Track track : mp.getTracks()) {
+        uploadTrack(recording, mp, track, uploadUrl);
+      }
+      mp = addElements(recording, mp, ingestUrl);
+      retValue = startProcessing(recording, mp, ingestUrl);
+    } catch (IOException e) {
+      logger.error("Unable to ingest recording {}: {}", recID, e.getMessage());
+    } catch (MediaPackageException e) {
+      logger.error("Unable to ingest recording {}, the core returned an invalid media package: {}", recID,
+              e.getMessage());
+    }
+
+    return ingestFinished(recording, retValue);
+  }
+
+  /**
+   * Returns the URL of the least loaded service of the given type.
+   * 
+   * @param serviceType
+   *          the service type
+   * @return the service URL or <code>null</code> if no such service is available
+   * @throws ServiceRegistryException
+   *           if communication with the service registry fails
+   */
+  private String getServiceUrl(String serviceType) throws ServiceRegistryException {
+    List<ServiceRegistration> services = serviceRegistry.getServiceRegistrationsByLoad(serviceType);
+    if (services.size() == 0)
+      return null;
+    ServiceRegistration service = services.get(0);
+    return UrlSupport.concat(service.getHost(), service.getPath());
+  }
+
+  /**
+   * Uploads a track in chunks, resuming the upload of a previous attempt if the core still knows about it. When this
+   * method returns, the track points to its location on the core and carries the checksum of the uploaded file.
+   * 
+   * @param recording
+   *          the recording
+   * @param mp
+   *          the media package that is being ingested
+   * @param track
+   *          the track
+   * @param uploadUrl
+   *          the url of the file upload service
+   * @throws IOException
+   *           if the track cannot be read or uploaded
+   * @throws MediaPackageException
+   *           if the core returns an invalid media package
+   */
+  private void uploadTrack(AgentRecording recording, MediaPackage mp, Track track, String uploadUrl)
+          throws IOException, MediaPackageException {
+    String property = UPLOAD_PROPERTY_PREFIX + track.getIdentifier();
+
+    // Tracks that have been uploaded by an earlier attempt just need to point to their new location
+    String uploadedUri = recording.getProperty(property + ".uri");
+    String uploadedChecksum = recording.getProperty(property + ".checksum");
+    if (uploadedUri != null && uploadedChecksum != null) {
+      track.setURI(URI.create(uploadedUri));
+      track.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, uploadedChecksum));
+      return;
+    }
+
+    File file = getElementFile(recording, track);
+    long length = file.length();
+    if (!file.isFile() || length == 0)
+      throw new IOException("Track " + file.getAbsolutePath() + " is missing or empty");
+
+    // Find out where to continue if there is an unfinished upload
+    String jobId = recording.getProperty(property + ".job");
+    int chunkSize = getIngestChunkSize();
+    long nextChunk = 0;
+    if (jobId != null) {
+      Document job = getUploadJob(uploadUrl, jobId);
+      if (job != null) {
+        chunkSize = Integer.parseInt(getUploadJobValue(job, "chunksize"));
+        nextChunk = getFirstMissingChunk(getUploadJobValue(job, "chunks-received"));
+        logger.info("Resuming upload of {} with chunk {}", file.getName(), nextChunk);
+      } else {
+        logger.info("Upload job {} is no longer known, uploading {} again", jobId, file.getName());
+        trackUploads.remove(jobId);
+        jobId = null;
+      }
+    }
+    if (jobId == null) {
+      jobId = createUploadJob(uploadUrl, file.getName(), length, chunkSize, track.getFlavor(), mp);
+      recording.setProperty(property + ".job", jobId);
+      serializeRecording(recording.getID());
+    }
+
+    long chunks = (length + chunkSize - 1) / chunkSize;
+    long offset = Math.min(nextChunk * chunkSize, length);
+    byte[] buffer = new byte[(int) Math.min(chunkSize, length)];
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      // The digest of an earlier attempt can only be used if it covers exactly what the core has received
+      TrackUpload upload = trackUploads.get(jobId);
+      if (upload == null || upload.length != offset) {
+        upload = new TrackUpload();
+        while (upload.length < offset) {
+          int read = (int) Math.min(buffer.length, offset - upload.length);
+          in.readFully(buffer, 0, read);
+          upload.digest.update(buffer, 0, read);
+          upload.length += read;
+        }
+        trackUploads.put(jobId, upload);
+      }
+
+      // Read every chunk once, digesting it as soon as the core has accepted it
+      in.seek(offset);
+      for (long chunk = nextChunk; chunk < chunks; chunk++) {
+        int read = (int) Math.min(chunkSize, length - upload.length);
+        in.readFully(buffer, 0, read);
+        uploadChunk(uploadUrl, jobId, chunk, file.getName(), buffer, read);
+        upload.digest.update(buffer, 0, read);
+        upload.length += read;
+      }
+
+      // Point the track to its new location
+      MediaPackage uploaded = MediaPackageParser.getFromXml(execute(new HttpGet(UrlSupport.concat(uploadUrl,
+              "mediapackage/" + jobId))));
+      URI uri = null;
+      for (Track t : uploaded.getTracks()) {
+        if (t.getURI().toString().contains("/" + jobId + "/"))
+          uri = t.getURI();
+      }
+      if (uri == null)
+        throw new IOException("The core did not add " + file.getName() + " to the media package");
+      Checksum checksum = Checksum.create(ChecksumType.DEFAULT_TYPE, upload.digest.digest());
+      track.setURI(uri);
+      track.setChecksum(checksum);
+      trackUploads.remove(jobId);
+
+      recording.setProperty(property + ".uri", uri.toString());
+      recording.setProperty(property + ".checksum", checksum.getValue());
+      serializeRecording(recording.getID());
+      logger.info("Uploaded {} with checksum {}", file.getName(), checksum);
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        logger.debug("Unable to close {}: {}", file, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Creates an upload job on the core.
+   * 
+   * @return the upload job identifier
+   * @throws IOException
+   *           if the job cannot be created
+   */
+  private String createUploadJob(String uploadUrl, String filename, long length, int chunkSize,
+          MediaPackageElementFlavor flavor, MediaPackage mp) throws IOException {
+    StringBuilder url = new StringBuilder(UrlSupport.concat(uploadUrl, "newjob"));
+    url.append("?filename=").append(URLEncoder.encode(filename, "UTF-8"));
+    url.append("&filesize=").append(length);
+    url.append("&chunksize=").append(chunkSize);
+    if (flavor != null)
+      url.append("&flavor=").append(URLEncoder.encode(flavor.toString(), "UTF-8"));
+    String jobId = StringUtils.trimToNull(execute(new HttpGet(url.toString())));
+    if (jobId == null)
+      throw new IOException("No upload job was created for " + filename);
+
+    // The media package tells the core where to put the file once it is complete
+    List<NameValuePair> params = new ArrayList<NameValuePair>();
+    params.add(new BasicNameValuePair("mediapackage", MediaPackageParser.getAsXml(mp)));
+    HttpPost post = new HttpPost(UrlSupport.concat(uploadUrl, "mediapackage/" + jobId));
+    post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+    execute(post);
+    return jobId;
+  }
+
+  /**
+   * Returns the state of an upload job.
+   * 
+   * @return the job document or <code>null</code> if the core does not know about the job
+   * @throws IOException
+   *           if the job cannot be retrieved
+   */
+  private Document getUploadJob(String uploadUrl, String jobId) throws IOException {
+    HttpResponse response = null;
+    try {
+      response = client.execute(new HttpGet(UrlSupport.concat(uploadUrl, "job/" + jobId + ".xml")));
+      int status = response.getStatusLine().getStatusCode();
+      if (status == HttpURLConnection.HTTP_NOT_FOUND)
+        return null;
+      else if (status != HttpURLConnection.HTTP_OK)
+        throw new IOException("Unable to get upload job " + jobId + ", the core returned status " + status);
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      return factory.newDocumentBuilder().parse(response.getEntity().getContent());
+    } catch (TrustedHttpClientException e) {
+      throw new IOException("Unable to get upload job " + jobId + ": " + e.getMessage());
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException(e);
+    } catch (SAXException e) {
+      throw new IOException("Unable to parse upload job " + jobId + ": " + e.getMessage());
+    } finally {
+      if (response != null)
+        client.close(response);
+    }
+  }
+
+  /**
+   * Returns the text of the first element with the given local name in an upload job document.
+   * 
+   * @throws IOException
+   *           if there is no such element
+   */
+  private String getUploadJobValue(Document job, String name) throws IOException {
+    NodeList nodes = job.getElementsByTagNameNS("*", name);
+    if (nodes.getLength() == 0)
+      throw new IOException("Upload job is missing '" + name + "'");
+    return nodes.item(0).getTextContent().trim();
+  }
+
+  /**
+   * Returns the first chunk that is missing from a list of received chunk ranges such as <code>0-2,4,6</code>. Chunks
+   * are sent in order, so everything from the first gap on is sent again, and chunks that the core already has are
+   * ignored by the file upload service.
+   * 
+   * @param chunksReceived
+   *          the ranges of received chunks
+   * @return the number of the first missing chunk
+   * @throws IOException
+   *           if the ranges cannot be parsed
+   */
+  static long getFirstMissingChunk(String chunksReceived) throws IOException {
+    String first = StringUtils.trimToEmpty(chunksReceived.split(",")[0]);
+    if (first.length() == 0)
+      return 0;
+    try {
+      int dash = first.indexOf('-');
+      if (Long.parseLong(dash < 0 ? first : first.substring(0, dash).trim()) != 0)
+        return 0;
+      return Long.parseLong(dash < 0 ? first : first.substring(dash + 1).trim()) + 1;
+    } catch (NumberFormatException e) {
+      throw new IOException("Upload job has invalid received chunks '" + chunksReceived + "'");
+    }
+  }
+
+  /**
+   * Sends a single chunk of a track to the core.
+   * 
+   * @throws IOException
+   *           if the chunk was not accepted
+   */
+  private void uploadChunk(String uploadUrl, String jobId, long chunk, String filename, byte[] buffer, int length)
+          throws IOException {
+    MultipartEntity entity = new MultipartEntity();
+    entity.addPart("chunknumber", new StringBody(Long.toString(chunk)));
+    entity.addPart("filedata", new InputStreamBody(new ByteArrayInputStream(buffer, 0, length), filename));
+    HttpPost post = new HttpPost(UrlSupport.concat(uploadUrl, "job/" + jobId));
+    post.setEntity(entity);
+    execute(post);
+  }
+
+  /**
+   * Adds the catalogs and attachments that are stored with the recording to the media package using the ingest
+   * service. Elements that reference remote locations are left for the ingest service to fetch.
+   * 
+   * @return the media package as returned by the ingest service
+   * @throws IOException
+   *           if an element cannot be sent
+   * @throws MediaPackageException
+   *           if the core returns an invalid media package
+   */
+  private MediaPackage addElements(AgentRecording recording, MediaPackage mp, String ingestUrl) throws IOException,
+          MediaPackageException {
+    List<MediaPackageElement> localElements = new ArrayList<MediaPackageElement>();
+    for (MediaPackageElement element : mp.getElements()) {
+      MediaPackageElement.Type type = element.getElementType();
+      if (!MediaPackageElement.Type.Catalog.equals(type) && !MediaPackageElement.Type.Attachment.equals(type))
+        continue;
+      String scheme = element.getURI().getScheme();
+      if (scheme == null || "file".equals(scheme))
+        localElements.add(element);
+    }
+    for (MediaPackageElement element : localElements) {
+      mp.remove(element);
+    }
+
+    Charset utf8 = Charset.forName("UTF-8");
+    for (MediaPackageElement element : localElements) {
+      File file = getElementFile(recording, element);
+      boolean catalog = MediaPackageElement.Type.Catalog.equals(element.getElementType());
+      MultipartEntity entity = new MultipartEntity();
+      if (element.getFlavor() != null)
+        entity.addPart("flavor", new StringBody(element.getFlavor().toString(), utf8));
+      entity.addPart("mediaPackage", new StringBody(MediaPackageParser.getAsXml(mp), utf8));
+      entity.addPart("file", new InputStreamBody(new FileInputStream(file), file.getName()));
+      HttpPost post = new HttpPost(UrlSupport.concat(ingestUrl, catalog ? "addCatalog" : "addAttachment"));
+      post.setEntity(entity);
+      mp = MediaPackageParser.getFromXml(execute(post));
+    }
+    return mp;
+  }
+
+  /**
+   * Asks the ingest service to start processing the media package.
+   * 
+   * @return the status code of the request, or <code>-1</code> if the request could not be sent
+   */
+  private int startProcessing(AgentRecording recording, MediaPackage mp, String ingestUrl) {
+    List<NameValuePair> params = new ArrayList<NameValuePair>();
+    params.add(new BasicNameValuePair("mediaPackage", MediaPackageParser.getAsXml(mp)));
+    String workflowDefinitionId = recording.getProperty(CaptureParameters.INGEST_WORKFLOW_DEFINITION);
+    if (workflowDefinitionId != null)
+      params.add(new BasicNameValuePair("workflowDefinitionId", workflowDefinitionId));
+    // The ingest service only accepts numeric workflow instance identifiers
+    try {
+      Long.parseLong(recording.getID());
+      params.add(new BasicNameValuePair("workflowInstanceId", recording.getID()));
+    } catch (NumberFormatException e) {
+      logger.debug("Not passing the non-numeric recording id {} as the workflow instance id", recording.getID());
+    }
+    for (Object o : recording.getProperties().keySet()) {
+      String key = (String) o;
+      if (key.contains("org.opencastproject.workflow.config.")) {
+        String configKey = key.replaceFirst("org\\.opencastproject\\.workflow\\.config\\.", "");
+        params.add(new BasicNameValuePair(configKey, recording.getProperty(key)));
+      }
+    }
+
+    HttpResponse response = null;
+    try {
+      HttpPost post = new HttpPost(UrlSupport.concat(ingestUrl, "ingest"));
+      post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+      response = client.execute(post);
+      return response.getStatusLine().getStatusCode();
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("This system does not support UTF-8", e);
+    } catch (TrustedHttpClientException e) {
+      logger.error("Unable to ingest recording {}, message reads: {}.", recording.getID(), e.getMessage());
+      return -1;
+    } finally {
+      if (response != null)
+        client.close(response);
+    }
+  }
+
+  /**
+   * Executes a request against the core and returns the response body.
+   * 
+   * @return the response body
+   * @throws IOException
+   *           if the request fails or does not return <code>200 OK</code>
+   */
+  private String execute(HttpUriRequest request) throws IOException {
+    HttpResponse response = null;
+    try {
+      response = client.execute(request);
+      int status = response.getStatusLine().getStatusCode();
+      if (status != HttpURLConnection.HTTP_OK)
+        throw new IOException(request.getMethod() + " " + request.getURI() + " returned status " + status);
+      if (response.getEntity() == null)
+        return null;
+      return EntityUtils.toString(response.getEntity(), "UTF-8");
+    } catch (TrustedHttpClientException e) {
+      throw new IOException(request.getMethod() + " " + request.getURI() + " failed: " + e.getMessage());
+    } finally {
+      if (response != null)
+        client.close(response);
+    }
+  }
+
   /**
    * Returns the number of captures that the capture agent is aware of that are upcoming.
    * 
@@ -1504,4 +1993,29 @@ public class CaptureAgentImpl implements CaptureAgent, StateService,  ManagedSer
       scheduler.updateCalendar();
     }
   }
+  /**
+   * The part of a track upload that has been digested so far.
+   */
+  private static final class TrackUpload {
+
+    /** The digest of the uploaded bytes */
+    private final MessageDigest digest;
+
+    /** The number of bytes in the digest */
+    private long length = 0;
+
+    /**
+     * Creates a new track upload.
+     */
+    TrackUpload() {
+      try {
+        digest = MessageDigest.getInstance(ChecksumType.DEFAULT_TYPE.getName());
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("This system does not support checksums of type "
+                + ChecksumType.DEFAULT_TYPE.getName());
+      }
+    }
+
+  }
+
 }
@@ -81,10 +81,11 @@ public class SerializeJob implements Job {
 
     logger.info("Manifest created");
 
-    // Zips files
-    ca.zipFiles(recordingID);
-
-    logger.info("Files zipped");
+    // Zips files, unless the tracks are streamed to the core one by one
+    if (!ca.isStreamingIngest()) {
+      ca.zipFiles(recordingID);
+      logger.info("Files zipped");
+    }
 
     String postfix = ctx.getMergedJobDataMap().getString(JobParameters.JOB_POSTFIX);
 
@@ -0,0 +1,329 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.capture.impl;
+
+import org.opencastproject.capture.CaptureParameters;
+import org.opencastproject.capture.admin.api.RecordingState;
+import org.opencastproject.capture.api.AgentRecording;
+import org.opencastproject.mediapackage.MediaPackage;
+import org.opencastproject.mediapackage.MediaPackageBuilderFactory;
+import org.opencastproject.mediapackage.MediaPackageElement;
+import org.opencastproject.mediapackage.MediaPackageElementBuilder;
+import org.opencastproject.mediapackage.MediaPackageElementBuilderFactory;
+import org.opencastproject.mediapackage.MediaPackageElementFlavor;
+import org.opencastproject.mediapackage.MediaPackageParser;
+import org.opencastproject.mediapackage.Track;
+import org.opencastproject.mediapackage.track.TrackImpl;
+import org.opencastproject.security.api.TrustedHttpClient;
+import org.opencastproject.security.api.TrustedHttpClientException;
+import org.opencastproject.serviceregistry.api.ServiceRegistration;
+import org.opencastproject.serviceregistry.api.ServiceRegistrationInMemoryImpl;
+import org.opencastproject.serviceregistry.api.ServiceRegistry;
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
+import org.opencastproject.util.MimeType;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests streaming a recording to a simulated core using the chunked file upload and the ingest service.
+ */
+public class StreamingIngestTest {
+
+  private static final int CHUNK_SIZE = 1000;
+
+  /** Three full chunks and a partial one */
+  private static final byte[] DATA = new byte[3 * CHUNK_SIZE + 500];
+
+  private static final String HOST = "http://localhost:8080";
+
+  private static final String JOB_ID = "job-1";
+
+  private File captureDir;
+
+  private ConfigurationManager config;
+
+  private CaptureAgentImpl agent;
+
+  private FakeCore core;
+
+  @Before
+  public void setUp() throws Exception {
+    new Random(42).nextBytes(DATA);
+    captureDir = new File("target", "streaming-ingest-test");
+    FileUtils.deleteQuietly(captureDir);
+
+    config = new ConfigurationManager();
+    config.setItem(CaptureParameters.CAPTURE_FILESYSTEM_CAPTURE_CACHE_URL, captureDir.getAbsolutePath());
+    config.setItem(CaptureParameters.INGEST_STREAMING, "true");
+    config.setItem(CaptureParameters.INGEST_STREAMING_CHUNK_SIZE, Integer.toString(CHUNK_SIZE));
+
+    ServiceRegistry serviceRegistry = EasyMock.createNiceMock(ServiceRegistry.class);
+    EasyMock.expect(serviceRegistry.getServiceRegistrationsByLoad("org.opencastproject.ingest")).andReturn(
+            registrations("org.opencastproject.ingest", "/ingest")).anyTimes();
+    EasyMock.expect(serviceRegistry.getServiceRegistrationsByLoad("org.opencastproject.fileupload")).andReturn(
+            registrations("org.opencastproject.fileupload", "/upload")).anyTimes();
+    EasyMock.replay(serviceRegistry);
+
+    core = new FakeCore();
+    agent = new CaptureAgentImpl();
+    agent.setConfigService(config);
+    agent.setServiceRegistry(serviceRegistry);
+    agent.setTrustedClient(core);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(captureDir);
+  }
+
+  private List<ServiceRegistration> registrations(String type, String path) {
+    List<ServiceRegistration> registrations = new ArrayList<ServiceRegistration>();
+    registrations.add(new ServiceRegistrationInMemoryImpl(type, HOST, path, false));
+    return registrations;
+  }
+
+  /**
+   * Creates a recording with a single track that is ready to be ingested.
+   */
+  private void createRecording(String id) throws Exception {
+    agent.setRecordingState(id, RecordingState.MANIFEST_FINISHED);
+    AgentRecording recording = agent.getKnownRecordings().get(id);
+    File file = new File(recording.getBaseDir(), "track.mov");
+    FileUtils.writeByteArrayToFile(file, DATA);
+    MediaPackageElementBuilder builder = MediaPackageElementBuilderFactory.newInstance().newElementBuilder();
+    TrackImpl track = (TrackImpl) builder.elementFromURI(file.toURI(), MediaPackageElement.Type.Track,
+            MediaPackageElementFlavor.parseFlavor("presenter/source"));
+    track.setSize(file.length());
+    track.setMimeType(new MimeType("video", "quicktime"));
+    recording.getMediaPackage().add(track);
+  }
+
+  /**
+   * Asserts that the core received the track and was asked to process a media package pointing to it.
+   */
+  private void assertIngested() throws Exception {
+    Assert.assertTrue(Arrays.equals(DATA, core.payload));
+    Assert.assertNotNull(core.ingestParams);
+    MediaPackage mp = MediaPackageParser.getFromXml(core.ingestParams.get("mediaPackage"));
+    Track[] tracks = mp.getTracks();
+    Assert.assertEquals(1, tracks.length);
+    Assert.assertTrue(tracks[0].getURI().toString().contains("/" + JOB_ID + "/"));
+    Checksum checksum = Checksum.create(ChecksumType.DEFAULT_TYPE,
+            new File(captureDir, core.recordingId + File.separator + "track.mov"));
+    Assert.assertEquals(checksum, tracks[0].getChecksum());
+  }
+
+  @Test
+  public void testChunkedUpload() throws Exception {
+    createRecording("42");
+    core.recordingId = "42";
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, agent.ingest("42"));
+    Assert.assertEquals(Arrays.asList(0L, 1L, 2L, 3L), core.chunksSent);
+    assertIngested();
+
+    // Numeric recording identifiers are passed on as workflow instance identifiers
+    Assert.assertEquals("42", core.ingestParams.get("workflowInstanceId"));
+    Assert.assertEquals(RecordingState.UPLOAD_FINISHED, agent.getRecordingState("42").getState());
+  }
+
+  @Test
+  public void testUploadIsResumedWithFirstMissingChunk() throws Exception {
+    createRecording("UnitTest");
+    core.recordingId = "UnitTest";
+    core.failingChunk = 2;
+    Assert.assertFalse(HttpURLConnection.HTTP_OK == agent.ingest("UnitTest"));
+    Assert.assertEquals(RecordingState.UPLOAD_ERROR, agent.getRecordingState("UnitTest").getState());
+    Assert.assertEquals(Arrays.asList(0L, 1L, 2L), core.chunksSent);
+    Assert.assertNull(core.ingestParams);
+
+    // The core reports the failed chunk as the current one, but the upload continues with the missing chunk
+    core.chunksSent.clear();
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, agent.ingest("UnitTest"));
+    Assert.assertEquals(Arrays.asList(2L, 3L), core.chunksSent);
+    Assert.assertEquals(1, core.jobsCreated);
+    assertIngested();
+
+    // The ingest service refuses workflow instance identifiers that are not numeric
+    Assert.assertFalse(core.ingestParams.containsKey("workflowInstanceId"));
+  }
+
+  @Test
+  public void testFirstMissingChunk() throws Exception {
+    Assert.assertEquals(0, CaptureAgentImpl.getFirstMissingChunk(""));
+    Assert.assertEquals(1, CaptureAgentImpl.getFirstMissingChunk("0"));
+    Assert.assertEquals(3, CaptureAgentImpl.getFirstMissingChunk("0-2,4,6"));
+    Assert.assertEquals(0, CaptureAgentImpl.getFirstMissingChunk("3-5"));
+    try {
+      CaptureAgentImpl.getFirstMissingChunk("zero");
+      Assert.fail("Invalid chunk ranges must be reported");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Simulates the file upload and the ingest service of a core.
+   */
+  private static final class FakeCore implements TrustedHttpClient {
+
+    private final String uploadUrl = HOST + "/upload/";
+    private final String ingestUrl = HOST + "/ingest/";
+
+    /** The recording being ingested */
+    private String recordingId = null;
+
+    /** The chunk to fail once, or <code>-1</code> */
+    private long failingChunk = -1;
+
+    private int jobsCreated = 0;
+    private final List<Long> chunksSent = new ArrayList<Long>();
+    private final BitSet chunksReceived = new BitSet();
+    private long currentChunk = 0;
+    private final byte[] payload = new byte[DATA.length];
+
+    /** The parameters of the request to start processing */
+    private Map<String, String> ingestParams = null;
+
+    public HttpResponse execute(HttpUriRequest request) throws TrustedHttpClientException {
+      String uri = request.getURI().toString();
+      try {
+        if (uri.startsWith(uploadUrl + "newjob")) {
+          jobsCreated++;
+          return response(HttpURLConnection.HTTP_OK, JOB_ID);
+        } else if (uri.equals(uploadUrl + "mediapackage/" + JOB_ID) && request instanceof HttpPost) {
+          return response(HttpURLConnection.HTTP_OK, null);
+        } else if (uri.equals(uploadUrl + "mediapackage/" + JOB_ID)) {
+          return response(HttpURLConnection.HTTP_OK, getMediaPackage());
+        } else if (uri.equals(uploadUrl + "job/" + JOB_ID + ".xml")) {
+          return response(HttpURLConnection.HTTP_OK, getJob());
+        } else if (uri.equals(uploadUrl + "job/" + JOB_ID)) {
+          return acceptChunk((HttpPost) request);
+        } else if (uri.equals(ingestUrl + "ingest")) {
+          ingestParams = new HashMap<String, String>();
+          for (NameValuePair param : URLEncodedUtils.parse(((HttpPost) request).getEntity()))
+            ingestParams.put(param.getName(), param.getValue());
+          return response(HttpURLConnection.HTTP_OK, null);
+        }
+        return response(HttpURLConnection.HTTP_NOT_FOUND, null);
+      } catch (Exception e) {
+        throw new TrustedHttpClientException(e);
+      }
+    }
+
+    public HttpResponse execute(HttpUriRequest request, int connectionTimeout, int socketTimeout)
+            throws TrustedHttpClientException {
+      return execute(request);
+    }
+
+    public <T> T execute(HttpUriRequest request, ResponseHandler<T> responseHandler)
+            throws TrustedHttpClientException {
+      throw new UnsupportedOperationException();
+    }
+
+    public <T> T execute(HttpUriRequest request, ResponseHandler<T> responseHandler, int connectionTimeout,
+            int socketTimeout) throws TrustedHttpClientException {
+      throw new UnsupportedOperationException();
+    }
+
+    public void close(HttpResponse response) {
+    }
+
+    private HttpResponse response(int status, String body) throws IOException {
+      HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+      if (body != null)
+        response.setEntity(new StringEntity(body, "UTF-8"));
+      return response;
+    }
+
+    private HttpResponse acceptChunk(HttpPost post) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      post.getEntity().writeTo(out);
+      String body = new String(out.toByteArray(), "ISO-8859-1");
+      long chunk = Long.parseLong(getPart(body, "chunknumber"));
+      chunksSent.add(chunk);
+      currentChunk = chunk;
+      if (chunk == failingChunk) {
+        failingChunk = -1;
+        return response(HttpURLConnection.HTTP_INTERNAL_ERROR, null);
+      }
+      byte[] data = getPart(body, "filedata").getBytes("ISO-8859-1");
+      System.arraycopy(data, 0, payload, (int) chunk * CHUNK_SIZE, data.length);
+      chunksReceived.set((int) chunk);
+      return response(HttpURLConnection.HTTP_OK, null);
+    }
+
+    private String getPart(String body, String name) {
+      int start = body.indexOf("\r\n\r\n", body.indexOf("name=\"" + name + "\"")) + 4;
+      return body.substring(start, body.indexOf("\r\n--", start));
+    }
+
+    private String getJob() {
+      StringBuilder ranges = new StringBuilder();
+      for (int start = chunksReceived.nextSetBit(0); start >= 0; start = chunksReceived.nextSetBit(start)) {
+        int end = chunksReceived.nextClearBit(start) - 1;
+        if (ranges.length() > 0)
+          ranges.append(',');
+        ranges.append(start);
+        if (end > start)
+          ranges.append('-').append(end);
+        start = end + 1;
+      }
+      return "<uploadjob xmlns=\"http://workflow.opencastproject.org\" id=\"" + JOB_ID + "\" state=\"INPROGRESS\">"
+              + "<chunksize>" + CHUNK_SIZE + "</chunksize>" + "<current-chunk><number>" + currentChunk
+              + "</number></current-chunk>" + "<chunks-received>" + ranges + "</chunks-received></uploadjob>";
+    }
+
+    private String getMediaPackage() throws Exception {
+      MediaPackage mp = MediaPackageBuilderFactory.newInstance().newMediaPackageBuilder().createNew();
+      MediaPackageElementBuilder builder = MediaPackageElementBuilderFactory.newInstance().newElementBuilder();
+      URI uri = new URI(HOST + "/files/mediapackage/" + recordingId + "/" + JOB_ID + "/track.mov");
+      mp.add(builder.elementFromURI(uri, MediaPackageElement.Type.Track,
+              MediaPackageElementFlavor.parseFlavor("presenter/source")));
+      return MediaPackageParser.getAsXml(mp);
+    }
+
+  }
+
+}
@@ -132,6 +132,12 @@ public interface CaptureParameters {
   /** The length of time to wait until trying to ingest again after failing the number of times in INGEST_RETRY_LIMIT. **/
   String INGEST_PAUSE_TIME = "capture.ingest.pause.time";
 
+  /** Flag to stream the tracks of a recording to the core one by one instead of ingesting a zipped media package */
+  String INGEST_STREAMING = "capture.ingest.streaming";
+
+  /** The size in bytes of the chunks used to upload the tracks when streaming is enabled */
+  String INGEST_STREAMING_CHUNK_SIZE = "capture.ingest.streaming.chunksize";
+
   /** The key for the workflow definition, if any, in the capture properties attached to the iCal event */
   String INGEST_WORKFLOW_DEFINITION = "org.opencastproject.workflow.definition";
 
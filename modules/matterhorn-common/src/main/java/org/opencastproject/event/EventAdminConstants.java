@@ -32,4 +32,7 @@ public interface EventAdminConstants {
   /** The event admin topic for series ACL updates */
   String SERIES_ACL_TOPIC = "org/opencastproject/series/acl";
 
+  /** The event admin topic for changes to the search index that have become visible to searches */
+  String SEARCH_TOPIC = "org/opencastproject/search/index";
+
 }
@@ -24,9 +24,12 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This class is a utility implementation that will wait for one or more jobs to change their status to either one of:
@@ -44,7 +47,7 @@ public class JobBarrier {
   /** Default polling interval is 5 seconds */
   protected static final long DEFAULT_POLLING_INTERVAL = 5000L;
 
-  /** The service registry used to do the polling */
+  /** The service registry that is asked for the job status */
   protected ServiceRegistry serviceRegistry = null;
 
   /** Time in milliseconds between two pools for the job status */
@@ -59,6 +62,12 @@ public class JobBarrier {
   /** The status map */
   protected Result status = null;
 
+  /** Identifiers of jobs that have been reported complete but not yet looked at */
+  private final Set<Long> completedJobs = new HashSet<Long>();
+
+  /** Whether all pending jobs need to be looked at again */
+  private boolean recheck = false;
+
   /**
    * Creates a barrier without any jobs, using <code>registry</code> to poll for the outcome of the monitored jobs using
    * the default polling interval {@link #DEFAULT_POLLING_INTERVAL}. Use {@link #addJob(Job)} to add jobs to monitor.
@@ -130,6 +139,11 @@ public class JobBarrier {
    * Waits for a status change on all jobs and returns. If waiting for the status exceeds a certain limit, the method
    * returns even if some or all of the jobs are not yet finished. The same is true if at least one of the jobs fails or
    * gets stopped or deleted.
+   * <p>
+   * The barrier is notified by a monitor that is shared among all barriers waiting on the same registry, and asks the
+   * registry for the status of a job as soon as it has been reported as complete. Since a registry only reports the
+   * jobs that have been completed through it, while jobs may also be completed through other nodes sharing the same
+   * database, the barrier still looks at all of its jobs every {@link #pollingInterval} milliseconds.
    * 
    * @param timeout
    *          the maximum amount of time to wait
@@ -139,20 +153,164 @@ public class JobBarrier {
   public Result waitForJobs(long timeout) throws IllegalStateException {
     if (jobs.size() == 0)
       throw new IllegalArgumentException("No jobs have been submitted");
+
+    long endTime = 0;
+    if (timeout > 0) {
+      endTime = System.currentTimeMillis() + timeout;
+    }
+
+    Map<Job, Job.Status> status = new HashMap<Job, Job.Status>();
+    List<Job> pendingJobs = new ArrayList<Job>(jobs);
     synchronized (this) {
-      JobStatusUpdater updater = new JobStatusUpdater(timeout);
-      try {
-        updater.start();
-        wait();
-      } catch (InterruptedException e) {
-        logger.debug("Interrupted while waiting for job");
+      completedJobs.clear();
+      recheck = false;
+    }
+
+    // Subscribe before looking at the jobs, so that no completion is missed
+    JobCompletionMonitor monitor = JobCompletionMonitor.subscribe(serviceRegistry, this);
+    try {
+      boolean failedOrDeleted = updateStatus(new ArrayList<Job>(pendingJobs), pendingJobs, status);
+      while (!pendingJobs.isEmpty() && !failedOrDeleted && pollingException == null) {
+        List<Job> candidates = waitForCompletions(pendingJobs, endTime);
+        if (candidates == null)
+          break;
+        failedOrDeleted = updateStatus(candidates, pendingJobs, status);
       }
+    } finally {
+      monitor.unsubscribe(this);
     }
+
+    setStatus(new Result(status));
     if (pollingException != null)
       throw new IllegalStateException(pollingException);
     return getStatus();
   }
 
+  /**
+   * Waits until at least one of the pending jobs has been reported complete, or until the jobs need to be looked at
+   * again because the polling interval has passed or the completion monitor has lost track of completions.
+   * 
+   * @param pendingJobs
+   *          the jobs that are not finished yet
+   * @param endTime
+   *          the time when to stop waiting, or <code>0</code> to wait as long as it takes
+   * @return the jobs to look at, or <code>null</code> if the barrier timed out or was interrupted
+   */
+  private synchronized List<Job> waitForCompletions(List<Job> pendingJobs, long endTime) {
+    long pollTime = System.currentTimeMillis() + Math.max(1, pollingInterval);
+    while (true) {
+      if (recheck) {
+        recheck = false;
+        completedJobs.clear();
+        return new ArrayList<Job>(pendingJobs);
+      }
+
+      List<Job> candidates = new ArrayList<Job>();
+      for (Job job : pendingJobs) {
+        if (completedJobs.contains(job.getId()))
+          candidates.add(job);
+      }
+      completedJobs.clear();
+      if (!candidates.isEmpty())
+        return candidates;
+
+      long time = System.currentTimeMillis();
+      if (endTime > 0 && endTime <= time)
+        return null;
+      if (pollTime <= time) {
+        recheck = true;
+        continue;
+      }
+      long waitTime = pollTime - time;
+      if (endTime > 0)
+        waitTime = Math.min(waitTime, endTime - time);
+
+      try {
+        wait(waitTime);
+      } catch (InterruptedException e) {
+        logger.debug("Interrupted while waiting for job");
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Asks the service registry for the status of the given jobs and records those that have reached a final state.
+   * 
+   * @param candidates
+   *          the jobs to look at
+   * @param pendingJobs
+   *          the jobs that are not finished yet, finished jobs are removed
+   * @param status
+   *          the outcome of the finished jobs
+   * @return <code>true</code> if at least one of the jobs failed or was deleted
+   */
+  private boolean updateStatus(List<Job> candidates, List<Job> pendingJobs, Map<Job, Job.Status> status) {
+    boolean failedOrDeleted = false;
+    for (Job job : candidates) {
+      try {
+        Job processedJob = serviceRegistry.getJob(job.getId());
+        Job.Status jobStatus = processedJob.getStatus();
+        switch (jobStatus) {
+          case DELETED:
+          case FAILED:
+            failedOrDeleted = true;
+            break;
+          case FINISHED:
+            break;
+          case INSTANTIATED:
+          case PAUSED:
+          case QUEUED:
+          case DISPATCHING:
+          case RUNNING:
+            logger.trace("Job {} is still in the works", job);
+            continue;
+          default:
+            logger.error("Unhandled job status '{}' found", jobStatus);
+            continue;
+        }
+
+        // The job is done
+        job.setStatus(jobStatus);
+        job.setPayload(processedJob.getPayload());
+        status.put(job, jobStatus);
+        pendingJobs.remove(job);
+
+      } catch (NotFoundException e) {
+        pollingException = e;
+        break;
+      } catch (ServiceRegistryException e) {
+        logger.warn("Error polling service registry {} for job {}: {}", new Object[] { serviceRegistry, job,
+                e.getMessage() });
+      } catch (Throwable t) {
+        logger.error("An unexpected error occured while waiting for jobs", t);
+        pollingException = t;
+        break;
+      }
+    }
+    return failedOrDeleted;
+  }
+
+  /**
+   * Called by the completion monitor when jobs have reached a final state.
+   * 
+   * @param ids
+   *          identifiers of the completed jobs
+   */
+  synchronized void jobsCompleted(Collection<Long> ids) {
+    completedJobs.addAll(ids);
+    notifyAll();
+  }
+
+  /**
+   * Called by the completion monitor when completions may have been missed and the jobs need to be looked at again.
+   */
+  synchronized void recheckJobs() {
+    recheck = true;
+    notifyAll();
+  }
+
   /**
    * Adds the job to the list of jobs to wait for. An {@link IllegalStateException} is thrown if the barrier has already
    * been asked to wait for jobs by calling {@link #waitForJobs()}.
@@ -187,136 +345,6 @@ public class JobBarrier {
     return status;
   }
 
-  /**
-   * Thread that keeps polling for status changes.
-   */
-  class JobStatusUpdater extends Thread {
-
-    /** Maximum wait in milliseconds or 0 for unlimited waiting */
-    private long workTime = 0;
-
-    /**
-     * Creates a new status updater that will wait for finished jobs. If <code>0</code> is passed in as the work time,
-     * the updater will wait as long as it takes. Otherwise, it will stop after the indicated amount of time has passed.
-     * 
-     * @param workTime
-     *          the work time
-     */
-    JobStatusUpdater(long workTime) {
-      this.workTime = workTime;
-    }
-
-    /**
-     * {@inheritDoc}
-     * 
-     * @see java.lang.Thread#run()
-     */
-    @Override
-    public void run() {
-
-      long endTime = 0;
-      if (workTime > 0) {
-        endTime = System.currentTimeMillis() + workTime;
-      }
-
-      while (true) {
-        boolean allDone = true;
-        boolean failedOrDeleted = false;
-        Map<Job, Job.Status> status = new HashMap<Job, Job.Status>();
-
-        long time = System.currentTimeMillis();
-
-        // Wait a little..
-        try {
-          long timeToSleep = Math.min(pollingInterval, Math.abs(endTime - time));
-          Thread.sleep(timeToSleep);
-        } catch (InterruptedException e) {
-          logger.debug("Job polling thread was interrupted");
-          return;
-        }
-
-        // Look at all jobs and make sure all of them have reached the expected status
-        for (Job job : jobs) {
-
-          // Don't ask if we already know
-          if (status.containsKey(job))
-            continue;
-
-          boolean jobFinished = false;
-
-          // Get the job status from the service registry
-          try {
-            Job processedJob = serviceRegistry.getJob(job.getId());
-            Job.Status jobStatus = processedJob.getStatus();
-            switch (jobStatus) {
-              case DELETED:
-              case FAILED:
-                failedOrDeleted = true;
-                jobFinished = true;
-                break;
-              case FINISHED:
-                jobFinished = true;
-                break;
-              case PAUSED:
-              case QUEUED:
-              case DISPATCHING:
-              case RUNNING:
-                logger.trace("Job {} is still in the works", JobBarrier.this);
-                allDone = false;
-                if (workTime == 0 || endTime < time)
-                  continue;
-                break;
-              default:
-                logger.error("Unhandled job status '{}' found", jobStatus);
-                break;
-            }
-
-            // Are we done with this job?
-            if (jobFinished) {
-              job.setStatus(jobStatus);
-              job.setPayload(processedJob.getPayload());
-              status.put(job, jobStatus);
-            }
-
-          } catch (NotFoundException e) {
-            pollingException = e;
-            break;
-          } catch (ServiceRegistryException e) {
-            logger.warn("Error polling service registry {} for job {}: {}", new Object[] { serviceRegistry,
-                    JobBarrier.this, e.getMessage() });
-          } catch (Throwable t) {
-            logger.error("An unexpected error occured while waiting for jobs", t);
-            pollingException = t;
-            updateAndNotify(status);
-            return;
-          }
-
-        }
-
-        // Are we done already?
-        if (allDone || failedOrDeleted || endTime >= time) {
-          updateAndNotify(status);
-          return;
-        }
-
-      }
-    }
-
-    /**
-     * Notifies listeners about the status change.
-     * 
-     * @param status
-     *          the status
-     */
-    private void updateAndNotify(Map<Job, Job.Status> status) {
-      JobBarrier.this.setStatus(new Result(status));
-      synchronized (JobBarrier.this) {
-        JobBarrier.this.notifyAll();
-      }
-    }
-
-  }
-
   /**
    * Result of a waiting operation on a certain number of jobs.
    */
@@ -0,0 +1,250 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.job.api;
+
+import org.opencastproject.serviceregistry.api.ServiceRegistry;
+import org.opencastproject.serviceregistry.api.ServiceRegistryException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Follows the job completions of a service registry on behalf of all {@link JobBarrier}s waiting on that registry, so
+ * that a single thread per registry is waiting for jobs rather than one polling thread per barrier.
+ * <p>
+ * If the registry is unable to report completions, the monitor is flagged as unavailable and the barriers fall back to
+ * polling for the status of their jobs.
+ */
+final class JobCompletionMonitor implements Runnable {
+
+  /** The logging facility */
+  private static final Logger logger = LoggerFactory.getLogger(JobCompletionMonitor.class);
+
+  /** Time in milliseconds that a single request for completions is held open by the registry */
+  static final long COMPLETIONS_TIMEOUT = 20000L;
+
+  /** Time in milliseconds to wait before asking a failing registry again */
+  static final long RETRY_INTERVAL = 5000L;
+
+  /** The monitors per service registry, also guarding the state of the individual monitors */
+  private static final Map<ServiceRegistry, JobCompletionMonitor> monitors = new IdentityHashMap<ServiceRegistry, JobCompletionMonitor>();
+
+  /** The registry that is being followed */
+  private final ServiceRegistry registry;
+
+  /** The barriers currently waiting on this registry */
+  private final Set<JobBarrier> barriers = new HashSet<JobBarrier>();
+
+  /** Whether the monitoring thread is running */
+  private boolean running = false;
+
+  /** Whether completions are currently being received from the registry */
+  private volatile boolean available = false;
+
+  /** The position in the registry's completion log, or <code>-1</code> if not subscribed */
+  private long position = -1;
+
+  /**
+   * Creates a monitor for the given registry.
+   * 
+   * @param registry
+   *          the service registry
+   */
+  private JobCompletionMonitor(ServiceRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * Registers the barrier with the monitor of <code>registry</code>. When this method returns, every job that reaches a
+   * final state from now on will be reported to the barrier, unless the monitor is {@link #isAvailable() unavailable}.
+   * 
+   * @param registry
+   *          the service registry
+   * @param barrier
+   *          the barrier
+   * @return the monitor
+   */
+  static JobCompletionMonitor subscribe(ServiceRegistry registry, JobBarrier barrier) {
+    JobCompletionMonitor monitor = null;
+    synchronized (monitors) {
+      monitor = monitors.get(registry);
+      if (monitor == null) {
+        monitor = new JobCompletionMonitor(registry);
+        monitors.put(registry, monitor);
+      }
+      monitor.barriers.add(barrier);
+    }
+    monitor.start();
+    return monitor;
+  }
+
+  /**
+   * Removes the barrier from the list of barriers that are notified about completions.
+   * 
+   * @param barrier
+   *          the barrier
+   */
+  void unsubscribe(JobBarrier barrier) {
+    synchronized (monitors) {
+      barriers.remove(barrier);
+      if (barriers.isEmpty() && !running && monitors.get(registry) == this)
+        monitors.remove(registry);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the registry is reporting completions. Otherwise, the barriers need to poll.
+   * 
+   * @return <code>true</code> if completions are being received
+   */
+  boolean isAvailable() {
+    return available;
+  }
+
+  /**
+   * Subscribes to the registry's completion log and starts the monitoring thread unless it is running already.
+   */
+  private synchronized void start() {
+    synchronized (monitors) {
+      if (running)
+        return;
+    }
+    JobCompletions completions = null;
+    try {
+      completions = registry.getJobCompletions(-1, 0);
+    } catch (ServiceRegistryException e) {
+      logger.debug("Unable to follow job completions of {}: {}", registry, e.getMessage());
+    }
+    if (completions == null) {
+      logger.debug("Service registry {} is not reporting job completions, falling back to polling", registry);
+      available = false;
+      return;
+    }
+    position = completions.getPosition();
+    available = true;
+    synchronized (monitors) {
+      running = true;
+    }
+    Thread thread = new Thread(this, "Job completion monitor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        synchronized (monitors) {
+          if (barriers.isEmpty()) {
+            running = false;
+            if (monitors.get(registry) == this)
+              monitors.remove(registry);
+            return;
+          }
+        }
+        poll();
+      }
+    } finally {
+      synchronized (monitors) {
+        running = false;
+      }
+      if (available) {
+        available = false;
+        recheck();
+      }
+    }
+  }
+
+  /**
+   * Asks the registry for new completions and hands them to the barriers.
+   */
+  private void poll() {
+    JobCompletions completions = null;
+    try {
+      completions = registry.getJobCompletions(position, position < 0 ? 0 : COMPLETIONS_TIMEOUT);
+    } catch (ServiceRegistryException e) {
+      logger.debug("Error following job completions of {}: {}", registry, e.getMessage());
+    }
+
+    // Let the barriers poll until the registry is back
+    if (completions == null) {
+      position = -1;
+      if (available) {
+        logger.info("Lost track of job completions of {}, falling back to polling", registry);
+        available = false;
+        recheck();
+      }
+      try {
+        Thread.sleep(RETRY_INTERVAL);
+      } catch (InterruptedException e) {
+        logger.debug("Job completion monitor was interrupted");
+      }
+      return;
+    }
+
+    // If there is a gap in what we know, the barriers need to look at their jobs again
+    boolean resubscribed = position < 0;
+    position = completions.getPosition();
+    available = true;
+    if (resubscribed || !completions.isComplete()) {
+      recheck();
+      return;
+    }
+
+    if (completions.getCompletions().isEmpty())
+      return;
+    Set<Long> ids = new HashSet<Long>();
+    for (JobCompletions.Completion completion : completions.getCompletions()) {
+      ids.add(completion.getId());
+    }
+    for (JobBarrier barrier : getBarriers()) {
+      barrier.jobsCompleted(ids);
+    }
+  }
+
+  /**
+   * Tells all barriers to look at the status of their jobs.
+   */
+  private void recheck() {
+    for (JobBarrier barrier : getBarriers()) {
+      barrier.recheckJobs();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the barriers waiting on this registry.
+   * 
+   * @return the barriers
+   */
+  private List<JobBarrier> getBarriers() {
+    synchronized (monitors) {
+      return new ArrayList<JobBarrier>(barriers);
+    }
+  }
+
+}
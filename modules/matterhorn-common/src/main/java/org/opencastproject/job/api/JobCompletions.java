@@ -0,0 +1,155 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.job.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * An excerpt of the service registry's log of jobs that reached a final state, i.e. {@link Job.Status#FINISHED},
+ * {@link Job.Status#FAILED} or {@link Job.Status#DELETED}.
+ * <p>
+ * Each excerpt carries the log position up to which it is valid, which is to be passed in when asking for the next
+ * excerpt. If the log no longer reaches back to the requested position, the excerpt is marked as being incomplete, and
+ * clients need to look up the status of the jobs they are interested in themselves.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlType(name = "completions", namespace = "http://job.opencastproject.org")
+@XmlRootElement(name = "completions", namespace = "http://job.opencastproject.org")
+public class JobCompletions {
+
+  /** The log position this excerpt reaches up to */
+  @XmlAttribute(name = "position")
+  protected long position = 0;
+
+  /** Whether the excerpt contains all completions since the requested position */
+  @XmlAttribute(name = "complete")
+  protected boolean complete = true;
+
+  /** The completed jobs */
+  @XmlElement(name = "job")
+  protected List<Completion> completions = new ArrayList<Completion>();
+
+  /** No-arg constructor needed by JAXB */
+  public JobCompletions() {
+  }
+
+  /**
+   * Creates a new excerpt of the completion log.
+   * 
+   * @param position
+   *          the log position this excerpt reaches up to
+   * @param complete
+   *          <code>true</code> if the excerpt contains all completions since the requested position
+   */
+  public JobCompletions(long position, boolean complete) {
+    this.position = position;
+    this.complete = complete;
+  }
+
+  /**
+   * Returns the log position to pass in when asking for the next excerpt.
+   * 
+   * @return the position
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Returns <code>false</code> if jobs may have been completed since the requested position without being part of this
+   * excerpt.
+   * 
+   * @return <code>true</code> if the excerpt is complete
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Returns the completed jobs.
+   * 
+   * @return the completions
+   */
+  public List<Completion> getCompletions() {
+    return completions;
+  }
+
+  /**
+   * Adds a completed job to this excerpt.
+   * 
+   * @param id
+   *          the job identifier
+   * @param status
+   *          the final job status
+   */
+  public void add(long id, Job.Status status) {
+    completions.add(new Completion(id, status));
+  }
+
+  /** A job that reached a final state */
+  @XmlAccessorType(XmlAccessType.NONE)
+  @XmlType(name = "completion", namespace = "http://job.opencastproject.org")
+  public static class Completion {
+
+    /** The job identifier */
+    @XmlAttribute(name = "id")
+    protected long id;
+
+    /** The final status */
+    @XmlAttribute(name = "status")
+    protected Job.Status status;
+
+    /** No-arg constructor needed by JAXB */
+    public Completion() {
+    }
+
+    /**
+     * Creates a new completion record.
+     * 
+     * @param id
+     *          the job identifier
+     * @param status
+     *          the final job status
+     */
+    public Completion(long id, Job.Status status) {
+      this.id = id;
+      this.status = status;
+    }
+
+    /**
+     * @return the job identifier
+     */
+    public long getId() {
+      return id;
+    }
+
+    /**
+     * @return the final job status
+     */
+    public Job.Status getStatus() {
+      return status;
+    }
+  }
+
+}
@@ -132,4 +132,24 @@ public final class JobParser {
     }
   }
 
+  /**
+   * Parses a stream representing a {@link JobCompletions} excerpt.
+   * 
+   * @param in
+   *          the serialized data
+   * @return the completions
+   */
+  public static JobCompletions parseJobCompletions(InputStream in) throws IOException {
+    Unmarshaller unmarshaller;
+    try {
+      unmarshaller = jaxbContext.createUnmarshaller();
+      return unmarshaller.unmarshal(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in),
+              JobCompletions.class).getValue();
+    } catch (Exception e) {
+      throw new IOException(e);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
 }
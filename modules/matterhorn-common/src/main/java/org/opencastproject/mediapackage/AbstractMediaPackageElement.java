@@ -89,6 +89,9 @@ public abstract class AbstractMediaPackageElement implements MediaPackageElement
   /** The parent media package */
   protected MediaPackage mediaPackage = null;
 
+  /** The indexes of the media packages that contain this element, never modified once assigned */
+  private transient volatile MediaPackageElementIndex[] indexes = null;
+
   /** The optional reference to other elements or series */
   @XmlAttribute(name = "ref")
   protected MediaPackageReference reference = null;
@@ -171,6 +174,7 @@ public abstract class AbstractMediaPackageElement implements MediaPackageElement
    */
   public void setIdentifier(String id) {
     this.id = id;
+    indexChanged();
   }
 
   /**
@@ -188,7 +192,8 @@ public abstract class AbstractMediaPackageElement implements MediaPackageElement
   public void addTag(String tag) {
     if (tag == null)
       throw new IllegalArgumentException("Tag must not be null");
-    tags.add(tag);
+    if (tags.add(tag))
+      indexChanged();
   }
 
   /**
@@ -199,7 +204,8 @@ public abstract class AbstractMediaPackageElement implements MediaPackageElement
   public void removeTag(String tag) {
     if (tag == null)
       return;
-    tags.remove(tag);
+    if (tags.remove(tag))
+      indexChanged();
   }
 
   /**
@@ -246,8 +252,10 @@ public abstract class AbstractMediaPackageElement implements MediaPackageElement
    */
   @Override
   public void clearTags() {
-    if (tags != null)
+    if (tags != null && !tags.isEmpty()) {
       tags.clear();
+      indexChanged();
+    }
   }
 
   /**
@@ -359,6 +367,7 @@ public abstract class AbstractMediaPackageElement implements MediaPackageElement
    */
   public void setFlavor(MediaPackageElementFlavor flavor) {
     this.flavor = flavor;
+    indexChanged();
   }
 
   /**
@@ -397,6 +406,69 @@ public abstract class AbstractMediaPackageElement implements MediaPackageElement
     this.mediaPackage = mediaPackage;
   }
 
+  /**
+   * Adds the index of a media package that contains this element, which is told about changes to the element's
+   * identifier, flavor and tags.
+   * <p>
+   * <b>Note</b> This method is only used by the media package and should not be called from elsewhere.
+   * 
+   * @param index
+   *          the index
+   */
+  synchronized void addIndex(MediaPackageElementIndex index) {
+    MediaPackageElementIndex[] indexes = this.indexes;
+    if (indexes == null) {
+      this.indexes = new MediaPackageElementIndex[] { index };
+      return;
+    }
+    for (MediaPackageElementIndex i : indexes) {
+      if (i == index)
+        return;
+    }
+    MediaPackageElementIndex[] added = new MediaPackageElementIndex[indexes.length + 1];
+    System.arraycopy(indexes, 0, added, 0, indexes.length);
+    added[indexes.length] = index;
+    this.indexes = added;
+  }
+
+  /**
+   * Removes the index of a media package that no longer contains this element.
+   * <p>
+   * <b>Note</b> This method is only used by the media package and should not be called from elsewhere.
+   * 
+   * @param index
+   *          the index
+   */
+  synchronized void removeIndex(MediaPackageElementIndex index) {
+    MediaPackageElementIndex[] indexes = this.indexes;
+    if (indexes == null)
+      return;
+    for (int i = 0; i < indexes.length; i++) {
+      if (indexes[i] != index)
+        continue;
+      if (indexes.length == 1) {
+        this.indexes = null;
+      } else {
+        MediaPackageElementIndex[] removed = new MediaPackageElementIndex[indexes.length - 1];
+        System.arraycopy(indexes, 0, removed, 0, i);
+        System.arraycopy(indexes, i + 1, removed, i, indexes.length - i - 1);
+        this.indexes = removed;
+      }
+      return;
+    }
+  }
+
+  /**
+   * Tells the indexes of the containing media packages that the element's identifier, flavor or tags have changed.
+   */
+  private void indexChanged() {
+    MediaPackageElementIndex[] indexes = this.indexes;
+    if (indexes == null)
+      return;
+    for (MediaPackageElementIndex index : indexes)
+      index.changed();
+  }
+
   /**
    * @see org.opencastproject.mediapackage.MediaPackageElement#referTo(org.opencastproject.mediapackage.MediaPackage)
    */
@@ -0,0 +1,298 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.mediapackage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Secondary indexes over the elements of a media package, which allow to select elements by identifier, type, flavor
+ * and tag without looking at every single element.
+ * <p>
+ * All lists returned by the index contain the elements in the order in which they appear in the media package. They
+ * are views of the index itself, so they must neither be modified nor be handed out to callers of the media package.
+ * <p>
+ * Adding and removing elements updates the index right away. Changes to an element's identifier, flavor or tags are
+ * reported by {@link AbstractMediaPackageElement} to every media package that contains the element and cause the
+ * index to be rebuilt on the next lookup. Other element implementations can't report such changes, so they are
+ * indexed the way they were when added to the media package.
+ * <p>
+ * The index is not thread safe, it is guarded by the media package.
+ */
+final class MediaPackageElementIndex {
+
+  /** The media package elements, owned by the media package */
+  private final List<MediaPackageElement> elements;
+
+  /** The elements by identifier. If identifiers are not unique, the first element with the identifier is kept */
+  private final Map<String, MediaPackageElement> byId = new HashMap<String, MediaPackageElement>();
+
+  /** The tracks */
+  private final List<Track> tracks = new ArrayList<Track>();
+
+  /** The catalogs */
+  private final List<Catalog> catalogs = new ArrayList<Catalog>();
+
+  /** The attachments */
+  private final List<Attachment> attachments = new ArrayList<Attachment>();
+
+  /** The elements that are neither tracks, catalogs nor attachments */
+  private final List<MediaPackageElement> others = new ArrayList<MediaPackageElement>();
+
+  /** The elements by flavor */
+  private final Map<MediaPackageElementFlavor, List<MediaPackageElement>> byFlavor = new HashMap<MediaPackageElementFlavor, List<MediaPackageElement>>();
+
+  /** The elements by tag */
+  private final Map<String, List<MediaPackageElement>> byTag = new HashMap<String, List<MediaPackageElement>>();
+
+  /** Whether the index reflects the current state of the elements. Elements may report changes from any thread */
+  private volatile boolean valid = true;
+
+  /**
+   * Creates an index over the given list of elements.
+   *
+   * @param elements
+   *          the elements, which are expected to be empty and to be changed only along with a call to
+   *          {@link #added(MediaPackageElement)} or {@link #removed(MediaPackageElement)}
+   */
+  MediaPackageElementIndex(List<MediaPackageElement> elements) {
+    this.elements = elements;
+  }
+
+  /**
+   * Adds an element that has just been appended to the list of elements.
+   *
+   * @param element
+   *          the element
+   */
+  void added(MediaPackageElement element) {
+    if (element instanceof AbstractMediaPackageElement)
+      ((AbstractMediaPackageElement) element).addIndex(this);
+    if (valid)
+      index(element);
+  }
+
+  /**
+   * Removes an element that has just been removed from the list of elements.
+   *
+   * @param element
+   *          the element
+   */
+  void removed(MediaPackageElement element) {
+    if (element instanceof AbstractMediaPackageElement && !containsIdentical(elements, element))
+      ((AbstractMediaPackageElement) element).removeIndex(this);
+    if (!valid)
+      return;
+
+    String id = element.getIdentifier();
+    if (id != null && byId.get(id) == element) {
+      byId.remove(id);
+      for (MediaPackageElement e : elements) {
+        if (id.equals(e.getIdentifier())) {
+          byId.put(id, e);
+          break;
+        }
+      }
+    }
+    if (element instanceof Track)
+      removeIdentical(tracks, element);
+    else if (element instanceof Catalog)
+      removeIdentical(catalogs, element);
+    else if (element instanceof Attachment)
+      removeIdentical(attachments, element);
+    else
+      removeIdentical(others, element);
+    if (element.getFlavor() != null)
+      removeIdentical(byFlavor, element.getFlavor(), element);
+    if (element.getTags() != null) {
+      for (String tag : element.getTags())
+        removeIdentical(byTag, tag, element);
+    }
+  }
+
+  /**
+   * Tells the index that the identifier, flavor or tags of one of the elements have changed.
+   */
+  void changed() {
+    valid = false;
+  }
+
+  /**
+   * Returns the element with the given identifier.
+   *
+   * @param id
+   *          the identifier
+   * @return the element or <code>null</code>
+   */
+  MediaPackageElement getElementById(String id) {
+    validate();
+    return byId.get(id);
+  }
+
+  /**
+   * Returns the tracks.
+   *
+   * @return the tracks
+   */
+  List<Track> getTracks() {
+    validate();
+    return tracks;
+  }
+
+  /**
+   * Returns the catalogs.
+   *
+   * @return the catalogs
+   */
+  List<Catalog> getCatalogs() {
+    validate();
+    return catalogs;
+  }
+
+  /**
+   * Returns the attachments.
+   *
+   * @return the attachments
+   */
+  List<Attachment> getAttachments() {
+    validate();
+    return attachments;
+  }
+
+  /**
+   * Returns the elements that are neither tracks, catalogs nor attachments.
+   *
+   * @return the unclassified elements
+   */
+  List<MediaPackageElement> getUnclassifiedElements() {
+    validate();
+    return others;
+  }
+
+  /**
+   * Returns the elements whose flavor equals the given one.
+   *
+   * @param flavor
+   *          the flavor
+   * @return the elements
+   */
+  List<MediaPackageElement> getElementsByFlavor(MediaPackageElementFlavor flavor) {
+    validate();
+    List<MediaPackageElement> result = byFlavor.get(flavor);
+    return result != null ? result : Collections.<MediaPackageElement> emptyList();
+  }
+
+  /**
+   * Returns the elements that are tagged with the given tag.
+   *
+   * @param tag
+   *          the tag
+   * @return the elements
+   */
+  List<MediaPackageElement> getElementsByTag(String tag) {
+    validate();
+    List<MediaPackageElement> result = byTag.get(tag);
+    return result != null ? result : Collections.<MediaPackageElement> emptyList();
+  }
+
+  /**
+   * Rebuilds the index if elements have changed since it has been built.
+   */
+  private void validate() {
+    if (valid)
+      return;
+
+    // mark as valid first, so that changes reported while rebuilding are not lost
+    valid = true;
+    byId.clear();
+    tracks.clear();
+    catalogs.clear();
+    attachments.clear();
+    others.clear();
+    byFlavor.clear();
+    byTag.clear();
+    for (MediaPackageElement element : elements) {
+      index(element);
+    }
+  }
+
+  /**
+   * Adds the element to all indexes.
+   *
+   * @param element
+   *          the element
+   */
+  private void index(MediaPackageElement element) {
+    String id = element.getIdentifier();
+    if (id != null && !byId.containsKey(id))
+      byId.put(id, element);
+    if (element instanceof Track)
+      tracks.add((Track) element);
+    else if (element instanceof Catalog)
+      catalogs.add((Catalog) element);
+    else if (element instanceof Attachment)
+      attachments.add((Attachment) element);
+    else
+      others.add(element);
+    if (element.getFlavor() != null)
+      add(byFlavor, element.getFlavor(), element);
+    if (element.getTags() != null) {
+      for (String tag : element.getTags())
+        add(byTag, tag, element);
+    }
+  }
+
+  private static <K> void add(Map<K, List<MediaPackageElement>> index, K key, MediaPackageElement element) {
+    List<MediaPackageElement> list = index.get(key);
+    if (list == null) {
+      list = new ArrayList<MediaPackageElement>();
+      index.put(key, list);
+    }
+    list.add(element);
+  }
+
+  private static <K> void removeIdentical(Map<K, List<MediaPackageElement>> index, K key, MediaPackageElement element) {
+    List<MediaPackageElement> list = index.get(key);
+    if (list != null && removeIdentical(list, element) && list.isEmpty())
+      index.remove(key);
+  }
+
+  /**
+   * Removes the element itself rather than the first element that equals it, since elements that are equal to each
+   * other may still be distinct entries of the media package.
+   */
+  private static boolean removeIdentical(List<?> list, Object element) {
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i) == element) {
+        list.remove(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean containsIdentical(List<?> list, Object element) {
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i) == element)
+        return true;
+    }
+    return false;
+  }
+
+}
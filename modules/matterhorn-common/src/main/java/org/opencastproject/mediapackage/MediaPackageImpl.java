@@ -125,6 +125,9 @@ public final class MediaPackageImpl implements MediaPackage {
   /** The media package's other (uncategorized) files */
   private List<MediaPackageElement> elements = new ArrayList<MediaPackageElement>();
 
+  /** Index over the elements, guarded by the elements */
+  private MediaPackageElementIndex index = new MediaPackageElementIndex(elements);
+
   /** Number of tracks */
   private int tracks = 0;
 
@@ -264,11 +267,9 @@ public final class MediaPackageImpl implements MediaPackage {
    * @see org.opencastproject.mediapackage.MediaPackage#getElements()
    */
   public MediaPackageElement[] getElements() {
-    ArrayList<MediaPackageElement> entries = new ArrayList<MediaPackageElement>();
-    for (MediaPackageElement e : elements) {
-      entries.add(e);
+    synchronized (elements) {
+      return elements.toArray(new MediaPackageElement[elements.size()]);
     }
-    return entries.toArray(new MediaPackageElement[entries.size()]);
   }
 
   /**
@@ -295,24 +296,19 @@ public final class MediaPackageImpl implements MediaPackage {
    * @see org.opencastproject.mediapackage.MediaPackage#getElementById(java.lang.String)
    */
   public MediaPackageElement getElementById(String id) {
-    for (MediaPackageElement element : getElements()) {
-      if (id.equals(element.getIdentifier()))
-        return element;
+    synchronized (elements) {
+      return index.getElementById(id);
     }
-    return null;
   }
 
   /**
    * @see org.opencastproject.mediapackage.MediaPackage#getElementById(java.lang.String)
    */
   public MediaPackageElement[] getElementsByTag(String tag) {
-    List<MediaPackageElement> result = new ArrayList<MediaPackageElement>();
-    for (MediaPackageElement element : getElements()) {
-      if (element.containsTag(tag)) {
-        result.add(element);
-      }
+    synchronized (elements) {
+      List<MediaPackageElement> result = index.getElementsByTag(tag);
+      return result.toArray(new MediaPackageElement[result.size()]);
     }
-    return result.toArray(new MediaPackageElement[result.size()]);
   }
 
   /**
@@ -336,18 +332,24 @@ public final class MediaPackageImpl implements MediaPackage {
       }
     }
     List<MediaPackageElement> result = new ArrayList<MediaPackageElement>();
-    for (MediaPackageElement element : getElements()) {
-      boolean add = false;
-      for (String elementTag : element.getTags()) {
-        if (lose.contains(elementTag)) {
-          add = false;
-          break;
-        } else if (keep.contains(elementTag)) {
-          add = true;
+    synchronized (elements) {
+      // with a single tag to look for, only the elements that carry it need to be checked
+      Collection<MediaPackageElement> candidates = elements;
+      if (keep.size() == 1)
+        candidates = index.getElementsByTag(keep.iterator().next());
+      for (MediaPackageElement element : candidates) {
+        boolean add = false;
+        for (String elementTag : element.getTags()) {
+          if (lose.contains(elementTag)) {
+            add = false;
+            break;
+          } else if (keep.contains(elementTag)) {
+            add = true;
+          }
+        }
+        if (add) {
+          result.add(element);
         }
-      }
-      if (add) {
-        result.add(element);
       }
     }
     return result.toArray(new MediaPackageElement[result.size()]);
@@ -413,12 +415,10 @@ public final class MediaPackageImpl implements MediaPackage {
     if (flavor == null)
       throw new IllegalArgumentException("Flavor cannot be null");
 
-    List<MediaPackageElement> elements = new ArrayList<MediaPackageElement>();
-    for (MediaPackageElement element : getElements()) {
-      if (flavor.equals(element.getFlavor()))
-        elements.add(element);
+    synchronized (elements) {
+      List<MediaPackageElement> result = index.getElementsByFlavor(flavor);
+      return result.toArray(new MediaPackageElement[result.size()]);
     }
-    return elements.toArray(new MediaPackageElement[elements.size()]);
   }
 
   /**
@@ -438,11 +438,9 @@ public final class MediaPackageImpl implements MediaPackage {
    * @return <code>true</code> if the media package contains an element with this identifier
    */
   boolean contains(String identifier) {
-    for (MediaPackageElement element : getElements()) {
-      if (element.getIdentifier().equals(identifier))
-        return true;
+    synchronized (elements) {
+      return index.getElementById(identifier) != null;
     }
-    return false;
   }
 
   /**
@@ -477,9 +475,13 @@ public final class MediaPackageImpl implements MediaPackage {
    */
   public Catalog getCatalog(String catalogId) {
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e.getIdentifier().equals(catalogId) && e instanceof Catalog)
-          return (Catalog) e;
+      MediaPackageElement e = index.getElementById(catalogId);
+      if (e instanceof Catalog)
+        return (Catalog) e;
+      // identifiers are expected to be unique, but are not guaranteed to be
+      for (Catalog t : index.getCatalogs()) {
+        if (t.getIdentifier().equals(catalogId))
+          return t;
       }
     }
     return null;
@@ -491,8 +493,10 @@ public final class MediaPackageImpl implements MediaPackage {
   @XmlElementWrapper(name = "metadata")
   @XmlElement(name = "catalog")
   public Catalog[] getCatalogs() {
-    Collection<Catalog> catalogs = loadCatalogs();
-    return catalogs.toArray(new Catalog[catalogs.size()]);
+    synchronized (elements) {
+      List<Catalog> catalogs = index.getCatalogs();
+      return catalogs.toArray(new Catalog[catalogs.size()]);
+    }
   }
 
   protected void setCatalogs(Catalog[] catalogs) {
@@ -519,8 +523,8 @@ public final class MediaPackageImpl implements MediaPackage {
   public Catalog[] getCatalogsByTag(String tag) {
     List<Catalog> result = new ArrayList<Catalog>();
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Catalog && e.containsTag(tag))
+      for (MediaPackageElement e : index.getElementsByTag(tag)) {
+        if (e instanceof Catalog)
           result.add((Catalog) e);
       }
     }
@@ -534,12 +538,13 @@ public final class MediaPackageImpl implements MediaPackage {
     if (flavor == null)
       throw new IllegalArgumentException("Unable to filter by null criterion");
 
-    // Go through catalogs and remove those that don't match
-    Collection<Catalog> catalogs = loadCatalogs();
-    List<Catalog> candidates = new ArrayList<Catalog>(catalogs);
-    for (Catalog c : catalogs) {
-      if (c.getFlavor() == null || !c.getFlavor().matches(flavor)) {
-        candidates.remove(c);
+    // Go through catalogs and keep those that match, which may be due to a wildcard
+    List<Catalog> candidates = new ArrayList<Catalog>();
+    synchronized (elements) {
+      for (Catalog c : index.getCatalogs()) {
+        if (c.getFlavor() != null && c.getFlavor().matches(flavor)) {
+          candidates.add(c);
+        }
       }
     }
     return candidates.toArray(new Catalog[candidates.size()]);
@@ -563,28 +568,30 @@ public final class MediaPackageImpl implements MediaPackage {
     if (reference == null)
       throw new IllegalArgumentException("Unable to filter by null reference");
 
-    // Go through catalogs and remove those that don't match
-    Collection<Catalog> catalogs = loadCatalogs();
-    List<Catalog> candidates = new ArrayList<Catalog>(catalogs);
-    for (Catalog c : catalogs) {
-      MediaPackageReference r = c.getReference();
-      if (!reference.matches(r)) {
-        boolean indirectHit = false;
-
-        // Create a reference that will match regardless of properties
-        MediaPackageReference elementRef = new MediaPackageReferenceImpl(reference.getType(), reference.getIdentifier());
-
-        // Try to find a derived match if possible
-        while (includeDerived && r != null) {
-          if (r.matches(elementRef)) {
-            indirectHit = true;
-            break;
+    // Go through catalogs and keep those that match
+    List<Catalog> candidates = new ArrayList<Catalog>();
+    synchronized (elements) {
+      for (Catalog c : index.getCatalogs()) {
+        MediaPackageReference r = c.getReference();
+        if (!reference.matches(r)) {
+          boolean indirectHit = false;
+
+          // Create a reference that will match regardless of properties
+          MediaPackageReference elementRef = new MediaPackageReferenceImpl(reference.getType(), reference.getIdentifier());
+
+          // Try to find a derived match if possible
+          while (includeDerived && r != null) {
+            if (r.matches(elementRef)) {
+              indirectHit = true;
+              break;
+            }
+            r = getElement(r).getReference();
           }
-          r = getElement(r).getReference();
-        }
 
-        if (!indirectHit)
-          candidates.remove(c);
+          if (!indirectHit)
+            continue;
+        }
+        candidates.add(c);
       }
     }
 
@@ -601,12 +608,13 @@ public final class MediaPackageImpl implements MediaPackage {
     if (reference == null)
       throw new IllegalArgumentException("Unable to filter by null reference");
 
-    // Go through catalogs and remove those that don't match
-    Collection<Catalog> catalogs = loadCatalogs();
-    List<Catalog> candidates = new ArrayList<Catalog>(catalogs);
-    for (Catalog c : catalogs) {
-      if (!flavor.equals(c.getFlavor()) || (c.getReference() != null && !c.getReference().matches(reference))) {
-        candidates.remove(c);
+    // Go through the elements of this flavor and keep the catalogs that match
+    List<Catalog> candidates = new ArrayList<Catalog>();
+    synchronized (elements) {
+      for (MediaPackageElement c : index.getElementsByFlavor(flavor)) {
+        if (c instanceof Catalog && (c.getReference() == null || c.getReference().matches(reference))) {
+          candidates.add((Catalog) c);
+        }
       }
     }
     return candidates.toArray(new Catalog[candidates.size()]);
@@ -617,12 +625,8 @@ public final class MediaPackageImpl implements MediaPackage {
    */
   public boolean hasCatalogs() {
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Catalog)
-          return true;
-      }
+      return !index.getCatalogs().isEmpty();
     }
-    return false;
   }
 
   /**
@@ -632,9 +636,13 @@ public final class MediaPackageImpl implements MediaPackage {
    */
   public Track getTrack(String trackId) {
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e.getIdentifier().equals(trackId) && e instanceof Track)
-          return (Track) e;
+      MediaPackageElement e = index.getElementById(trackId);
+      if (e instanceof Track)
+        return (Track) e;
+      // identifiers are expected to be unique, but are not guaranteed to be
+      for (Track t : index.getTracks()) {
+        if (t.getIdentifier().equals(trackId))
+          return t;
       }
     }
     return null;
@@ -648,8 +656,10 @@ public final class MediaPackageImpl implements MediaPackage {
   @XmlElementWrapper(name = "media")
   @XmlElement(name = "track")
   public Track[] getTracks() {
-    Collection<Track> tracks = loadTracks();
-    return tracks.toArray(new Track[tracks.size()]);
+    synchronized (elements) {
+      List<Track> tracks = index.getTracks();
+      return tracks.toArray(new Track[tracks.size()]);
+    }
   }
 
   protected void setTracks(Track[] tracks) {
@@ -676,8 +686,8 @@ public final class MediaPackageImpl implements MediaPackage {
   public Track[] getTracksByTag(String tag) {
     List<Track> result = new ArrayList<Track>();
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Track && e.containsTag(tag))
+      for (MediaPackageElement e : index.getElementsByTag(tag)) {
+        if (e instanceof Track)
           result.add((Track) e);
       }
     }
@@ -693,12 +703,13 @@ public final class MediaPackageImpl implements MediaPackage {
     if (flavor == null)
       throw new IllegalArgumentException("Unable to filter by null criterion");
 
-    // Go through tracks and remove those that don't match
-    Collection<Track> tracks = loadTracks();
-    List<Track> candidates = new ArrayList<Track>(tracks);
-    for (Track a : tracks) {
-      if (!flavor.equals(a.getFlavor())) {
-        candidates.remove(a);
+    // Go through the elements of this flavor and keep the tracks
+    List<Track> candidates = new ArrayList<Track>();
+    synchronized (elements) {
+      for (MediaPackageElement e : index.getElementsByFlavor(flavor)) {
+        if (e instanceof Track) {
+          candidates.add((Track) e);
+        }
       }
     }
     return candidates.toArray(new Track[candidates.size()]);
@@ -723,28 +734,30 @@ public final class MediaPackageImpl implements MediaPackage {
     if (reference == null)
       throw new IllegalArgumentException("Unable to filter by null reference");
 
-    // Go through tracks and remove those that don't match
-    Collection<Track> tracks = loadTracks();
-    List<Track> candidates = new ArrayList<Track>(tracks);
-    for (Track t : tracks) {
-      MediaPackageReference r = t.getReference();
-      if (!reference.matches(r)) {
-        boolean indirectHit = false;
-
-        // Create a reference that will match regardless of properties
-        MediaPackageReference elementRef = new MediaPackageReferenceImpl(reference.getType(), reference.getIdentifier());
-
-        // Try to find a derived match if possible
-        while (includeDerived && r != null) {
-          if (r.matches(elementRef)) {
-            indirectHit = true;
-            break;
+    // Go through tracks and keep those that match
+    List<Track> candidates = new ArrayList<Track>();
+    synchronized (elements) {
+      for (Track t : index.getTracks()) {
+        MediaPackageReference r = t.getReference();
+        if (!reference.matches(r)) {
+          boolean indirectHit = false;
+
+          // Create a reference that will match regardless of properties
+          MediaPackageReference elementRef = new MediaPackageReferenceImpl(reference.getType(), reference.getIdentifier());
+
+          // Try to find a derived match if possible
+          while (includeDerived && r != null) {
+            if (r.matches(elementRef)) {
+              indirectHit = true;
+              break;
+            }
+            r = getElement(r).getReference();
           }
-          r = getElement(r).getReference();
-        }
 
-        if (!indirectHit)
-          candidates.remove(t);
+          if (!indirectHit)
+            continue;
+        }
+        candidates.add(t);
       }
     }
 
@@ -763,12 +776,13 @@ public final class MediaPackageImpl implements MediaPackage {
     if (reference == null)
       throw new IllegalArgumentException("Unable to filter by null reference");
 
-    // Go through tracks and remove those that don't match
-    Collection<Track> tracks = loadTracks();
-    List<Track> candidates = new ArrayList<Track>(tracks);
-    for (Track a : tracks) {
-      if (!flavor.equals(a.getFlavor()) || !reference.matches(a.getReference())) {
-        candidates.remove(a);
+    // Go through the elements of this flavor and keep the tracks that match
+    List<Track> candidates = new ArrayList<Track>();
+    synchronized (elements) {
+      for (MediaPackageElement a : index.getElementsByFlavor(flavor)) {
+        if (a instanceof Track && reference.matches(a.getReference())) {
+          candidates.add((Track) a);
+        }
       }
     }
     return candidates.toArray(new Track[candidates.size()]);
@@ -781,12 +795,8 @@ public final class MediaPackageImpl implements MediaPackage {
    */
   public boolean hasTracks() {
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Track)
-          return true;
-      }
+      return !index.getTracks().isEmpty();
     }
-    return false;
   }
 
   /**
@@ -806,11 +816,9 @@ public final class MediaPackageImpl implements MediaPackage {
   public MediaPackageElement[] getUnclassifiedElements(MediaPackageElementFlavor flavor) {
     List<MediaPackageElement> unclassifieds = new ArrayList<MediaPackageElement>();
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (!(e instanceof Attachment) && !(e instanceof Catalog) && !(e instanceof Track)) {
-          if (flavor == null || flavor.equals(e.getFlavor())) {
-            unclassifieds.add(e);
-          }
+      for (MediaPackageElement e : index.getUnclassifiedElements()) {
+        if (flavor == null || flavor.equals(e.getFlavor())) {
+          unclassifieds.add(e);
         }
       }
     }
@@ -826,11 +834,9 @@ public final class MediaPackageImpl implements MediaPackage {
     if (type == null)
       return others > 0;
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
+      for (MediaPackageElement e : index.getElementsByFlavor(type)) {
         if (!(e instanceof Attachment) && !(e instanceof Catalog) && !(e instanceof Track)) {
-          if (type.equals(e.getFlavor())) {
-            return true;
-          }
+          return true;
         }
       }
     }
@@ -864,9 +870,13 @@ public final class MediaPackageImpl implements MediaPackage {
    */
   public Attachment getAttachment(String attachmentId) {
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e.getIdentifier().equals(attachmentId) && e instanceof Attachment)
-          return (Attachment) e;
+      MediaPackageElement e = index.getElementById(attachmentId);
+      if (e instanceof Attachment)
+        return (Attachment) e;
+      // identifiers are expected to be unique, but are not guaranteed to be
+      for (Attachment t : index.getAttachments()) {
+        if (t.getIdentifier().equals(attachmentId))
+          return t;
       }
     }
     return null;
@@ -880,8 +890,10 @@ public final class MediaPackageImpl implements MediaPackage {
   @XmlElementWrapper(name = "attachments")
   @XmlElement(name = "attachment")
   public Attachment[] getAttachments() {
-    Collection<Attachment> attachments = loadAttachments();
-    return attachments.toArray(new Attachment[attachments.size()]);
+    synchronized (elements) {
+      List<Attachment> attachments = index.getAttachments();
+      return attachments.toArray(new Attachment[attachments.size()]);
+    }
   }
 
   public void setAttachments(Attachment[] catalogs) {
@@ -908,8 +920,8 @@ public final class MediaPackageImpl implements MediaPackage {
   public Attachment[] getAttachmentsByTag(String tag) {
     List<Attachment> result = new ArrayList<Attachment>();
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Attachment && e.containsTag(tag))
+      for (MediaPackageElement e : index.getElementsByTag(tag)) {
+        if (e instanceof Attachment)
           result.add((Attachment) e);
       }
     }
@@ -925,12 +937,13 @@ public final class MediaPackageImpl implements MediaPackage {
     if (flavor == null)
       throw new IllegalArgumentException("Unable to filter by null criterion");
 
-    // Go through attachments and remove those that don't match
-    Collection<Attachment> attachments = loadAttachments();
-    List<Attachment> candidates = new ArrayList<Attachment>(attachments);
-    for (Attachment a : attachments) {
-      if (!flavor.equals(a.getFlavor())) {
-        candidates.remove(a);
+    // Go through the elements of this flavor and keep the attachments
+    List<Attachment> candidates = new ArrayList<Attachment>();
+    synchronized (elements) {
+      for (MediaPackageElement e : index.getElementsByFlavor(flavor)) {
+        if (e instanceof Attachment) {
+          candidates.add((Attachment) e);
+        }
       }
     }
     return candidates.toArray(new Attachment[candidates.size()]);
@@ -956,28 +969,30 @@ public final class MediaPackageImpl implements MediaPackage {
     if (reference == null)
       throw new IllegalArgumentException("Unable to filter by null reference");
 
-    // Go through attachments and remove those that don't match
-    Collection<Attachment> attachments = loadAttachments();
-    List<Attachment> candidates = new ArrayList<Attachment>(attachments);
-    for (Attachment a : attachments) {
-      MediaPackageReference r = a.getReference();
-      if (!reference.matches(r)) {
-        boolean indirectHit = false;
-
-        // Create a reference that will match regardless of properties
-        MediaPackageReference elementRef = new MediaPackageReferenceImpl(reference.getType(), reference.getIdentifier());
-
-        // Try to find a derived match if possible
-        while (includeDerived && getElement(r) != null && r != null) {
-          if (r.matches(elementRef)) {
-            indirectHit = true;
-            break;
+    // Go through attachments and keep those that match
+    List<Attachment> candidates = new ArrayList<Attachment>();
+    synchronized (elements) {
+      for (Attachment a : index.getAttachments()) {
+        MediaPackageReference r = a.getReference();
+        if (!reference.matches(r)) {
+          boolean indirectHit = false;
+
+          // Create a reference that will match regardless of properties
+          MediaPackageReference elementRef = new MediaPackageReferenceImpl(reference.getType(), reference.getIdentifier());
+
+          // Try to find a derived match if possible
+          while (includeDerived && getElement(r) != null && r != null) {
+            if (r.matches(elementRef)) {
+              indirectHit = true;
+              break;
+            }
+            r = getElement(r).getReference();
           }
-          r = getElement(r).getReference();
-        }
 
-        if (!indirectHit)
-          candidates.remove(a);
+          if (!indirectHit)
+            continue;
+        }
+        candidates.add(a);
       }
     }
     return candidates.toArray(new Attachment[candidates.size()]);
@@ -995,12 +1010,13 @@ public final class MediaPackageImpl implements MediaPackage {
     if (reference == null)
       throw new IllegalArgumentException("Unable to filter by null reference");
 
-    // Go through attachments and remove those that don't match
-    Collection<Attachment> attachments = loadAttachments();
-    List<Attachment> candidates = new ArrayList<Attachment>(attachments);
-    for (Attachment a : attachments) {
-      if (!flavor.equals(a.getFlavor()) || !reference.matches(a.getReference())) {
-        candidates.remove(a);
+    // Go through the elements of this flavor and keep the attachments that match
+    List<Attachment> candidates = new ArrayList<Attachment>();
+    synchronized (elements) {
+      for (MediaPackageElement a : index.getElementsByFlavor(flavor)) {
+        if (a instanceof Attachment && reference.matches(a.getReference())) {
+          candidates.add((Attachment) a);
+        }
       }
     }
     return candidates.toArray(new Attachment[candidates.size()]);
@@ -1013,12 +1029,8 @@ public final class MediaPackageImpl implements MediaPackage {
    */
   public boolean hasAttachments() {
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Attachment)
-          return true;
-      }
+      return !index.getAttachments().isEmpty();
     }
-    return false;
   }
 
   /**
@@ -1199,12 +1211,14 @@ public final class MediaPackageImpl implements MediaPackage {
       throw new IllegalArgumentException("Derivate flavor cannot be null");
 
     MediaPackageReference reference = new MediaPackageReferenceImpl(sourceElement);
-    List<MediaPackageElement> elements = new ArrayList<MediaPackageElement>();
-    for (MediaPackageElement element : getElements()) {
-      if (derivateFlavor.equals(element.getFlavor()) && reference.equals(element.getReference()))
-        elements.add(element);
+    List<MediaPackageElement> derived = new ArrayList<MediaPackageElement>();
+    synchronized (elements) {
+      for (MediaPackageElement element : index.getElementsByFlavor(derivateFlavor)) {
+        if (reference.equals(element.getReference()))
+          derived.add(element);
+      }
     }
-    return elements.toArray(new MediaPackageElement[elements.size()]);
+    return derived.toArray(new MediaPackageElement[derived.size()]);
   }
 
   /**
@@ -1672,13 +1686,11 @@ public final class MediaPackageImpl implements MediaPackage {
    * @return the element
    */
   MediaPackageElement getElement(MediaPackageReference reference) {
-    if (reference == null)
+    if (reference == null || reference.getIdentifier() == null)
       return null;
-    for (MediaPackageElement e : elements) {
-      if (e.getIdentifier().equals(reference.getIdentifier()))
-        return e;
+    synchronized (elements) {
+      return index.getElementById(reference.getIdentifier());
     }
-    return null;
   }
 
   /**
@@ -1733,37 +1745,44 @@ public final class MediaPackageImpl implements MediaPackage {
     if (element == null)
       throw new IllegalArgumentException("Media package element must not be null");
     String id = null;
-    if (elements.add(element)) {
-      if (element instanceof Track) {
-        tracks++;
-        id = "track-" + tracks;
-        long duration = ((Track) element).getDuration();
-        // Todo Do not demand equal durations for now... This is an issue that has to be discussed further
-        // if (this.duration > 0 && this.duration != duration)
-        // throw new MediaPackageException("Track " + element + " cannot be added due to varying duration (" + duration
-        // +
-        // " instead of " + this.duration +")");
-        // else
-        if (this.duration < 0)
-          this.duration = duration;
-      } else if (element instanceof Attachment) {
-        attachments++;
-        id = "attachment-" + attachments;
-      } else if (element instanceof Catalog) {
-        catalogs++;
-        id = "catalog-" + catalogs;
-      } else {
-        others++;
-        id = "unknown-" + others;
+    synchronized (elements) {
+      if (elements.add(element)) {
+        if (element instanceof Track) {
+          tracks++;
+          id = "track-" + tracks;
+          long duration = ((Track) element).getDuration();
+          // Todo Do not demand equal durations for now... This is an issue that has to be discussed further
+          // if (this.duration > 0 && this.duration != duration)
+          // throw new MediaPackageException("Track " + element + " cannot be added due to varying duration (" + duration
+          // +
+          // " instead of " + this.duration +")");
+          // else
+          if (this.duration < 0)
+            this.duration = duration;
+        } else if (element instanceof Attachment) {
+          attachments++;
+          id = "attachment-" + attachments;
+        } else if (element instanceof Catalog) {
+          catalogs++;
+          id = "catalog-" + catalogs;
+        } else {
+          others++;
+          id = "unknown-" + others;
+        }
       }
-    }
 
-    // Check if element has an id
-    if (element.getIdentifier() == null) {
-      if (element instanceof AbstractMediaPackageElement) {
-        ((AbstractMediaPackageElement) element).setIdentifier(id);
-      } else
-        throw new UnsupportedElementException(element, "Found unkown element without id");
+      // Check if element has an id
+      try {
+        if (element.getIdentifier() == null) {
+          if (element instanceof AbstractMediaPackageElement) {
+            ((AbstractMediaPackageElement) element).setIdentifier(id);
+          } else
+            throw new UnsupportedElementException(element, "Found unkown element without id");
+        }
+      } finally {
+        // the element has been added in any case, so it needs to be indexed
+        index.added(element);
+      }
     }
   }
 
@@ -1776,69 +1795,22 @@ public final class MediaPackageImpl implements MediaPackage {
   void removeInternal(MediaPackageElement element) {
     if (element == null)
       throw new IllegalArgumentException("Media package element must not be null");
-    if (elements.remove(element)) {
-      if (element instanceof Track) {
-        tracks--;
-        if (tracks == 0)
-          duration = 0L;
-      } else if (element instanceof Attachment)
-        attachments--;
-      else if (element instanceof Catalog)
-        catalogs--;
-      else
-        others--;
-    }
-  }
-
-  /**
-   * Extracts the list of tracks from the media package.
-   * 
-   * @return the tracks
-   */
-  private Collection<Track> loadTracks() {
-    List<Track> tracks = new ArrayList<Track>();
     synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Track) {
-          tracks.add((Track) e);
-        }
-      }
-    }
-    return tracks;
-  }
-
-  /**
-   * Extracts the list of catalogs from the media package.
-   * 
-   * @return the catalogs
-   */
-  private Collection<Catalog> loadCatalogs() {
-    List<Catalog> catalogs = new ArrayList<Catalog>();
-    synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Catalog) {
-          catalogs.add((Catalog) e);
-        }
-      }
-    }
-    return catalogs;
-  }
-
-  /**
-   * Extracts the list of attachments from the media package.
-   * 
-   * @return the attachments
-   */
-  private Collection<Attachment> loadAttachments() {
-    List<Attachment> attachments = new ArrayList<Attachment>();
-    synchronized (elements) {
-      for (MediaPackageElement e : elements) {
-        if (e instanceof Attachment) {
-          attachments.add((Attachment) e);
-        }
+      int position = elements.indexOf(element);
+      if (position >= 0) {
+        index.removed(elements.remove(position));
+        if (element instanceof Track) {
+          tracks--;
+          if (tracks == 0)
+            duration = 0L;
+        } else if (element instanceof Attachment)
+          attachments--;
+        else if (element instanceof Catalog)
+          catalogs--;
+        else
+          others--;
       }
     }
-    return attachments;
   }
 
 }
@@ -0,0 +1,143 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.serviceregistry.api;
+
+import org.opencastproject.job.api.Job;
+import org.opencastproject.job.api.Job.Status;
+import org.opencastproject.job.api.JobCompletions;
+
+/**
+ * A bounded, in-memory log of jobs that reached a final state, which allows clients to wait for job completions
+ * instead of polling each job's status.
+ * <p>
+ * Positions in the log start at the time the log was created, so that clients holding a position obtained from a
+ * previous instance (e.g. before a restart) are told that their excerpt is incomplete.
+ */
+public class JobCompletionLog {
+
+  /** The default number of completions kept in the log */
+  public static final int DEFAULT_CAPACITY = 10000;
+
+  /** The job identifiers, used as a ring buffer */
+  private final long[] ids;
+
+  /** The final job states, used as a ring buffer */
+  private final Status[] states;
+
+  /** The position of the first entry ever written */
+  private final long start;
+
+  /** The position of the next entry */
+  private long position;
+
+  /**
+   * Creates a completion log with the default capacity.
+   */
+  public JobCompletionLog() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a completion log holding up to <code>capacity</code> entries.
+   * 
+   * @param capacity
+   *          the number of completions to keep
+   */
+  public JobCompletionLog(int capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("Capacity must be a positive number");
+    this.ids = new long[capacity];
+    this.states = new Status[capacity];
+    this.start = System.currentTimeMillis();
+    this.position = start;
+  }
+
+  /**
+   * Returns <code>true</code> if <code>status</code> is a state that a job doesn't leave anymore.
+   * 
+   * @param status
+   *          the job status
+   * @return <code>true</code> if the status is final
+   */
+  public static boolean isFinal(Status status) {
+    return Status.FINISHED.equals(status) || Status.FAILED.equals(status) || Status.DELETED.equals(status);
+  }
+
+  /**
+   * Records the job if it is in a final state and wakes up all clients waiting for completions.
+   * 
+   * @param job
+   *          the job
+   */
+  public void record(Job job) {
+    if (job == null || !isFinal(job.getStatus()))
+      return;
+    record(job.getId(), job.getStatus());
+  }
+
+  /**
+   * Records the completion of a job and wakes up all clients waiting for completions.
+   * 
+   * @param id
+   *          the job identifier
+   * @param status
+   *          the final job status
+   */
+  public synchronized void record(long id, Status status) {
+    int index = (int) (position % ids.length);
+    ids[index] = id;
+    states[index] = status;
+    position++;
+    notifyAll();
+  }
+
+  /**
+   * Returns the completions that have been recorded since <code>since</code>, waiting for up to <code>timeout</code>
+   * milliseconds if there are none yet. Passing a negative position returns an empty excerpt holding the current
+   * position, which can be used to start following the log.
+   * 
+   * @param since
+   *          the position returned by the previous call, or <code>-1</code>
+   * @param timeout
+   *          the maximum time to wait in milliseconds
+   * @return the completions
+   */
+  public synchronized JobCompletions getCompletions(long since, long timeout) {
+    if (since < 0)
+      return new JobCompletions(position, true);
+    long deadline = System.currentTimeMillis() + timeout;
+    long remaining = timeout;
+    while (since == position && remaining > 0) {
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      remaining = deadline - System.currentTimeMillis();
+    }
+    long oldest = Math.max(start, position - ids.length);
+    if (since < oldest || since > position)
+      return new JobCompletions(position, false);
+    JobCompletions completions = new JobCompletions(position, true);
+    for (long p = since; p < position; p++) {
+      int index = (int) (p % ids.length);
+      completions.add(ids[index], states[index]);
+    }
+    return completions;
+  }
+
+}
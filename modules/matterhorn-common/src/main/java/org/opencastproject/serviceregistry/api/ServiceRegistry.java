@@ -16,6 +16,7 @@
 package org.opencastproject.serviceregistry.api;
 
 import org.opencastproject.job.api.Job;
+import org.opencastproject.job.api.JobCompletions;
 import org.opencastproject.job.api.Job.Status;
 import org.opencastproject.util.NotFoundException;
 
@@ -219,6 +220,22 @@ public interface ServiceRegistry {
    */
   List<Job> getJobs(String serviceType, Status status) throws ServiceRegistryException;
 
+  /**
+   * Returns the jobs that reached a final state ({@link Status#FINISHED}, {@link Status#FAILED} or
+   * {@link Status#DELETED}) since the given position in the registry's completion log, waiting for up to
+   * <code>timeout</code> milliseconds if there are none yet. Passing a negative position returns the current position
+   * without waiting, which allows to subscribe to job completions before looking at the jobs' current status.
+   * 
+   * @param since
+   *          the position returned by the previous call, or <code>-1</code> to obtain the current position
+   * @param timeout
+   *          the maximum time to wait for completions, in milliseconds
+   * @return the completed jobs and the position to use for the next call
+   * @throws ServiceRegistryException
+   *           if there is a problem accessing the service registry
+   */
+  JobCompletions getJobCompletions(long since, long timeout) throws ServiceRegistryException;
+
   /**
    * Finds the service registrations for this kind of job, ordered by load (lightest to heaviest).
    * 
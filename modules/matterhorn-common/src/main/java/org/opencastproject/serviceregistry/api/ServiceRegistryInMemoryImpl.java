@@ -18,6 +18,7 @@ package org.opencastproject.serviceregistry.api;
 import org.opencastproject.job.api.JaxbJob;
 import org.opencastproject.job.api.Job;
 import org.opencastproject.job.api.Job.Status;
+import org.opencastproject.job.api.JobCompletions;
 import org.opencastproject.job.api.JobParser;
 import org.opencastproject.job.api.JobProducer;
 import org.opencastproject.security.api.Organization;
@@ -72,6 +73,9 @@ public class ServiceRegistryInMemoryImpl implements ServiceRegistry {
   /** The job identifier */
   protected AtomicLong idCounter = new AtomicLong();
 
+  /** The log of completed jobs */
+  protected JobCompletionLog completionLog = new JobCompletionLog();
+
   /**
    * An (optional) security service. If set to a non-null value, this will be used to obtain the current user when
    * creating new jobs.
@@ -353,6 +357,7 @@ public class ServiceRegistryInMemoryImpl implements ServiceRegistry {
         throw new IllegalStateException("Error serializing job", e);
       }
     }
+    completionLog.record(job);
     return job;
   }
 
@@ -399,6 +404,16 @@ public class ServiceRegistryInMemoryImpl implements ServiceRegistry {
     return result;
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.serviceregistry.api.ServiceRegistry#getJobCompletions(long, long)
+   */
+  @Override
+  public JobCompletions getJobCompletions(long since, long timeout) throws ServiceRegistryException {
+    return completionLog.getCompletions(since, timeout);
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -604,6 +619,7 @@ public class ServiceRegistryInMemoryImpl implements ServiceRegistry {
             } catch (IOException e) {
               throw new IllegalStateException("Error unmarshaling job", e);
             }
+            completionLog.record(job);
             securityService.setUser(null);
             securityService.setOrganization(null);
           }
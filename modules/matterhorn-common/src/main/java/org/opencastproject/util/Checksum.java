@@ -158,6 +158,20 @@ public final class Checksum implements Serializable {
     return new Checksum(value, type);
   }
 
+  /**
+   * Creates a checksum of type <code>type</code> from a digest that has already been computed, e. g. while the data was
+   * being read for another purpose.
+   *
+   * @param type
+   *          the checksum type
+   * @param digest
+   *          the digest bytes
+   * @return the checksum
+   */
+  public static Checksum create(ChecksumType type, byte[] digest) {
+    return new Checksum(convertToHex(digest), type);
+  }
+
   /**
    * Creates a checksum of type <code>type</code> from the given file.
    * 
@@ -0,0 +1,200 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.job.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.opencastproject.job.api.Job.Status;
+import org.opencastproject.serviceregistry.api.JobCompletionLog;
+import org.opencastproject.serviceregistry.api.ServiceRegistry;
+import org.opencastproject.serviceregistry.api.ServiceRegistryException;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test case for {@link JobBarrier}.
+ */
+public class JobBarrierTest {
+
+  /** The status of the jobs as known to the service registry */
+  private Map<Long, Status> jobs;
+
+  /** The completion log of the service registry */
+  private JobCompletionLog log;
+
+  /** The number of times the service registry has been asked for a job */
+  private AtomicInteger lookups;
+
+  @Before
+  public void setUp() throws Exception {
+    jobs = new ConcurrentHashMap<Long, Status>();
+    log = new JobCompletionLog();
+    lookups = new AtomicInteger();
+  }
+
+  /**
+   * Creates a service registry that knows about the jobs in {@link #jobs}.
+   * 
+   * @param reportCompletions
+   *          whether the registry reports completions from {@link #log}
+   */
+  private ServiceRegistry createServiceRegistry(final boolean reportCompletions) throws Exception {
+    ServiceRegistry registry = EasyMock.createNiceMock(ServiceRegistry.class);
+    // Requests for completions block, which must not hold up other calls
+    EasyMock.makeThreadSafe(registry, false);
+    EasyMock.expect(registry.getJob(EasyMock.anyLong())).andAnswer(new IAnswer<Job>() {
+      public Job answer() throws Throwable {
+        lookups.incrementAndGet();
+        Long id = (Long) EasyMock.getCurrentArguments()[0];
+        Job job = new JaxbJob(id);
+        job.setStatus(jobs.get(id));
+        return job;
+      }
+    }).anyTimes();
+    EasyMock.expect(registry.getJobCompletions(EasyMock.anyLong(), EasyMock.anyLong())).andAnswer(
+            new IAnswer<JobCompletions>() {
+              public JobCompletions answer() throws Throwable {
+                if (!reportCompletions)
+                  throw new ServiceRegistryException("Completions are not supported");
+                Object[] args = EasyMock.getCurrentArguments();
+                return log.getCompletions((Long) args[0], (Long) args[1]);
+              }
+            }).anyTimes();
+    EasyMock.replay(registry);
+    return registry;
+  }
+
+  private Job createJob(long id) {
+    Job job = new JaxbJob(id);
+    job.setStatus(Status.RUNNING);
+    jobs.put(id, Status.RUNNING);
+    return job;
+  }
+
+  /**
+   * Completes a job after a delay.
+   * 
+   * @param id
+   *          the job identifier
+   * @param status
+   *          the final status
+   * @param delay
+   *          the delay in milliseconds
+   * @param record
+   *          whether to report the completion to the registry's completion log
+   */
+  private void completeLater(final long id, final Status status, final long delay, final boolean record) {
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          return;
+        }
+        jobs.put(id, status);
+        if (record)
+          log.record(id, status);
+      }
+    }.start();
+  }
+
+  @Test
+  public void testNotification() throws Exception {
+    ServiceRegistry registry = createServiceRegistry(true);
+    Job job1 = createJob(1);
+    Job job2 = createJob(2);
+    createJob(3);
+    JobBarrier barrier = new JobBarrier(registry, 60000L, job1, job2);
+    completeLater(3, Status.FINISHED, 50, true);
+    completeLater(1, Status.FINISHED, 100, true);
+    completeLater(2, Status.FINISHED, 150, true);
+
+    long start = System.currentTimeMillis();
+    JobBarrier.Result result = barrier.waitForJobs(30000L);
+    assertTrue(System.currentTimeMillis() - start < 10000L);
+    assertTrue(result.isSuccess());
+    assertEquals(Status.FINISHED, result.getStatus().get(job1));
+    assertEquals(Status.FINISHED, result.getStatus().get(job2));
+    assertEquals(Status.FINISHED, job2.getStatus());
+
+    // Each job is looked at once up front, and once after it has been reported complete
+    assertEquals(4, lookups.get());
+  }
+
+  @Test
+  public void testFailedJob() throws Exception {
+    ServiceRegistry registry = createServiceRegistry(true);
+    Job job1 = createJob(1);
+    Job job2 = createJob(2);
+    JobBarrier barrier = new JobBarrier(registry, 60000L, job1, job2);
+    completeLater(1, Status.FAILED, 100, true);
+
+    JobBarrier.Result result = barrier.waitForJobs(30000L);
+    assertFalse(result.isSuccess());
+    assertEquals(Status.FAILED, result.getStatus().get(job1));
+    assertFalse(result.getStatus().containsKey(job2));
+  }
+
+  @Test
+  public void testPollingForJobsCompletedElsewhere() throws Exception {
+    // Jobs completed through another node don't show up in this registry's completion log
+    ServiceRegistry registry = createServiceRegistry(true);
+    Job job = createJob(1);
+    JobBarrier barrier = new JobBarrier(registry, 100L, job);
+    completeLater(1, Status.FINISHED, 200, false);
+
+    JobBarrier.Result result = barrier.waitForJobs();
+    assertTrue(result.isSuccess());
+    assertEquals(Status.FINISHED, result.getStatus().get(job));
+  }
+
+  @Test
+  public void testPollingWithoutCompletions() throws Exception {
+    ServiceRegistry registry = createServiceRegistry(false);
+    Job job = createJob(1);
+    JobBarrier barrier = new JobBarrier(registry, 100L, job);
+    completeLater(1, Status.FINISHED, 200, false);
+
+    JobBarrier.Result result = barrier.waitForJobs(30000L);
+    assertTrue(result.isSuccess());
+    assertEquals(Status.FINISHED, result.getStatus().get(job));
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    ServiceRegistry registry = createServiceRegistry(true);
+    Job job = createJob(1);
+    JobBarrier barrier = new JobBarrier(registry, 100L, job);
+
+    long start = System.currentTimeMillis();
+    JobBarrier.Result result = barrier.waitForJobs(500L);
+    assertTrue(System.currentTimeMillis() - start >= 500L);
+    assertFalse(result.getStatus().containsKey(job));
+    assertEquals(Status.RUNNING, job.getStatus());
+    assertTrue(lookups.get() > 1);
+  }
+
+}
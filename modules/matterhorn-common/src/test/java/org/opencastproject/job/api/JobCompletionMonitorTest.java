@@ -0,0 +1,172 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.job.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.opencastproject.job.api.Job.Status;
+import org.opencastproject.serviceregistry.api.JobCompletionLog;
+import org.opencastproject.serviceregistry.api.ServiceRegistry;
+import org.opencastproject.serviceregistry.api.ServiceRegistryException;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test case for {@link JobCompletionMonitor}.
+ */
+public class JobCompletionMonitorTest {
+
+  /**
+   * Creates a service registry that answers requests for completions with <code>answer</code>.
+   */
+  private ServiceRegistry createServiceRegistry(IAnswer<JobCompletions> answer) throws Exception {
+    ServiceRegistry registry = EasyMock.createNiceMock(ServiceRegistry.class);
+    // Requests for completions block, which must not hold up other calls
+    EasyMock.makeThreadSafe(registry, false);
+    EasyMock.expect(registry.getJobCompletions(EasyMock.anyLong(), EasyMock.anyLong())).andAnswer(answer).anyTimes();
+    EasyMock.replay(registry);
+    return registry;
+  }
+
+  @Test
+  public void testCompletionsAreDelivered() throws Exception {
+    final JobCompletionLog log = new JobCompletionLog();
+    ServiceRegistry registry = createServiceRegistry(new IAnswer<JobCompletions>() {
+      public JobCompletions answer() throws Throwable {
+        Object[] args = EasyMock.getCurrentArguments();
+        return log.getCompletions((Long) args[0], (Long) args[1]);
+      }
+    });
+    RecordingBarrier barrier1 = new RecordingBarrier(registry, 1);
+    RecordingBarrier barrier2 = new RecordingBarrier(registry, 1);
+
+    JobCompletionMonitor monitor = JobCompletionMonitor.subscribe(registry, barrier1);
+    assertSame(monitor, JobCompletionMonitor.subscribe(registry, barrier2));
+    assertTrue(monitor.isAvailable());
+
+    log.record(42, Status.FINISHED);
+    assertTrue(barrier1.completed.await(10, TimeUnit.SECONDS));
+    assertTrue(barrier2.completed.await(10, TimeUnit.SECONDS));
+    assertTrue(barrier1.ids.contains(42L));
+    assertTrue(barrier2.ids.contains(42L));
+
+    // Unsubscribed barriers are no longer notified
+    monitor.unsubscribe(barrier2);
+    barrier1.reset(1);
+    barrier2.reset(1);
+    log.record(43, Status.FAILED);
+    assertTrue(barrier1.completed.await(10, TimeUnit.SECONDS));
+    assertTrue(barrier1.ids.contains(43L));
+    assertTrue(barrier2.ids.isEmpty());
+    monitor.unsubscribe(barrier1);
+  }
+
+  @Test
+  public void testRegistryWithoutCompletions() throws Exception {
+    ServiceRegistry registry = createServiceRegistry(new IAnswer<JobCompletions>() {
+      public JobCompletions answer() throws Throwable {
+        throw new ServiceRegistryException("Completions are not supported");
+      }
+    });
+    RecordingBarrier barrier = new RecordingBarrier(registry, 1);
+    JobCompletionMonitor monitor = JobCompletionMonitor.subscribe(registry, barrier);
+    assertFalse(monitor.isAvailable());
+    monitor.unsubscribe(barrier);
+  }
+
+  @Test
+  public void testIncompleteCompletionsCauseRecheck() throws Exception {
+    // The registry's log has overflown between two requests
+    ServiceRegistry registry = createServiceRegistry(new IAnswer<JobCompletions>() {
+      public JobCompletions answer() throws Throwable {
+        long since = (Long) EasyMock.getCurrentArguments()[0];
+        if (since < 0)
+          return new JobCompletions(0, true);
+        Thread.sleep(50);
+        return new JobCompletions(since + 10, false);
+      }
+    });
+    RecordingBarrier barrier = new RecordingBarrier(registry, 1);
+    JobCompletionMonitor monitor = JobCompletionMonitor.subscribe(registry, barrier);
+    assertTrue(monitor.isAvailable());
+    assertTrue(barrier.rechecked.await(10, TimeUnit.SECONDS));
+    assertTrue(barrier.ids.isEmpty());
+    monitor.unsubscribe(barrier);
+  }
+
+  @Test
+  public void testLostRegistryCausesRecheck() throws Exception {
+    final CountDownLatch failing = new CountDownLatch(1);
+    ServiceRegistry registry = createServiceRegistry(new IAnswer<JobCompletions>() {
+      public JobCompletions answer() throws Throwable {
+        long since = (Long) EasyMock.getCurrentArguments()[0];
+        if (since < 0 && failing.getCount() > 0)
+          return new JobCompletions(0, true);
+        failing.countDown();
+        throw new ServiceRegistryException("Registry is gone");
+      }
+    });
+    RecordingBarrier barrier = new RecordingBarrier(registry, 1);
+    JobCompletionMonitor monitor = JobCompletionMonitor.subscribe(registry, barrier);
+    assertTrue(barrier.rechecked.await(10, TimeUnit.SECONDS));
+    assertFalse(monitor.isAvailable());
+    monitor.unsubscribe(barrier);
+  }
+
+  /**
+   * A barrier that records the notifications it receives from the monitor.
+   */
+  private static final class RecordingBarrier extends JobBarrier {
+
+    private final Set<Long> ids = new ConcurrentSkipListSet<Long>();
+    private CountDownLatch completed;
+    private final CountDownLatch rechecked = new CountDownLatch(1);
+
+    RecordingBarrier(ServiceRegistry registry, int completions) {
+      super(registry);
+      reset(completions);
+    }
+
+    void reset(int completions) {
+      ids.clear();
+      completed = new CountDownLatch(completions);
+    }
+
+    @Override
+    synchronized void jobsCompleted(Collection<Long> ids) {
+      this.ids.addAll(ids);
+      completed.countDown();
+    }
+
+    @Override
+    synchronized void recheckJobs() {
+      rechecked.countDown();
+    }
+
+  }
+
+}
@@ -17,6 +17,7 @@
 package org.opencastproject.mediapackage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import org.opencastproject.mediapackage.MediaPackageElement.Type;
@@ -29,6 +30,7 @@ import org.xml.sax.SAXException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.Arrays;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -115,4 +117,77 @@ public class MediaPackageTest extends AbstractMediaPackageTest {
     }
   }
 
+  @Test
+  public void testElementSelectionAfterChanges() throws Exception {
+    MediaPackage mediaPackage = mediaPackageBuilder.createNew();
+    MediaPackageElementFlavor sourceFlavor = new MediaPackageElementFlavor("some", "source");
+    MediaPackageElementFlavor otherFlavor = new MediaPackageElementFlavor("some", "other");
+    MediaPackageElement first = mediaPackage.add(dcFile.toURI(), Type.Attachment, sourceFlavor);
+    MediaPackageElement second = mediaPackage.add(dcFile.toURI(), Type.Attachment, sourceFlavor);
+    MediaPackageElement catalog = mediaPackage.add(dcFile.toURI(), Type.Catalog, sourceFlavor);
+
+    // Selections reflect the state the elements were added in
+    assertEquals(2, mediaPackage.getAttachments(sourceFlavor).length);
+    assertEquals(first, mediaPackage.getAttachments()[0]);
+    assertEquals(1, mediaPackage.getCatalogs(sourceFlavor).length);
+    assertEquals(3, mediaPackage.getElementsByFlavor(sourceFlavor).length);
+    assertEquals(catalog, mediaPackage.getElementById(catalog.getIdentifier()));
+
+    // Changes to the elements are picked up
+    second.setFlavor(otherFlavor);
+    second.addTag("engage");
+    catalog.setIdentifier("catalog-renamed");
+    assertEquals(1, mediaPackage.getAttachments(sourceFlavor).length);
+    assertEquals(second, mediaPackage.getAttachments(otherFlavor)[0]);
+    assertEquals(second, mediaPackage.getElementsByTag("engage")[0]);
+    assertEquals(0, mediaPackage.getCatalogsByTag("engage").length);
+    assertEquals(catalog, mediaPackage.getCatalog("catalog-renamed"));
+    assertNull(mediaPackage.getElementById("catalog-1"));
+
+    second.removeTag("engage");
+    first.addTag("engage");
+    assertEquals(first, mediaPackage.getAttachmentsByTags(Arrays.asList("engage"))[0]);
+    assertEquals(1, mediaPackage.getElementsByTags(Arrays.asList("engage")).length);
+
+    // Removed elements are no longer selected, and no longer affect the media package when changed
+    mediaPackage.remove(first);
+    first.setFlavor(otherFlavor);
+    assertEquals(0, mediaPackage.getAttachments(sourceFlavor).length);
+    assertEquals(1, mediaPackage.getAttachments(otherFlavor).length);
+    assertEquals(0, mediaPackage.getElementsByTag("engage").length);
+    assertNull(mediaPackage.getElementById(first.getIdentifier()));
+    assertEquals(2, mediaPackage.getElements().length);
+  }
+
+  @Test
+  public void testElementSelectionWithSharedElement() throws Exception {
+    MediaPackage first = mediaPackageBuilder.createNew();
+    MediaPackage second = mediaPackageBuilder.createNew();
+    MediaPackageElementFlavor sourceFlavor = new MediaPackageElementFlavor("some", "source");
+    MediaPackageElementFlavor otherFlavor = new MediaPackageElementFlavor("some", "other");
+    MediaPackageElement element = first.add(dcFile.toURI(), Type.Attachment, sourceFlavor);
+    second.add(element);
+    assertEquals(element, first.getAttachments(sourceFlavor)[0]);
+    assertEquals(element, second.getAttachments(sourceFlavor)[0]);
+
+    // Both media packages pick up changes to the element
+    element.setFlavor(otherFlavor);
+    element.addTag("engage");
+    element.setIdentifier("attachment-renamed");
+    for (MediaPackage mediaPackage : new MediaPackage[] { first, second }) {
+      assertEquals(0, mediaPackage.getAttachments(sourceFlavor).length);
+      assertEquals(element, mediaPackage.getAttachments(otherFlavor)[0]);
+      assertEquals(element, mediaPackage.getElementsByTag("engage")[0]);
+      assertEquals(element, mediaPackage.getElementById("attachment-renamed"));
+    }
+
+    // Removing the element from one media package doesn't affect the other one
+    second.remove(element);
+    element.setFlavor(sourceFlavor);
+    element.removeTag("engage");
+    assertEquals(element, first.getAttachments(sourceFlavor)[0]);
+    assertEquals(0, first.getElementsByTag("engage").length);
+    assertEquals(0, second.getAttachments().length);
+  }
+
 }
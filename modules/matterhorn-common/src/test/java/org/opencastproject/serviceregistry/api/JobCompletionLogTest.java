@@ -0,0 +1,87 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.serviceregistry.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.opencastproject.job.api.Job.Status;
+import org.opencastproject.job.api.JobCompletions;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link JobCompletionLog}.
+ */
+public class JobCompletionLogTest {
+
+  @Test
+  public void testCompletions() throws Exception {
+    JobCompletionLog log = new JobCompletionLog();
+    long position = log.getCompletions(-1, 0).getPosition();
+
+    log.record(1, Status.FINISHED);
+    log.record(2, Status.FAILED);
+
+    JobCompletions completions = log.getCompletions(position, 0);
+    assertTrue(completions.isComplete());
+    assertEquals(position + 2, completions.getPosition());
+    assertEquals(2, completions.getCompletions().size());
+    assertEquals(1, completions.getCompletions().get(0).getId());
+    assertEquals(Status.FAILED, completions.getCompletions().get(1).getStatus());
+
+    // Nothing new since the last call
+    completions = log.getCompletions(completions.getPosition(), 10);
+    assertTrue(completions.isComplete());
+    assertEquals(0, completions.getCompletions().size());
+  }
+
+  @Test
+  public void testOverflow() throws Exception {
+    JobCompletionLog log = new JobCompletionLog(2);
+    long position = log.getCompletions(-1, 0).getPosition();
+    for (int i = 0; i < 3; i++) {
+      log.record(i, Status.FINISHED);
+    }
+    assertFalse(log.getCompletions(position, 0).isComplete());
+    assertTrue(log.getCompletions(position + 1, 0).isComplete());
+
+    // Positions from before a restart of the registry
+    assertFalse(log.getCompletions(0, 0).isComplete());
+  }
+
+  @Test
+  public void testWaitForCompletion() throws Exception {
+    final JobCompletionLog log = new JobCompletionLog();
+    long position = log.getCompletions(-1, 0).getPosition();
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+        log.record(42, Status.FINISHED);
+      }
+    }.start();
+    JobCompletions completions = log.getCompletions(position, 10000);
+    assertEquals(1, completions.getCompletions().size());
+    assertEquals(42, completions.getCompletions().get(0).getId());
+  }
+
+}
@@ -23,6 +23,7 @@ import org.opencastproject.composer.api.EncodingProfile;
 import org.opencastproject.util.IoSupport;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +32,7 @@ import java.io.File;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -53,6 +55,9 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
    */
   private static final boolean REDIRECT_ERROR_STREAM = true;
 
+  /** The maximum number of images that are extracted in a single run of the encoder */
+  private static final int MAX_IMAGES_PER_RUN = 50;
+
   /** the encoder binary */
   private String binary = null;
 
@@ -122,7 +127,12 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
   }
 
   /**
-   * (non-Javadoc)
+   * {@inheritDoc}
+   * <p>
+   * If the engine is able to extract several images in a single run (see
+   * {@link #buildExtractionArgumentList(EncodingProfile, long, List)}), the source is decoded only once and registered
+   * {@link ImageExtractionListener}s are told about every image as soon as it is complete. Otherwise, the encoder is
+   * started once for every image.
    * 
    * @see org.opencastproject.composer.api.EncoderEngine#extract(java.io.File,
    *      org.opencastproject.composer.api.EncodingProfile, java.util.Map, long[])
@@ -131,6 +141,12 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
   public List<File> extract(File mediaSource, EncodingProfile format, Map<String, String> properties, long... times)
           throws EncoderException {
 
+    if (times.length > 1) {
+      List<File> extractedImages = extractAll(mediaSource, format, properties, times);
+      if (extractedImages != null)
+        return extractedImages;
+    }
+
     List<File> extractedImages = new LinkedList<File>();
     for (long time : times) {
       Map<String, String> params = new HashMap<String, String>();
@@ -139,7 +155,9 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
       }
       params.put("time", Long.toString(time));
       try {
-        extractedImages.add(process(null, mediaSource, format, params));
+        File image = process(null, mediaSource, format, params);
+        extractedImages.add(image);
+        fireImageExtracted(format, time, image);
       } catch (Exception e) {
         cleanup(extractedImages);
         if (e instanceof EncoderException) {
@@ -153,6 +171,136 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
     return extractedImages;
   }
 
+  /**
+   * Extracts images at all of the given times while decoding the source only once per run of the encoder. Every run
+   * seeks to the first of its images in the input, so the source is only decoded from there on. Since the encoder
+   * writes the images in the order of their times, an image is complete as soon as the one that follows it appears.
+   * 
+   * @param mediaSource
+   *          the video file
+   * @param profile
+   *          the encoding profile
+   * @param properties
+   *          the encoding properties
+   * @param times
+   *          the times at which to extract the images
+   * @return the images, in the order of <code>times</code>, or <code>null</code> if the engine is unable to extract
+   *         several images in a single run
+   * @throws EncoderException
+   *           if extraction fails
+   */
+  protected List<File> extractAll(File mediaSource, EncodingProfile profile, Map<String, String> properties,
+          final long... times) throws EncoderException {
+    if (properties != null)
+      params.putAll(properties);
+    setSourceParameters(null, mediaSource);
+    String outDir = mediaSource.getAbsoluteFile().getParent();
+    params.put("out.dir", outDir);
+
+    // Order the images by time, which is the order the encoder will produce them in
+    Integer[] order = new Integer[times.length];
+    for (int i = 0; i < times.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return times[a] < times[b] ? -1 : (times[a] == times[b] ? 0 : 1);
+      }
+    });
+
+    File[] images = new File[times.length];
+    List<Map<String, String>> imageParams = new ArrayList<Map<String, String>>();
+    for (int i : order) {
+      String time = Long.toString(times[i]);
+      String outFileName = FilenameUtils.getBaseName(mediaSource.getName()) + "_" + time + "_"
+              + UUID.randomUUID().toString();
+      String outSuffix = processParameters(profile.getSuffix().replace("#{time}", time));
+      Map<String, String> image = new HashMap<String, String>();
+      image.put("time", time);
+      image.put("out.name", outFileName);
+      image.put("out.suffix", outSuffix);
+      imageParams.add(image);
+      images[i] = new File(outDir, outFileName + outSuffix);
+    }
+
+    // The number of output files per run is limited, so split the images into several runs if needed
+    List<List<String>> commands = new ArrayList<List<String>>();
+    for (int start = 0; start < order.length; start += MAX_IMAGES_PER_RUN) {
+      // The times of the images are relative to the first one of the run
+      long seek = times[order[start]];
+      List<Map<String, String>> runParams = new ArrayList<Map<String, String>>();
+      for (int i = start; i < Math.min(order.length, start + MAX_IMAGES_PER_RUN); i++) {
+        Map<String, String> image = new HashMap<String, String>(imageParams.get(i));
+        image.put("time", Long.toString(times[order[i]] - seek));
+        runParams.add(image);
+      }
+      List<String> arguments = buildExtractionArgumentList(profile, seek, runParams);
+      if (arguments == null)
+        return null;
+      List<String> command = new ArrayList<String>();
+      command.add(binary);
+      command.addAll(arguments);
+      commands.add(command);
+    }
+
+    try {
+      for (int run = 0; run < commands.size(); run++) {
+        int start = run * MAX_IMAGES_PER_RUN;
+        int end = Math.min(order.length, start + MAX_IMAGES_PER_RUN);
+        List<String> command = commands.get(run);
+        logger.info("Executing image extraction command: {}", StringUtils.join(command, " "));
+
+        BufferedReader in = null;
+        Process encoderProcess = null;
+        try {
+          ProcessBuilder pbuilder = new ProcessBuilder(command);
+          pbuilder.redirectErrorStream(REDIRECT_ERROR_STREAM);
+          encoderProcess = pbuilder.start();
+
+          // Hand out the images as they are being completed
+          int next = start;
+          in = new BufferedReader(new InputStreamReader(encoderProcess.getInputStream()));
+          String line;
+          while ((line = in.readLine()) != null) {
+            handleEncoderOutput(profile, line, mediaSource);
+            while (next < end - 1 && images[order[next + 1]].isFile()) {
+              fireImageExtracted(profile, times[order[next]], images[order[next]]);
+              next++;
+            }
+          }
+
+          encoderProcess.waitFor();
+          int exitCode = encoderProcess.exitValue();
+          if (exitCode != 0) {
+            throw new EncoderException(this, "Encoder exited abnormally with status " + exitCode);
+          }
+          for (; next < end; next++) {
+            File image = images[order[next]];
+            if (!image.isFile())
+              throw new EncoderException(this, "Encoder did not produce an image at " + times[order[next]]);
+            fireImageExtracted(profile, times[order[next]], image);
+          }
+        } finally {
+          IoSupport.closeQuietly(in);
+          IoSupport.closeQuietly(encoderProcess);
+        }
+      }
+
+      logger.info("{} images successfully extracted from video track {} using profile '{}'", new Object[] {
+              times.length, mediaSource.getName(), profile.getIdentifier() });
+      fireEncoded(this, profile, mediaSource);
+      return Arrays.asList(images);
+    } catch (Exception e) {
+      logger.warn("Error while extracting images from video {} using '{}': {}", new Object[] { mediaSource.getName(),
+              profile.getIdentifier(), e.getMessage() });
+      cleanup(Arrays.asList(images));
+      fireEncodingFailed(this, profile, e, mediaSource);
+      if (e instanceof EncoderException)
+        throw (EncoderException) e;
+      throw new EncoderException(this, e.getMessage(), e);
+    }
+  }
+
   /**
    * Executes the command line encoder with the given set of files and properties and using the provided encoding
    * profile.
@@ -182,23 +330,7 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
     }
     try {
       // Set encoding parameters
-      String audioInput = null;
-      if (audioSource != null) {
-        audioInput = FilenameUtils.normalize(audioSource.getAbsolutePath());
-        params.put("in.audio.path", audioInput);
-        params.put("in.audio.name", FilenameUtils.getBaseName(audioInput));
-        params.put("in.audio.suffix", FilenameUtils.getExtension(audioInput));
-        params.put("in.audio.filename", FilenameUtils.getName(audioInput));
-        params.put("in.audio.mimetype", MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(audioInput));
-      }
-      if (videoSource != null) {
-        String videoInput = FilenameUtils.normalize(videoSource.getAbsolutePath());
-        params.put("in.video.path", videoInput);
-        params.put("in.video.name", FilenameUtils.getBaseName(videoInput));
-        params.put("in.video.suffix", FilenameUtils.getExtension(videoInput));
-        params.put("in.video.filename", FilenameUtils.getName(videoInput));
-        params.put("in.video.mimetype", MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(videoInput));
-      }
+      setSourceParameters(audioSource, videoSource);
       File parentFile;
       if (videoSource == null) {
         parentFile = audioSource;
@@ -283,6 +415,33 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
     }
   }
 
+  /**
+   * Sets the parameters describing the source files, such as <code>in.video.path</code>.
+   * 
+   * @param audioSource
+   *          the audio file, may be <code>null</code>
+   * @param videoSource
+   *          the video file, may be <code>null</code>
+   */
+  private void setSourceParameters(File audioSource, File videoSource) {
+    if (audioSource != null) {
+      String audioInput = FilenameUtils.normalize(audioSource.getAbsolutePath());
+      params.put("in.audio.path", audioInput);
+      params.put("in.audio.name", FilenameUtils.getBaseName(audioInput));
+      params.put("in.audio.suffix", FilenameUtils.getExtension(audioInput));
+      params.put("in.audio.filename", FilenameUtils.getName(audioInput));
+      params.put("in.audio.mimetype", MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(audioInput));
+    }
+    if (videoSource != null) {
+      String videoInput = FilenameUtils.normalize(videoSource.getAbsolutePath());
+      params.put("in.video.path", videoInput);
+      params.put("in.video.name", FilenameUtils.getBaseName(videoInput));
+      params.put("in.video.suffix", FilenameUtils.getExtension(videoInput));
+      params.put("in.video.filename", FilenameUtils.getName(videoInput));
+      params.put("in.video.mimetype", MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(videoInput));
+    }
+  }
+
   /**
    * Deletes all valid files found in a list
    * 
@@ -377,6 +536,30 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
     return arguments;
   }
 
+  /**
+   * Creates the arguments for extracting images at several points in time in a single run of the encoder. The encoder
+   * is expected to seek to <code>seek</code> in the input before it starts decoding. Every map in <code>images</code>
+   * holds the <code>time</code>, <code>out.name</code> and <code>out.suffix</code> parameters of one image, in the
+   * order of time, with the time being relative to <code>seek</code>.
+   * <p>
+   * This implementation returns <code>null</code>, meaning that the engine is unable to extract more than one image
+   * per run.
+   * 
+   * @param profile
+   *          the encoding profile
+   * @param seek
+   *          the time in seconds at which to start decoding the input
+   * @param images
+   *          the parameters of the individual images
+   * @return the argument list, or <code>null</code> if the profile doesn't support extracting several images at once
+   * @throws EncoderException
+   *           in case of any error
+   */
+  protected List<String> buildExtractionArgumentList(EncodingProfile profile, long seek,
+          List<Map<String, String>> images) throws EncoderException {
+    return null;
+  }
+
   /**
    * Processes the command options by replacing the templates with their actual values.
    * 
@@ -411,6 +594,28 @@ public abstract class AbstractCmdlineEncoderEngine extends AbstractEncoderEngine
     params.put(name, value);
   }
 
+  /**
+   * Tells the registered {@link ImageExtractionListener}s that an image is ready.
+   * 
+   * @param format
+   *          the encoding profile
+   * @param time
+   *          the time at which the image was taken
+   * @param image
+   *          the image
+   */
+  protected void fireImageExtracted(EncodingProfile format, long time, File image) {
+    for (EncoderListener l : this.listeners) {
+      if (l instanceof ImageExtractionListener) {
+        try {
+          ((ImageExtractionListener) l).imageExtracted(this, format, time, image);
+        } catch (Throwable th) {
+          logger.error("EncoderListener " + l + " threw exception while processing callback", th);
+        }
+      }
+    }
+  }
+
   /**
    * Tells the registered listeners that the given track has been encoded into <code>file</code>, using the encoding
    * format <code>format</code>.
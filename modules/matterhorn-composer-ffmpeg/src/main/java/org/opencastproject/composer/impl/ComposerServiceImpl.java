@@ -451,8 +451,6 @@ public class ComposerServiceImpl extends AbstractJobProducer implements Composer
       parameters[i + 2] = Long.toString(times[i]);
     }
 
-    // TODO: This is unfortunate, since ffmpeg is slow on single images and it would be nice to be able to start a
-    // separate job per image, so extraction can be spread over multiple machines in a cluster.
     try {
       return serviceRegistry.createJob(JOB_TYPE, Operation.Image.toString(), Arrays.asList(parameters));
     } catch (ServiceRegistryException e) {
@@ -519,37 +517,41 @@ public class ComposerServiceImpl extends AbstractJobProducer implements Composer
         throw new EncoderException("Error accessing video track " + sourceTrack, e);
       }
 
-      // Do the work
-      List<File> encodingOutput = encoderEngine.extract(videoFile, profile, null, times);
+      // Do the work, putting the images into the workspace while the remaining ones are still being extracted
+      WorkspaceImageCollector collector = new WorkspaceImageCollector(job, times);
+      List<File> encodingOutput = null;
+      encoderEngine.addEncoderListener(collector);
+      try {
+        encodingOutput = encoderEngine.extract(videoFile, profile, null, times);
+      } catch (EncoderException e) {
+        cleanupWorkspace(collector.getURIs().toArray(new URI[0]));
+        throw e;
+      } finally {
+        encoderEngine.removeEncoderListener(collector);
+      }
 
       // check for validity of output
       if (encodingOutput == null || encodingOutput.isEmpty()) {
+        cleanupWorkspace(collector.getURIs().toArray(new URI[0]));
         throw new EncoderException("Image extraction failed: no images were produced");
       }
       for (File output : encodingOutput) {
         if (output == null || !output.isFile()) {
           cleanup(encodingOutput.toArray(new File[encodingOutput.size()]));
+          cleanupWorkspace(collector.getURIs().toArray(new URI[0]));
           throw new EncoderException("Image extraction failed: encoding output doesn't exist at " + output);
         }
       }
 
-      // Put the file in the workspace
+      // Put the files that haven't been handed over during extraction in the workspace
       List<URI> workspaceURIs = new LinkedList<URI>();
       for (int i = 0; i < encodingOutput.size(); i++) {
-        File output = encodingOutput.get(i);
-        InputStream in = null;
         try {
-          in = new FileInputStream(output);
-          URI returnURL = workspace.putInCollection(COLLECTION,
-                  job.getId() + "_" + i + "." + FilenameUtils.getExtension(output.getAbsolutePath()), in);
-          logger.debug("Copied image file to the workspace at {}", returnURL);
-          workspaceURIs.add(returnURL);
+          workspaceURIs.add(collector.put(i, encodingOutput.get(i)));
         } catch (Exception e) {
           cleanup(encodingOutput.toArray(new File[encodingOutput.size()]));
-          cleanupWorkspace(workspaceURIs.toArray(new URI[workspaceURIs.size()]));
+          cleanupWorkspace(collector.getURIs().toArray(new URI[0]));
           throw new EncoderException("Unable to put image file into the workspace", e);
-        } finally {
-          IOUtils.closeQuietly(in);
         }
       }
 
@@ -1139,4 +1141,107 @@ public class ComposerServiceImpl extends AbstractJobProducer implements Composer
     return this.encode(job, mediaTrack, null, encodingProfile, watermarkProperties);
   }  
 
+
+  /**
+   * Puts extracted images into the workspace as soon as the encoder engine reports them as complete.
+   */
+  private class WorkspaceImageCollector implements ImageExtractionListener {
+
+    /** The image extraction job */
+    private final Job job;
+
+    /** The times at which images are extracted */
+    private final long[] times;
+
+    /** The workspace locations of the images, by their position in <code>times</code> */
+    private final URI[] uris;
+
+    /**
+     * Creates a collector for the images extracted at the given times.
+     * 
+     * @param job
+     *          the image extraction job
+     * @param times
+     *          the times
+     */
+    WorkspaceImageCollector(Job job, long[] times) {
+      this.job = job;
+      this.times = times;
+      this.uris = new URI[times.length];
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.opencastproject.composer.impl.ImageExtractionListener#imageExtracted(org.opencastproject.composer.api.EncoderEngine,
+     *      org.opencastproject.composer.api.EncodingProfile, long, java.io.File)
+     */
+    @Override
+    public void imageExtracted(EncoderEngine engine, EncodingProfile format, long time, File image) {
+      for (int i = 0; i < times.length; i++) {
+        if (times[i] == time && uris[i] == null) {
+          try {
+            put(i, image);
+          } catch (IOException e) {
+            // The image will be put into the workspace once extraction is finished
+            logger.debug("Unable to put image {} into the workspace yet: {}", image, e.getMessage());
+          }
+          return;
+        }
+      }
+    }
+
+    /**
+     * Puts the image into the workspace unless that has happened already.
+     * 
+     * @param index
+     *          the position of the image's time
+     * @param image
+     *          the image file
+     * @return the workspace location of the image
+     * @throws IOException
+     *           if the image cannot be put into the workspace
+     */
+    URI put(int index, File image) throws IOException {
+      if (uris[index] == null) {
+        InputStream in = new FileInputStream(image);
+        try {
+          uris[index] = workspace.putInCollection(COLLECTION,
+                  job.getId() + "_" + index + "." + FilenameUtils.getExtension(image.getAbsolutePath()), in);
+          logger.debug("Copied image file to the workspace at {}", uris[index]);
+        } finally {
+          IOUtils.closeQuietly(in);
+        }
+      }
+      return uris[index];
+    }
+
+    /**
+     * Returns the workspace locations of the images that have been put into the workspace so far.
+     * 
+     * @return the workspace locations
+     */
+    List<URI> getURIs() {
+      List<URI> result = new ArrayList<URI>();
+      for (URI uri : uris) {
+        if (uri != null)
+          result.add(uri);
+      }
+      return result;
+    }
+
+    @Override
+    public void fileEncoded(EncoderEngine engine, EncodingProfile profile, File... sourceFiles) {
+    }
+
+    @Override
+    public void fileEncodingFailed(EncoderEngine engine, EncodingProfile profile, Throwable cause, File... sourceFiles) {
+    }
+
+    @Override
+    public void fileEncodingProgressed(EncoderEngine engine, File sourceFile, EncodingProfile profile, int progress) {
+    }
+
+  }
+
 }
@@ -0,0 +1,44 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.composer.impl;
+
+import org.opencastproject.composer.api.EncoderEngine;
+import org.opencastproject.composer.api.EncoderListener;
+import org.opencastproject.composer.api.EncodingProfile;
+
+import java.io.File;
+
+/**
+ * Callback for images that are extracted by the {@link AbstractCmdlineEncoderEngine}. Listeners are told about every
+ * image as soon as it is complete, which may be while the encoder is still working on the remaining images.
+ */
+public interface ImageExtractionListener extends EncoderListener {
+
+  /**
+   * Notifies the listener that an image has been extracted.
+   * 
+   * @param engine
+   *          the encoding engine
+   * @param format
+   *          the encoding profile in use
+   * @param time
+   *          the time at which the image was taken
+   * @param image
+   *          the image file
+   */
+  void imageExtracted(EncoderEngine engine, EncodingProfile format, long time, File image);
+
+}
@@ -41,6 +41,12 @@ public class FFmpegEncoderEngine extends AbstractCmdlineEncoderEngine {
   /** The ffmpeg commandline suffix */
   public static final String CMD_SUFFIX = "ffmpeg.command";
 
+  /** The profile property holding the input part of the commandline used to extract several images at once */
+  public static final String EXTRACT_INPUT_SUFFIX = "ffmpeg.extract.input";
+
+  /** The profile property holding the output part of the commandline that is repeated for every extracted image */
+  public static final String EXTRACT_OUTPUT_SUFFIX = "ffmpeg.extract.output";
+
   private static final String CONFIG_FFMPEG_PATH = "org.opencastproject.composer.ffmpegpath";
 
   /** Format for trim times */
@@ -133,6 +139,56 @@ public class FFmpegEncoderEngine extends AbstractCmdlineEncoderEngine {
     return argumentList;
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Profiles support extracting several images at once by defining the input and output parts of the commandline
+   * separately, with the output part seeking to the image's time after the input has been opened, e. g.
+   * <code>-ss #{time} -vframes 1 -f image2 #{out.dir}/#{out.name}#{out.suffix}</code>. The output part is repeated for
+   * every image, so ffmpeg decodes the input only once. The commandline starts with an input seek to the first image,
+   * which is fast, and the output seeks are relative to it.
+   * 
+   * @see org.opencastproject.composer.impl.AbstractCmdlineEncoderEngine#buildExtractionArgumentList(org.opencastproject.composer.api.EncodingProfile,
+   *      long, java.util.List)
+   */
+  @Override
+  protected List<String> buildExtractionArgumentList(EncodingProfile profile, long seek,
+          List<Map<String, String>> images) throws EncoderException {
+    String input = profile.getExtension(EXTRACT_INPUT_SUFFIX);
+    String output = profile.getExtension(EXTRACT_OUTPUT_SUFFIX);
+    if (input == null || output == null)
+      return null;
+
+    List<String> argumentList = new ArrayList<String>();
+    if (seek > 0) {
+      argumentList.add("-ss");
+      argumentList.add(Long.toString(seek));
+    }
+    addArguments(argumentList, processParameters(input));
+    for (Map<String, String> image : images) {
+      String imageOutput = output;
+      for (Map.Entry<String, String> e : image.entrySet()) {
+        imageOutput = imageOutput.replace("#{" + e.getKey() + "}", e.getValue());
+      }
+      addArguments(argumentList, processParameters(imageOutput));
+    }
+    return argumentList;
+  }
+
+  /**
+   * Splits the commandline into arguments, dropping placeholders that have not been replaced.
+   * 
+   * @param argumentList
+   *          the list to add the arguments to
+   * @param commandline
+   *          the commandline
+   */
+  private void addArguments(List<String> argumentList, String commandline) {
+    for (String a : commandline.replaceAll("#\\{.*?\\}", "").split(" "))
+      if (!"".equals(a.trim()))
+        argumentList.add(a);
+  }
+
   /**
    * Handles the encoder output by analyzing it first and then firing it off to the registered listeners.
    * 
@@ -0,0 +1,157 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.composer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.opencastproject.composer.api.EncoderEngine;
+import org.opencastproject.composer.api.EncodingProfile;
+import org.opencastproject.composer.api.EncodingProfileImpl;
+import org.opencastproject.composer.impl.ffmpeg.FFmpegEncoderEngine;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the commandline that is used to extract several images in a single encoder run.
+ */
+public class ImageExtractionTest {
+
+  /** The encoder engine */
+  private AbstractCmdlineEncoderEngine engine = null;
+
+  /** The image extraction profile */
+  private EncodingProfileImpl profile = null;
+
+  /** The directory holding the video and the images */
+  private File workDir = null;
+
+  @Before
+  public void setUp() throws Exception {
+    workDir = new File("target", "image-extraction-test").getAbsoluteFile();
+    FileUtils.deleteQuietly(workDir);
+    engine = new FFmpegEncoderEngine();
+    profile = new EncodingProfileImpl("image.test", "image test", null);
+    profile.setSuffix("-#{time}.jpg");
+    profile.addExtension(FFmpegEncoderEngine.EXTRACT_INPUT_SUFFIX, "-y -i #{in.video.path}");
+    profile.addExtension(FFmpegEncoderEngine.EXTRACT_OUTPUT_SUFFIX,
+            "-ss #{time} -r 1 -vframes 1 -f image2 #{out.dir}/#{out.name}#{out.suffix}");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(workDir);
+  }
+
+  @Test
+  public void testArgumentListHasOneOutputPerImage() throws Exception {
+    List<Map<String, String>> images = new ArrayList<Map<String, String>>();
+    images.add(image("1", "a_1", "-1.jpg"));
+    images.add(image("20", "a_20", "-20.jpg"));
+    List<String> args = engine.buildExtractionArgumentList(profile, 0, images);
+    assertEquals(Arrays.asList("-y", "-i", "-ss", "1", "-r", "1", "-vframes", "1", "-f", "image2", "/a_1-1.jpg", "-ss",
+            "20", "-r", "1", "-vframes", "1", "-f", "image2", "/a_20-20.jpg"), args);
+  }
+
+  @Test
+  public void testArgumentListSeeksInInput() throws Exception {
+    List<Map<String, String>> images = new ArrayList<Map<String, String>>();
+    images.add(image("0", "a_30", "-30.jpg"));
+    images.add(image("15", "a_45", "-45.jpg"));
+    List<String> args = engine.buildExtractionArgumentList(profile, 30, images);
+    assertEquals(Arrays.asList("-ss", "30", "-y", "-i", "-ss", "0", "-r", "1", "-vframes", "1", "-f", "image2",
+            "/a_30-30.jpg", "-ss", "15", "-r", "1", "-vframes", "1", "-f", "image2", "/a_45-45.jpg"), args);
+  }
+
+  @Test
+  public void testImagesAreReportedPerTime() throws Exception {
+    File shell = new File("/bin/sh");
+    if (!shell.exists())
+      return;
+
+    // The encoder records its arguments and creates the images it is asked for
+    File video = new File(workDir, "video.mov");
+    File arguments = new File(workDir, "arguments.txt");
+    File encoder = new File(workDir, "encoder.sh");
+    FileUtils.writeStringToFile(video, "");
+    FileUtils.writeStringToFile(encoder, "#!/bin/sh\necho \"$@\" > " + arguments.getAbsolutePath()
+            + "\nfor a in \"$@\"; do case \"$a\" in *.jpg) touch \"$a\";; esac; done\n");
+    assertTrue(encoder.setExecutable(true));
+    engine.setBinary(encoder.getAbsolutePath());
+
+    final Map<Long, File> extracted = new HashMap<Long, File>();
+    engine.addEncoderListener(new ImageExtractionListener() {
+      public void imageExtracted(EncoderEngine engine, EncodingProfile format, long time, File image) {
+        extracted.put(time, image);
+      }
+
+      public void fileEncoded(EncoderEngine engine, EncodingProfile profile, File... sourceFiles) {
+      }
+
+      public void fileEncodingFailed(EncoderEngine engine, EncodingProfile profile, Throwable cause,
+              File... sourceFiles) {
+      }
+
+      public void fileEncodingProgressed(EncoderEngine engine, File sourceFile, EncodingProfile profile, int progress) {
+      }
+    });
+
+    long[] times = new long[] { 20, 5, 10 };
+    List<File> images = engine.extract(video, profile, null, times);
+    assertEquals(times.length, images.size());
+    assertEquals(times.length, extracted.size());
+    for (int i = 0; i < times.length; i++) {
+      File image = images.get(i);
+      assertTrue(image.isFile());
+      assertTrue(image.getName().endsWith("-" + times[i] + ".jpg"));
+      assertEquals(image, extracted.get(times[i]));
+    }
+
+    // The encoder seeks to the first image in the input and takes the others relative to it
+    String commandline = FileUtils.readFileToString(arguments).trim();
+    assertTrue(commandline, commandline.startsWith("-ss 5 -y -i " + video.getAbsolutePath() + " -ss 0 "));
+    assertTrue(commandline, commandline.contains(" -ss 5 -r 1 "));
+    assertTrue(commandline, commandline.contains(" -ss 15 -r 1 "));
+  }
+
+  @Test
+  public void testProfileWithoutExtractionCommand() throws Exception {
+    profile.removeExtension(FFmpegEncoderEngine.EXTRACT_OUTPUT_SUFFIX);
+    List<Map<String, String>> images = new ArrayList<Map<String, String>>();
+    images.add(image("1", "a_1", "-1.jpg"));
+    assertNull(engine.buildExtractionArgumentList(profile, 0, images));
+  }
+
+  private static Map<String, String> image(String time, String name, String suffix) {
+    Map<String, String> image = new HashMap<String, String>();
+    image.put("time", time);
+    image.put("out.name", name);
+    image.put("out.suffix", suffix);
+    return image;
+  }
+
+}
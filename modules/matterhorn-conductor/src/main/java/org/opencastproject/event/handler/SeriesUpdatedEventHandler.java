@@ -219,7 +219,8 @@ public class SeriesUpdatedEventHandler implements EventHandler {
           SearchResult result = searchService.getForAdministrativeRead(q);
 
           for (SearchResultItem item : result.getItems()) {
-            MediaPackage mp = item.getMediaPackage();
+            // The search service shares its media packages, so work on a copy
+            MediaPackage mp = (MediaPackage) item.getMediaPackage().clone();
             Organization org = organizationDirectoryService.getOrganization(item.getOrganization());
             securityService.setOrganization(org);
 
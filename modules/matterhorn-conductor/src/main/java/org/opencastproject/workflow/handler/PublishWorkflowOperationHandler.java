@@ -172,6 +172,8 @@ public class PublishWorkflowOperationHandler extends AbstractWorkflowOperationHa
       logger.info("Publishing media package {} to search index", mediaPackageForSearch);
       // adding media package to the search index
       searchService.add(mediaPackageForSearch);
+      // make sure the media package can be found once the operation is complete
+      searchService.flush();
       logger.debug("Publish operation complete");
       return createResult(mediaPackageFromWorkflow, Action.CONTINUE);
     } catch (Throwable t) {
@@ -298,24 +298,18 @@ public class TextAnalysisWorkflowOperationHandler extends AbstractWorkflowOperat
         times[i] = startTimeSeconds + durationSeconds - stabilityThreshold + 1;
       }
         
-      // Have the ocr image(s) created.
-      
-      // TODO: Note that the way of having one image extracted after the other is suited for
-      // the ffmpeg-based encoder. When switching to other encoding engines such as gstreamer, it might be preferable
-      // to pass in all timepoints to the image extraction method at once.
-      SortedMap<Long, Job> extractImageJobs = new TreeMap<Long, Job>();
+      // Have the ocr images created in a single pass over the track
       List<Attachment> images = new LinkedList<Attachment>();
       try {
-        for (long time : times) {
-          extractImageJobs.put(time, composer.image(sourceTrack, IMAGE_EXTRACTION_PROFILE, time));
-        }
-        if (!waitForStatus(extractImageJobs.values().toArray(new Job[extractImageJobs.size()])).isSuccess())
-          throw new WorkflowOperationException("Extracting scene image from " + sourceTrack + " failed");
-        for (Map.Entry<Long, Job> entry : extractImageJobs.entrySet()) {
-          Job job = serviceRegistry.getJob(entry.getValue().getId());
-          Attachment image = (Attachment)MediaPackageElementParser.getFromXml(job.getPayload()); 
-          images.add(image);
-          totalTimeInQueue += job.getQueueTime();
+        if (times.length > 0) {
+          Job extractImageJob = composer.image(sourceTrack, IMAGE_EXTRACTION_PROFILE, times);
+          if (!waitForStatus(extractImageJob).isSuccess())
+            throw new WorkflowOperationException("Extracting scene images from " + sourceTrack + " failed");
+          extractImageJob = serviceRegistry.getJob(extractImageJob.getId());
+          for (MediaPackageElement image : MediaPackageElementParser.getArrayFromXml(extractImageJob.getPayload())) {
+            images.add((Attachment) image);
+          }
+          totalTimeInQueue += extractImageJob.getQueueTime();
         }
       } catch (EncoderException e) {
         logger.error("Error creating still image(s) from {}", sourceTrack);
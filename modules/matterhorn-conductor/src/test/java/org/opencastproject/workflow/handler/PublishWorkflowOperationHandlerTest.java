@@ -76,6 +76,7 @@ public class PublishWorkflowOperationHandlerTest {
     // mock Search service, ensuring the correct media package is distributed to search service
     SearchService searchService = EasyMock.createMock(SearchService.class);
     searchService.add(eqMediaPackage(mpSearch));
+    searchService.flush();
     EasyMock.replay(searchService);
     operationHandler.setSearchService(searchService);
 
@@ -0,0 +1,328 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.dictionary.impl;
+
+import org.opencastproject.dictionary.api.DictionaryService.DICT_TOKEN;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory copy of the dictionary, which allows to look up words without a database round-trip.
+ * <p>
+ * Every language is kept in an open addressing hash table made of parallel arrays for the words' text, count and
+ * weight, plus a bit set for the stop word flags. This takes considerably less memory than a map of {@link Word}
+ * objects, which matters since a language pack easily contains several hundred thousand words.
+ * <p>
+ * The index expects the words' text to be case-normalized using {@link Word#fixCase(String)}. It is not backed by the
+ * database, so every change to the database needs to be applied to the index as well.
+ */
+public class DictionaryIndex {
+
+  /** The initial capacity of a language's hash table */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** The indexed languages, keyed by language code */
+  private final Map<String, LanguageIndex> languages = new HashMap<String, LanguageIndex>();
+
+  /** Guards the index, which is mostly read */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Adds the word to the index, replacing the entry of the same text and language if it exists.
+   *
+   * @param word
+   *          the word
+   */
+  public void put(Word word) {
+    lock.writeLock().lock();
+    try {
+      LanguageIndex index = languages.get(word.language);
+      if (index == null) {
+        index = new LanguageIndex();
+        languages.put(word.language, index);
+      }
+      index.put(word.text, word.count, word.weight, word.stopWord);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns a copy of the word with the given text and language.
+   *
+   * @param text
+   *          the case-normalized text
+   * @param language
+   *          the language
+   * @return the word, or <code>null</code> if it does not exist in this language
+   */
+  public Word get(String text, String language) {
+    lock.readLock().lock();
+    try {
+      LanguageIndex index = languages.get(language);
+      if (index == null)
+        return null;
+      int slot = index.find(text);
+      if (slot < 0)
+        return null;
+      return new Word(text, language, index.counts[slot], index.weights[slot], index.stopWords.get(slot));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Classifies each of the given texts in a language.
+   *
+   * @param text
+   *          the case-normalized texts
+   * @param language
+   *          the language
+   * @return the token types, in the same order as the texts
+   */
+  public DICT_TOKEN[] getTokens(String[] text, String language) {
+    DICT_TOKEN[] tokens = new DICT_TOKEN[text.length];
+    lock.readLock().lock();
+    try {
+      LanguageIndex index = languages.get(language);
+      for (int i = 0; i < text.length; i++) {
+        int slot = index != null ? index.find(text[i]) : -1;
+        if (slot < 0) {
+          tokens[i] = DICT_TOKEN.NONE;
+        } else if (index.stopWords.get(slot)) {
+          tokens[i] = DICT_TOKEN.STOPWORD;
+        } else {
+          tokens[i] = DICT_TOKEN.WORD;
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return tokens;
+  }
+
+  /**
+   * Returns the languages that contain a word.
+   *
+   * @param text
+   *          the case-normalized text
+   * @return the languages
+   */
+  public List<String> getLanguages(String text) {
+    List<String> result = new ArrayList<String>();
+    lock.readLock().lock();
+    try {
+      for (Map.Entry<String, LanguageIndex> entry : languages.entrySet()) {
+        if (entry.getValue().find(text) >= 0)
+          result.add(entry.getKey());
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return result;
+  }
+
+  /**
+   * Returns <code>true</code> if the word is a stop word in any of the languages.
+   *
+   * @param text
+   *          the case-normalized text
+   * @return whether this is a stop word
+   */
+  public boolean isStopWord(String text) {
+    lock.readLock().lock();
+    try {
+      for (LanguageIndex index : languages.values()) {
+        int slot = index.find(text);
+        if (slot >= 0 && index.stopWords.get(slot))
+          return true;
+      }
+      return false;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the languages that contain at least one word.
+   *
+   * @return the languages
+   */
+  public String[] getLanguages() {
+    lock.readLock().lock();
+    try {
+      return languages.keySet().toArray(new String[languages.size()]);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of words in a language.
+   *
+   * @param language
+   *          the language
+   * @return the number of words
+   */
+  public int size(String language) {
+    lock.readLock().lock();
+    try {
+      LanguageIndex index = languages.get(language);
+      return index != null ? index.size : 0;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Marks all words of a language whose weight is above the threshold as stop words.
+   *
+   * @param threshold
+   *          the weight threshold
+   * @param language
+   *          the language
+   */
+  public void markStopWords(double threshold, String language) {
+    lock.writeLock().lock();
+    try {
+      LanguageIndex index = languages.get(language);
+      if (index == null)
+        return;
+      for (int slot = 0; slot < index.texts.length; slot++) {
+        if (index.texts[slot] != null && index.weights[slot] > threshold)
+          index.stopWords.set(slot);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes all words of a language.
+   *
+   * @param language
+   *          the language
+   */
+  public void clear(String language) {
+    lock.writeLock().lock();
+    try {
+      languages.remove(language);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The words of a single language, stored in an open addressing hash table with linear probing. Words are never
+   * removed individually, so there is no need for tombstones.
+   */
+  static final class LanguageIndex {
+
+    /** The words' text, <code>null</code> for empty slots */
+    private String[] texts = new String[INITIAL_CAPACITY];
+
+    /** The words' counts */
+    private long[] counts = new long[INITIAL_CAPACITY];
+
+    /** The words' weights */
+    private double[] weights = new double[INITIAL_CAPACITY];
+
+    /** The stop word flags */
+    private BitSet stopWords = new BitSet(INITIAL_CAPACITY);
+
+    /** The number of words */
+    private int size = 0;
+
+    /**
+     * Returns the slot of a word.
+     *
+     * @param text
+     *          the text
+     * @return the slot, or <code>-1</code> if the word is not in the table
+     */
+    int find(String text) {
+      int mask = texts.length - 1;
+      for (int slot = hash(text) & mask; texts[slot] != null; slot = (slot + 1) & mask) {
+        if (texts[slot].equals(text))
+          return slot;
+      }
+      return -1;
+    }
+
+    /**
+     * Adds or replaces a word.
+     */
+    void put(String text, long count, double weight, boolean stopWord) {
+      // keep the load factor at or below 1/2 for short probe sequences
+      if ((size + 1) * 2 > texts.length)
+        resize(texts.length * 2);
+      int mask = texts.length - 1;
+      int slot = hash(text) & mask;
+      while (texts[slot] != null && !texts[slot].equals(text))
+        slot = (slot + 1) & mask;
+      if (texts[slot] == null) {
+        texts[slot] = text;
+        size++;
+      }
+      counts[slot] = count;
+      weights[slot] = weight;
+      stopWords.set(slot, stopWord);
+    }
+
+    /**
+     * Moves all words into tables of the given capacity, which must be a power of two.
+     */
+    private void resize(int capacity) {
+      String[] oldTexts = texts;
+      long[] oldCounts = counts;
+      double[] oldWeights = weights;
+      BitSet oldStopWords = stopWords;
+      texts = new String[capacity];
+      counts = new long[capacity];
+      weights = new double[capacity];
+      stopWords = new BitSet(capacity);
+      int mask = capacity - 1;
+      for (int i = 0; i < oldTexts.length; i++) {
+        if (oldTexts[i] == null)
+          continue;
+        int slot = hash(oldTexts[i]) & mask;
+        while (texts[slot] != null)
+          slot = (slot + 1) & mask;
+        texts[slot] = oldTexts[i];
+        counts[slot] = oldCounts[i];
+        weights[slot] = oldWeights[i];
+        stopWords.set(slot, oldStopWords.get(i));
+      }
+    }
+
+    /**
+     * Spreads the string's hash code, since only the lower bits are used to address the table.
+     */
+    private static int hash(String text) {
+      int h = text.hashCode();
+      h ^= (h >>> 20) ^ (h >>> 12);
+      return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+  }
+
+}
@@ -39,6 +39,11 @@ import javax.persistence.spi.PersistenceProvider;
 /**
  * A JPA-based implementation of the DictionaryService. This implementation stores all words in a single table, and
  * keeps track of the available languages in a separate language table.
+ * <p>
+ * Since text analysis looks up every single token, all words are kept in a {@link DictionaryIndex} as well, which
+ * is loaded from the database on activation and updated whenever a change has been committed. All lookups are served
+ * from the index. Note that words that are added to the database by other nodes sharing it become visible only after
+ * the next activation.
  */
 public class DictionaryServiceJpaImpl implements DictionaryService {
 
@@ -54,6 +59,9 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
   /** The factory used to generate the entity manager */
   protected EntityManagerFactory emf = null;
 
+  /** The in-memory copy of the dictionary */
+  protected DictionaryIndex index = new DictionaryIndex();
+
   /**
    * Sets the JPA persistence provider
    * 
@@ -77,6 +85,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
   public void activate(ComponentContext cc) {
     logger.debug("activate");
     emf = persistenceProvider.createEntityManagerFactory("org.opencastproject.dictionary", persistenceProperties);
+    loadIndex();
   }
 
   public void deactivate() {
@@ -85,7 +94,35 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
   }
 
   /**
-   * Gets a word in a particular language, or null if it doesn't exist in that language.
+   * Loads all words from the database into the in-memory index.
+   */
+  @SuppressWarnings("unchecked")
+  protected void loadIndex() {
+    DictionaryIndex index = new DictionaryIndex();
+    EntityManager em = emf.createEntityManager();
+    try {
+      List<String> languages = em.createNamedQuery("Word.languageCount").getResultList();
+      for (String language : languages) {
+        long start = System.currentTimeMillis();
+        Query query = em.createNamedQuery("Word.wordsOfLanguage");
+        query.setParameter("language", language);
+        for (Object[] row : (List<Object[]>) query.getResultList()) {
+          long count = ((Number) row[1]).longValue();
+          double weight = ((Number) row[2]).doubleValue();
+          boolean stopWord = Boolean.TRUE.equals(row[3]);
+          index.put(new Word((String) row[0], language, count, weight, stopWord));
+        }
+        logger.info("Loaded {} words of the {} dictionary in {} ms", new Object[] { index.size(language), language,
+                System.currentTimeMillis() - start });
+      }
+    } finally {
+      em.close();
+    }
+    this.index = index;
+  }
+
+  /**
+   * Gets a word in a particular language from the database, or null if it doesn't exist in that language.
    * 
    * @param text
    *          The text of the word
@@ -128,6 +165,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
         tx.begin();
         em.persist(word);
         tx.commit();
+        index.put(word);
         logger.debug("Added '{}' to the {} dictionary", text, language);
       } catch (RollbackException e) {
         tx.rollback();
@@ -162,6 +200,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
         em.merge(word);
       }
       tx.commit();
+      index.put(word);
     } catch (RollbackException e) {
       tx.rollback();
       throw e;
@@ -196,6 +235,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
         em.merge(word);
       }
       tx.commit();
+      index.put(word);
     } catch (RollbackException e) {
       tx.rollback();
       throw e;
@@ -211,18 +251,11 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public DICT_TOKEN[] cleanText(String[] text, String language) {
-    DICT_TOKEN[] tokens = new DICT_TOKEN[text.length];
+    String[] words = new String[text.length];
     for (int i = 0; i < text.length; i++) {
-      Word word = getWord(text[i], language);
-      if (word == null) {
-        tokens[i] = DICT_TOKEN.NONE;
-      } else if (word.stopWord) {
-        tokens[i] = DICT_TOKEN.STOPWORD;
-      } else {
-        tokens[i] = DICT_TOKEN.WORD;
-      }
+      words[i] = Word.fixCase(text[i]);
     }
-    return tokens;
+    return index.getTokens(words, language);
   }
 
   /**
@@ -240,6 +273,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
       q.setParameter("language", language);
       int totalDeleted = q.executeUpdate();
       tx.commit();
+      index.clear(language);
       logger.info("Deleted {} words from the {} dictionary", totalDeleted, language);
     } catch (RollbackException e) {
       tx.rollback();
@@ -249,26 +283,6 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
     }
   }
 
-  /**
-   * Gets words for a particular string.
-   * 
-   * @param text
-   *          The text of the word
-   * @return The words from all languages
-   */
-  @SuppressWarnings("unchecked")
-  protected Word[] getWords(String text) {
-    text = Word.fixCase(text);
-    EntityManager em = emf.createEntityManager();
-    try {
-      Query query = em.createNamedQuery("Word.wordsFromText");
-      query.setParameter("text", text);
-      return (Word[]) query.getResultList().toArray(new Word[0]);
-    } finally {
-      em.close();
-    }
-  }
-
   /**
    * {@inheritDoc}
    * 
@@ -276,15 +290,14 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public String[] detectLanguage(String[] text) {
-    // FIXME This is not an efficient use of the database
     Map<String, Integer> languageScores = new HashMap<String, Integer>();
     for (String t : text) {
-      for (Word word : getWords(t)) {
-        Integer previousScore = languageScores.get(word.language);
+      for (String language : index.getLanguages(Word.fixCase(t))) {
+        Integer previousScore = languageScores.get(language);
         if (previousScore == null) {
-          languageScores.put(word.language, 1);
+          languageScores.put(language, 1);
         } else {
-          languageScores.put(word.language, ++previousScore);
+          languageScores.put(language, ++previousScore);
         }
       }
     }
@@ -331,16 +344,9 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    * 
    * @see org.opencastproject.dictionary.api.DictionaryService#getLanguages()
    */
-  @SuppressWarnings("unchecked")
   @Override
   public String[] getLanguages() {
-    EntityManager em = emf.createEntityManager();
-    try {
-      Query q = em.createNamedQuery("Word.languageCount");
-      return (String[]) q.getResultList().toArray(new String[0]);
-    } finally {
-      em.close();
-    }
+    return index.getLanguages();
   }
 
   /**
@@ -348,18 +354,9 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    * 
    * @see org.opencastproject.dictionary.api.DictionaryService#getLanguages(java.lang.String)
    */
-  @SuppressWarnings("unchecked")
   @Override
   public String[] getLanguages(String text) {
-    text = Word.fixCase(text);
-    EntityManager em = emf.createEntityManager();
-    try {
-      Query q = em.createNamedQuery("Word.wordByLanguage");
-      q.setParameter("text", text);
-      return (String[]) q.getResultList().toArray(new String[0]);
-    } finally {
-      em.close();
-    }
+    return index.getLanguages(Word.fixCase(text)).toArray(new String[0]);
   }
 
   /**
@@ -369,7 +366,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public Long getWordCount(String text, String language) {
-    Word word = getWord(text, language);
+    Word word = index.get(Word.fixCase(text), language);
     if (word == null) {
       return 0L;
     } else {
@@ -384,7 +381,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public double getWordWeight(String text, String language) {
-    Word word = getWord(text, language);
+    Word word = index.get(Word.fixCase(text), language);
     if (word == null) {
       return 0L;
     } else {
@@ -399,12 +396,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public Boolean isStopWord(String text) {
-    Word[] words = getWords(text);
-    for (Word w : words) {
-      if (w.stopWord)
-        return true;
-    }
-    return false;
+    return index.isStopWord(Word.fixCase(text));
   }
 
   /**
@@ -414,7 +406,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public Boolean isStopWord(String text, String language) {
-    Word word = getWord(text, language);
+    Word word = index.get(Word.fixCase(text), language);
     if (word == null) {
       return false;
     } else {
@@ -429,7 +421,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public Boolean isWord(String text) {
-    return getWords(text).length > 0;
+    return !index.getLanguages(Word.fixCase(text)).isEmpty();
   }
 
   /**
@@ -439,7 +431,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
    */
   @Override
   public Boolean isWord(String text, String language) {
-    return getWord(text, language) != null;
+    return index.get(Word.fixCase(text), language) != null;
   }
 
   /**
@@ -462,6 +454,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
       em.merge(word);
       logger.debug("Marked '{}' in the {} dictionary as a stop word", text, language);
       tx.commit();
+      index.put(word);
     } catch (RollbackException e) {
       tx.rollback();
       throw e;
@@ -488,6 +481,7 @@ public class DictionaryServiceJpaImpl implements DictionaryService {
       logger.info("Marked {} words with weights > {} as {} language stopwords", new Object[] { numUpdatedRows,
               threshold, language });
       tx.commit();
+      index.markStopWords(threshold, language);
     } catch (RollbackException e) {
       tx.rollback();
       throw e;
@@ -33,6 +33,7 @@ import javax.persistence.Table;
   @NamedQuery(name = "Word.get", query = "SELECT w FROM Word w where w.text = :text and w.language = :language"),
   @NamedQuery(name = "Word.deleteLanguage", query = "DELETE from Word w where w.language = :language"),
   @NamedQuery(name = "Word.wordsFromText", query = "SELECT w FROM Word w where w.text = :text"),
+  @NamedQuery(name = "Word.wordsOfLanguage", query = "SELECT w.text, w.count, w.weight, w.stopWord FROM Word w where w.language = :language"),
   @NamedQuery(name = "Word.languageCount", query = "SELECT DISTINCT w.language from Word w"),
   @NamedQuery(name = "Word.wordByLanguage", query = "SELECT DISTINCT w.language from Word w where w.text = :text"),
   @NamedQuery(name = "Word.updateStopWords", query = "UPDATE Word w set w.stopWord = true where w.weight > :threshold and w.language = :language")
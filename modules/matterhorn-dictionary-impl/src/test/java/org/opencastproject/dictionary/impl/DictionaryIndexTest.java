@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.dictionary.impl;
+
+import org.opencastproject.dictionary.api.DictionaryService.DICT_TOKEN;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DictionaryIndexTest {
+
+  @Test
+  public void testManyWords() throws Exception {
+    DictionaryIndex index = new DictionaryIndex();
+    for (int i = 0; i < 10000; i++) {
+      index.put(new Word("WORD" + i, "en", i, i / 10000d, i % 100 == 0));
+    }
+    Assert.assertEquals(10000, index.size("en"));
+    for (int i = 0; i < 10000; i++) {
+      Word word = index.get("WORD" + i, "en");
+      Assert.assertNotNull(word);
+      Assert.assertEquals(i, word.getCount());
+      Assert.assertEquals(i % 100 == 0, word.isStopWord());
+    }
+    Assert.assertNull(index.get("WORD10000", "en"));
+    Assert.assertNull(index.get("WORD1", "de"));
+  }
+
+  @Test
+  public void testReplaceWord() throws Exception {
+    DictionaryIndex index = new DictionaryIndex();
+    index.put(new Word("FOO", "en", 1, 0.1d));
+    index.put(new Word("FOO", "en", 2, 0.2d, true));
+    Assert.assertEquals(1, index.size("en"));
+    Assert.assertEquals(2, index.get("FOO", "en").getCount());
+    Assert.assertArrayEquals(new DICT_TOKEN[] { DICT_TOKEN.STOPWORD, DICT_TOKEN.NONE },
+            index.getTokens(new String[] { "FOO", "BAR" }, "en"));
+  }
+
+  @Test
+  public void testMarkStopWordsAndClear() throws Exception {
+    DictionaryIndex index = new DictionaryIndex();
+    index.put(new Word("FOO", "en", 10, 0.5d));
+    index.put(new Word("BAR", "en", 1, 0.1d));
+    index.put(new Word("FOO", "de", 10, 0.5d));
+    index.markStopWords(0.4d, "en");
+    Assert.assertTrue(index.get("FOO", "en").isStopWord());
+    Assert.assertFalse(index.get("BAR", "en").isStopWord());
+    Assert.assertFalse(index.get("FOO", "de").isStopWord());
+    Assert.assertEquals(2, index.getLanguages("FOO").size());
+    index.clear("en");
+    Assert.assertEquals(1, index.getLanguages("FOO").size());
+    Assert.assertArrayEquals(new String[] { "de" }, index.getLanguages());
+  }
+
+}
@@ -183,5 +183,29 @@ public class DictionaryServiceJpaImplTest {
     Assert.assertTrue(service.isStopWord("foo", "en"));
   }
 
-  
+  @Test
+  public void testIndexIsLoadedOnActivation() throws Exception {
+    service.addWord("foo", "en", 10, 0.5d);
+    service.addWord("bar", "en", 2, 0.1d);
+    service.addWord("bar", "de", 3, 0.2d);
+    service.parseStopWords(0.4d, "en");
+
+    // A new service instance must find the words in the database
+    DictionaryServiceJpaImpl other = new DictionaryServiceJpaImpl();
+    other.setPersistenceProperties(service.persistenceProperties);
+    other.setPersistenceProvider(new PersistenceProvider());
+    other.activate(null);
+    try {
+      Assert.assertEquals(2, other.getLanguages().length);
+      Assert.assertEquals(new Long(3), other.getWordCount("bar", "de"));
+      Assert.assertEquals(0.1d, other.getWordWeight("bar", "en"), 0.001d);
+      Assert.assertTrue(other.isStopWord("foo", "en"));
+      Assert.assertFalse(other.isStopWord("bar"));
+      DICT_TOKEN[] tokens = other.cleanText(new String[] { "Foo", "bar", "baz" }, "en");
+      Assert.assertArrayEquals(new DICT_TOKEN[] { DICT_TOKEN.STOPWORD, DICT_TOKEN.WORD, DICT_TOKEN.NONE }, tokens);
+    } finally {
+      other.deactivate();
+    }
+  }
+
 }
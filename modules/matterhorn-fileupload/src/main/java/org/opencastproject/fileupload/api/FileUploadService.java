@@ -70,7 +70,8 @@ public interface FileUploadService {
    */
   void deleteJob(String id) throws FileUploadException;
   
-  /** Appends the next part to the payload and updates the upload job accordingly.
+  /** Writes a part of the payload and updates the upload job accordingly. Parts may be sent concurrently and in any
+   * order, sending a part that has already been received again has no effect.
    * 
    * @param job the job object for the upload
    * @param chunk the number of the chunk being transfered
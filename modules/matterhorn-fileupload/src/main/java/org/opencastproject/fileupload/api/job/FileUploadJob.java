@@ -15,6 +15,7 @@
  */
 package org.opencastproject.fileupload.api.job;
 
+import java.util.BitSet;
 import java.util.UUID;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -57,6 +58,7 @@ public class FileUploadJob {
   private long chunksTotal = 1;             // total number of chunks the upload consists of
   @XmlElement(name = "current-chunk")
   private Chunk currentChunk = new Chunk(); // information about the current chunk
+  private BitSet chunksReceived = new BitSet(); // the chunks that have been received completely
 
   public FileUploadJob() {
     this.id = UUID.randomUUID().toString();
@@ -108,4 +110,68 @@ public class FileUploadJob {
   public void setCurrentChunk(Chunk currentChunk) {
     this.currentChunk = currentChunk;
   }
+
+  public boolean isChunkReceived(int chunk) {
+    return chunksReceived.get(chunk);
+  }
+
+  public void setChunkReceived(int chunk) {
+    chunksReceived.set(chunk);
+  }
+
+  /** Returns the number of chunks that have been received completely.
+   *
+   * @return number of received chunks
+   */
+  public int getChunksReceivedCount() {
+    return chunksReceived.cardinality();
+  }
+
+  /** Returns the number of chunks that have been received without a gap, starting at the first chunk.
+   *
+   * @return number of consecutive chunks received
+   */
+  public int getChunksReceivedInOrder() {
+    return chunksReceived.nextClearBit(0);
+  }
+
+  /** Returns the received chunks as a list of ranges, e.g. <code>0-11,13,15-16</code>.
+   *
+   * @return String ranges of received chunks
+   */
+  @XmlElement(name = "chunks-received")
+  public String getChunksReceived() {
+    StringBuilder sb = new StringBuilder();
+    for (int start = chunksReceived.nextSetBit(0); start >= 0; start = chunksReceived.nextSetBit(start)) {
+      int end = chunksReceived.nextClearBit(start) - 1;
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(start);
+      if (end > start) {
+        sb.append('-').append(end);
+      }
+      start = end + 1;
+    }
+    return sb.toString();
+  }
+
+  public void setChunksReceived(String ranges) {
+    chunksReceived.clear();
+    if (ranges == null) {
+      return;
+    }
+    for (String range : ranges.split(",")) {
+      range = range.trim();
+      if (range.length() == 0) {
+        continue;
+      }
+      int dash = range.indexOf('-');
+      if (dash < 0) {
+        chunksReceived.set(Integer.parseInt(range));
+      } else {
+        chunksReceived.set(Integer.parseInt(range.substring(0, dash)), Integer.parseInt(range.substring(dash + 1)) + 1);
+      }
+    }
+  }
 }
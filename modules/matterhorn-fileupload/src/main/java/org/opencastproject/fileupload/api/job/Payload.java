@@ -41,6 +41,8 @@ public class Payload {
   MediaPackage mediapackage;          // the mediapackage this UploadJob should belong to
   @XmlElement(name = "flavor")
   MediaPackageElementFlavor flavor;
+  @XmlElement(name = "checksum")
+  String checksum;                    // md5 checksum of the file, available once the upload is complete
 
   public Payload() {
     this.filename = "unknown";
@@ -93,4 +95,12 @@ public class Payload {
   public void setFlavor(MediaPackageElementFlavor flavor) {
     this.flavor = flavor;
   }
+
+  public String getChecksum() {
+    return this.checksum;
+  }
+
+  public void setChecksum(String checksum) {
+    this.checksum = checksum;
+  }
 }
@@ -18,13 +18,18 @@ package org.opencastproject.fileupload.service;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
-import java.util.HashMap;
-import java.util.logging.Level;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
@@ -37,8 +42,11 @@ import org.opencastproject.fileupload.api.job.Chunk;
 import org.opencastproject.fileupload.api.job.FileUploadJob;
 import org.opencastproject.fileupload.api.job.Payload;
 import org.opencastproject.mediapackage.MediaPackage;
+import org.opencastproject.mediapackage.MediaPackageElement;
 import org.opencastproject.mediapackage.MediaPackageElement.Type;
 import org.opencastproject.mediapackage.MediaPackageElementFlavor;
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
 import org.opencastproject.util.PathSupport;
 import org.opencastproject.workingfilerepository.api.WorkingFileRepository;
 import org.osgi.service.component.ComponentContext;
@@ -55,16 +63,14 @@ public class FileUploadServiceImpl implements FileUploadService {
   final String PROPKEY_STORAGE_DIR = "org.opencastproject.storage.dir";
   final String DIRNAME_WORK_ROOT = "fileupload";
   final String FILENAME_DATAFILE = "payload.part";
-  final String FILENAME_CHUNKFILE = "chunk.part";
   final String FILENAME_JOBFILE = "job.xml";
-  final int READ_BUFFER_LENGTH = 512;
+  final int WRITE_BUFFER_LENGTH = 64 * 1024;
   private static final Logger log = LoggerFactory.getLogger(FileUploadServiceImpl.class);
   private Marshaller jobMarshaller;
   private Unmarshaller jobUnmarshaller;
   private File workRoot;
   private FileUploadHandler uploadHandler;
-  private HashMap<String, FileUploadJob> jobCache = new HashMap<String, FileUploadJob>();
-  private byte[] readBuffer = new byte[READ_BUFFER_LENGTH];
+  private ConcurrentMap<String, UploadState> uploads = new ConcurrentHashMap<String, UploadState>();   // uploads that have received chunks since the job was loaded
   private String rootDirectory;
   private WorkingFileRepository repository;
 
@@ -127,7 +133,7 @@ public class FileUploadServiceImpl implements FileUploadService {
     try {
       File jobDir = getJobDir(job.getId());       // create working dir
       FileUtils.forceMkdir(jobDir);
-      ensureExists(getPayloadFile(job.getId()));  // create empty payload file
+      allocate(getPayloadFile(job.getId()), filesize);  // create payload file, chunks are written to their position
       storeJob(job);                              // create job file
 
     } catch (FileUploadException e) {
@@ -151,7 +157,7 @@ public class FileUploadServiceImpl implements FileUploadService {
   @Override
   public boolean hasJob(String id) {
     try {
-      if (isLocked(id)) {
+      if (uploads.containsKey(id)) {
         return true;
       } else {
         File dir = getJobDir(id);
@@ -171,12 +177,15 @@ public class FileUploadServiceImpl implements FileUploadService {
   @Override
   public FileUploadJob getJob(String id) throws FileUploadException {
     try {
-      if (isLocked(id)) {
-        return jobCache.get(id);
+      UploadState upload = uploads.get(id);
+      if (upload != null) {
+        publishProgress(upload);
+        return upload.job;
       } else {
         File jobFile = getJobFile(id);
-        FileUploadJob job = (FileUploadJob) jobUnmarshaller.unmarshal(jobFile);
-        return job;
+        synchronized (jobUnmarshaller) {
+          return (FileUploadJob) jobUnmarshaller.unmarshal(jobFile);
+        }
       }
     } catch (Exception e) {
       log.warn("Failed to load job " + id + ": " + e.getMessage());
@@ -193,7 +202,9 @@ public class FileUploadServiceImpl implements FileUploadService {
   public void storeJob(FileUploadJob job) throws FileUploadException {
     try {
       File jobFile = ensureExists(getJobFile(job.getId()));
-      jobMarshaller.marshal(job, jobFile);
+      synchronized (jobMarshaller) {
+        jobMarshaller.marshal(job, jobFile);
+      }
     } catch (Exception e) {
       log.warn("Error while storing upload job: " + e.getMessage());
       throw new FileUploadException("Failed to write job file.");
@@ -208,9 +219,7 @@ public class FileUploadServiceImpl implements FileUploadService {
   @Override
   public void deleteJob(String id) throws FileUploadException {
     try {
-      if (isLocked(id)) {
-        jobCache.remove(id);
-      }
+      uploads.remove(id);
       File jobDir = new File(workRoot.getAbsolutePath() + File.separator + id);
       FileUtils.forceDelete(jobDir);
     } catch (Exception e) {
@@ -222,157 +231,301 @@ public class FileUploadServiceImpl implements FileUploadService {
   /**
    * {@inheritDoc}
    * 
+   * Chunks may be uploaded concurrently and in any order. Each chunk is written directly to its position in the payload
+   * file, and chunks that have already been received are accepted without being written again, so that clients can
+   * safely retry.
+   * 
    * @see org.opencastproject.fileupload.api.FileUploadService#acceptChunk(org.opencastproject.fileupload.api.job.FileUploadJob job, long chunk, InputStream content)
    */
   @Override
   public void acceptChunk(FileUploadJob job, long chunk, InputStream content) throws FileUploadException {
-    // job ready to recieve data?
-    if (isLocked(job.getId())) {
-      throw new FileUploadException("Job is locked. Seems like a concurrent upload to this job is in progress.");
-    } else {
-      lock(job);
-    }
+    UploadState upload = getUploadState(job);
+    FileUploadJob activeJob = upload.job;
+    int chunkNumber;
+    MessageDigest digest = null;
+    AtomicLong received = new AtomicLong();
+    synchronized (upload) {
+      // chunk belongs to this job?
+      if (chunk < 0 || chunk >= activeJob.getChunksTotal()) {
+        IOUtils.closeQuietly(content);
+        StringBuilder sb = new StringBuilder().append("Wrong chunk number! Awaiting #0 to #").append(activeJob.getChunksTotal() - 1).append(" but #").append(Long.toString(chunk)).append(" was offered.");
+        throw new FileUploadException(sb.toString());
+      }
+      chunkNumber = (int) chunk;
+
+      // chunk already received? Then this is a retry, which is fine
+      if (activeJob.isChunkReceived(chunkNumber)) {
+        IOUtils.closeQuietly(content);
+        log.debug("Chunk #{} of upload job {} has already been received", chunkNumber, activeJob.getId());
+        if (activeJob.getState().equals(FileUploadJob.JobState.COMPLETE)) {
+          uploads.remove(activeJob.getId());
+        }
+        return;
+      }
 
-    // job already completed?
-    if (job.getState().equals(FileUploadJob.JobState.COMPLETE)) {
-      unlock(job);
-      throw new FileUploadException("Job is already complete!");
-    }
+      // job already completed?
+      if (activeJob.getState().equals(FileUploadJob.JobState.COMPLETE)) {
+        IOUtils.closeQuietly(content);
+        throw new FileUploadException("Job is already complete!");
+      }
+      if (upload.chunksInProgress.get(chunkNumber)) {
+        IOUtils.closeQuietly(content);
+        throw new FileUploadException("Chunk #" + chunkNumber + " is already being received.");
+      }
+      upload.chunksInProgress.set(chunkNumber);
+      upload.bytesInProgress.put(chunkNumber, received);
+      activeJob.setState(FileUploadJob.JobState.INPROGRESS);
 
-    // right chunk offered?
-    int supposedChunk = job.getCurrentChunk().getNumber() + 1;
-    if (chunk != supposedChunk) {
-      StringBuilder sb = new StringBuilder().append("Wrong chunk number! Awaiting #").append(supposedChunk).append(" but #").append(Long.toString(chunk)).append(" was offered.");
-      unlock(job);
-      throw new FileUploadException(sb.toString());
+      // if this is the next chunk to be added to the checksum, it can be added while it is being written
+      if (upload.chunksDigested == chunkNumber) {
+        digest = upload.cloneDigest();
+      }
     }
 
-    // write chunk to temp file
-    job.getCurrentChunk().incrementNumber();
-    File chunkFile = ensureExists(getChunkFile(job.getId()));
-    OutputStream out = null;
+    // write chunk to its position in the payload file
+    long supposedSize = getChunkSize(activeJob, chunkNumber);
+    boolean stored = false;
+    boolean complete = false;
+    RandomAccessFile payloadFile = null;
     try {
-      out = new FileOutputStream(chunkFile, false);
-      int bytesRead = 0;
-      long bytesReadTotal = 0l;
-      Chunk currentChunk = job.getCurrentChunk();           // implemented copy manually (instead of using IOUtils.copy()) so we can count the number of bytes
-      do {
-        bytesRead = content.read(readBuffer);
-        if (bytesRead > 0) {
-          out.write(readBuffer, 0, bytesRead);
-          bytesReadTotal += bytesRead;
-          currentChunk.setRecieved(bytesReadTotal);
-        }
-      } while (bytesRead != -1);
-      if (job.getPayload().getTotalSize() == -1 && job.getChunksTotal() == 1) { // set totalSize in case of ordinary from submit
-        job.getPayload().setTotalSize(bytesReadTotal);
+      payloadFile = new RandomAccessFile(getPayloadFile(activeJob.getId()), "rw");
+      FileChannel channel = payloadFile.getChannel();
+      long actualSize = writeChunk(content, channel, getChunkOffset(activeJob, chunkNumber), supposedSize, digest, received);
+
+      // check if chunk has right size
+      if (supposedSize == -1) {             // ordinary form submit, the size is not known in advance
+        payloadFile.setLength(actualSize);
+      } else if (actualSize != supposedSize) {
+        StringBuilder sb = new StringBuilder().append("Chunk has wrong size. Awaited: ").append(supposedSize).append(" bytes, recieved: ").append(actualSize).append(" bytes.");
+        throw new FileUploadException(sb.toString());
       }
-    } catch (Exception e) {
-      unlock(job);
+
+      complete = chunkReceived(upload, chunkNumber, actualSize, digest, channel);
+      stored = true;
+    } catch (IOException e) {
       throw new FileUploadException("Failed to store chunk data!", e);
     } finally {
       IOUtils.closeQuietly(content);
-      IOUtils.closeQuietly(out);
+      closeQuietly(payloadFile);
+      if (!stored) {
+        synchronized (upload) {
+          upload.chunksInProgress.clear(chunkNumber);
+          upload.bytesInProgress.remove(chunkNumber);
+          // the progress of the failed chunk may have been reported, so go back to the chunks received in order
+          int chunksInOrder = activeJob.getChunksReceivedInOrder();
+          if (chunksInOrder > 0) {
+            activeJob.setCurrentChunk(new Chunk(chunksInOrder - 1, getChunkSize(activeJob, chunksInOrder - 1)));
+          } else {
+            activeJob.setCurrentChunk(new Chunk());
+          }
+          if (upload.chunksInProgress.isEmpty()) {
+            activeJob.setState(FileUploadJob.JobState.READY);
+          }
+        }
+      }
     }
 
-    // check if chunk has right size<
-    long actualSize = chunkFile.length();
-    long supposedSize;
-    if (chunk == job.getChunksTotal() - 1) {
-      supposedSize = job.getPayload().getTotalSize() % job.getChunksize();
-      supposedSize = supposedSize == 0 ? job.getChunksize() : supposedSize;     // a not so nice workaround for the rare case that file size is a multiple of chunk size
-    } else {
-      supposedSize = job.getChunksize();
+    // update job
+    if (complete) {                             // upload is complete
+      log.info("Upload job completed: {}", activeJob.getId());
+      finalizeJob(activeJob);
+      notifyUploadHandler(activeJob);
     }
-    if (actualSize == supposedSize
-            || (job.getChunksTotal() == 1 && job.getChunksize() == -1)) {
+  }
 
-      // append chunk to payload file
-      FileInputStream in = null;
-      try {
-        File payloadFile = getPayloadFile(job.getId());
-        in = new FileInputStream(chunkFile);
-        out = new FileOutputStream(payloadFile, true);
-        IOUtils.copy(in, out);
-        Payload payload = job.getPayload();
-        payload.setCurrentSize(payload.getCurrentSize() + actualSize);
+  /** Copies a chunk to its position in the payload file.
+   * 
+   * @param content the chunk data
+   * @param channel the payload file
+   * @param offset position of the chunk in the payload file
+   * @param size expected size of the chunk or -1 if not known
+   * @param digest digest to update with the chunk data, may be <code>null</code>
+   * @param received updated with the number of bytes recieved so far, so that the progress can be reported
+   * @return long number of bytes recieved, which may exceed the number of bytes written if the chunk is too large
+   * @throws IOException 
+   */
+  private long writeChunk(InputStream content, FileChannel channel, long offset, long size, MessageDigest digest, AtomicLong received) throws IOException {
+    byte[] buffer = new byte[WRITE_BUFFER_LENGTH];
+    long bytesReadTotal = 0L;
+    int bytesRead = 0;
+    while ((bytesRead = content.read(buffer)) != -1) {
+      // never write beyond the end of the chunk, which would overwrite the next one
+      int length = bytesRead;
+      if (size != -1) {
+        length = (int) Math.max(0, Math.min(bytesRead, size - bytesReadTotal));
+      }
+      if (length > 0) {
+        ByteBuffer bb = ByteBuffer.wrap(buffer, 0, length);
+        long position = offset + bytesReadTotal;
+        while (bb.hasRemaining()) {
+          position += channel.write(bb, position);
+        }
+        if (digest != null) {
+          digest.update(buffer, 0, length);
+        }
+      }
+      bytesReadTotal += bytesRead;
+      received.set(bytesReadTotal);
+    }
+    return bytesReadTotal;
+  }
 
-      } catch (IOException e) {
-        log.error("Failed to append chunk data.", e);
-        unlock(job);
-        throw new FileUploadException("Could not append chunk data", e);
+  /** Marks a chunk as received, updates the job and the checksum, and stores the job.
+   * 
+   * @param upload the upload
+   * @param chunk number of the chunk that has been written
+   * @param size size of the chunk
+   * @param digest digest that has been updated with the chunk data while it was written, may be <code>null</code>
+   * @param channel the payload file, used to add chunks that have been received out of order to the checksum
+   * @return true if the upload is complete, false otherwise
+   * @throws IOException 
+   * @throws FileUploadException 
+   */
+  private boolean chunkReceived(UploadState upload, int chunk, long size, MessageDigest digest, FileChannel channel) throws IOException, FileUploadException {
+    synchronized (upload) {
+      FileUploadJob job = upload.job;
+      upload.chunksInProgress.clear(chunk);
+      upload.bytesInProgress.remove(chunk);
+      job.setChunkReceived(chunk);
+      Payload payload = job.getPayload();
+      payload.setCurrentSize(payload.getCurrentSize() + size);
+      if (payload.getTotalSize() == -1 && job.getChunksTotal() == 1) { // set totalSize in case of ordinary from submit
+        payload.setTotalSize(size);
+      }
 
-      } finally {
-        IOUtils.closeQuietly(in);
-        IOUtils.closeQuietly(out);
-        deleteChunkFile(job.getId());
+      // report the progress of the chunks that have been received in order
+      int chunksInOrder = job.getChunksReceivedInOrder();
+      if (chunksInOrder > 0) {
+        job.setCurrentChunk(new Chunk(chunksInOrder - 1, getChunkSize(job, chunksInOrder - 1) == -1 ? size : getChunkSize(job, chunksInOrder - 1)));
       }
 
-    } else {
-      StringBuilder sb = new StringBuilder().append("Chunk has wrong size. Awaited: ").append(supposedSize).append(" bytes, recieved: ").append(actualSize).append(" bytes.");
-      unlock(job);
-      throw new FileUploadException(sb.toString());
-    }
+      // add all chunks that are now available in order to the checksum
+      if (digest != null && upload.chunksDigested == chunk) {
+        upload.digest = digest;
+        upload.chunksDigested++;
+      }
+      while (upload.chunksDigested < chunksInOrder) {
+        int next = upload.chunksDigested;
+        readChunk(channel, getChunkOffset(job, next), getChunkSize(job, next) == -1 ? size : getChunkSize(job, next), upload.digest);
+        upload.chunksDigested++;
+      }
 
-    // update job
-    if (chunk == job.getChunksTotal() - 1) {    // upload is complete
-      log.info("Upload job completed: {}", job.getId());
-      finalizeJob(job);
-      notifyUploadHandler(job);
-    } else {                                  // upload still in-complete
-      unlock(job);
+      if (job.getChunksReceivedCount() == job.getChunksTotal()) {
+        payload.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, upload.digest.digest()).getValue());
+        return true;
+      }
+
+      if (upload.chunksInProgress.isEmpty()) {
+        job.setState(FileUploadJob.JobState.READY);
+      }
       storeJob(job);
+      return false;
     }
   }
 
-  /**
-   * {@inheritDoc}
+  /** Reports the bytes recieved of the chunk that follows the chunks recieved in order, if it is being written, as the
+   * job's current chunk. This keeps the progress up to date while a chunk is being uploaded, e.g. for an ordinary form
+   * submit which sends the whole file as a single chunk.
    * 
-   * @see org.opencastproject.fileupload.api.FileUploadService#getPayload(org.opencastproject.fileupload.api.job.FileUploadJob job)
+   * @param upload the upload
    */
-  @Override
-  public InputStream getPayload(FileUploadJob job) throws FileUploadException {
-    // job not locked?
-    if (isLocked(job.getId())) {
-      throw new FileUploadException("Job is locked. Download is only permitted while no upload to this job is in progress.");
-    } else {
-      lock(job);
+  private void publishProgress(UploadState upload) {
+    synchronized (upload) {
+      FileUploadJob job = upload.job;
+      int next = job.getChunksReceivedInOrder();
+      AtomicLong received = upload.bytesInProgress.get(next);
+      if (received != null) {
+        job.setCurrentChunk(new Chunk(next, received.get()));
+      }
     }
+  }
 
-    try {
-      FileInputStream payload = new FileInputStream(getPayloadFile(job.getId()));
-      return payload;
-    } catch (FileNotFoundException e) {
-      throw new FileUploadException("Failed to retrieve file from job " + job.getId());
+  /** Adds a chunk that has already been written to the payload file to the digest.
+   * 
+   * @param channel the payload file
+   * @param offset position of the chunk in the payload file
+   * @param size size of the chunk
+   * @param digest the digest to update
+   * @throws IOException 
+   */
+  private void readChunk(FileChannel channel, long offset, long size, MessageDigest digest) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate((int) Math.min(size, WRITE_BUFFER_LENGTH));
+    long position = offset;
+    long end = offset + size;
+    while (position < end) {
+      bb.clear();
+      bb.limit((int) Math.min(bb.capacity(), end - position));
+      int bytesRead = channel.read(bb, position);
+      if (bytesRead == -1) {
+        throw new IOException("Payload file ends before chunk at offset " + offset);
+      }
+      position += bytesRead;
+      digest.update(bb.array(), 0, bytesRead);
     }
   }
 
-  /** Locks an upload job.
+  /** Returns the position of a chunk in the payload file.
    * 
-   * @param job job to lock
+   * @param job the upload job
+   * @param chunk the chunk number
+   * @return long offset of the chunk
    */
-  private void lock(FileUploadJob job) {
-    job.setState(FileUploadJob.JobState.INPROGRESS);
-    jobCache.put(job.getId(), job);
+  private long getChunkOffset(FileUploadJob job, int chunk) {
+    if (job.getChunksize() == -1) {
+      return 0L;
+    }
+    return (long) chunk * job.getChunksize();
   }
 
-  /** Returns true if the job with the given ID is currently locked.
+  /** Returns the size a chunk is supposed to have.
    * 
-   * @param id ID of the job in question
-   * @return true if job is locked, false otherwise
+   * @param job the upload job
+   * @param chunk the chunk number
+   * @return long size of the chunk or -1 if it can not be known in advance
    */
-  private boolean isLocked(String id) {
-    return jobCache.containsKey(id);
+  private long getChunkSize(FileUploadJob job, int chunk) {
+    if (job.getChunksize() == -1) {
+      return -1L;
+    } else if (chunk == job.getChunksTotal() - 1) {
+      long supposedSize = job.getPayload().getTotalSize() % job.getChunksize();
+      return supposedSize == 0 ? job.getChunksize() : supposedSize;     // a not so nice workaround for the rare case that file size is a multiple of chunk size
+    } else {
+      return job.getChunksize();
+    }
   }
 
-  /** Unlocks an upload job.
+  /**
+   * {@inheritDoc}
    * 
-   * @param job job to unlock
+   * @see org.opencastproject.fileupload.api.FileUploadService#getPayload(org.opencastproject.fileupload.api.job.FileUploadJob job)
+   */
+  @Override
+  public InputStream getPayload(FileUploadJob job) throws FileUploadException {
+    try {
+      FileInputStream payload = new FileInputStream(getPayloadFile(job.getId()));
+      return payload;
+    } catch (FileNotFoundException e) {
+      throw new FileUploadException("Failed to retrieve file from job " + job.getId());
+    }
+  }
+
+  /** Returns the state of an upload that is in progress, creating it if this is the first chunk since the job has
+   * been loaded.
+   * 
+   * @param job the upload job
+   * @return UploadState the state of the upload, which holds the job instance all uploads to this job work on
    * @throws FileUploadException 
    */
-  private void unlock(FileUploadJob job) throws FileUploadException {
-    jobCache.remove(job.getId());
-    job.setState(FileUploadJob.JobState.READY);
+  private UploadState getUploadState(FileUploadJob job) throws FileUploadException {
+    UploadState upload = uploads.get(job.getId());
+    if (upload == null) {
+      upload = new UploadState(job);
+      UploadState existing = uploads.putIfAbsent(job.getId(), upload);
+      if (existing != null) {
+        upload = existing;
+      }
+    }
+    return upload;
   }
 
   /** Unlocks an finalizes an upload job. 
@@ -403,13 +556,16 @@ public class FileUploadServiceImpl implements FileUploadService {
 
         FileUtils.moveFile(source, dest);
         URI uri = repository.getURI(mp.getIdentifier().toString(), job.getId(), job.getPayload().getFilename());
-        mp.add(uri, Type.Track, job.getPayload().getFlavor());
+        MediaPackageElement element = mp.add(uri, Type.Track, job.getPayload().getFlavor());
+        if (job.getPayload().getChecksum() != null) {
+          element.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, job.getPayload().getChecksum()));
+        }
       } catch (IOException e) {
         log.error(e.getLocalizedMessage(), e);
       }
     }
     storeJob(job);
-    jobCache.remove(job.getId());
+    uploads.remove(job.getId());
   }
 
   /** Notifies the registered UploadHandler that an upload has been finished.
@@ -436,18 +592,35 @@ public class FileUploadServiceImpl implements FileUploadService {
     }
   }
 
-  /** Deletes the chunk file from workspace.
+  /** Creates the payload file with its final size, so that chunks can be written to it in any order.
    * 
-   * @param id ID of the job of which the chunk file should be deleted
+   * @param file the payload file
+   * @param size size of the file or -1 if it is not known
+   * @throws IOException 
    */
-  private void deleteChunkFile(String id) {
-    File chunkFile = getChunkFile(id);
-    try {
-      if (!chunkFile.delete()) {
-        throw new RuntimeException("Could not delete chunk file");
+  private void allocate(File file, long size) throws IOException {
+    ensureExists(file);
+    if (size > 0) {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(size);
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  /** Closes a file, ignoring any exception.
+   * 
+   * @param file file to close, may be <code>null</code>
+   */
+  private void closeQuietly(RandomAccessFile file) {
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        log.debug("Failed to close payload file: {}", e.getMessage());
       }
-    } catch (Exception e) {
-      log.warn("Could not delete chunk file " + chunkFile.getAbsolutePath());
     }
   }
 
@@ -488,16 +661,6 @@ public class FileUploadServiceImpl implements FileUploadService {
     return new File(sb.toString());
   }
 
-  /** Returns the chunk file for a given job ID.
-   * 
-   * @param id ID for which a chunk file name should be generated
-   * @return File chunk file
-   */
-  private File getChunkFile(String id) {
-    StringBuilder sb = new StringBuilder().append(workRoot.getAbsolutePath()).append(File.separator).append(id).append(File.separator).append(FILENAME_CHUNKFILE);
-    return new File(sb.toString());
-  }
-
   /** Returns the payload file for a given job ID.
    * 
    * @param id ID for which a payload file name should be generated
@@ -521,4 +684,34 @@ public class FileUploadServiceImpl implements FileUploadService {
     job.getPayload().setMediaPackage(mp);
     storeJob(job);
   }
+
+  /** The state of an upload that is not kept with the job.
+   * 
+   */
+  private static final class UploadState {
+
+    final FileUploadJob job;                    // the job instance that all uploads to the job work on
+    final BitSet chunksInProgress = new BitSet();   // chunks that are currently being written
+    final ConcurrentMap<Integer, AtomicLong> bytesInProgress = new ConcurrentHashMap<Integer, AtomicLong>();  // bytes recieved of the chunks being written
+    MessageDigest digest;                       // checksum of the chunks that have been received in order
+    int chunksDigested = 0;                     // number of chunks that have been added to the checksum
+
+    UploadState(FileUploadJob job) {
+      this.job = job;
+      try {
+        this.digest = MessageDigest.getInstance(ChecksumType.DEFAULT_TYPE.getName());
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("This system does not support checksums of type " + ChecksumType.DEFAULT_TYPE.getName());
+      }
+    }
+
+    /** Returns a copy of the digest, which can be updated with the next chunk while it is being written. */
+    MessageDigest cloneDigest() {
+      try {
+        return (MessageDigest) digest.clone();
+      } catch (CloneNotSupportedException e) {
+        return null;
+      }
+    }
+  }
 }
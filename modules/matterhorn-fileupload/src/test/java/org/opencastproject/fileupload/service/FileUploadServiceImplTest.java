@@ -0,0 +1,274 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.fileupload.service;
+
+import org.opencastproject.fileupload.api.exception.FileUploadException;
+import org.opencastproject.fileupload.api.job.FileUploadJob;
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class FileUploadServiceImplTest {
+
+  private static final int CHUNK_SIZE = 1000;
+
+  /** Ten full chunks and a partial one */
+  private static final byte[] DATA = new byte[10 * CHUNK_SIZE + 123];
+
+  private File storageDir;
+
+  private FileUploadServiceImpl service;
+
+  @Before
+  public void setUp() throws Exception {
+    new Random(42).nextBytes(DATA);
+    storageDir = new File("target", "fileupload-test");
+    FileUtils.deleteQuietly(storageDir);
+    service = newService();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(storageDir);
+  }
+
+  private FileUploadServiceImpl newService() throws Exception {
+    BundleContext bundleContext = EasyMock.createNiceMock(BundleContext.class);
+    EasyMock.expect(bundleContext.getProperty("org.opencastproject.storage.dir"))
+            .andReturn(storageDir.getAbsolutePath()).anyTimes();
+    ComponentContext cc = EasyMock.createNiceMock(ComponentContext.class);
+    EasyMock.expect(cc.getBundleContext()).andReturn(bundleContext).anyTimes();
+    EasyMock.replay(bundleContext, cc);
+    FileUploadServiceImpl service = new FileUploadServiceImpl();
+    service.activate(cc);
+    return service;
+  }
+
+  private void accept(FileUploadJob job, int chunk) throws FileUploadException {
+    int offset = chunk * CHUNK_SIZE;
+    int length = Math.min(CHUNK_SIZE, DATA.length - offset);
+    service.acceptChunk(job, chunk, new ByteArrayInputStream(DATA, offset, length));
+  }
+
+  private void assertPayload(FileUploadJob job) throws Exception {
+    Assert.assertEquals(FileUploadJob.JobState.COMPLETE, job.getState());
+    InputStream in = service.getPayload(job);
+    try {
+      Assert.assertTrue(Arrays.equals(DATA, IOUtils.toByteArray(in)));
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    MessageDigest md = MessageDigest.getInstance(ChecksumType.DEFAULT_TYPE.getName());
+    Assert.assertEquals(Checksum.create(ChecksumType.DEFAULT_TYPE, md.digest(DATA)).getValue(), job.getPayload()
+            .getChecksum());
+  }
+
+  @Test
+  public void testChunksOutOfOrder() throws Exception {
+    FileUploadJob job = service.createJob("test.bin", DATA.length, CHUNK_SIZE, null, null);
+    Assert.assertEquals(11, job.getChunksTotal());
+    for (int chunk : new int[] { 3, 0, 10, 5, 1, 2, 4, 9, 6, 8, 7 }) {
+      Assert.assertFalse(FileUploadJob.JobState.COMPLETE.equals(job.getState()));
+      accept(job, chunk);
+    }
+    job = service.getJob(job.getId());
+    Assert.assertEquals(DATA.length, job.getPayload().getCurrentSize());
+    assertPayload(job);
+  }
+
+  @Test
+  public void testDuplicateChunkIsIgnored() throws Exception {
+    FileUploadJob job = service.createJob("test.bin", DATA.length, CHUNK_SIZE, null, null);
+    accept(job, 0);
+    // A retry must neither fail nor overwrite the chunk
+    service.acceptChunk(job, 0, new ByteArrayInputStream(new byte[CHUNK_SIZE]));
+    job = service.getJob(job.getId());
+    Assert.assertEquals(1, job.getChunksReceivedCount());
+    Assert.assertEquals(CHUNK_SIZE, job.getPayload().getCurrentSize());
+    for (int chunk = 1; chunk < job.getChunksTotal(); chunk++) {
+      accept(job, chunk);
+    }
+    assertPayload(service.getJob(job.getId()));
+  }
+
+  @Test
+  public void testChunkInProgressIsRejected() throws Exception {
+    final FileUploadJob job = service.createJob("test.bin", DATA.length, CHUNK_SIZE, null, null);
+    final BlockingInputStream blocking = new BlockingInputStream(DATA, 0, CHUNK_SIZE, 400);
+    final Exception[] failure = new Exception[1];
+    Thread upload = new Thread() {
+      @Override
+      public void run() {
+        try {
+          service.acceptChunk(job, 0, blocking);
+        } catch (Exception e) {
+          failure[0] = e;
+        }
+      }
+    };
+    upload.start();
+    Assert.assertTrue(blocking.halfway.await(10, TimeUnit.SECONDS));
+
+    // The bytes of the chunk being written are reported as progress
+    FileUploadJob current = service.getJob(job.getId());
+    Assert.assertEquals(FileUploadJob.JobState.INPROGRESS, current.getState());
+    Assert.assertEquals(0, current.getCurrentChunk().getNumber());
+    Assert.assertEquals(400, current.getCurrentChunk().getRecieved());
+
+    try {
+      accept(job, 0);
+      Assert.fail("The same chunk must not be received twice at the same time");
+    } catch (FileUploadException e) {
+      // expected
+    }
+
+    // Other chunks can be received in the meantime
+    accept(job, 1);
+
+    blocking.release.countDown();
+    upload.join(10000);
+    Assert.assertNull(failure[0]);
+    current = service.getJob(job.getId());
+    Assert.assertEquals("0-1", current.getChunksReceived());
+    Assert.assertEquals(1, current.getCurrentChunk().getNumber());
+    Assert.assertEquals(CHUNK_SIZE, current.getCurrentChunk().getRecieved());
+  }
+
+  @Test
+  public void testFailedChunkIsNotReportedAsProgress() throws Exception {
+    final FileUploadJob job = service.createJob("test.bin", DATA.length, CHUNK_SIZE, null, null);
+    accept(job, 0);
+
+    // Half of the next chunk is sent, and its progress is reported before it turns out to be too short
+    final BlockingInputStream blocking = new BlockingInputStream(DATA, CHUNK_SIZE, CHUNK_SIZE / 2, 400);
+    final Exception[] failure = new Exception[1];
+    Thread upload = new Thread() {
+      @Override
+      public void run() {
+        try {
+          service.acceptChunk(job, 1, blocking);
+        } catch (Exception e) {
+          failure[0] = e;
+        }
+      }
+    };
+    upload.start();
+    Assert.assertTrue(blocking.halfway.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(1, service.getJob(job.getId()).getCurrentChunk().getNumber());
+    blocking.release.countDown();
+    upload.join(10000);
+    Assert.assertTrue(failure[0] instanceof FileUploadException);
+
+    FileUploadJob current = service.getJob(job.getId());
+    Assert.assertEquals(FileUploadJob.JobState.READY, current.getState());
+    Assert.assertEquals(0, current.getCurrentChunk().getNumber());
+    Assert.assertEquals(CHUNK_SIZE, current.getCurrentChunk().getRecieved());
+
+    // The chunk can be sent again
+    for (int chunk = 1; chunk < job.getChunksTotal(); chunk++) {
+      accept(job, chunk);
+    }
+    assertPayload(service.getJob(job.getId()));
+  }
+
+  @Test
+  public void testUploadCanBeResumed() throws Exception {
+    FileUploadJob job = service.createJob("test.bin", DATA.length, CHUNK_SIZE, null, null);
+    for (int chunk : new int[] { 0, 1, 2, 4, 6 }) {
+      accept(job, chunk);
+    }
+    Assert.assertEquals("0-2,4,6", service.getJob(job.getId()).getChunksReceived());
+
+    // After a restart, the job tells the client which chunks are missing
+    service = newService();
+    job = service.getJob(job.getId());
+    Assert.assertEquals("0-2,4,6", job.getChunksReceived());
+    Assert.assertEquals(5, job.getChunksReceivedCount());
+    Assert.assertEquals(5 * CHUNK_SIZE, job.getPayload().getCurrentSize());
+    for (int chunk = 0; chunk < job.getChunksTotal(); chunk++) {
+      if (!job.isChunkReceived(chunk))
+        accept(job, chunk);
+    }
+    assertPayload(service.getJob(job.getId()));
+  }
+
+  /**
+   * Returns a part of an array, but stops after a number of bytes until it is released.
+   */
+  private static final class BlockingInputStream extends InputStream {
+
+    private final CountDownLatch halfway = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final byte[] data;
+    private final int end;
+    private final int blockAt;
+    private int position;
+
+    BlockingInputStream(byte[] data, int offset, int length, int blockAfter) {
+      this.data = data;
+      this.position = offset;
+      this.end = offset + length;
+      this.blockAt = offset + blockAfter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (position == blockAt) {
+        halfway.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted");
+        }
+      }
+      if (position >= end)
+        return -1;
+      int limit = position < blockAt ? blockAt : end;
+      int count = Math.min(len, limit - position);
+      System.arraycopy(data, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+  }
+
+}
@@ -48,15 +48,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.UUID;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -74,6 +71,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
@@ -89,9 +87,6 @@ public class IngestRestService {
 
   private static final Logger logger = LoggerFactory.getLogger(IngestRestService.class);
 
-  /** The collection name used for temporarily storing uploaded zip files */
-  private static final String COLLECTION_ID = "ingest-temp";
-
   /** Key for the default workflow definition in config.properties */
   private static final String DEFAULT_WORKFLOW_DEFINITION = "org.opencastproject.workflow.default.definition";
 
@@ -481,25 +476,26 @@ public class IngestRestService {
   @POST
   @Path("addZippedMediaPackage")
   @Produces(MediaType.TEXT_XML)
-  @RestQuery(name = "addZippedMediaPackage", description = "Create media package from a compressed file containing a manifest.xml document and all media tracks, metadata catalogs and attachments", restParameters = {
+  @RestQuery(name = "addZippedMediaPackage", description = "Create media package from a compressed file containing a manifest.xml document and all media tracks, metadata catalogs and attachments. The workflow parameters need to be sent ahead of the media package.", restParameters = {
           @RestParameter(description = "The workflow definition ID to run on this mediapackage", isRequired = false, name = WORKFLOW_DEFINITION_ID_PARAM, type = RestParameter.Type.STRING),
           @RestParameter(description = "The workflow instance ID to associate with this zipped mediapackage", isRequired = false, name = WORKFLOW_INSTANCE_ID_PARAM, type = RestParameter.Type.STRING) }, bodyParameter = @RestParameter(description = "The compressed (application/zip) media package file", isRequired = true, name = "BODY", type = RestParameter.Type.FILE), reponses = {
           @RestResponse(description = "", responseCode = HttpServletResponse.SC_OK),
           @RestResponse(description = "", responseCode = HttpServletResponse.SC_BAD_REQUEST) }, returnDescription = "")
   public Response addZippedMediaPackage(@Context HttpServletRequest request) {
     logger.debug("addZippedMediaPackage(HttpRequest)");
-    FileInputStream zipInputStream = null;
-    String zipFileName = UUID.randomUUID().toString() + ".zip";
-    URI zipFileUri = null;
+    InputStream zipInputStream = null;
     try {
       String workflowDefinitionId = defaultWorkflowDefinitionId;
       Long workflowInstanceIdAsLong = null;
       Map<String, String> workflowConfig = new HashMap<String, String>();
+      WorkflowInstance workflow = null;
       if (ServletFileUpload.isMultipartContent(request)) {
         for (FileItemIterator iter = new ServletFileUpload().getItemIterator(request); iter.hasNext();) {
           FileItemStream item = iter.next();
           if (item.isFormField()) {
-            if (WORKFLOW_INSTANCE_ID_PARAM.equals(item.getFieldName())) {
+            if (workflow != null) {
+              logger.warn("Ignoring form field {}, which was sent after the media package", item.getFieldName());
+            } else if (WORKFLOW_INSTANCE_ID_PARAM.equals(item.getFieldName())) {
               String workflowIdAsString = IOUtils.toString(item.openStream(), "UTF-8");
               try {
                 workflowInstanceIdAsLong = Long.parseLong(workflowIdAsString);
@@ -514,86 +510,75 @@ public class IngestRestService {
               logger.debug("Processing form field: " + item.getFieldName());
               workflowConfig.put(item.getFieldName(), IOUtils.toString(item.openStream(), "UTF-8"));
             }
-          } else {
+          } else if (workflow == null) {
+            // The zip is handed to the ingest service while it is being received
             logger.debug("Processing file item");
-            InputStream in = item.openStream();
-            try {
-              zipFileUri = workspace.putInCollection(COLLECTION_ID, zipFileName, in);
-            } finally {
-              IOUtils.closeQuietly(in);
-            }
+            zipInputStream = item.openStream();
+            workflow = ingestService.addZippedMediaPackage(zipInputStream, workflowDefinitionId, workflowConfig,
+                    workflowInstanceIdAsLong);
           }
         }
+        if (workflow == null)
+          return Response.status(Status.BAD_REQUEST).build();
       } else {
-        InputStream in = request.getInputStream();
-        try {
-          zipFileUri = workspace.putInCollection(COLLECTION_ID, zipFileName, in);
-        } finally {
-          IOUtils.closeQuietly(in);
-        }
+        zipInputStream = request.getInputStream();
+        workflow = ingestService.addZippedMediaPackage(zipInputStream, workflowDefinitionId, workflowConfig,
+                workflowInstanceIdAsLong);
       }
-      File zipFileFromWorkspace = workspace.get(zipFileUri);
-      zipInputStream = new FileInputStream(zipFileFromWorkspace);
-      WorkflowInstance workflow = ingestService.addZippedMediaPackage(zipInputStream, workflowDefinitionId,
-              workflowConfig, workflowInstanceIdAsLong);
       return Response.ok(WorkflowParser.toXml(workflow)).build();
     } catch (Exception e) {
       logger.warn(e.getMessage(), e);
       return Response.serverError().status(Status.INTERNAL_SERVER_ERROR).build();
     } finally {
       IOUtils.closeQuietly(zipInputStream);
-      try {
-        workspace.delete(zipFileUri);
-      } catch (NotFoundException nfe) {
-        // That's fine, we failed somewhere on the way
-        logger.debug("Error removing missing temporary ingest file " + COLLECTION_ID + "/" + zipFileName, nfe);
-      } catch (IOException ioe) {
-        logger.warn("Error removing temporary ingest file " + zipFileUri, ioe);
-      }
     }
   }
 
   @POST
   @Produces(MediaType.TEXT_HTML)
   @Path("ingest")
-  @RestQuery(name = "ingest", description = "Ingest the completed media package into the system, retrieving all URL-referenced files", restParameters = {
+  @RestQuery(name = "ingest", description = "Ingest the completed media package into the system, retrieving all URL-referenced files. Any additional form fields are passed to the workflow as configuration properties.", restParameters = {
           @RestParameter(description = "The media package", isRequired = true, name = "mediaPackage", type = RestParameter.Type.TEXT),
           @RestParameter(description = "Workflow definition id", isRequired = false, name = WORKFLOW_DEFINITION_ID_PARAM, type = RestParameter.Type.STRING),
           @RestParameter(description = "The workflow instance ID to associate with this zipped mediapackage", isRequired = false, name = WORKFLOW_INSTANCE_ID_PARAM, type = RestParameter.Type.STRING) }, reponses = {
           @RestResponse(description = "Returns the media package", responseCode = HttpServletResponse.SC_OK),
           @RestResponse(description = "", responseCode = HttpServletResponse.SC_BAD_REQUEST) }, returnDescription = "")
-  public Response ingest(@FormParam("mediaPackage") String mpx,
-          @FormParam(WORKFLOW_DEFINITION_ID_PARAM) String workflowDefinition,
-          @FormParam(WORKFLOW_INSTANCE_ID_PARAM) String workflowInstance) {
+  public Response ingest(MultivaluedMap<String, String> formData) {
+    String mpx = formData.getFirst("mediaPackage");
+    String workflowDefinition = formData.getFirst(WORKFLOW_DEFINITION_ID_PARAM);
+    String workflowInstance = formData.getFirst(WORKFLOW_INSTANCE_ID_PARAM);
     logger.debug("ingest(MediaPackage): {}", mpx);
+    if (StringUtils.isBlank(mpx))
+      return Response.status(Status.BAD_REQUEST).build();
+
+    // Everything else is passed on as workflow configuration
+    Map<String, String> wfConfig = new HashMap<String, String>();
+    for (String key : formData.keySet()) {
+      if ("mediaPackage".equals(key) || WORKFLOW_DEFINITION_ID_PARAM.equals(key)
+              || WORKFLOW_INSTANCE_ID_PARAM.equals(key))
+        continue;
+      wfConfig.put(key, formData.getFirst(key));
+    }
+
     try {
       MediaPackage mp = factory.newMediaPackageBuilder().loadFromXml(mpx);
-      WorkflowInstance workflow = null;
 
       // a workflow instance has been specified
+      Long workflowInstanceId = null;
       if (StringUtils.isNotBlank(workflowInstance)) {
         try {
-          Long workflowInstanceId = Long.parseLong(workflowInstance);
-
-          // a workflow defintion was specified
-          if (StringUtils.isNotBlank(workflowDefinition)) {
-            workflow = ingestService.ingest(mp, workflowDefinition, null, workflowInstanceId);
-          } else {
-            workflow = ingestService.ingest(mp, null, null, workflowInstanceId);
-          }
+          workflowInstanceId = Long.parseLong(workflowInstance);
         } catch (NumberFormatException e) {
           logger.warn("{} '{}' is not numeric", WORKFLOW_INSTANCE_ID_PARAM, workflowInstance);
           return Response.status(Status.BAD_REQUEST).build();
         }
       }
-      // a workflow definition was specified, but not a workflow id
-      else if (StringUtils.isNotBlank(workflowDefinition)) {
-        workflow = ingestService.ingest(mp, workflowDefinition, null, null);
-      }
-      // nothing was specified, so we start a new workflow
-      else {
-        workflow = ingestService.ingest(mp);
-      }
+
+      // if neither a definition nor an instance was specified, a new workflow is started using the default definition
+      if (StringUtils.isBlank(workflowDefinition))
+        workflowDefinition = null;
+      WorkflowInstance workflow = ingestService.ingest(mp, workflowDefinition, wfConfig.isEmpty() ? null : wfConfig,
+              workflowInstanceId);
       return Response.ok(WorkflowParser.toXml(workflow)).build();
     } catch (Exception e) {
       logger.warn(e.getMessage(), e);
@@ -42,6 +42,8 @@ import org.opencastproject.security.api.UserDirectoryService;
 import org.opencastproject.series.api.SeriesService;
 import org.opencastproject.serviceregistry.api.ServiceRegistry;
 import org.opencastproject.serviceregistry.api.ServiceRegistryException;
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
 import org.opencastproject.util.NotFoundException;
 import org.opencastproject.util.PathSupport;
 import org.opencastproject.util.ZipUtil;
@@ -55,9 +57,11 @@ import org.opencastproject.workflow.api.WorkflowOperationInstance.OperationState
 import org.opencastproject.workflow.api.WorkflowService;
 import org.opencastproject.workspace.api.Workspace;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -72,11 +76,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Creates and augments Matterhorn MediaPackages. Stores media into the Working File Repository.
@@ -103,6 +116,12 @@ public class IngestServiceImpl extends AbstractJobProducer implements IngestServ
   /** Methods that ingest catalogs from a URI create jobs with this operation type */
   public static final String INGEST_CATALOG_FROM_URI = "catalog";
 
+  /** The configuration key that defines whether zipped mediapackages are ingested without unpacking them to disk */
+  protected static final String STREAMING_ZIP_INGEST = "org.opencastproject.ingest.zip.streaming";
+
+  /** Prefix of the working file repository collections holding zip entries that precede the manifest */
+  protected static final String INGEST_COLLECTION_PREFIX = "ingest-";
+
   /** Ingest can only occur for a workflow currently in one of these operations. */
   public static final String[] PRE_PROCESSING_OPERATIONS = new String[] { "schedule", "capture", "ingest" };
 
@@ -139,6 +158,9 @@ public class IngestServiceImpl extends AbstractJobProducer implements IngestServ
   /** The default workflow identifier, if one is configured */
   protected String defaultWorkflowDefinionId;
 
+  /** Whether zipped mediapackages are streamed into the working file repository rather than unpacked to disk first */
+  protected boolean streamingZipIngest = true;
+
   /**
    * Creates a new ingest service instance.
    */
@@ -163,6 +185,11 @@ public class IngestServiceImpl extends AbstractJobProducer implements IngestServ
     if (tempFolder == null)
       throw new IllegalStateException("Storage directory must be set (org.opencastproject.storage.dir)");
     tempFolder = PathSupport.concat(tempFolder, "ingest");
+    String streaming = StringUtils.trimToNull(cc.getBundleContext().getProperty(STREAMING_ZIP_INGEST));
+    if (streaming != null)
+      streamingZipIngest = Boolean.valueOf(streaming);
+    logger.info("Zipped media packages are {}", streamingZipIngest ? "streamed into the working file repository"
+            : "unpacked to " + tempFolder);
   }
 
   /**
@@ -248,77 +275,28 @@ public class IngestServiceImpl extends AbstractJobProducer implements IngestServ
       job.setStatus(Status.RUNNING);
       serviceRegistry.updateJob(job);
 
-      // locally unpack the mediaPackage
-      // save inputStream to file
-      File tempDir = createDirectory(tempPath);
-      zipFile = new File(tempPath, job.getId() + ".zip");
-      OutputStream out = new FileOutputStream(zipFile);
-      logger.info("Ingesting zipped media package to {}", zipFile);
-
-      try {
-        IOUtils.copyLarge(zipStream, out);
-      } finally {
-        out.close();
-        zipStream.close();
-      }
-
-      // unpack, cleanup will happen in the finally block
-      ZipUtil.unzip(zipFile, tempDir);
-
-      // check media package and write data to file repo
-      File manifest = getManifest(tempDir);
-      if (manifest == null) {
-        // try to find the manifest in a subdirectory, since the zip may
-        // have been constructed this way
-        File[] subDirs = tempDir.listFiles(new FileFilter() {
-          public boolean accept(File pathname) {
-            return pathname.isDirectory();
-          }
-        });
-        for (File subdir : subDirs) {
-          manifest = getManifest(subdir);
-          if (manifest != null)
-            break;
-        }
-        if (manifest == null)
-          throw new MediaPackageException("no manifest found in this zip");
-      }
-
-      // Build the mediapackage
       MediaPackage mp = null;
-      MediaPackageBuilder builder = MediaPackageBuilderFactory.newInstance().newMediaPackageBuilder();
-      builder.setSerializer(new DefaultMediaPackageSerializerImpl(manifest.getParentFile()));
-      InputStream manifestStream = null;
-      try {
-        manifestStream = manifest.toURI().toURL().openStream();
-        mp = builder.loadFromXml(manifestStream);
-      } finally {
-        IOUtils.closeQuietly(manifestStream);
-      }
-      for (MediaPackageElement element : mp.elements()) {
-        String elId = element.getIdentifier();
-        if (elId == null) {
-          elId = UUID.randomUUID().toString();
-          element.setIdentifier(elId);
-        }
-        String filename = element.getURI().toURL().getFile();
-        filename = filename.substring(filename.lastIndexOf("/"));
-        InputStream elementStream = null;
-        URI newUrl = null;
+      if (streamingZipIngest) {
+        logger.info("Ingesting zipped media package from stream");
+        mp = loadZippedMediaPackage(zipStream, job);
+      } else {
+        // locally unpack the mediaPackage
+        // save inputStream to file
+        File tempDir = createDirectory(tempPath);
+        zipFile = new File(tempPath, job.getId() + ".zip");
+        OutputStream out = new FileOutputStream(zipFile);
+        logger.info("Ingesting zipped media package to {}", zipFile);
+
         try {
-          elementStream = element.getURI().toURL().openStream();
-          newUrl = addContentToRepo(mp, elId, filename, elementStream);
-          elementStream.close();
+          IOUtils.copyLarge(zipStream, out);
         } finally {
-          IOUtils.closeQuietly(elementStream);
+          out.close();
+          zipStream.close();
         }
-        element.setURI(newUrl);
 
-        // if this is a series, update the series service
-        // TODO: This should be triggered somehow instead of being handled here
-        if (MediaPackageElements.SERIES.equals(element.getFlavor())) {
-          updateSeries(element.getURI());
-        }
+        // unpack, cleanup will happen in the finally block
+        ZipUtil.unzip(zipFile, tempDir);
+        mp = loadUnzippedMediaPackage(tempDir);
       }
 
       // Done, update the job status and return the created workflow instance
@@ -350,6 +328,252 @@ public class IngestServiceImpl extends AbstractJobProducer implements IngestServ
     }
   }
 
+  /**
+   * Reads the zipped mediapackage from <code>zipStream</code> and writes each entry straight to its final location in
+   * the working file repository, verifying the element checksums on the fly. Entries that precede the manifest are
+   * parked in a working file repository collection and moved to their final location once the manifest is known.
+   * 
+   * @param zipStream
+   *          the zipped mediapackage
+   * @param job
+   *          the ingest job
+   * @return the mediapackage
+   * @throws IOException
+   *           if reading the zip or writing to the working file repository fails
+   * @throws MediaPackageException
+   *           if the manifest is missing or invalid, or if an element is missing or does not match its checksum
+   * @throws IngestException
+   *           if updating the series fails
+   */
+  private MediaPackage loadZippedMediaPackage(InputStream zipStream, Job job) throws IOException,
+          MediaPackageException, IngestException {
+    String collectionId = INGEST_COLLECTION_PREFIX + job.getId();
+    Map<String, URI> parkedEntries = new HashMap<String, URI>();
+    Map<String, String> parkedChecksums = new HashMap<String, String>();
+    Map<String, MediaPackageElement> elementsByPath = null;
+    Set<String> externalElements = new HashSet<String>();
+    MediaPackage mp = null;
+
+    ZipInputStream zip = new ZipInputStream(zipStream);
+    try {
+      ZipEntry entry = null;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (entry.isDirectory())
+          continue;
+        String path = entry.getName();
+        String fileName = FilenameUtils.getName(path);
+
+        // Load the manifest and move the entries that we have seen so far to their final location
+        if (mp == null && ("index.xml".equals(fileName) || "manifest.xml".equals(fileName))) {
+          MediaPackageBuilder builder = MediaPackageBuilderFactory.newInstance().newMediaPackageBuilder();
+          builder.setSerializer(new DefaultMediaPackageSerializerImpl());
+          mp = builder.loadFromXml(new CloseShieldInputStream(zip));
+          elementsByPath = new HashMap<String, MediaPackageElement>();
+          for (MediaPackageElement element : mp.elements()) {
+            if (element.getIdentifier() == null)
+              element.setIdentifier(UUID.randomUUID().toString());
+            URI uri = element.getURI();
+            if (uri.isAbsolute()) {
+              externalElements.add(element.getIdentifier());
+            } else {
+              String elementPath = FilenameUtils.separatorsToUnix(FilenameUtils.normalize(FilenameUtils.getPath(path)
+                      + uri.getPath()));
+              elementsByPath.put(elementPath, element);
+            }
+          }
+          for (String elementPath : new ArrayList<String>(elementsByPath.keySet())) {
+            URI parkedUri = parkedEntries.get(elementPath);
+            if (parkedUri == null)
+              continue;
+            MediaPackageElement element = elementsByPath.remove(elementPath);
+            verifyChecksum(element, parkedChecksums.get(elementPath));
+            try {
+              element.setURI(workspace.moveTo(parkedUri, mp.getIdentifier().compact(), element.getIdentifier(),
+                      FilenameUtils.getName(elementPath)));
+            } catch (NotFoundException e) {
+              throw new IOException("Unable to find " + parkedUri + " in the working file repository", e);
+            }
+            parkedEntries.remove(elementPath);
+          }
+          continue;
+        }
+
+        // Compute the checksum while the entry is being written to the working file repository
+        DigestInputStream in = null;
+        try {
+          MessageDigest digest = MessageDigest.getInstance(ChecksumType.DEFAULT_TYPE.getName());
+          in = new DigestInputStream(new CloseShieldInputStream(zip), digest);
+        } catch (NoSuchAlgorithmException e) {
+          throw new IllegalStateException("This system does not support checksums of type "
+                  + ChecksumType.DEFAULT_TYPE.getName());
+        }
+
+        if (mp == null) {
+          logger.debug("Parking {} until the manifest has been read", path);
+          String parkedName = parkedEntries.size() + "-" + fileName;
+          parkedEntries.put(path, workspace.putInCollection(collectionId, parkedName, in));
+          parkedChecksums.put(path, new String(Hex.encodeHex(in.getMessageDigest().digest())));
+        } else {
+          MediaPackageElement element = elementsByPath.remove(path);
+          if (element == null) {
+            logger.info("Skipping {}, which is not part of mediapackage {}", path, mp);
+            continue;
+          }
+          URI uri = addContentToRepo(mp, element.getIdentifier(), fileName, in);
+          try {
+            verifyChecksum(element, new String(Hex.encodeHex(in.getMessageDigest().digest())));
+          } catch (MediaPackageException e) {
+            discardElement(mp, element);
+            throw e;
+          }
+          element.setURI(uri);
+        }
+      }
+    } finally {
+      IOUtils.closeQuietly(zip);
+      for (URI parkedUri : parkedEntries.values()) {
+        try {
+          workspace.delete(parkedUri);
+        } catch (Exception e) {
+          logger.warn("Unable to remove {} from the working file repository: {}", parkedUri, e.getMessage());
+        }
+      }
+    }
+
+    if (mp == null)
+      throw new MediaPackageException("no manifest found in this zip");
+
+    // Elements pointing outside of the zip are fetched, everything else should have been found by now
+    for (MediaPackageElement element : mp.elements()) {
+      if (elementsByPath.containsValue(element)) {
+        throw new MediaPackageException("Element " + element.getIdentifier() + " (" + element.getURI()
+                + ") is missing from the zip");
+      } else if (externalElements.contains(element.getIdentifier())) {
+        element.setURI(addContentToRepo(mp, element.getIdentifier(), element.getURI()));
+      }
+
+      // if this is a series, update the series service
+      // TODO: This should be triggered somehow instead of being handled here
+      if (MediaPackageElements.SERIES.equals(element.getFlavor())) {
+        updateSeries(element.getURI());
+      }
+    }
+    return mp;
+  }
+
+  /**
+   * Makes sure that the checksum of <code>element</code>, if it has one, matches <code>md5</code>.
+   * 
+   * @param element
+   *          the mediapackage element
+   * @param md5
+   *          the md5 of the element's content
+   * @throws MediaPackageException
+   *           if the checksums don't match
+   */
+  private void verifyChecksum(MediaPackageElement element, String md5) throws MediaPackageException {
+    Checksum checksum = element.getChecksum();
+    if (checksum == null)
+      return;
+    if (!ChecksumType.DEFAULT_TYPE.equals(checksum.getType())) {
+      logger.debug("Unable to verify {} checksum of element {}", checksum.getType(), element.getIdentifier());
+      return;
+    }
+    if (!checksum.getValue().equalsIgnoreCase(md5))
+      throw new MediaPackageException("Checksum of element " + element.getIdentifier() + " does not match (expected "
+              + checksum.getValue() + ", found " + md5 + ")");
+  }
+
+  /**
+   * Removes an element that has been written to the working file repository.
+   * 
+   * @param mp
+   *          the mediapackage
+   * @param element
+   *          the element
+   */
+  private void discardElement(MediaPackage mp, MediaPackageElement element) {
+    try {
+      workspace.delete(mp.getIdentifier().compact(), element.getIdentifier());
+    } catch (Exception e) {
+      logger.warn("Unable to remove element {} from the working file repository: {}", element.getIdentifier(),
+              e.getMessage());
+    }
+  }
+
+  /**
+   * Loads the mediapackage from a zip that has been unpacked to <code>dir</code> and adds its elements to the working
+   * file repository.
+   * 
+   * @param dir
+   *          the directory containing the unpacked zip
+   * @return the mediapackage
+   * @throws IOException
+   *           if reading the elements or writing them to the working file repository fails
+   * @throws MediaPackageException
+   *           if the mediapackage manifest is missing or invalid
+   * @throws IngestException
+   *           if updating the series fails
+   */
+  private MediaPackage loadUnzippedMediaPackage(File dir) throws IOException, MediaPackageException, IngestException {
+    // check media package and write data to file repo
+    File manifest = getManifest(dir);
+    if (manifest == null) {
+      // try to find the manifest in a subdirectory, since the zip may
+      // have been constructed this way
+      File[] subDirs = dir.listFiles(new FileFilter() {
+        public boolean accept(File pathname) {
+          return pathname.isDirectory();
+        }
+      });
+      for (File subdir : subDirs) {
+        manifest = getManifest(subdir);
+        if (manifest != null)
+          break;
+      }
+      if (manifest == null)
+        throw new MediaPackageException("no manifest found in this zip");
+    }
+
+    // Build the mediapackage
+    MediaPackage mp = null;
+    MediaPackageBuilder builder = MediaPackageBuilderFactory.newInstance().newMediaPackageBuilder();
+    builder.setSerializer(new DefaultMediaPackageSerializerImpl(manifest.getParentFile()));
+    InputStream manifestStream = null;
+    try {
+      manifestStream = manifest.toURI().toURL().openStream();
+      mp = builder.loadFromXml(manifestStream);
+    } finally {
+      IOUtils.closeQuietly(manifestStream);
+    }
+    for (MediaPackageElement element : mp.elements()) {
+      String elId = element.getIdentifier();
+      if (elId == null) {
+        elId = UUID.randomUUID().toString();
+        element.setIdentifier(elId);
+      }
+      String filename = element.getURI().toURL().getFile();
+      filename = filename.substring(filename.lastIndexOf("/"));
+      InputStream elementStream = null;
+      URI newUrl = null;
+      try {
+        elementStream = element.getURI().toURL().openStream();
+        newUrl = addContentToRepo(mp, elId, filename, elementStream);
+        elementStream.close();
+      } finally {
+        IOUtils.closeQuietly(elementStream);
+      }
+      element.setURI(newUrl);
+
+      // if this is a series, update the series service
+      // TODO: This should be triggered somehow instead of being handled here
+      if (MediaPackageElements.SERIES.equals(element.getFlavor())) {
+        updateSeries(element.getURI());
+      }
+    }
+    return mp;
+  }
+
   /**
    * {@inheritDoc}
    * 
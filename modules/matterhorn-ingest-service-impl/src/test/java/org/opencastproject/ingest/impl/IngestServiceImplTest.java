@@ -20,6 +20,7 @@ import static org.opencastproject.security.api.SecurityConstants.DEFAULT_ORGANIZ
 
 import org.opencastproject.mediapackage.MediaPackage;
 import org.opencastproject.mediapackage.MediaPackageElements;
+import org.opencastproject.mediapackage.MediaPackageException;
 import org.opencastproject.security.api.DefaultOrganization;
 import org.opencastproject.security.api.Organization;
 import org.opencastproject.security.api.OrganizationDirectoryService;
@@ -41,14 +42,19 @@ import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpGet;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class IngestServiceImplTest {
   private IngestServiceImpl service = null;
@@ -82,44 +88,58 @@ public class IngestServiceImplTest {
     workspace = EasyMock.createNiceMock(Workspace.class);
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlTrack);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlTrack));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlCatalog);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlCatalog));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlAttachment);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlAttachment));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlTrack1);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlTrack1));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlTrack2);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlTrack2));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlCatalog1);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlCatalog1));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlCatalog2);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlCatalog2));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlCatalog);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlCatalog));
 
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlTrack1);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlTrack1));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlTrack2);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlTrack2));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlCatalog1);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlCatalog1));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlCatalog2);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlCatalog2));
     EasyMock.expect(
             workspace.put((String) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
-                    (InputStream) EasyMock.anyObject())).andReturn(urlCatalog);
+                    (InputStream) EasyMock.anyObject())).andAnswer(readStream(urlCatalog));
+
+    EasyMock.expect(
+            workspace.putInCollection((String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
+                    (InputStream) EasyMock.anyObject())).andAnswer(new IAnswer<URI>() {
+      @Override
+      public URI answer() throws Throwable {
+        IOUtils.toByteArray((InputStream) EasyMock.getCurrentArguments()[2]);
+        return new URI("http://localhost/files/collection/" + EasyMock.getCurrentArguments()[0] + "/"
+                + EasyMock.getCurrentArguments()[1]);
+      }
+    }).anyTimes();
+    EasyMock.expect(
+            workspace.moveTo((URI) EasyMock.anyObject(), (String) EasyMock.anyObject(), (String) EasyMock.anyObject(),
+                    (String) EasyMock.anyObject())).andReturn(urlTrack).anyTimes();
 
     workflowInstance = EasyMock.createNiceMock(WorkflowInstance.class);
     EasyMock.expect(workflowInstance.getId()).andReturn(workflowInstanceID);
@@ -214,4 +234,79 @@ public class IngestServiceImplTest {
     Assert.assertEquals(workflowInstanceID, instance.getId());
   }
 
+  @Test
+  public void testThickClientWithManifestLast() throws Exception {
+    InputStream packageStream = new ByteArrayInputStream(createZip(true, false));
+    WorkflowInstance instance = service.addZippedMediaPackage(packageStream);
+    Assert.assertEquals(workflowInstanceID, instance.getId());
+  }
+
+  @Test
+  public void testThickClientWithChecksumMismatch() throws Exception {
+    InputStream packageStream = new ByteArrayInputStream(createZip(false, true));
+    try {
+      service.addZippedMediaPackage(packageStream);
+      Assert.fail("Elements with wrong checksums must not be ingested");
+    } catch (MediaPackageException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testThickClientWithoutStreaming() throws Exception {
+    service.streamingZipIngest = false;
+    InputStream packageStream = urlPackage.toURL().openStream();
+    WorkflowInstance instance = service.addZippedMediaPackage(packageStream);
+    IOUtils.closeQuietly(packageStream);
+    Assert.assertEquals(workflowInstanceID, instance.getId());
+  }
+
+  /**
+   * Returns an answer that reads the stream passed to the workspace the way the working file repository would.
+   */
+  private static IAnswer<URI> readStream(final URI uri) {
+    return new IAnswer<URI>() {
+      @Override
+      public URI answer() throws Throwable {
+        IOUtils.toByteArray((InputStream) EasyMock.getCurrentArguments()[3]);
+        return uri;
+      }
+    };
+  }
+
+  /**
+   * Repackages the test mediapackage, optionally moving the manifest to the end of the zip and breaking the checksum
+   * of the first track.
+   */
+  private byte[] createZip(boolean manifestLast, boolean wrongChecksum) throws Exception {
+    ZipInputStream in = new ZipInputStream(urlPackage.toURL().openStream());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ZipOutputStream out = new ZipOutputStream(bytes);
+    byte[] manifest = null;
+    ZipEntry entry = null;
+    while ((entry = in.getNextEntry()) != null) {
+      byte[] content = IOUtils.toByteArray(in);
+      if ("manifest.xml".equals(entry.getName())) {
+        if (wrongChecksum)
+          content = new String(content, "UTF-8").replace("43b7d843b02c4a429b2f547a4f230d31",
+                  "00000000000000000000000000000000").getBytes("UTF-8");
+        if (manifestLast) {
+          manifest = content;
+          continue;
+        }
+      }
+      out.putNextEntry(new ZipEntry(entry.getName()));
+      out.write(content);
+      out.closeEntry();
+    }
+    if (manifest != null) {
+      out.putNextEntry(new ZipEntry("manifest.xml"));
+      out.write(manifest);
+      out.closeEntry();
+    }
+    IOUtils.closeQuietly(in);
+    out.close();
+    return bytes.toByteArray();
+  }
+
 }
@@ -131,6 +131,10 @@ public class MediaInfoAnalyzer extends CmdlineMediaAnalyzerSupport {
     }
   }
 
+  protected String getVersionCheckOptions() {
+    return "--Version";
+  }
+
   protected String[] getAnalysisOptions(File media) {
     String mediaPath = media.getAbsolutePath().replaceAll(" ", "\\ ");
     return new String[] { "--Language=raw", "--Full", mediaPath};
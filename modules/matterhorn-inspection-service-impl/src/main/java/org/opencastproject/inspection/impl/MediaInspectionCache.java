@@ -0,0 +1,334 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.inspection.impl;
+
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the results of media analysis. Results are keyed by the checksum and size of the analyzed content, so a
+ * file is analyzed only once, no matter how often and under which name it is inspected. The key also identifies the
+ * analyzer, i.e. its binary, version and configuration, so that results are not reused once the analyzer changes.
+ * <p>
+ * To avoid hashing the same file over and over again, checksums are remembered along with the file's size and
+ * modification date, and the md5 files that the working file repository keeps next to its files are used where
+ * available. The analyzer output is written to the cache directory, which makes it survive restarts.
+ */
+public class MediaInspectionCache {
+
+  /** The logging facility */
+  private static final Logger logger = LoggerFactory.getLogger(MediaInspectionCache.class);
+
+  /** The extension of the md5 files kept by the working file repository */
+  public static final String MD5_EXTENSION = ".md5";
+
+  /** The extension of the cache files */
+  private static final String CACHE_FILE_EXTENSION = ".txt";
+
+  /** The extension of temporary files that are used to atomically write a cache file */
+  private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+  /** The maximum number of checksums kept in memory */
+  private static final int MAX_CHECKSUMS = 1000;
+
+  /** The maximum number of analysis results kept in memory */
+  private static final int MAX_RESULTS = 200;
+
+  /** The cache directory, or <code>null</code> to cache in memory only */
+  protected File directory = null;
+
+  /** The most recently used checksums, keyed by absolute path */
+  protected final Map<String, FileChecksum> checksums = new LinkedHashMap<String, FileChecksum>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, FileChecksum> eldest) {
+      return size() > MAX_CHECKSUMS;
+    }
+  };
+
+  /** The most recently used analysis results, keyed by content */
+  protected final Map<String, List<String>> results = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+      return size() > MAX_RESULTS;
+    }
+  };
+
+  /** Number of analysis results found in the cache */
+  private final AtomicLong hits = new AtomicLong();
+
+  /** Number of analysis results that were not found in the cache */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache that keeps the analysis results in <code>directory</code>.
+   *
+   * @param directory
+   *          the cache directory or <code>null</code> to keep results in memory only
+   * @throws IllegalStateException
+   *           if the directory can't be created
+   */
+  public MediaInspectionCache(File directory) {
+    if (directory != null) {
+      try {
+        FileUtils.forceMkdir(directory);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to create inspection cache directory " + directory, e);
+      }
+      logger.info("Caching media inspection results in {}", directory);
+    }
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the md5 checksum of <code>file</code>. The file is only read if its checksum is neither known from an
+   * earlier call nor can be taken from the md5 file that the working file repository keeps next to
+   * <code>source</code>.
+   *
+   * @param file
+   *          the file
+   * @param source
+   *          the file in the working file repository that <code>file</code> has been copied or linked from, may be
+   *          <code>null</code>
+   * @return the checksum
+   * @throws IOException
+   *           if the file can't be read
+   */
+  public Checksum getChecksum(File file, File source) throws IOException {
+    FileChecksum checksum = null;
+    synchronized (checksums) {
+      checksum = checksums.get(file.getAbsolutePath());
+    }
+    if (checksum != null && checksum.matches(file))
+      return checksum.checksum;
+
+    Checksum result = readMd5File(file, source);
+    if (result == null) {
+      logger.debug("Calculating checksum of {}", file);
+      result = Checksum.create(ChecksumType.DEFAULT_TYPE, file);
+    }
+    synchronized (checksums) {
+      checksums.put(file.getAbsolutePath(), new FileChecksum(file, result));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the analyzer output for the content identified by <code>checksum</code> and <code>size</code>.
+   *
+   * @param checksum
+   *          the content checksum
+   * @param size
+   *          the content size in bytes
+   * @param analyzer
+   *          identifies the analyzer's binary, version and configuration
+   * @return the analyzer output or <code>null</code> if the content has not been analyzed by that analyzer before
+   */
+  public List<String> get(Checksum checksum, long size, String analyzer) {
+    String key = getKey(checksum, size, analyzer);
+    List<String> output = null;
+    synchronized (results) {
+      output = results.get(key);
+    }
+    if (output == null && directory != null) {
+      File cacheFile = new File(directory, key + CACHE_FILE_EXTENSION);
+      if (cacheFile.isFile()) {
+        try {
+          output = readLines(cacheFile);
+          synchronized (results) {
+            results.put(key, output);
+          }
+        } catch (IOException e) {
+          logger.warn("Unable to read inspection cache file {}: {}", cacheFile, e.getMessage());
+          FileUtils.deleteQuietly(cacheFile);
+        }
+      }
+    }
+    if (output == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return output;
+  }
+
+  /**
+   * Stores the analyzer output for the content identified by <code>checksum</code> and <code>size</code>.
+   *
+   * @param checksum
+   *          the content checksum
+   * @param size
+   *          the content size in bytes
+   * @param analyzer
+   *          identifies the analyzer's binary, version and configuration
+   * @param output
+   *          the analyzer output
+   */
+  public void put(Checksum checksum, long size, String analyzer, List<String> output) {
+    String key = getKey(checksum, size, analyzer);
+    List<String> lines = new ArrayList<String>(output);
+    synchronized (results) {
+      results.put(key, lines);
+    }
+    if (directory == null)
+      return;
+    File cacheFile = new File(directory, key + CACHE_FILE_EXTENSION);
+    File tempFile = new File(directory, key + TEMP_FILE_EXTENSION + "." + Thread.currentThread().getId());
+    try {
+      FileUtils.writeLines(tempFile, "UTF-8", lines);
+      if (!tempFile.renameTo(cacheFile)) {
+        // Some platforms don't allow for renaming to an existing file
+        FileUtils.deleteQuietly(cacheFile);
+        if (!tempFile.renameTo(cacheFile))
+          throw new IOException("Unable to move " + tempFile + " to " + cacheFile);
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to write inspection cache file {}: {}", cacheFile, e.getMessage());
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+
+  /**
+   * Returns the number of analysis results that have been found in the cache.
+   *
+   * @return the number of cache hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of analysis results that have not been found in the cache.
+   *
+   * @return the number of cache misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Reads the checksum from the working file repository's md5 file, provided that it belongs to the same content as
+   * <code>file</code> and is not older than <code>source</code>.
+   *
+   * @param file
+   *          the file
+   * @param source
+   *          the working file repository's copy of the file
+   * @return the checksum or <code>null</code> if no valid md5 file exists
+   */
+  private Checksum readMd5File(File file, File source) {
+    if (source == null || !source.isFile() || source.length() != file.length())
+      return null;
+    File md5File = new File(source.getParentFile(), source.getName() + MD5_EXTENSION);
+    if (!md5File.isFile() || md5File.lastModified() < source.lastModified())
+      return null;
+    try {
+      String md5 = StringUtils.trimToNull(FileUtils.readFileToString(md5File, "UTF-8"));
+      if (md5 == null)
+        return null;
+      logger.debug("Using checksum of {} from {}", file, md5File);
+      return Checksum.create(ChecksumType.DEFAULT_TYPE, md5);
+    } catch (IOException e) {
+      logger.debug("Unable to read md5 file {}: {}", md5File, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Reads the lines of a cache file.
+   */
+  @SuppressWarnings("unchecked")
+  private List<String> readLines(File file) throws IOException {
+    return FileUtils.readLines(file, "UTF-8");
+  }
+
+  /**
+   * Returns the cache key for the given content and analyzer. The analyzer is hashed, since the key is used as a file
+   * name.
+   */
+  private String getKey(Checksum checksum, long size, String analyzer) {
+    try {
+      MessageDigest md = MessageDigest.getInstance(ChecksumType.DEFAULT_TYPE.getName());
+      byte[] digest = md.digest(StringUtils.trimToEmpty(analyzer).getBytes("UTF-8"));
+      return checksum.getValue() + "-" + size + "-" + Checksum.create(ChecksumType.DEFAULT_TYPE, digest).getValue();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The checksum of a file along with the file attributes that were current when the checksum was taken.
+   */
+  protected static final class FileChecksum {
+
+    /** The file's modification date */
+    private final long lastModified;
+
+    /** The file's size in bytes */
+    private final long length;
+
+    /** The checksum */
+    private final Checksum checksum;
+
+    /**
+     * Creates a checksum for the current state of <code>file</code>.
+     *
+     * @param file
+     *          the file
+     * @param checksum
+     *          the file's checksum
+     */
+    FileChecksum(File file, Checksum checksum) {
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+      this.checksum = checksum;
+    }
+
+    /**
+     * Returns <code>true</code> if the file has not been modified since the checksum was taken.
+     *
+     * @param file
+     *          the file
+     * @return <code>true</code> if the checksum is still valid
+     */
+    boolean matches(File file) {
+      return file.lastModified() == lastModified && file.length() == length;
+    }
+
+  }
+
+}
@@ -18,7 +18,6 @@ package org.opencastproject.inspection.impl;
 import org.opencastproject.inspection.api.MediaInspectionException;
 import org.opencastproject.inspection.api.MediaInspectionService;
 import org.opencastproject.inspection.impl.api.AudioStreamMetadata;
-import org.opencastproject.inspection.impl.api.MediaAnalyzer;
 import org.opencastproject.inspection.impl.api.MediaAnalyzerException;
 import org.opencastproject.inspection.impl.api.MediaContainerMetadata;
 import org.opencastproject.inspection.impl.api.VideoStreamMetadata;
@@ -43,11 +42,13 @@ import org.opencastproject.security.api.UserDirectoryService;
 import org.opencastproject.serviceregistry.api.ServiceRegistry;
 import org.opencastproject.serviceregistry.api.ServiceRegistryException;
 import org.opencastproject.util.Checksum;
-import org.opencastproject.util.ChecksumType;
 import org.opencastproject.util.MimeType;
 import org.opencastproject.util.MimeTypes;
 import org.opencastproject.util.NotFoundException;
+import org.opencastproject.util.PathSupport;
 import org.opencastproject.util.UnknownFileTypeException;
+import org.opencastproject.workingfilerepository.api.PathMappable;
+import org.opencastproject.workingfilerepository.api.WorkingFileRepository;
 import org.opencastproject.workspace.api.Workspace;
 
 import org.apache.commons.io.FilenameUtils;
@@ -61,11 +62,13 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -83,6 +86,9 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
   /** The inspect job operation name */
   public static final String INSPECT_URL = "inspect";
 
+  /** Configuration key for the directory that holds the inspection cache */
+  public static final String CACHE_DIR_CONFIG = "org.opencastproject.inspection.cache.dir";
+
   protected Workspace workspace;
   protected ServiceRegistry serviceRegistry;
   protected Map<String, Object> analyzerConfig = new ConcurrentHashMap<String, Object>();
@@ -97,6 +103,18 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
   /** The organization directory service */
   protected OrganizationDirectoryService organizationDirectoryService = null;
 
+  /** The cache for analysis results */
+  protected MediaInspectionCache cache = new MediaInspectionCache(null);
+
+  /** Identifies the analyzer's binary, version and configuration in the cache, or <code>null</code> if not yet known */
+  protected String analyzerId = null;
+
+  /** The file system root of the working file repository, if it is reachable from this node */
+  protected volatile String repositoryRoot = null;
+
+  /** The base url of the working file repository, if it is reachable from this node */
+  protected volatile String repositoryUrl = null;
+
   /**
    * Creates a new media inspection service instance.
    */
@@ -114,6 +132,19 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
       analyzerConfig.put(MediaInfoAnalyzer.MEDIAINFO_BINARY_CONFIG, path);
       logger.debug("Mediainfo config binary: {}", path);
     }
+
+    // Configure the cache for analysis results
+    String cacheDir = StringUtils.trimToNull(cc.getBundleContext().getProperty(CACHE_DIR_CONFIG));
+    if (cacheDir == null) {
+      String storageDir = StringUtils.trimToNull(cc.getBundleContext().getProperty("org.opencastproject.storage.dir"));
+      if (storageDir != null)
+        cacheDir = PathSupport.concat(storageDir, "inspection");
+    }
+    if (cacheDir != null) {
+      cache = new MediaInspectionCache(new File(cacheDir));
+    } else {
+      logger.info("No inspection cache directory configured, keeping inspection results in memory only");
+    }
   }
 
   /**
@@ -128,7 +159,10 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
       return;
     String path = StringUtils.trimToNull((String) properties.get(MediaInfoAnalyzer.MEDIAINFO_BINARY_CONFIG));
     if (path != null) {
-      analyzerConfig.put(MediaInfoAnalyzer.MEDIAINFO_BINARY_CONFIG, path);
+      synchronized (this) {
+        analyzerConfig.put(MediaInfoAnalyzer.MEDIAINFO_BINARY_CONFIG, path);
+        analyzerId = null;
+      }
       logger.info("Setting the path to mediainfo to " + path);
     }
   }
@@ -230,7 +264,8 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
         throw new MediaInspectionException("Can not inspect files without a filename extension");
       }
 
-      MediaContainerMetadata metadata = getFileMetadata(file);
+      Checksum checksum = getChecksum(trackURI, file);
+      MediaContainerMetadata metadata = getFileMetadata(file, checksum);
       if (metadata == null) {
         throw new MediaInspectionException("Media analyzer returned no metadata from " + file);
       } else {
@@ -249,11 +284,7 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
           track.setDuration(metadata.getDuration());
 
         // Checksum
-        try {
-          track.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, file));
-        } catch (IOException e) {
-          throw new MediaInspectionException("Unable to read " + file, e);
-        }
+        track.setChecksum(checksum);
 
         // Mimetype
         try {
@@ -347,7 +378,8 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
         throw new MediaInspectionException("Element " + file + " has no file extension");
       }
 
-      MediaContainerMetadata metadata = getFileMetadata(file);
+      Checksum checksum = getChecksum(originalTrackUrl, file);
+      MediaContainerMetadata metadata = getFileMetadata(file, checksum);
       if (metadata == null) {
         throw new MediaInspectionException("Unable to acquire media metadata for " + originalTrackUrl);
       } else if (metadata.getAudioStreamMetadata().size() == 0 && metadata.getVideoStreamMetadata().size() == 0) {
@@ -378,13 +410,8 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
         // enrich the new track with basic info
         if (track.getDuration() == -1L || override)
           track.setDuration(metadata.getDuration());
-        if (track.getChecksum() == null || override) {
-          try {
-            track.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, file));
-          } catch (IOException e) {
-            throw new MediaInspectionException("Unable to read " + file, e);
-          }
-        }
+        if (track.getChecksum() == null || override)
+          track.setChecksum(checksum);
 
         // Add the mime type if it's not already present
         if (track.getMimeType() == null || override) {
@@ -462,13 +489,8 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
       }
 
       // Checksum
-      if (element.getChecksum() == null || override) {
-        try {
-          element.setChecksum(Checksum.create(ChecksumType.DEFAULT_TYPE, file));
-        } catch (IOException e) {
-          throw new MediaInspectionException("Error generating checksum for " + element.getURI(), e);
-        }
-      }
+      if (element.getChecksum() == null || override)
+        element.setChecksum(getChecksum(element.getURI(), file));
 
       // Mimetype
       if (element.getMimeType() == null || override) {
@@ -564,20 +586,98 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
    *           if metadata extraction fails
    */
   protected MediaContainerMetadata getFileMetadata(File file) throws MediaInspectionException {
+    return getFileMetadata(file, null);
+  }
+
+  /**
+   * Returns the file's metadata. If the same content has been analyzed before, the metadata is restored from the
+   * inspection cache, otherwise the media analyzer is asked to extract it and the result is added to the cache.
+   * 
+   * @param file
+   *          the file
+   * @param checksum
+   *          the file's checksum or <code>null</code> to bypass the cache
+   * @return the file container metadata
+   * @throws MediaInspectionException
+   *           if metadata extraction fails
+   */
+  protected MediaContainerMetadata getFileMetadata(File file, Checksum checksum) throws MediaInspectionException {
     if (file == null) {
       throw new IllegalArgumentException("file to analyze cannot be null");
     }
+    MediaInfoAnalyzer analyzer = new MediaInfoAnalyzer();
+    analyzer.setConfig(analyzerConfig);
+
+    long size = file.length();
+    String id = checksum != null ? getAnalyzerId() : null;
+    if (checksum != null) {
+      List<String> output = cache.get(checksum, size, id);
+      if (output != null) {
+        logger.debug("Using cached inspection result for {}", file);
+        return analyzer.parse(output);
+      }
+    }
+
     MediaContainerMetadata metadata = null;
     try {
-      MediaAnalyzer analyzer = new MediaInfoAnalyzer();
-      analyzer.setConfig(analyzerConfig);
-      metadata = analyzer.analyze(file);
+      List<String> output = new ArrayList<String>();
+      metadata = analyzer.analyze(file, output);
+      if (checksum != null && metadata != null)
+        cache.put(checksum, size, id, output);
     } catch (MediaAnalyzerException e) {
       throw new MediaInspectionException(e);
     }
     return metadata;
   }
 
+  /**
+   * Returns the identity of the media analyzer, which is made up of its configuration, including the path to the
+   * binary, and the version that the binary reports. The version is only asked for once per configuration.
+   * 
+   * @return the analyzer identity
+   */
+  protected synchronized String getAnalyzerId() {
+    if (analyzerId == null) {
+      MediaInfoAnalyzer analyzer = new MediaInfoAnalyzer();
+      analyzer.setConfig(analyzerConfig);
+      String version = analyzer.getVersion();
+      String id = new TreeMap<String, Object>(analyzerConfig).toString() + " " + version;
+      // Ask again next time if the binary could not be run
+      if (version == null)
+        return id;
+      logger.debug("Media analyzer identity is {}", id);
+      analyzerId = id;
+    }
+    return analyzerId;
+  }
+
+  /**
+   * Returns the checksum of the file that has been loaded from <code>uri</code>. If the working file repository is
+   * reachable on the local filesystem, the checksum is taken from the md5 file that it keeps with its files rather than
+   * by reading the file again.
+   * 
+   * @param uri
+   *          the file's uri
+   * @param file
+   *          the workspace file
+   * @return the checksum
+   * @throws MediaInspectionException
+   *           if the file can't be read
+   */
+  protected Checksum getChecksum(URI uri, File file) throws MediaInspectionException {
+    File source = null;
+    String root = repositoryRoot;
+    String url = repositoryUrl;
+    if (root != null && url != null && uri.toString().startsWith(url)) {
+      source = new File(PathSupport.concat(root, uri.toString().substring(url.length())));
+    }
+    try {
+      return cache.getChecksum(file, source);
+    } catch (IOException e) {
+      throw new MediaInspectionException("Unable to read " + file, e);
+    }
+  }
+
   protected void setWorkspace(Workspace workspace) {
     logger.debug("setting " + workspace);
     this.workspace = workspace;
@@ -587,6 +687,32 @@ public class MediaInspectionServiceImpl extends AbstractJobProducer implements M
     this.serviceRegistry = jobManager;
   }
 
+  /**
+   * Callback for setting the working file repository. If the repository is reachable on the local filesystem, the
+   * checksums it keeps with its files are used instead of reading the files again.
+   * 
+   * @param repository
+   *          the working file repository
+   */
+  protected void setWorkingFileRepository(WorkingFileRepository repository) {
+    if (repository instanceof PathMappable) {
+      repositoryUrl = ((PathMappable) repository).getUrlPrefix();
+      repositoryRoot = ((PathMappable) repository).getPathPrefix();
+      logger.debug("Taking checksums from the working file repository at {}", repositoryRoot);
+    }
+  }
+
+  /**
+   * Callback for removing the working file repository.
+   * 
+   * @param repository
+   *          the working file repository
+   */
+  protected void unsetWorkingFileRepository(WorkingFileRepository repository) {
+    repositoryRoot = null;
+    repositoryUrl = null;
+  }
+
   /**
    * {@inheritDoc}
    * 
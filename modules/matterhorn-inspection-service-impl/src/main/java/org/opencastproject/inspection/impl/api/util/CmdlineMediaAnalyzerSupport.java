@@ -27,6 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * Support class for {@link org.opencastproject.inspection.impl.api.MediaAnalyzer} implementations that use an external
@@ -69,6 +70,23 @@ public abstract class CmdlineMediaAnalyzerSupport implements MediaAnalyzer {
   }
 
   public MediaContainerMetadata analyze(File media) throws MediaAnalyzerException {
+    return analyze(media, null);
+  }
+
+  /**
+   * Analyzes <code>media</code> and adds every line of output that the analysis tool returns to <code>output</code>.
+   * That output may later be handed to {@link #parse(List)} in order to restore the metadata without running the tool
+   * again.
+   * 
+   * @param media
+   *          the media file
+   * @param output
+   *          the list that collects the tool's output, may be <code>null</code>
+   * @return the metadata that is found
+   * @throws MediaAnalyzerException
+   *           if the analyzer fails
+   */
+  public MediaContainerMetadata analyze(File media, final List<String> output) throws MediaAnalyzerException {
 
     if (binary == null)
       throw new IllegalStateException("Binary is not set");
@@ -81,6 +99,8 @@ public abstract class CmdlineMediaAnalyzerSupport implements MediaAnalyzer {
     mediaAnalyzer = new ProcessExecutor<MediaAnalyzerException>(binary, cmdOptions) {
       @Override
       protected boolean onLineRead(String line) {
+        if (output != null)
+          output.add(line);
         onAnalysis(line);
         return true;
       }
@@ -97,6 +117,29 @@ public abstract class CmdlineMediaAnalyzerSupport implements MediaAnalyzer {
       throw new MediaAnalyzerException("Error while running media analyzer " + binary, e);
     }
 
+    return finish();
+  }
+
+  /**
+   * Builds the metadata from output that has been recorded during an earlier call to {@link #analyze(File, List)}.
+   * 
+   * @param output
+   *          the analysis tool's output
+   * @return the metadata
+   */
+  public MediaContainerMetadata parse(List<String> output) {
+    for (String line : output) {
+      onAnalysis(line);
+    }
+    return finish();
+  }
+
+  /**
+   * Post processes and returns the gathered metadata and resets the analyzer for the next run.
+   * 
+   * @return the metadata
+   */
+  private MediaContainerMetadata finish() {
     postProcess();
 
     MediaContainerMetadata m = metadata;
@@ -139,6 +182,32 @@ public abstract class CmdlineMediaAnalyzerSupport implements MediaAnalyzer {
     return null;
   }
 
+  /**
+   * Returns what the analysis tool prints when it is called with the options from {@link #getVersionCheckOptions()}.
+   * 
+   * @return the version information or <code>null</code> if the tool doesn't provide it
+   */
+  public String getVersion() {
+    String options = getVersionCheckOptions();
+    if (binary == null || options == null)
+      return null;
+    final StringBuilder version = new StringBuilder();
+    ProcessExecutor<MediaAnalyzerException> versionCheck = new ProcessExecutor<MediaAnalyzerException>(binary, options) {
+      @Override
+      protected boolean onLineRead(String line) {
+        version.append(line.trim()).append(" ");
+        return true;
+      }
+    };
+    try {
+      versionCheck.execute();
+    } catch (ProcessExcecutorException e) {
+      logger.warn("Unable to determine the version of {}: {}", binary, e.getMessage());
+      return null;
+    }
+    return StringUtils.trimToNull(version.toString());
+  }
+
   /**
    * This method will be called once the process returned. This implementation will check for exit codes different from
    * <code>-1</code>, <code>0</code> and <code>255</code> and throw an exception.
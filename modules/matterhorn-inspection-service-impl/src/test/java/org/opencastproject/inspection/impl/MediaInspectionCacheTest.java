@@ -0,0 +1,122 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.inspection.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.opencastproject.inspection.impl.api.MediaContainerMetadata;
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the media inspection cache.
+ */
+public class MediaInspectionCacheTest {
+
+  /** The analyzer identity */
+  private static final String ANALYZER = "{org.opencastproject.inspection.mediainfo.path=mediainfo} v0.7.44";
+
+  /** The test directory */
+  private File dir = null;
+
+  /** The media file */
+  private File file = null;
+
+  /** The md5 of the media file */
+  private Checksum checksum = null;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = new File(System.getProperty("java.io.tmpdir"), "inspection-cache-test-" + System.currentTimeMillis());
+    file = new File(MediaInspectionCacheTest.class.getResource("/av.mov").toURI());
+    checksum = Checksum.create(ChecksumType.DEFAULT_TYPE, "9d3523e464f18ad51f59564acde4b95a");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(dir);
+  }
+
+  @Test
+  public void testChecksumIsCalculated() throws Exception {
+    MediaInspectionCache cache = new MediaInspectionCache(null);
+    assertEquals(checksum, cache.getChecksum(file, null));
+    assertEquals(checksum, cache.getChecksum(file, null));
+  }
+
+  @Test
+  public void testChecksumIsTakenFromMd5File() throws Exception {
+    File source = new File(dir, "av.mov");
+    FileUtils.copyFile(file, source);
+    // Use a different value to make sure the file is not hashed again
+    FileUtils.writeStringToFile(new File(dir, "av.mov.md5"), "00000000000000000000000000000001", "UTF-8");
+    MediaInspectionCache cache = new MediaInspectionCache(null);
+    assertEquals("00000000000000000000000000000001", cache.getChecksum(file, source).getValue());
+  }
+
+  @Test
+  public void testMd5FileOfDifferentContentIsIgnored() throws Exception {
+    File source = new File(dir, "av.mov");
+    FileUtils.writeStringToFile(source, "other content", "UTF-8");
+    FileUtils.writeStringToFile(new File(dir, "av.mov.md5"), "00000000000000000000000000000001", "UTF-8");
+    MediaInspectionCache cache = new MediaInspectionCache(null);
+    assertEquals(checksum, cache.getChecksum(file, source));
+  }
+
+  @Test
+  public void testResultsSurviveRestarts() throws Exception {
+    List<String> output = Arrays.asList("General", "Duration : 14546", "Video", "Width : 320", "Height : 240");
+    MediaInspectionCache cache = new MediaInspectionCache(dir);
+    assertNull(cache.get(checksum, file.length(), ANALYZER));
+    cache.put(checksum, file.length(), ANALYZER, output);
+    assertEquals(output, cache.get(checksum, file.length(), ANALYZER));
+    assertNull(cache.get(checksum, file.length() + 1, ANALYZER));
+
+    cache = new MediaInspectionCache(dir);
+    List<String> cached = cache.get(checksum, file.length(), ANALYZER);
+    assertEquals(output, cached);
+    assertEquals(1, cache.getHits());
+
+    MediaContainerMetadata metadata = new MediaInfoAnalyzer().parse(cached);
+    assertEquals(new Long(14546), metadata.getDuration());
+    assertEquals(1, metadata.getVideoStreamMetadata().size());
+    assertEquals(new Integer(320), metadata.getVideoStreamMetadata().get(0).getFrameWidth());
+  }
+
+  @Test
+  public void testResultsOfOtherAnalyzersAreNotUsed() throws Exception {
+    List<String> output = Arrays.asList("General", "Duration : 14546");
+    MediaInspectionCache cache = new MediaInspectionCache(dir);
+    cache.put(checksum, file.length(), ANALYZER, output);
+    assertNull(cache.get(checksum, file.length(), "{org.opencastproject.inspection.mediainfo.path=mediainfo} v0.7.45"));
+    assertNull(cache.get(checksum, file.length(), "{org.opencastproject.inspection.mediainfo.path=/opt/mediainfo} v0.7.44"));
+
+    cache = new MediaInspectionCache(dir);
+    assertNull(cache.get(checksum, file.length(), "{org.opencastproject.inspection.mediainfo.path=mediainfo} v0.7.45"));
+    assertEquals(output, cache.get(checksum, file.length(), ANALYZER));
+  }
+
+}
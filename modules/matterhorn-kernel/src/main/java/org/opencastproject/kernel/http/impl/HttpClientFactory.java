@@ -15,10 +15,22 @@
  */
 package org.opencastproject.kernel.http.impl;
 
-
-
 import org.opencastproject.kernel.http.api.HttpClient;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.component.ComponentContext;
@@ -26,39 +38,174 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Dictionary;
+import java.util.concurrent.TimeUnit;
 
-/** Creates HttpClients that can be used for making requests such as GET, POST etc.*/
+/**
+ * Creates HttpClients that can be used for making requests such as GET, POST etc.
+ * <p>
+ * All clients share a single, bounded pool of connections, so that connections to the same host are kept alive and
+ * reused between requests instead of being opened and torn down for every request. Clients created by this factory
+ * must therefore never have their connection manager shut down. Instead, the connection of a request is returned to
+ * the pool once the response entity has been consumed.
+ */
 public class HttpClientFactory implements ManagedService {
   /** The logger */
   private static final Logger logger = LoggerFactory.getLogger(HttpClientFactory.class);
-  
-  
+
+  /** The configuration property specifying the maximum number of pooled connections */
+  public static final String MAX_CONNECTIONS_KEY = "org.opencastproject.http.client.max.connections";
+
+  /** The configuration property specifying the maximum number of pooled connections to a single host */
+  public static final String MAX_CONNECTIONS_PER_ROUTE_KEY = "org.opencastproject.http.client.max.connections.per.route";
+
+  /** The configuration property specifying the number of seconds an idle connection is kept alive */
+  public static final String KEEP_ALIVE_KEY = "org.opencastproject.http.client.keepalive";
+
+  /** The default maximum number of pooled connections */
+  public static final int DEFAULT_MAX_CONNECTIONS = 100;
+
+  /** The default maximum number of pooled connections to a single host */
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+  /** The default number of seconds an idle connection is kept alive */
+  public static final int DEFAULT_KEEP_ALIVE = 30;
+
+  /** The maximum number of pooled connections */
+  private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+  /** The maximum number of pooled connections to a single host */
+  private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+  /** The number of milliseconds an idle connection is kept alive */
+  private long keepAlive = DEFAULT_KEEP_ALIVE * 1000L;
+
+  /** The connection pool shared by all clients */
+  private ThreadSafeClientConnManager connectionManager = null;
+
+  /** Limits the time that idle connections are kept alive to what has been configured */
+  private final ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+      long duration = super.getKeepAliveDuration(response, context);
+      if (duration < 0 || duration > keepAlive)
+        return keepAlive;
+      return duration;
+    }
+  };
+
   /**
-   * Callback from the OSGi container once this service is started. This is where we register our shell commands.
+   * Callback from the OSGi container once this service is started. This is where the connection pool is set up.
    * 
    * @param ctx
    *          the component context
    */
   public void activate(ComponentContext componentContext) {
     logger.debug("Starting up");
+    if (componentContext != null && componentContext.getBundleContext() != null) {
+      maxConnections = getPositiveInt(componentContext, MAX_CONNECTIONS_KEY, DEFAULT_MAX_CONNECTIONS);
+      maxConnectionsPerRoute = Math.min(maxConnections,
+              getPositiveInt(componentContext, MAX_CONNECTIONS_PER_ROUTE_KEY, DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+      keepAlive = getPositiveInt(componentContext, KEEP_ALIVE_KEY, DEFAULT_KEEP_ALIVE) * 1000L;
+    }
+    logger.info("Pooling up to {} http connections, {} per host", maxConnections, maxConnectionsPerRoute);
+    getConnectionManager();
   }
 
   /**
-   * Deactivates the service
+   * Deactivates the service and closes all pooled connections.
    */
-  public void deactivate() {
+  public synchronized void deactivate() {
     logger.debug("Shutting down");
+    if (connectionManager != null) {
+      connectionManager.shutdown();
+      connectionManager = null;
+    }
   }
-  
+
   /** Updates the properties for this service. */
   @SuppressWarnings("rawtypes")
   @Override
   public void updated(Dictionary properties) throws ConfigurationException {
     
   }
-  
+
   /** Creates a new HttpClient to make requests.*/
   public HttpClient makeHttpClient() {
-    return new HttpClientImpl();
+    ThreadSafeClientConnManager manager = getConnectionManager();
+    manager.closeExpiredConnections();
+    return new HttpClientImpl(manager, keepAliveStrategy);
+  }
+
+  /**
+   * Returns the number of connections that are currently open, whether they are in use or idle.
+   * 
+   * @return the number of pooled connections
+   */
+  public int getConnectionsInPool() {
+    ThreadSafeClientConnManager manager = connectionManager;
+    return manager == null ? 0 : manager.getConnectionsInPool();
   }
+
+  /**
+   * Returns the maximum number of connections in the pool.
+   * 
+   * @return the maximum number of pooled connections
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Returns the maximum number of connections to a single host.
+   * 
+   * @return the maximum number of pooled connections per host
+   */
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  /**
+   * Returns the connection pool, creating it if necessary.
+   * 
+   * @return the connection pool
+   */
+  private synchronized ThreadSafeClientConnManager getConnectionManager() {
+    if (connectionManager == null) {
+      HttpParams params = new BasicHttpParams();
+      ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+      ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+      SchemeRegistry schemeRegistry = new SchemeRegistry();
+      schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+      schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+      connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+    }
+    return connectionManager;
+  }
+
+  /**
+   * Reads a positive integer from the bundle context, falling back to the default value if it is missing or invalid.
+   * 
+   * @param cc
+   *          the component context
+   * @param key
+   *          the property name
+   * @param defaultValue
+   *          the default value
+   * @return the configured value
+   */
+  private int getPositiveInt(ComponentContext cc, String key, int defaultValue) {
+    String value = StringUtils.trimToNull(cc.getBundleContext().getProperty(key));
+    if (value == null)
+      return defaultValue;
+    try {
+      int result = Integer.parseInt(value);
+      if (result > 0)
+        return result;
+    } catch (NumberFormatException e) {
+      // Fall through
+    }
+    logger.warn("Invalid value '{}' for {}, using default of {}", new Object[] { value, key, defaultValue });
+    return defaultValue;
+  }
+
 }
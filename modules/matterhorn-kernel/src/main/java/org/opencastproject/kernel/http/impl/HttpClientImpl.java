@@ -21,6 +21,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.params.HttpParams;
 
@@ -29,7 +30,25 @@ import java.io.IOException;
 /** Implementation of HttpClient that makes http requests. */
 public class HttpClientImpl implements HttpClient {
   /** client used for all http requests. */
-  private DefaultHttpClient defaultHttpClient = new DefaultHttpClient();
+  private DefaultHttpClient defaultHttpClient = null;
+
+  /** Creates a client with a connection manager of its own. */
+  public HttpClientImpl() {
+    defaultHttpClient = new DefaultHttpClient();
+  }
+
+  /**
+   * Creates a client that obtains its connections from a shared connection manager.
+   * 
+   * @param connectionManager
+   *          the connection manager
+   * @param keepAliveStrategy
+   *          decides how long connections are kept alive after a request
+   */
+  public HttpClientImpl(ClientConnectionManager connectionManager, ConnectionKeepAliveStrategy keepAliveStrategy) {
+    defaultHttpClient = new DefaultHttpClient(connectionManager, null);
+    defaultHttpClient.setKeepAliveStrategy(keepAliveStrategy);
+  }
 
   /** See org.opencastproject.kernel.http.api.HttpClient */
   @Override
@@ -16,9 +16,40 @@
 package org.opencastproject.kernel.security;
 
 /**
- * An MxBean that exposes the number of open http connections to a JXM agent
+ * An MxBean that exposes the number of open http connections, the state of the connection pool and the request
+ * latencies to a JXM agent
  */
 public interface HttpConnectionMXBean {
   /** Gets the number of open http connections */
   int getOpenConnections();
+
+  /** Gets the number of connections in the pool, whether they are in use or idle */
+  int getPooledConnections();
+
+  /** Gets the maximum number of connections in the pool */
+  int getMaxConnections();
+
+  /** Gets the maximum number of pooled connections to a single host */
+  int getMaxConnectionsPerHost();
+
+  /** Gets the number of requests sent, including the ones needed to obtain a nonce */
+  long getRequests();
+
+  /** Gets the number of requests that failed to return a response */
+  long getFailedRequests();
+
+  /** Gets the average time in milliseconds until a response arrives */
+  long getAverageLatency();
+
+  /** Gets the longest time in milliseconds until a response arrived */
+  long getMaximumLatency();
+
+  /** Gets the number of requests authenticated using a cached nonce */
+  long getNonceCacheHits();
+
+  /** Gets the number of times a nonce had to be requested from a server */
+  long getNonceCacheMisses();
+
+  /** Gets the number of requests that were sent again because their nonce was stale */
+  long getStaleNonceRetries();
 }
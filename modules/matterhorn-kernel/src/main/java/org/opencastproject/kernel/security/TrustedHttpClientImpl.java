@@ -23,9 +23,12 @@ import org.opencastproject.kernel.http.impl.HttpClientFactory;
 import org.opencastproject.security.api.TrustedHttpClient;
 import org.opencastproject.security.api.TrustedHttpClientException;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
@@ -33,23 +36,33 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.auth.DigestScheme;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.net.URI;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
 /**
  * An http client that executes secure (though not necessarily encrypted) http requests.
+ * <p>
+ * Requests are sent over the connection pool of the {@link HttpClientFactory}, so connections are kept alive between
+ * requests. Digest nonces are cached per host, so that requests other than GET only need the extra round trip to
+ * obtain a nonce the first time a host is contacted and whenever the server reports the cached nonce as stale. Requests
+ * with a streamed body can't be sent again, so they always obtain a fresh nonce first.
  */
 public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionMXBean {
   /** Header name used to request a new nonce from a server a request is sent to. */
@@ -121,6 +134,30 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
   /** The maximum amount of time in seconds to wait in addition to the RETRY_BASE_DELAY. */
   private int retryMaximumVariableTime = 300;
 
+  /** The most recent digest nonce per host, used to authenticate requests without asking for a new nonce first */
+  protected Map<String, DigestNonce> nonceCache = new ConcurrentHashMap<String, DigestNonce>();
+
+  /** The number of requests sent, including the ones needed to obtain a nonce */
+  private final AtomicLong requests = new AtomicLong();
+
+  /** The number of requests that failed to return a response */
+  private final AtomicLong failedRequests = new AtomicLong();
+
+  /** The total time in milliseconds spent waiting for responses */
+  private final AtomicLong totalLatency = new AtomicLong();
+
+  /** The longest time in milliseconds spent waiting for a response */
+  private final AtomicLong maximumLatency = new AtomicLong();
+
+  /** The number of requests authenticated using a cached nonce */
+  private final AtomicLong nonceCacheHits = new AtomicLong();
+
+  /** The number of times a nonce had to be requested from a server */
+  private final AtomicLong nonceCacheMisses = new AtomicLong();
+
+  /** The number of requests that have been sent again because the nonce was stale */
+  private final AtomicLong staleNonceRetries = new AtomicLong();
+
   public void activate(ComponentContext cc) {
     logger.debug("activate");
     user = cc.getBundleContext().getProperty(DIGEST_AUTH_USER_KEY);
@@ -261,7 +298,10 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
   public HttpResponse execute(HttpUriRequest httpUriRequest, int connectionTimeout, int socketTimeout)
           throws TrustedHttpClientException {
     HttpClient httpClient = makeHttpClient();
-    httpClient.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, connectionTimeout);
+    HttpParams params = httpClient.getParams();
+    params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, connectionTimeout);
+    // Don't wait forever for a connection if the pool is exhausted
+    ConnManagerParams.setTimeout(params, connectionTimeout);
     // Add the request header to elicit a digest auth response
     httpUriRequest.addHeader(REQUESTED_AUTH_HEADER, DIGEST_AUTH);
 
@@ -271,42 +311,127 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
       httpClient.getCredentialsProvider().setCredentials(AuthScope.ANY, creds);
 
       // Run the request (the http client handles the multiple back-and-forth requests)
-      HttpResponse response = null;
       try {
-        response = httpClient.execute(httpUriRequest);
+        HttpResponse response = executeTimed(httpClient, httpUriRequest);
         responseMap.put(response, httpClient);
         return response;
       } catch (IOException e) {
-        // close the http connection(s)
-        httpClient.getConnectionManager().shutdown();
         throw new TrustedHttpClientException(e);
       }
     }
 
     // HttpClient doesn't handle the request dynamics for other verbs (especially when sending a streamed multipart
     // request), so we need to handle the details of the digest auth back-and-forth manually
-    manuallyHandleDigestAuthentication(httpUriRequest, httpClient);
+    String host = getHost(httpUriRequest.getURI());
+    // A request whose body can only be sent once must not risk being rejected because of a stale cached nonce
+    boolean repeatable = isRepeatable(httpUriRequest);
+    DigestNonce nonce = repeatable ? nonceCache.get(host) : null;
+    boolean cachedNonce = nonce != null;
+    if (cachedNonce) {
+      nonceCacheHits.incrementAndGet();
+    } else {
+      nonce = requestNonce(httpUriRequest);
+    }
+    if (nonce != null) {
+      authenticate(httpUriRequest, nonce);
+    }
 
     HttpResponse response = null;
     try {
-      response = httpClient.execute(httpUriRequest);
-      if (nonceTimeoutRetries > 0 && hadNonceTimeoutResponse(response)) {
-        httpClient.getConnectionManager().shutdown();
+      response = executeTimed(httpClient, httpUriRequest);
+
+      // If the server didn't accept the nonce, try again right away if it sent a new one along with the rejection
+      if (nonce != null && response.getStatusLine().getStatusCode() == 401) {
+        nonceCache.remove(host);
+        DigestNonce newNonce = getDigestNonce(response);
+        if (repeatable && newNonce != null && (cachedNonce || newNonce.isStale())) {
+          logger.debug("Digest nonce for {} is stale, sending {} again", host, httpUriRequest.getURI());
+          staleNonceRetries.incrementAndGet();
+          release(response);
+          nonceCache.put(host, newNonce);
+          httpUriRequest.removeHeaders(AUTHORIZATION_HEADER_NAME);
+          authenticate(httpUriRequest, newNonce);
+          response = executeTimed(httpClient, httpUriRequest);
+        }
+      }
+
+      if (repeatable && nonceTimeoutRetries > 0 && hadNonceTimeoutResponse(response)) {
+        release(response);
         response = retryAuthAndRequestAfterNonceTimeout(httpUriRequest, response);
+      } else {
+        responseMap.put(response, httpClient);
       }
-      responseMap.put(response, httpClient);
       return response;
     } catch (Exception e) {
-      // if we have a response, remove it from the map
+      // if we have a response, remove it from the map and hand the connection back to the pool
       if (response != null) {
         responseMap.remove(response);
+        release(response);
       }
-      // close the http connection(s)
-      httpClient.getConnectionManager().shutdown();
       throw new TrustedHttpClientException(e);
     }
   }
 
+  /**
+   * Returns whether the request can be sent more than once, which is not the case if its entity is streamed.
+   * 
+   * @param httpUriRequest
+   *          the request
+   * @return <code>true</code> if the request can be sent again
+   */
+  private boolean isRepeatable(HttpUriRequest httpUriRequest) {
+    if (!(httpUriRequest instanceof HttpEntityEnclosingRequest))
+      return true;
+    HttpEntity entity = ((HttpEntityEnclosingRequest) httpUriRequest).getEntity();
+    return entity == null || entity.isRepeatable();
+  }
+
+  /**
+   * Executes the request and keeps track of the time it takes until the response arrives.
+   * 
+   * @param httpClient
+   *          the client to send the request through
+   * @param httpUriRequest
+   *          the request
+   * @return the response
+   * @throws IOException
+   *           if the request failed
+   */
+  private HttpResponse executeTimed(HttpClient httpClient, HttpUriRequest httpUriRequest) throws IOException {
+    long start = System.currentTimeMillis();
+    requests.incrementAndGet();
+    try {
+      return httpClient.execute(httpUriRequest);
+    } catch (IOException e) {
+      failedRequests.incrementAndGet();
+      throw e;
+    } finally {
+      long latency = System.currentTimeMillis() - start;
+      totalLatency.addAndGet(latency);
+      long max = maximumLatency.get();
+      while (latency > max && !maximumLatency.compareAndSet(max, latency)) {
+        max = maximumLatency.get();
+      }
+    }
+  }
+
+  /**
+   * Consumes whatever is left of the response entity, which returns the connection to the pool.
+   * 
+   * @param response
+   *          the response
+   */
+  private void release(HttpResponse response) {
+    HttpEntity entity = response.getEntity();
+    if (entity == null)
+      return;
+    try {
+      entity.consumeContent();
+    } catch (IOException e) {
+      logger.debug("Unable to consume the response entity: {}", e.getMessage());
+    }
+  }
+
   /**
    * Retries a request if the nonce timed out during the request.
    * 
@@ -322,9 +447,6 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
    */
   private HttpResponse retryAuthAndRequestAfterNonceTimeout(HttpUriRequest httpUriRequest, HttpResponse response)
           throws TrustedHttpClientException, IOException, ClientProtocolException {
-    // Get rid of old security headers with the old nonce.
-    httpUriRequest.removeHeaders(AUTHORIZATION_HEADER_NAME);
-
     for (int i = 0; i < nonceTimeoutRetries; i++) {
       HttpClient httpClient = makeHttpClient();
       int variableDelay = 0;
@@ -343,13 +465,19 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
           logger.error("Suffered InteruptedException while trying to sleep until next retry.", e);
         }
       }
-      manuallyHandleDigestAuthentication(httpUriRequest, httpClient);
-      response = httpClient.execute(httpUriRequest);
-      if (!hadNonceTimeoutResponse(response)) {
+
+      // Get rid of old security headers with the old nonce.
+      httpUriRequest.removeHeaders(AUTHORIZATION_HEADER_NAME);
+      DigestNonce nonce = requestNonce(httpUriRequest);
+      if (nonce != null) {
+        authenticate(httpUriRequest, nonce);
+      }
+      response = executeTimed(httpClient, httpUriRequest);
+      if (!hadNonceTimeoutResponse(response) || i == nonceTimeoutRetries - 1) {
         responseMap.put(response, httpClient);
         break;
       }
-      httpClient.getConnectionManager().shutdown();
+      release(response);
     }
     return response;
   }
@@ -367,17 +495,16 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
   }
 
   /**
-   * Handles the necessary handshake for digest authenticaion in the case where it isn't a GET operation.
+   * Asks the server for a new nonce, which is then cached for subsequent requests to the same host. This is the
+   * necessary handshake for digest authenticaion in the case where it isn't a GET operation.
    * 
    * @param httpUriRequest
    *          The request location to get the digest authentication for.
-   * @param httpClient
-   *          The client to send the request through.
+   * @return the nonce, or <code>null</code> if the server does not support digest authentication
    * @throws TrustedHttpClientException
-   *           Thrown if the client cannot be shutdown.
+   *           Thrown if the nonce cannot be obtained.
    */
-  private void manuallyHandleDigestAuthentication(HttpUriRequest httpUriRequest, HttpClient httpClient)
-          throws TrustedHttpClientException {
+  private DigestNonce requestNonce(HttpUriRequest httpUriRequest) throws TrustedHttpClientException {
     HttpRequestBase digestRequest;
     try {
       digestRequest = (HttpRequestBase) httpUriRequest.getClass().newInstance();
@@ -386,35 +513,48 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
     }
     digestRequest.setURI(httpUriRequest.getURI());
     digestRequest.addHeader(REQUESTED_AUTH_HEADER, DIGEST_AUTH);
-    String[] realmAndNonce = getRealmAndNonce(digestRequest);
-
-    if (realmAndNonce != null) {
-      // Set the user/pass
-      UsernamePasswordCredentials creds = new UsernamePasswordCredentials(user, pass);
+    nonceCacheMisses.incrementAndGet();
+    DigestNonce nonce = getDigestNonce(digestRequest);
+    if (nonce != null) {
+      nonceCache.put(getHost(httpUriRequest.getURI()), nonce);
+    }
+    return nonce;
+  }
 
-      // Set up the digest authentication with the required values
-      DigestScheme digestAuth = new DigestScheme();
-      digestAuth.overrideParamter("realm", realmAndNonce[0]);
-      digestAuth.overrideParamter("nonce", realmAndNonce[1]);
+  /**
+   * Adds the digest authentication header to the request.
+   * 
+   * @param httpUriRequest
+   *          the request
+   * @param nonce
+   *          the nonce to authenticate with
+   */
+  private void authenticate(HttpUriRequest httpUriRequest, DigestNonce nonce) {
+    String cnonce = Long.toHexString(generator.nextLong());
+    httpUriRequest.addHeader(nonce.authenticate(user, pass, httpUriRequest, cnonce));
+  }
 
-      // Add the authentication header
-      try {
-        httpUriRequest.addHeader(digestAuth.authenticate(creds, httpUriRequest));
-      } catch (Exception e) {
-        // close the http connection(s)
-        httpClient.getConnectionManager().shutdown();
-        throw new TrustedHttpClientException(e);
-      }
-    }
+  /**
+   * Returns the key that nonces are cached by.
+   * 
+   * @param uri
+   *          the request uri
+   * @return the scheme, host and port
+   */
+  private String getHost(URI uri) {
+    return uri.getScheme() + "://" + uri.getAuthority();
   }
 
   @Override
   public <T> T execute(HttpUriRequest httpUriRequest, ResponseHandler<T> responseHandler, int connectionTimeout,
           int socketTimeout) throws TrustedHttpClientException {
+    HttpResponse response = execute(httpUriRequest, connectionTimeout, socketTimeout);
     try {
-      return responseHandler.handleResponse(execute(httpUriRequest, connectionTimeout, socketTimeout));
+      return responseHandler.handleResponse(response);
     } catch (IOException e) {
       throw new TrustedHttpClientException(e);
+    } finally {
+      close(response);
     }
   }
 
@@ -428,10 +568,8 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
     if (response == null) {
       logger.debug("Can not close a null response");
     } else {
-      HttpClient httpClient = responseMap.remove(response);
-      if (httpClient != null) {
-        httpClient.getConnectionManager().shutdown();
-      }
+      responseMap.remove(response);
+      release(response);
     }
   }
 
@@ -448,39 +586,64 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
   }
 
   /**
-   * Perform a request, and extract the realm and nonce values
+   * Perform a request, and extract the digest challenge from the response.
    * 
    * @param request
-   *          The request to execute in order to obtain the realm and nonce
-   * @return A String[] containing the {realm, nonce}
+   *          The request to execute in order to obtain the nonce
+   * @return the nonce, or <code>null</code> if the server does not support digest authentication
    */
-  protected String[] getRealmAndNonce(HttpRequestBase request) throws TrustedHttpClientException {
+  protected DigestNonce getDigestNonce(HttpRequestBase request) throws TrustedHttpClientException {
     HttpClient httpClient = makeHttpClient();
     HttpResponse response;
     try {
-      response = httpClient.execute(request);
+      response = executeTimed(httpClient, request);
     } catch (IOException e) {
-      httpClient.getConnectionManager().shutdown();
       throw new TrustedHttpClientException(e);
     }
-    Header[] headers = response.getHeaders("WWW-Authenticate");
-    if (headers == null || headers.length == 0) {
+    DigestNonce nonce = getDigestNonce(response);
+    release(response);
+    if (nonce == null) {
       logger.warn("URI {} does not support digest authentication", request.getURI());
-      httpClient.getConnectionManager().shutdown();
-      return null;
     }
+    return nonce;
+  }
+
+  /**
+   * Extracts the digest challenge from a response.
+   * 
+   * @param response
+   *          the response
+   * @return the nonce, or <code>null</code> if the response doesn't contain a digest challenge
+   */
+  private DigestNonce getDigestNonce(HttpResponse response) {
+    Header[] headers = response.getHeaders("WWW-Authenticate");
+    if (headers == null || headers.length == 0)
+      return null;
     Header authRequiredResponseHeader = headers[0];
     String nonce = null;
     String realm = null;
+    String opaque = null;
+    String qop = null;
+    boolean stale = false;
     for (HeaderElement element : authRequiredResponseHeader.getElements()) {
       if ("nonce".equals(element.getName())) {
         nonce = element.getValue();
       } else if ("Digest realm".equals(element.getName())) {
         realm = element.getValue();
+      } else if ("opaque".equals(element.getName())) {
+        opaque = element.getValue();
+      } else if ("qop".equals(element.getName()) && element.getValue() != null) {
+        for (String option : element.getValue().split(",")) {
+          if ("auth".equals(option.trim()))
+            qop = "auth";
+        }
+      } else if ("stale".equals(element.getName())) {
+        stale = "true".equalsIgnoreCase(element.getValue());
       }
     }
-    httpClient.getConnectionManager().shutdown();
-    return new String[] { realm, nonce };
+    if (realm == null || nonce == null)
+      return null;
+    return new DigestNonce(realm, nonce, opaque, qop, stale);
   }
 
   /**
@@ -514,4 +677,192 @@ public class TrustedHttpClientImpl implements TrustedHttpClient, HttpConnectionM
     return retryMaximumVariableTime;
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getPooledConnections()
+   */
+  @Override
+  public int getPooledConnections() {
+    return httpClientFactory == null ? 0 : httpClientFactory.getConnectionsInPool();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getMaxConnections()
+   */
+  @Override
+  public int getMaxConnections() {
+    return httpClientFactory == null ? 0 : httpClientFactory.getMaxConnections();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getMaxConnectionsPerHost()
+   */
+  @Override
+  public int getMaxConnectionsPerHost() {
+    return httpClientFactory == null ? 0 : httpClientFactory.getMaxConnectionsPerRoute();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getRequests()
+   */
+  @Override
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getFailedRequests()
+   */
+  @Override
+  public long getFailedRequests() {
+    return failedRequests.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getAverageLatency()
+   */
+  @Override
+  public long getAverageLatency() {
+    long count = requests.get();
+    return count == 0 ? 0 : totalLatency.get() / count;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getMaximumLatency()
+   */
+  @Override
+  public long getMaximumLatency() {
+    return maximumLatency.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getNonceCacheHits()
+   */
+  @Override
+  public long getNonceCacheHits() {
+    return nonceCacheHits.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getNonceCacheMisses()
+   */
+  @Override
+  public long getNonceCacheMisses() {
+    return nonceCacheMisses.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.kernel.security.HttpConnectionMXBean#getStaleNonceRetries()
+   */
+  @Override
+  public long getStaleNonceRetries() {
+    return staleNonceRetries.get();
+  }
+
+  /**
+   * A digest challenge issued by a server. The nonce may be used for any number of requests until the server reports it
+   * as stale, counting the requests as required by RFC 2617.
+   */
+  static final class DigestNonce {
+
+    /** The authentication realm */
+    private final String realm;
+
+    /** The nonce */
+    private final String nonce;
+
+    /** The opaque value that needs to be sent back to the server, may be <code>null</code> */
+    private final String opaque;
+
+    /** The quality of protection, either <code>auth</code> or <code>null</code> */
+    private final String qop;
+
+    /** Whether the server has rejected a previous nonce as stale when issuing this one */
+    private final boolean stale;
+
+    /** The number of requests that have been sent with this nonce */
+    private final AtomicInteger nonceCount = new AtomicInteger();
+
+    DigestNonce(String realm, String nonce, String opaque, String qop, boolean stale) {
+      this.realm = realm;
+      this.nonce = nonce;
+      this.opaque = opaque;
+      this.qop = qop;
+      this.stale = stale;
+    }
+
+    /**
+     * @return whether the nonce was issued in place of a stale one
+     */
+    boolean isStale() {
+      return stale;
+    }
+
+    /**
+     * @return the number of requests that have been authenticated using this nonce
+     */
+    int getNonceCount() {
+      return nonceCount.get();
+    }
+
+    /**
+     * Creates the authorization header for the next request authenticated with this nonce.
+     * 
+     * @param user
+     *          the user name
+     * @param pass
+     *          the password
+     * @param request
+     *          the request
+     * @param cnonce
+     *          the client nonce
+     * @return the authorization header
+     */
+    Header authenticate(String user, String pass, HttpUriRequest request, String cnonce) {
+      URI requestUri = request.getURI();
+      String uri = StringUtils.isEmpty(requestUri.getRawPath()) ? "/" : requestUri.getRawPath();
+      if (requestUri.getRawQuery() != null)
+        uri += "?" + requestUri.getRawQuery();
+
+      String ha1 = DigestUtils.md5Hex(user + ":" + realm + ":" + pass);
+      String ha2 = DigestUtils.md5Hex(request.getMethod() + ":" + uri);
+      StringBuilder header = new StringBuilder("Digest username=\"").append(user).append("\", realm=\"")
+              .append(realm).append("\", nonce=\"").append(nonce).append("\", uri=\"").append(uri).append("\"");
+      String response;
+      if (qop != null) {
+        String nc = String.format("%08x", nonceCount.incrementAndGet());
+        response = DigestUtils.md5Hex(ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2);
+        header.append(", qop=").append(qop).append(", nc=").append(nc).append(", cnonce=\"").append(cnonce)
+                .append("\"");
+      } else {
+        nonceCount.incrementAndGet();
+        response = DigestUtils.md5Hex(ha1 + ":" + nonce + ":" + ha2);
+      }
+      header.append(", response=\"").append(response).append("\"");
+      if (opaque != null)
+        header.append(", opaque=\"").append(opaque).append("\"");
+      return new BasicHeader(AUTHORIZATION_HEADER_NAME, header.toString());
+    }
+
+  }
+
 }
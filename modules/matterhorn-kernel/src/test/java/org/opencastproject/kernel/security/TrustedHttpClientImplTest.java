@@ -16,6 +16,7 @@
 package org.opencastproject.kernel.security;
 
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.verify;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.classextension.EasyMock.createMock;
@@ -28,15 +29,18 @@ import org.opencastproject.security.api.TrustedHttpClientException;
 
 import junit.framework.Assert;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
 import org.apache.http.params.HttpParams;
+import org.easymock.IAnswer;
 import org.easymock.classextension.EasyMock;
 import org.easymock.classextension.IMocksControl;
 import org.junit.Before;
@@ -44,7 +48,11 @@ import org.junit.Test;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.ComponentContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 
 public class TrustedHttpClientImplTest {
 
@@ -249,12 +257,11 @@ public class TrustedHttpClientImplTest {
   public void successfullRequestResultsInNoRetries() throws ClientProtocolException, IOException {
     HttpPost httpPost = new HttpPost("http://localhost:8080/fake");
     HttpParams httpParams = createNiceMock(HttpParams.class);
-    ClientConnectionManager clientConnectionManager = createMock(ClientConnectionManager.class); 
+    replay(httpParams);
     
     // Setup DefaultHttpClients
     HttpClient securityDefaultHttpClient = createMock("Digest", HttpClient.class);
     expect(securityDefaultHttpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(securityDefaultHttpClient.getConnectionManager()).andReturn(clientConnectionManager);
     replay(securityDefaultHttpClient);
     
     HttpClient requestDefaultHttpClient = createMock("Request", HttpClient.class);
@@ -293,13 +300,12 @@ public class TrustedHttpClientImplTest {
     
     HttpPost httpPost = new HttpPost("http://localhost:8080/fake");
     HttpParams httpParams = createNiceMock(HttpParams.class);
-    ClientConnectionManager clientConnectionManager = createMock(ClientConnectionManager.class); 
+    replay(httpParams);
     
     HttpClient requestDefaultHttpClient = createMock("Request", HttpClient.class);
     expect(requestDefaultHttpClient.getParams()).andReturn(httpParams);
     // Digest authentication and close
     expect(requestDefaultHttpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(requestDefaultHttpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Try request and close. 
     expect(requestDefaultHttpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
     replay(requestDefaultHttpClient);
@@ -337,22 +343,18 @@ public class TrustedHttpClientImplTest {
     
     HttpPost httpPost = new HttpPost("http://localhost:8080/fake");
     HttpParams httpParams = createNiceMock(HttpParams.class);
-    ClientConnectionManager clientConnectionManager = createMock(ClientConnectionManager.class); 
+    replay(httpParams);
     
     HttpClient httpClient = createMock("Request", HttpClient.class);
     expect(httpClient.getParams()).andReturn(httpParams);
     // Security Handshake and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // First request and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Second Security Handshake and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Retry request and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     replay(httpClient);
     
     
@@ -387,19 +389,16 @@ public class TrustedHttpClientImplTest {
     
     HttpPost httpPost = new HttpPost("http://localhost:8080/fake");
     HttpParams httpParams = createNiceMock(HttpParams.class);
-    ClientConnectionManager clientConnectionManager = createMock(ClientConnectionManager.class); 
+    replay(httpParams);
     
     HttpClient httpClient = createMock("Request", HttpClient.class);
     expect(httpClient.getParams()).andReturn(httpParams);
     // Security Handshake and close.
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // First request and close
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Nonce retry and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Final request with success. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(okResponse);
     replay(httpClient);
@@ -436,7 +435,7 @@ public class TrustedHttpClientImplTest {
     
     HttpPost httpPost = new HttpPost("http://localhost:8080/fake");
     HttpParams httpParams = createNiceMock(HttpParams.class);
-    ClientConnectionManager clientConnectionManager = createMock(ClientConnectionManager.class); 
+    replay(httpParams);
     
     IMocksControl ctrl = EasyMock.createNiceControl();
     ctrl.checkOrder(false);
@@ -445,13 +444,10 @@ public class TrustedHttpClientImplTest {
     expect(httpClient.getParams()).andReturn(httpParams);
     // First Digest handshake and close
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // First request and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Second Digest handshake and close
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // First request retry. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(okResponse);
     replay(httpClient);
@@ -488,34 +484,27 @@ public class TrustedHttpClientImplTest {
     
     HttpPost httpPost = new HttpPost("http://localhost:8080/fake");
     HttpParams httpParams = createNiceMock(HttpParams.class);
-    ClientConnectionManager clientConnectionManager = createMock(ClientConnectionManager.class); 
+    replay(httpParams);
     
     HttpClient httpClient = createMock("Request", HttpClient.class);
     expect(httpClient.getParams()).andReturn(httpParams);
     // First Digest handshake and close
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // First request with a nonce timeout and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     
     // First retry getting nonce and close.   
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // First retry request and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     
     // Second retry getting nonce and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Second retry request and close
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(nonceResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     
     // Third retry getting nonce and close. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
-    expect(httpClient.getConnectionManager()).andReturn(clientConnectionManager);
     // Third retry with successful request. 
     expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(okResponse);
     replay(httpClient);
@@ -531,4 +520,129 @@ public class TrustedHttpClientImplTest {
     HttpResponse response = client.execute(httpPost);
     Assert.assertEquals(200, response.getStatusLine().getStatusCode());
   }
+  
+  @Test
+  public void cachedNonceIsReusedForSubsequentRequests() throws ClientProtocolException, IOException {
+    HttpParams httpParams = createNiceMock(HttpParams.class);
+    replay(httpParams);
+
+    HttpClient httpClient = createMock("Request", HttpClient.class);
+    expect(httpClient.getParams()).andReturn(httpParams).times(2);
+    // Digest handshake for the first request only
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
+    // Both requests
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(okResponse).times(2);
+    replay(httpClient);
+
+    HttpClientFactory httpClientFactory = createMock(HttpClientFactory.class);
+    expect(httpClientFactory.makeHttpClient()).andReturn(httpClient).atLeastOnce();
+    replay(httpClientFactory);
+    client.setHttpClientFactory(httpClientFactory);
+
+    HttpPost first = new HttpPost("http://localhost:8080/fake");
+    Assert.assertEquals(200, client.execute(first).getStatusLine().getStatusCode());
+    HttpPost second = new HttpPost("http://localhost:8080/other?param=value");
+    Assert.assertEquals(200, client.execute(second).getStatusLine().getStatusCode());
+    verify(httpClient);
+
+    String authorization = second.getFirstHeader(TrustedHttpClientImpl.AUTHORIZATION_HEADER_NAME).getValue();
+    Assert.assertTrue(authorization.contains("nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\""));
+    Assert.assertTrue(authorization.contains("nc=00000002"));
+    Assert.assertTrue(authorization.contains("uri=\"/other?param=value\""));
+    Assert.assertEquals(1, client.getNonceCacheMisses());
+    Assert.assertEquals(1, client.getNonceCacheHits());
+    Assert.assertEquals(3, client.getRequests());
+  }
+
+  @Test
+  public void staleNonceIsReplacedWithoutHandshake() throws ClientProtocolException, IOException {
+    BasicHttpResponse staleResponse = new BasicHttpResponse(new BasicStatusLine(new ProtocolVersion("Http", 1, 1), 401,
+            "Nonce has expired/timed out"));
+    staleResponse.addHeader("WWW-Authenticate", "Digest realm=\"testrealm@host.com\", qop=\"auth\", "
+            + "nonce=\"0a4f113b\", stale=true");
+    HttpParams httpParams = createNiceMock(HttpParams.class);
+    replay(httpParams);
+
+    HttpClient httpClient = createMock("Request", HttpClient.class);
+    expect(httpClient.getParams()).andReturn(httpParams).times(2);
+    // Digest handshake and first request
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(okResponse);
+    // Second request with the expired nonce, then again with the new nonce from the rejection
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(staleResponse);
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(okResponse);
+    replay(httpClient);
+
+    HttpClientFactory httpClientFactory = createMock(HttpClientFactory.class);
+    expect(httpClientFactory.makeHttpClient()).andReturn(httpClient).atLeastOnce();
+    replay(httpClientFactory);
+    client.setHttpClientFactory(httpClientFactory);
+
+    client.execute(new HttpPost("http://localhost:8080/fake"));
+    HttpPost httpPost = new HttpPost("http://localhost:8080/fake");
+    Assert.assertEquals(200, client.execute(httpPost).getStatusLine().getStatusCode());
+    verify(httpClient);
+
+    Header[] authorization = httpPost.getHeaders(TrustedHttpClientImpl.AUTHORIZATION_HEADER_NAME);
+    Assert.assertEquals(1, authorization.length);
+    Assert.assertTrue(authorization[0].getValue().contains("nonce=\"0a4f113b\""));
+    Assert.assertTrue(authorization[0].getValue().contains("nc=00000001"));
+    Assert.assertEquals(1, client.getStaleNonceRetries());
+    Assert.assertEquals(1, client.getNonceCacheMisses());
+  }
+
+  @Test
+  public void streamedBodyIsNotSentWithCachedNonce() throws Exception {
+    final BasicHttpResponse staleResponse = new BasicHttpResponse(new BasicStatusLine(new ProtocolVersion("Http", 1, 1),
+            401, "Nonce has expired/timed out"));
+    staleResponse.addHeader("WWW-Authenticate", "Digest realm=\"testrealm@host.com\", qop=\"auth\", "
+            + "nonce=\"0a4f113b\", stale=true");
+    final byte[] payload = new byte[100000];
+    new Random(42).nextBytes(payload);
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    HttpParams httpParams = createNiceMock(HttpParams.class);
+    replay(httpParams);
+
+    HttpClient httpClient = createMock("Request", HttpClient.class);
+    expect(httpClient.getParams()).andReturn(httpParams).times(2);
+    // Digest handshake and first request, which leave a nonce in the cache
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(digestResponse);
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andReturn(okResponse);
+    // The cached nonce has expired in the meantime, so the server reads the body and rejects a request that uses it
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andAnswer(new IAnswer<HttpResponse>() {
+      public HttpResponse answer() throws Throwable {
+        HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest) getCurrentArguments()[0];
+        if (request.getEntity() == null)
+          return digestResponse;
+        request.getEntity().writeTo(new ByteArrayOutputStream());
+        return staleResponse;
+      }
+    });
+    expect(httpClient.execute(isA(HttpUriRequest.class))).andAnswer(new IAnswer<HttpResponse>() {
+      public HttpResponse answer() throws Throwable {
+        HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest) getCurrentArguments()[0];
+        request.getEntity().writeTo(received);
+        return okResponse;
+      }
+    });
+    replay(httpClient);
+
+    HttpClientFactory httpClientFactory = createMock(HttpClientFactory.class);
+    expect(httpClientFactory.makeHttpClient()).andReturn(httpClient).atLeastOnce();
+    replay(httpClientFactory);
+    client.setHttpClientFactory(httpClientFactory);
+
+    client.execute(new HttpPost("http://localhost:8080/fake"));
+    HttpPost upload = new HttpPost("http://localhost:8080/upload");
+    InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(payload), -1);
+    Assert.assertFalse(entity.isRepeatable());
+    upload.setEntity(entity);
+    Assert.assertEquals(200, client.execute(upload).getStatusLine().getStatusCode());
+    verify(httpClient);
+
+    Assert.assertTrue(Arrays.equals(payload, received.toByteArray()));
+    Assert.assertEquals(0, client.getNonceCacheHits());
+    Assert.assertEquals(2, client.getNonceCacheMisses());
+    Assert.assertEquals(0, client.getStaleNonceRetries());
+  }
 }
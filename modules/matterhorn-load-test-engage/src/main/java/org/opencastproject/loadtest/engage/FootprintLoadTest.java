@@ -0,0 +1,189 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.loadtest.engage;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends footprints to the user tracking service of an engage server as fast as possible, the way the engage player does
+ * while a video is playing, and measures how many of them the server accepts per second. Every viewer keeps its http
+ * session for a number of footprints before it starts watching another episode in a new session.
+ **/
+public class FootprintLoadTest implements Runnable {
+  /* The logger */
+  private static final Logger logger = LoggerFactory.getLogger(FootprintLoadTest.class);
+  /* The number of seconds covered by a single footprint. */
+  public static final int FOOTPRINT_LENGTH = 5;
+  /* The number of footprints that are sent in a single session. */
+  public static final int FOOTPRINTS_PER_SESSION = 100;
+  /* The number of footprints accepted by the server in all viewers. */
+  private static final AtomicLong accepted = new AtomicLong();
+  /* The number of footprints that have been rejected or failed in all viewers. */
+  private static final AtomicLong failed = new AtomicLong();
+  /* A random number generator used to pick episodes at random. */
+  private Random generator = new Random();
+  /* The URL of the user tracking endpoint. */
+  private String userTrackingUrl = null;
+  /* The list of episode ids to send footprints for. */
+  private LinkedList<String> episodeList = null;
+  /* The time in milliseconds at which to stop sending footprints. */
+  private long endTime = 0;
+
+  /**
+   * Create a new viewer sending footprints.
+   *
+   * @param engageServerUrl
+   *          The location of the engage server to test.
+   * @param episodeList
+   *          The list of ids of episodes to send footprints for.
+   * @param endTime
+   *          The time in milliseconds at which to stop sending footprints.
+   */
+  public FootprintLoadTest(String engageServerUrl, LinkedList<String> episodeList, long endTime) {
+    this.userTrackingUrl = engageServerUrl + "/usertracking";
+    this.episodeList = episodeList;
+    this.endTime = endTime;
+  }
+
+  /**
+   * Sends footprints in a series of sessions until the end time is reached.
+   *
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    while (System.currentTimeMillis() < endTime) {
+      // A new client starts a new http session
+      DefaultHttpClient httpClient = new DefaultHttpClient();
+      try {
+        String episode = episodeList.get(generator.nextInt(episodeList.size()));
+        for (int i = 0; i < FOOTPRINTS_PER_SESSION && System.currentTimeMillis() < endTime; i++) {
+          sendFootprint(httpClient, episode, i * FOOTPRINT_LENGTH);
+        }
+      } finally {
+        httpClient.getConnectionManager().shutdown();
+      }
+    }
+  }
+
+  /**
+   * Sends a single footprint that continues the previous one of the session.
+   *
+   * @param httpClient
+   *          The client holding the http session.
+   * @param episode
+   *          The episode being watched.
+   * @param position
+   *          The position in seconds at which the footprint starts.
+   */
+  private void sendFootprint(DefaultHttpClient httpClient, String episode, int position) {
+    List<NameValuePair> params = new ArrayList<NameValuePair>();
+    params.add(new BasicNameValuePair("id", episode));
+    params.add(new BasicNameValuePair("in", Integer.toString(position)));
+    params.add(new BasicNameValuePair("out", Integer.toString(position + FOOTPRINT_LENGTH)));
+    params.add(new BasicNameValuePair("type", "FOOTPRINT"));
+    params.add(new BasicNameValuePair("playing", "true"));
+    try {
+      HttpPut put = new HttpPut(userTrackingUrl);
+      put.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+      HttpResponse response = httpClient.execute(put);
+      int status = response.getStatusLine().getStatusCode();
+      if (response.getEntity() != null)
+        response.getEntity().consumeContent();
+      if (status >= 200 && status < 300) {
+        accepted.incrementAndGet();
+      } else {
+        logger.debug("Footprint was rejected with " + response.getStatusLine());
+        failed.incrementAndGet();
+      }
+    } catch (Exception e) {
+      logger.debug("Unable to send footprint: " + e.getMessage());
+      failed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Runs the given number of viewers for the given number of seconds and logs the number of footprints per second that
+   * the server accepts while the test is running and on average once it is finished.
+   *
+   * @param engageServerUrl
+   *          The location of the engage server to test.
+   * @param episodeList
+   *          The list of ids of episodes to send footprints for.
+   * @param viewers
+   *          The number of viewers sending footprints at the same time.
+   * @param duration
+   *          The number of seconds to run the test for.
+   * @return The average number of footprints per second accepted by the server.
+   * @throws InterruptedException
+   *           If the test is interrupted while waiting for the viewers.
+   */
+  public static double runTest(String engageServerUrl, LinkedList<String> episodeList, int viewers, int duration)
+          throws InterruptedException {
+    accepted.set(0);
+    failed.set(0);
+    long start = System.currentTimeMillis();
+    long end = start + duration * LoadTestEngage.MILLISECONDS_IN_SECONDS;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < viewers; i++) {
+      Thread thread = new Thread(new FootprintLoadTest(engageServerUrl, episodeList, end), "Viewer " + i);
+      threads.add(thread);
+      thread.start();
+    }
+
+    // Report the rate of the last interval while the test is running
+    long lastTime = start;
+    long lastAccepted = 0;
+    while (System.currentTimeMillis() < end) {
+      Thread.sleep(Math.min(10 * LoadTestEngage.MILLISECONDS_IN_SECONDS, Math.max(1, end - System.currentTimeMillis())));
+      long now = System.currentTimeMillis();
+      long currentAccepted = accepted.get();
+      logger.info("Footprints per second: " + rate(currentAccepted - lastAccepted, now - lastTime) + " (" + failed.get()
+              + " failed so far)");
+      lastTime = now;
+      lastAccepted = currentAccepted;
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    double rate = rate(accepted.get(), elapsed);
+    logger.info(viewers + " viewers sent " + accepted.get() + " footprints in " + elapsed + " ms, " + failed.get()
+            + " failed. Sustained footprints per second: " + rate);
+    return rate;
+  }
+
+  /** Returns the number of events per second. **/
+  private static double rate(long events, long milliseconds) {
+    if (milliseconds <= 0)
+      return 0;
+    return Math.round(events * 10000.0 / milliseconds) / 10.0;
+  }
+}
@@ -59,6 +59,10 @@ public class Main {
   public static String digestUsername = "matterhorn_system_account";
   /* The password to use to make rest endpoint requests. */
   public static String digestPassword = "CHANGE_ME";
+  /* The number of viewers sending footprints in the footprint load test, or 0 to run the browser load test. */
+  public static int numberOfFootprintViewers = 0;
+  /* The amount of time in seconds to run the footprint load test. */
+  public static int footprintTestDuration = 60;
 
   /* The collection of all browsers that the user can choose from. */
   public enum BrowserToUse {
@@ -131,6 +135,13 @@ public class Main {
       timeToWatchVideo = Integer.parseInt(line.getOptionValue("watchtime"));
     }
 
+    if (line.hasOption("footprintviewers")) {
+      numberOfFootprintViewers = Integer.parseInt(line.getOptionValue("footprintviewers"));
+    }
+    if (line.hasOption("footprintduration")) {
+      footprintTestDuration = Integer.parseInt(line.getOptionValue("footprintduration"));
+    }
+
     if (line.hasOption("withchrome")) {
       browserToUse = BrowserToUse.Chrome;
     }
@@ -146,6 +157,17 @@ public class Main {
 
     LinkedList<String> episodeList = getListOfEpisodes();
 
+    // Measure the number of footprints per second the user tracking service can take instead of running browsers
+    if (numberOfFootprintViewers > 0) {
+      if (episodeList == null || episodeList.size() <= 0) {
+        logger.warn("There are no episodes in the engage player, sending footprints for a made up episode.");
+        episodeList = new LinkedList<String>();
+        episodeList.add("footprint-load-test");
+      }
+      FootprintLoadTest.runTest(engageServerURL, episodeList, numberOfFootprintViewers, footprintTestDuration);
+      System.exit(0);
+    }
+
     if (episodeList == null || episodeList.size() <= 0) {
       logger.error("You need at least one episode in the engage player to run this load test. ");
       System.exit(0);
@@ -212,6 +234,12 @@ public class Main {
             "the amount of time in seconds to wait before switching to another video. "
                     + "It will watch for 1/2 the time you specify up to the total amount you specify.\nDefault:"
                     + timeToWatchVideo));
+    options.addOption(new Option("footprintviewers", true,
+            "instead of spawning browsers, send footprints to the user tracking service from this number of viewers "
+                    + "as fast as possible and report the number of footprints per second. \nDefault:"
+                    + numberOfFootprintViewers));
+    options.addOption(new Option("footprintduration", true,
+            "the amount of time in seconds to send footprints for. \nDefault:" + footprintTestDuration));
     return options;
   }
 
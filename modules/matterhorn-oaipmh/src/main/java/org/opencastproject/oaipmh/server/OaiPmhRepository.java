@@ -27,19 +27,26 @@ import org.opencastproject.util.data.Function;
 import org.opencastproject.util.data.Function0;
 import org.opencastproject.util.data.Option;
 import org.opencastproject.util.data.Predicate;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
 
 import static org.opencastproject.oaipmh.OaiPmhUtil.toOaiRepresentation;
 import static org.opencastproject.oaipmh.OaiPmhUtil.toUtc;
@@ -270,14 +277,9 @@ public abstract class OaiPmhRepository {
       protected ListXmlGen respond(ListGenParams listParams) {
         return new ListXmlGen(listParams, p.getVerb().get()) {
           @Override
-          protected List<Node> createContent() {
-            return map(_(params.getResult().getItems()), __(Node.class), new Function<SearchResultItem, Node>() {
-              @Override
-              public Node apply(SearchResultItem item) {
-                Element metadata = params.getMetadataProvider().createMetadata(OaiPmhRepository.this, item);
-                return record(item, metadata);
-              }
-            });
+          protected Node createItem(SearchResultItem item) {
+            Element metadata = params.getMetadataProvider().createMetadata(OaiPmhRepository.this, item);
+            return record(item, metadata);
           }
         };
       }
@@ -292,13 +294,8 @@ public abstract class OaiPmhRepository {
         // create XML response
         return new ListXmlGen(listParams, p.getVerb().get()) {
           @Override
-          protected List<Node> createContent() {
-            return map(_(params.getResult().getItems()), __(Node.class), new Function<SearchResultItem, Node>() {
-              @Override
-              public Node apply(SearchResultItem item) {
-                return header(item);
-              }
-            });
+          protected Node createItem(SearchResultItem item) {
+            return header(item);
           }
         };
       }
@@ -452,6 +449,29 @@ public abstract class OaiPmhRepository {
     }
   };
 
+  /**
+   * Restrict the query of <code>rq</code> to the items following the last item already delivered.
+   * This relies on the results being sorted by modification date and id. Unlike an offset, the restriction
+   * can be evaluated using the index, so resuming a query does not get slower the further a harvest proceeds.
+   */
+  static String resumeAfter(ResumableQuery rq) {
+    final String modified = toSolrDateTime(rq.getLastModified());
+    final String id = "\"" + rq.getLastId().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    final String after = String.format("(%1$s:{%2$s TO *} OR (%1$s:\"%2$s\" AND %3$s:{%4$s TO *}))",
+        Schema.OC_MODIFIED, modified, Schema.ID, id);
+    return StringUtils.isNotBlank(rq.getQuery()) ? "(" + rq.getQuery() + ") AND " + after : after;
+  }
+
+  /**
+   * Convert a date into a solr date string. Milliseconds are retained so that the date
+   * matches the one stored in the index exactly.
+   */
+  private static String toSolrDateTime(Date date) {
+    SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    f.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return f.format(date);
+  }
+
   static class BadArgumentException extends RuntimeException {
   }
 
@@ -501,54 +521,50 @@ public abstract class OaiPmhRepository {
       return metadataProvider.fold(new Option.Match<MetadataProvider, XmlGen>() {
         @Override
         public XmlGen some(MetadataProvider metadataProvider) {
-          try {
-            final SearchResult result;
-            if (!resumptionTokenExists) {
-              // start a new query
-              final List<String> queryFragments = new ArrayList<String>();
-              if (from.isSome() || until.isSome()) {
-                queryFragments.add(String.format("%s:[%s TO %s]",
-                    Schema.OC_MODIFIED,
-                    from.map(toSolrDateRangeStart).getOrElse("*"),
-                    until.map(toSolrDateRangeEnd).getOrElse("*")));
-              }
-              p.getSet().flatMap(convSetSpecToSolrQuery).map(Functions.appendTo(queryFragments));
-              final SearchQuery q = new SearchQuery().withQuery(mkString(queryFragments, " ")).withLimit(getResultLimit());
-              result = getSearchService().getByQuery(q);
-            } else {
-              // resume query
-              result = getSavedQuery(p.getResumptionToken().get()).fold(new Option.Match<ResumableQuery, SearchResult>() {
-                @Override
-                public SearchResult some(ResumableQuery rq) {
-                  final SearchQuery next = new SearchQuery()
-                      .withQuery(rq.getQuery())
-                      .withOffset(rq.getOffset() + rq.getLimit()) // move forward
-                      .withLimit(rq.getLimit());
-                  return getSearchService().getByQuery(next);
-                }
-
-                @Override
-                public SearchResult none() {
-                  // no resumable query found
-                  throw new BadResumptionTokenException();
-                }
-              });
+          // the original query and the number of items delivered with previous pages
+          final String query;
+          final int offset;
+          final SearchQuery q;
+          if (!resumptionTokenExists) {
+            // start a new query
+            final List<String> queryFragments = new ArrayList<String>();
+            if (from.isSome() || until.isSome()) {
+              queryFragments.add(String.format("%s:[%s TO %s]",
+                  Schema.OC_MODIFIED,
+                  from.map(toSolrDateRangeStart).getOrElse("*"),
+                  until.map(toSolrDateRangeEnd).getOrElse("*")));
             }
-            if (result.size() > 0) {
-              return respond(new ListGenParams(
-                  OaiPmhRepository.this,
-                  result,
-                  metadataProvider,
-                  metadataPrefix,
-                  p.getResumptionToken(),
-                  from,
-                  until,
-                  p.getSet()));
-            } else {
-              return createNoRecordsMatchResponse();
+            p.getSet().flatMap(convSetSpecToSolrQuery).map(Functions.appendTo(queryFragments));
+            query = mkString(queryFragments, " ");
+            offset = 0;
+            q = new SearchQuery().withQuery(query).withLimit(getResultLimit());
+          } else {
+            // resume query
+            final Option<ResumableQuery> rq = getSavedQuery(p.getResumptionToken().get());
+            if (rq.isNone()) {
+              // no resumable query found
+              return createBadResumptionTokenResponse();
             }
-          } catch (BadResumptionTokenException e) {
-            return createBadResumptionTokenResponse();
+            query = rq.get().getQuery();
+            offset = rq.get().getOffset();
+            q = new SearchQuery().withQuery(resumeAfter(rq.get())).withLimit(rq.get().getLimit());
+          }
+          // the stable sort order allows to resume the query after the last item of this page
+          final SearchResult result = getSearchService().getByQuery(q.withModificationDateAndIdSort(true));
+          if (result.size() > 0) {
+            return respond(new ListGenParams(
+                OaiPmhRepository.this,
+                result,
+                query,
+                offset,
+                metadataProvider,
+                metadataPrefix,
+                p.getResumptionToken(),
+                from,
+                until,
+                p.getSet()));
+          } else {
+            return createNoRecordsMatchResponse();
           }
         }
 
@@ -605,7 +621,8 @@ public abstract class OaiPmhRepository {
     }
 
     /**
-     * OAI XML response generation environment for list responses.
+     * OAI XML response generation environment for list responses. The items are created one by one
+     * while the response is being written, so that memory consumption does not depend on the page size.
      */
     abstract class ListXmlGen extends OaiVerbXmlGen {
 
@@ -617,26 +634,67 @@ public abstract class OaiPmhRepository {
       }
 
       /**
-       * Implement to create your content. Gets placed as children of the verb node.
+       * Implement to create the node of a single item. Gets placed as a child of the verb node.
        */
-      protected abstract List<Node> createContent();
+      protected abstract Node createItem(SearchResultItem item);
 
       @Override
       public Element create() {
-        List<Node> content = createContent();
-        content.add(resumptionToken(params.getResumptionToken(), params.getMetadataPrefix(), params.getResult()));
+        List<Node> content = new ArrayList<Node>();
+        for (Iterator<Node> i = content(); i.hasNext();)
+          content.add(i.next());
+        return envelope(verb(content));
+      }
+
+      @Override
+      protected void write(XMLStreamWriter w) throws XMLStreamException {
+        Element verb = verb();
+        write(w, envelope(verb), verb, content());
+      }
+
+      private Element envelope(Element verb) {
         return oai(
             request(
                 $a("metadataPrefix", params.getMetadataPrefix()),
                 $aSome("from", params.getFrom().map(toSupportedGranularity)),
                 $aSome("until", params.getUntil().map(toSupportedGranularity)),
                 $aSome("set", params.getSet())),
-            verb(content)
+            verb
         );
       }
-    }
 
-    private class BadResumptionTokenException extends RuntimeException {
+      /**
+       * Return the content of the verb node, i.e. the items followed by the resumption token.
+       * Nodes are created on demand.
+       */
+      private Iterator<Node> content() {
+        final SearchResultItem[] items = params.getResult().getItems();
+        return new Iterator<Node>() {
+          private int index = 0;
+
+          @Override
+          public boolean hasNext() {
+            return index <= items.length;
+          }
+
+          @Override
+          public Node next() {
+            if (!hasNext())
+              throw new NoSuchElementException();
+            Node node = index < items.length
+                ? createItem(items[index])
+                : resumptionToken(params.getResumptionToken(), params.getMetadataPrefix(), params.getQuery(),
+                                  params.getOffset(), params.getResult());
+            index++;
+            return node;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
     }
   }
 }
@@ -650,6 +708,10 @@ final class ListGenParams {
 
   private final SearchResult result;
 
+  private final String query;
+
+  private final int offset;
+
   private final MetadataProvider metadataProvider;
 
   private final String metadataPrefix;
@@ -663,11 +725,13 @@ final class ListGenParams {
   private final Option<String> set;
 
   // CHECKSTYLE:OFF
-  ListGenParams(OaiPmhRepository repository, SearchResult result, MetadataProvider metadataProvider,
-                String metadataPrefix,
+  ListGenParams(OaiPmhRepository repository, SearchResult result, String query, int offset,
+                MetadataProvider metadataProvider, String metadataPrefix,
                 Option<String> resumptionToken, Option<Date> from, Option<Date> until, Option<String> set) {
     this.repository = repository;
     this.result = result;
+    this.query = query;
+    this.offset = offset;
     this.metadataProvider = metadataProvider;
     this.resumptionToken = resumptionToken;
     this.metadataPrefix = metadataPrefix;
@@ -685,6 +749,20 @@ final class ListGenParams {
     return result;
   }
 
+  /**
+   * Return the original query, i.e. without the restriction to the items following the previous page.
+   */
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * Return the number of items delivered with the previous pages.
+   */
+  public int getOffset() {
+    return offset;
+  }
+
   public MetadataProvider getMetadataProvider() {
     return metadataProvider;
   }
@@ -105,21 +105,33 @@ public abstract class OaiXmlGen extends XmlGen {
 
   /**
    * Create the resumption token and store the query.
+   *
+   * @param resumptionToken
+   *        the token of the request, if it has been a resumption
+   * @param metadataPrefix
+   *        the requested metadata prefix
+   * @param query
+   *        the original query, i.e. the query without restriction to the items following the previous page
+   * @param offset
+   *        number of items delivered with the previous pages
+   * @param result
+   *        the current page, sorted by modification date and id
    */
-  Node resumptionToken(final Option<String> resumptionToken, final String metadataPrefix, final SearchResult result) {
-    final int offset;
-    if (result.getOffset() <= Integer.MAX_VALUE) {
-      offset = (int) result.getOffset();
-    } else {
-      throw new RuntimeException("offset too big");
-    }
+  Node resumptionToken(final Option<String> resumptionToken, final String metadataPrefix, final String query,
+                       final int offset, final SearchResult result) {
+    // the result only contains the items following the previous page
+    final long completeListSize = offset + result.getTotalSize();
     // compute the token value...
     final Option<Option<String>> token;
-    if (offset + result.size() < result.getTotalSize()) {
+    if (result.size() < result.getTotalSize()) {
       // more to come...
-      token = some(some(repository.saveQuery(new ResumableQuery(result.getQuery(),
+      final SearchResultItem[] items = result.getItems();
+      final SearchResultItem last = items[items.length - 1];
+      token = some(some(repository.saveQuery(new ResumableQuery(query,
           metadataPrefix,
-          offset,
+          last.getModified(),
+          last.getId(),
+          offset + items.length,
           repository.getResultLimit()))));
     } else if (resumptionToken.isSome()) {
       // last page reached
@@ -133,7 +145,7 @@ public abstract class OaiXmlGen extends XmlGen {
           @Override
           public Node apply(Option<String> token) {
             return $e("resumptionToken",
-                $a("completeListSize", Long.toString(result.getTotalSize())),
+                $a("completeListSize", Long.toString(completeListSize)),
                 $a("cursor", Integer.toString(offset)),
                 token.map(mkText).getOrElse(nodeZero));
           }
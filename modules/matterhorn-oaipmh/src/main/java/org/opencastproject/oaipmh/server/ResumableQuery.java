@@ -16,18 +16,44 @@
 
 package org.opencastproject.oaipmh.server;
 
+import java.util.Date;
+
 /**
  * Stores information about a query with a paged response so that the next page can be retrieved.
+ * <p/>
+ * Pages are not addressed by an offset but by the modification date and id of the last item of the previous page,
+ * which the items of a result are sorted by. This way, the search index does not have to skip all preceding items
+ * when the next page is requested.
  */
 class ResumableQuery {
   private final String query;
   private final String metadataPrefix;
+  private final Date lastModified;
+  private final String lastId;
   private final int offset;
   private final int limit;
 
-  ResumableQuery(String query, String metadataPrefix, int offset, int limit) {
+  /**
+   * Create a new resumable query.
+   *
+   * @param query
+   *        the original query
+   * @param metadataPrefix
+   *        the requested metadata prefix
+   * @param lastModified
+   *        modification date of the last item already delivered
+   * @param lastId
+   *        id of the last item already delivered
+   * @param offset
+   *        number of items already delivered
+   * @param limit
+   *        page size
+   */
+  ResumableQuery(String query, String metadataPrefix, Date lastModified, String lastId, int offset, int limit) {
     this.query = query;
     this.metadataPrefix = metadataPrefix;
+    this.lastModified = lastModified;
+    this.lastId = lastId;
     this.offset = offset;
     this.limit = limit;
   }
@@ -36,6 +62,14 @@ class ResumableQuery {
     return query;
   }
 
+  Date getLastModified() {
+    return lastModified;
+  }
+
+  String getLastId() {
+    return lastId;
+  }
+
   int getOffset() {
     return offset;
   }
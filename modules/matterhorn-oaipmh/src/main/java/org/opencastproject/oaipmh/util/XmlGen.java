@@ -24,6 +24,7 @@ import org.opencastproject.util.data.Option;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -31,16 +32,14 @@ import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.opencastproject.util.data.CollectionUtil.flatMap;
@@ -48,6 +47,11 @@ import static org.opencastproject.util.data.CollectionUtil.flatMap;
 /**
  * DOM based XML generation environment. Implement {@link #create()} to create the XML.
  * Serialize to an output stream with {@link #generate(java.io.OutputStream)}.
+ * <p/>
+ * Serialization is done with a StAX writer. Large documents do not need to be created as a whole before
+ * being written: override {@link #write(javax.xml.stream.XMLStreamWriter)} and use
+ * {@link #write(javax.xml.stream.XMLStreamWriter, org.w3c.dom.Node, org.w3c.dom.Node, java.util.Iterator)}
+ * to have the bulk of the content created piece by piece while it is written.
  *
  * todo document the node creator functions
  */
@@ -68,28 +72,20 @@ public abstract class XmlGen {
     }
   }
 
-  private void write(OutputStream out) {
-    try {
-      TransformerFactory transformerFactory = TransformerFactory.newInstance();
-      Transformer transformer = transformerFactory.newTransformer();
-      transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-      transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-      DOMSource source = new DOMSource(document);
-      StreamResult result = new StreamResult(out);
-      transformer.transform(source, result);
-    } catch (TransformerException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   /**
    * Generate the XML and write it to <code>out</code>.
    */
   public void generate(OutputStream out) {
-    document.appendChild(create());
-    write(out);
+    try {
+      XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+      w.writeStartDocument("UTF-8", "1.0");
+      write(w);
+      w.writeEndDocument();
+      // does not close the underlying stream
+      w.close();
+    } catch (XMLStreamException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   /**
@@ -106,6 +102,100 @@ public abstract class XmlGen {
    */
   public abstract Element create();
 
+  /**
+   * Write the document to <code>w</code>. The default implementation writes the element returned by
+   * {@link #create()}. Override to stream large contents.
+   */
+  protected void write(XMLStreamWriter w) throws XMLStreamException {
+    write(w, create());
+  }
+
+  /**
+   * Write node <code>n</code> including all of its descendants.
+   */
+  protected void write(XMLStreamWriter w, Node n) throws XMLStreamException {
+    write(w, n, null, null);
+  }
+
+  /**
+   * Write node <code>n</code> including all of its descendants. The nodes provided by <code>content</code>
+   * are appended to the children of <code>container</code>, which must be <code>n</code> or one of its descendants.
+   * Since each node is pulled from the iterator just before it gets written, nodes can be created on demand
+   * and are ready for garbage collection right after.
+   */
+  protected void write(XMLStreamWriter w, Node n, Node container, Iterator<Node> content) throws XMLStreamException {
+    switch (n.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        w.writeStartElement(n.getNodeName());
+        writeNamespaceAndAttributes(w, (Element) n);
+        for (Node child = n.getFirstChild(); child != null; child = child.getNextSibling())
+          write(w, child, container, content);
+        if (n == container) {
+          while (content.hasNext())
+            write(w, content.next());
+        }
+        w.writeEndElement();
+        break;
+      case Node.TEXT_NODE:
+        w.writeCharacters(n.getNodeValue());
+        break;
+      case Node.CDATA_SECTION_NODE:
+        w.writeCData(n.getNodeValue());
+        break;
+      case Node.COMMENT_NODE:
+        w.writeComment(n.getNodeValue());
+        break;
+      case Node.DOCUMENT_NODE:
+      case Node.DOCUMENT_FRAGMENT_NODE:
+        for (Node child = n.getFirstChild(); child != null; child = child.getNextSibling())
+          write(w, child, container, content);
+        break;
+      default:
+        // processing instructions, entity references etc. are not used in generated documents
+        break;
+    }
+  }
+
+  /**
+   * Write the attributes of element <code>e</code>, declaring its namespace if it has not already been declared.
+   */
+  private void writeNamespaceAndAttributes(XMLStreamWriter w, Element e) throws XMLStreamException {
+    NamedNodeMap attrs = e.getAttributes();
+    // namespace declarations first...
+    for (int i = 0; i < attrs.getLength(); i++) {
+      Attr a = (Attr) attrs.item(i);
+      if (XMLConstants.XMLNS_ATTRIBUTE.equals(a.getName())) {
+        w.writeDefaultNamespace(a.getValue());
+        w.setDefaultNamespace(a.getValue());
+      } else if (a.getName().startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+        String prefix = a.getName().substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+        w.writeNamespace(prefix, a.getValue());
+        w.setPrefix(prefix, a.getValue());
+      }
+    }
+    // ... then the element's own namespace, which is not represented by an attribute if it has been
+    // created with Document#createElementNS
+    String namespace = e.getNamespaceURI();
+    if (namespace != null) {
+      String prefix = e.getPrefix() != null ? e.getPrefix() : XMLConstants.DEFAULT_NS_PREFIX;
+      if (!namespace.equals(w.getNamespaceContext().getNamespaceURI(prefix))) {
+        if (XMLConstants.DEFAULT_NS_PREFIX.equals(prefix)) {
+          w.writeDefaultNamespace(namespace);
+          w.setDefaultNamespace(namespace);
+        } else {
+          w.writeNamespace(prefix, namespace);
+          w.setPrefix(prefix, namespace);
+        }
+      }
+    }
+    // ... and the regular attributes
+    for (int i = 0; i < attrs.getLength(); i++) {
+      Attr a = (Attr) attrs.item(i);
+      if (!XMLConstants.XMLNS_ATTRIBUTE.equals(a.getName()) && !a.getName().startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":"))
+        w.writeAttribute(a.getName(), a.getValue());
+    }
+  }
+
   // --
 
   protected Namespace ns(String prefix, String namespace) {
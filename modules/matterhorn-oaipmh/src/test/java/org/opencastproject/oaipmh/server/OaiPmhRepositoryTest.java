@@ -16,9 +16,12 @@
 
 package org.opencastproject.oaipmh.server;
 
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.Test;
 import org.opencastproject.oaipmh.Granularity;
+import org.opencastproject.oaipmh.OaiPmhConstants;
 import org.opencastproject.search.api.SearchQuery;
 import org.opencastproject.search.api.SearchResult;
 import org.opencastproject.search.api.SearchResultItem;
@@ -30,16 +33,20 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 
 import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class OaiPmhRepositoryTest {
@@ -108,6 +115,28 @@ public class OaiPmhRepositoryTest {
     EasyMock.verify(repo.getSearchService());
   }
 
+  @Test
+  public void testVerbListRecordsStreamed() throws Exception {
+    OaiPmhRepository repo = newRepo(newSearchServiceMock(
+            newSearchResultItem("id-1", new Date(), new Date()),
+            newSearchResultItem("id-2", newDate(2011, 5, 30), newDate(2011, 6, 1))
+    ));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    repo.selectVerb(newParams("ListRecords", null, "oai_dc", null, null, null)).generate(out);
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+    assertXpathExists(doc, "/*[local-name()=\"OAI-PMH\"]/*[local-name()=\"request\" and @verb=\"ListRecords\"]");
+    assertEquals(2.0, xpath(doc, "count(//*[local-name()=\"record\"])", XPathConstants.NUMBER));
+    assertEquals(2.0, xpath(doc, "count(//*[local-name()=\"metadata\"]/*[local-name()=\"dc\"])", XPathConstants.NUMBER));
+    assertXpathExists(doc, "//*[local-name()=\"datestamp\" and text()=\"2011-06-01\"]");
+    assertXpathEquals(doc, "id-2", "//*[local-name()=\"record\"][2]//*[local-name()=\"identifier\"][1]/text()");
+    // all elements must be bound to the namespaces they have been created in
+    assertEquals(OaiPmhConstants.OAI_2_0_XML_NS, doc.getDocumentElement().getNamespaceURI());
+    assertEquals(OaiPmhConstants.OAI_DC_XML_NS, doc.getElementsByTagNameNS("*", "dc").item(0).getNamespaceURI());
+    assertEquals("http://purl.org/dc/elements/1.1/", doc.getElementsByTagNameNS("*", "date").item(0).getNamespaceURI());
+  }
+
   @Test
   public void testResumption() {
     SearchResultItem[] items1 = new SearchResultItem[]{
@@ -123,22 +152,19 @@ public class OaiPmhRepositoryTest {
     // this setup is really ugly since it needs knowledge about implementation details
     SearchService search = EasyMock.createMock(SearchService.class);
     SearchResult result = EasyMock.createMock(SearchResult.class);
-    EasyMock.expect(search.getByQuery(EasyMock.<SearchQuery>anyObject()))
+    Capture<SearchQuery> queries = new Capture<SearchQuery>(CaptureType.ALL);
+    EasyMock.expect(search.getByQuery(EasyMock.capture(queries)))
             .andReturn(result).anyTimes();
     EasyMock.expect(result.getItems())
-            .andReturn(items1)
+            .andReturn(items1).times(2)
             .andReturn(items2);
-    EasyMock.expect(result.getQuery()).andReturn("").anyTimes();
-    EasyMock.expect(result.getLimit())
-            .andReturn(RESULT_LIMIT).anyTimes();
-    EasyMock.expect(result.getOffset())
-            .andReturn(0L).times(2)
-            .andReturn(RESULT_LIMIT).anyTimes();
     EasyMock.expect(result.size())
             .andReturn((long) items1.length).times(2)
             .andReturn((long) items2.length).times(2);
+    // the second query only finds the items following the first page
     EasyMock.expect(result.getTotalSize())
-            .andReturn((long) items1.length + items2.length).anyTimes();
+            .andReturn((long) items1.length + items2.length).times(2)
+            .andReturn((long) items2.length).times(2);
     EasyMock.replay(search);
     EasyMock.replay(result);
     // do testing
@@ -159,7 +185,26 @@ public class OaiPmhRepositoryTest {
     // token must be empty now since there are no more pages
     assertXpathEquals(doc2, "", "//ListIdentifiers/resumptionToken/text()");
     assertXpathExists(doc2, "//ListIdentifiers/resumptionToken[@cursor=" + RESULT_LIMIT + "]");
+    assertXpathExists(doc2, "//ListIdentifiers/resumptionToken[@completeListSize=" + (items1.length + items2.length) + "]");
     EasyMock.verify(repo.getSearchService());
+    // the second page must be requested by the last item of the first page instead of an offset
+    assertEquals(2, queries.getValues().size());
+    for (SearchQuery q : queries.getValues()) {
+      assertTrue(q.isSortByModificationDateAndId());
+      assertTrue(q.getOffset() <= 0);
+    }
+    assertFalse(queries.getValues().get(0).getQuery().contains("id-3"));
+    assertEquals("(oc_modified:{2011-05-12T00:00:00.000Z TO *} OR "
+            + "(oc_modified:\"2011-05-12T00:00:00.000Z\" AND id:{\"id-3\" TO *}))",
+            queries.getValues().get(1).getQuery());
+  }
+
+  @Test
+  public void testResumeAfter() {
+    ResumableQuery rq = new ResumableQuery("oc_mediatype:Series", "oai_dc", newDate(2011, 5, 12), "a\"b", 3, 3);
+    assertEquals("(oc_mediatype:Series) AND (oc_modified:{2011-05-12T00:00:00.000Z TO *} OR "
+            + "(oc_modified:\"2011-05-12T00:00:00.000Z\" AND id:{\"a\\\"b\" TO *}))",
+            OaiPmhRepository.resumeAfter(rq));
   }
 
   // --
@@ -254,6 +299,8 @@ public class OaiPmhRepositoryTest {
 
   private static OaiPmhRepository newRepo(final SearchService searchService) {
     return new OaiPmhRepository() {
+      private ResumableQuery savedQuery;
+
       @Override
       public Granularity getRepositoryTimeGranularity() {
         return Granularity.DAY;
@@ -281,12 +328,13 @@ public class OaiPmhRepositoryTest {
 
       @Override
       public String saveQuery(ResumableQuery query) {
+        savedQuery = query;
         return "r-token";
       }
 
       @Override
       public Option<ResumableQuery> getSavedQuery(String resumptionToken) {
-        return Option.some(new ResumableQuery("", "oai_dc", 0, (int) RESULT_LIMIT));
+        return Option.wrap(savedQuery);
       }
 
       @Override
@@ -27,6 +27,7 @@ public class SearchQuery {
   protected boolean includeSeries = false;
   protected boolean sortByCreationDate = false;
   protected boolean sortByPublicationDate = false;
+  protected boolean sortByModificationDateAndId = false;
   protected String id;
   protected String seriesId;
   protected String text;
@@ -127,6 +128,20 @@ public class SearchQuery {
     return sortByPublicationDate;
   }
 
+  /**
+   * Sorts the results by modification date and id, oldest first. Since no two items share the same position in this
+   * order, it can be used to page through large result sets by asking for the items following the last item of the
+   * previous page instead of using an offset.
+   */
+  public SearchQuery withModificationDateAndIdSort(boolean sort) {
+    this.sortByModificationDateAndId = sort;
+    return this;
+  }
+
+  public boolean isSortByModificationDateAndId() {
+    return sortByModificationDateAndId;
+  }
+
   public MediaPackageElementFlavor[] getElementFlavors() {
     return flavors;
   }
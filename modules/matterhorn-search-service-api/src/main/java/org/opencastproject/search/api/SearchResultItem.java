@@ -41,11 +41,22 @@ public interface SearchResultItem {
 
   /**
    * Returns the media package that was used to create the entry in the search index.
+   * <p>
+   * Note that the search service may hand out the same media package instance to all callers asking for the same
+   * version of a media package. Callers that intend to modify the media package need to work on a clone.
    * 
    * @return the media package
    */
   MediaPackage getMediaPackage();
 
+  /**
+   * Returns the tracks of the media package that was used to create the entry in the search index. Use this method
+   * rather than {@link #getMediaPackage()} if the tracks' flavors and urls are all that is needed.
+   * 
+   * @return the tracks
+   */
+  SearchResultTrack[] getTracks();
+
   /**
    * Returns the organization that produced this item.
    * 
@@ -17,7 +17,9 @@
 package org.opencastproject.search.api;
 
 import org.opencastproject.mediapackage.MediaPackage;
+import org.opencastproject.mediapackage.Track;
 
+import javax.xml.bind.Marshaller;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
@@ -25,6 +27,7 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlID;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.XmlType;
 import java.util.ArrayList;
 import java.util.Date;
@@ -56,6 +59,10 @@ public class SearchResultItemImpl implements SearchResultItem {
   @XmlElement(name = "mediapackage")
   private MediaPackage mediaPackage = null;
 
+  /** The item that the media package and tracks are loaded from on first access */
+  @XmlTransient
+  private SearchResultItem source = null;
+
   /** Dublin core field 'dc:extent' */
   @XmlElement
   private long dcExtent = -1;
@@ -573,6 +580,7 @@ public class SearchResultItemImpl implements SearchResultItem {
    */
   public void setMediaPackage(MediaPackage mediaPackage) {
     this.mediaPackage = mediaPackage;
+    this.source = null;
   }
 
   /**
@@ -581,9 +589,42 @@ public class SearchResultItemImpl implements SearchResultItem {
    * @see org.opencastproject.search.api.SearchResultItem#getMediaPackage()
    */
   public MediaPackage getMediaPackage() {
+    if (mediaPackage == null && source != null) {
+      mediaPackage = source.getMediaPackage();
+      source = null;
+    }
     return mediaPackage;
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchResultItem#getTracks()
+   */
+  public SearchResultTrack[] getTracks() {
+    if (mediaPackage == null && source != null)
+      return source.getTracks();
+    if (mediaPackage == null)
+      return new SearchResultTrack[0];
+    Track[] tracks = mediaPackage.getTracks();
+    SearchResultTrack[] result = new SearchResultTrack[tracks.length];
+    for (int i = 0; i < tracks.length; i++) {
+      result[i] = SearchResultTrackImpl.fromTrack(tracks[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Loads the media package before the item is marshalled, since it is not materialized until first access.
+   * 
+   * @param marshaller
+   *          the marshaller
+   */
+  @SuppressWarnings("unused")
+  private void beforeMarshal(Marshaller marshaller) {
+    getMediaPackage();
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -681,13 +722,14 @@ public class SearchResultItemImpl implements SearchResultItem {
   }
 
   /**
-   * Build a result item from an anonymously implemented interface to ensure you don't miss any fields.
+   * Build a result item from an anonymously implemented interface to ensure you don't miss any fields. The media
+   * package is not loaded from <code>from</code> before it is first asked for.
    */
   public static SearchResultItemImpl fill(SearchResultItem from) {
     SearchResultItemImpl item = new SearchResultItemImpl();
     item.setId(from.getId());
     item.setOrganization(from.getOrganization());
-    item.setMediaPackage(from.getMediaPackage());
+    item.source = from;
     item.setDcExtent(from.getDcExtent());
     item.setDcTitle(from.getDcTitle());
     item.setDcSubject(from.getDcSubject());
@@ -0,0 +1,60 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.search.api;
+
+import org.opencastproject.mediapackage.MediaPackageElementFlavor;
+
+/**
+ * A lightweight view on a track of a search result's media package, consisting of the track's flavor, tags and url.
+ */
+public interface SearchResultTrack {
+
+  /**
+   * Returns the track identifier.
+   * 
+   * @return the identifier
+   */
+  String getId();
+
+  /**
+   * Returns the track flavor.
+   * 
+   * @return the flavor or <code>null</code> if the track has no flavor
+   */
+  MediaPackageElementFlavor getFlavor();
+
+  /**
+   * Returns the track's mime type.
+   * 
+   * @return the mime type or <code>null</code> if the track has no mime type
+   */
+  String getMimeType();
+
+  /**
+   * Returns the track's tags.
+   * 
+   * @return the tags
+   */
+  String[] getTags();
+
+  /**
+   * Returns the url of the track.
+   * 
+   * @return the url
+   */
+  String getUrl();
+
+}
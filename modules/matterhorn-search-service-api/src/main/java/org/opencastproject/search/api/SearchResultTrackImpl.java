@@ -0,0 +1,127 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+
+package org.opencastproject.search.api;
+
+import org.opencastproject.mediapackage.MediaPackageElementFlavor;
+import org.opencastproject.mediapackage.Track;
+
+/**
+ * Part of a search result that models a track of the result's media package.
+ */
+public class SearchResultTrackImpl implements SearchResultTrack {
+
+  /** The track identifier */
+  private String id = null;
+
+  /** The track flavor */
+  private MediaPackageElementFlavor flavor = null;
+
+  /** The track's mime type */
+  private String mimeType = null;
+
+  /** The track's tags */
+  private String[] tags = null;
+
+  /** The track url */
+  private String url = null;
+
+  /**
+   * Creates a new track.
+   * 
+   * @param id
+   *          the track identifier
+   * @param flavor
+   *          the track flavor
+   * @param mimeType
+   *          the mime type
+   * @param tags
+   *          the tags
+   * @param url
+   *          the track url
+   */
+  public SearchResultTrackImpl(String id, MediaPackageElementFlavor flavor, String mimeType, String[] tags, String url) {
+    this.id = id;
+    this.flavor = flavor;
+    this.mimeType = mimeType;
+    this.tags = tags != null ? tags : new String[0];
+    this.url = url;
+  }
+
+  /**
+   * Creates the search result view on the given track.
+   * 
+   * @param track
+   *          the track
+   * @return the search result track
+   */
+  public static SearchResultTrackImpl fromTrack(Track track) {
+    String mimeType = track.getMimeType() != null ? track.getMimeType().asString() : null;
+    String url = track.getURI() != null ? track.getURI().toString() : null;
+    return new SearchResultTrackImpl(track.getIdentifier(), track.getFlavor(), mimeType, track.getTags(), url);
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchResultTrack#getId()
+   */
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchResultTrack#getFlavor()
+   */
+  @Override
+  public MediaPackageElementFlavor getFlavor() {
+    return flavor;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchResultTrack#getMimeType()
+   */
+  @Override
+  public String getMimeType() {
+    return mimeType;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchResultTrack#getTags()
+   */
+  @Override
+  public String[] getTags() {
+    return tags;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchResultTrack#getUrl()
+   */
+  @Override
+  public String getUrl() {
+    return url;
+  }
+
+}
@@ -59,6 +59,16 @@ public interface SearchService {
   void add(MediaPackage mediaPackage) throws SearchException, MediaPackageException, UnauthorizedException,
           ServiceRegistryException;
 
+  /**
+   * Commits all media packages that have been added to the search index but are not yet visible to searches. Depending
+   * on how the search index is configured, media packages may be committed in batches rather than as soon as they are
+   * added, so callers that need to find a media package right after adding it should call this method first.
+   * 
+   * @throws SearchException
+   *           if an error occurs while committing the media packages
+   */
+  void flush() throws SearchException;
+
   /**
    * Removes the media package identified by <code>mediaPackageId</code> from the search index.
    * 
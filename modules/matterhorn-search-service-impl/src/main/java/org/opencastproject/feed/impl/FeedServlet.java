@@ -18,19 +18,31 @@ package org.opencastproject.feed.impl;
 
 import org.opencastproject.feed.api.Feed;
 import org.opencastproject.feed.api.FeedGenerator;
+import org.opencastproject.util.Checksum;
+import org.opencastproject.util.ChecksumType;
 
 import com.sun.syndication.io.SyndFeedOutput;
 
+import org.apache.commons.lang.StringUtils;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
 import org.osgi.service.http.HttpContext;
 import org.osgi.service.http.HttpService;
 import org.osgi.service.http.NamespaceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.ArrayList;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -52,8 +64,12 @@ import javax.servlet.http.HttpServletResponse;
  * </pre>
  * 
  * which would indicate a requeste to an atom 0.3 feed with <tt>favourites</tt> being the query.
+ * <p>
+ * Rendered feeds are cached until the search index changes, and every feed is sent with an <code>ETag</code> and a
+ * <code>Last-Modified</code> header, so that clients polling for updates are answered with <code>304 Not
+ * Modified</code> as long as the feed has not changed.
  */
-public class FeedServlet extends HttpServlet {
+public class FeedServlet extends HttpServlet implements EventHandler {
 
   /** The serial version uid */
   private static final long serialVersionUID = -4623160106007127801L;
@@ -61,8 +77,27 @@ public class FeedServlet extends HttpServlet {
   /** Logging facility */
   private static Logger logger = LoggerFactory.getLogger(FeedServlet.class);
 
+  /** The maximum number of rendered feeds that are kept in memory */
+  private static final int MAX_CACHED_FEEDS = 100;
+
+  /** The default feed encoding */
+  private static final String DEFAULT_ENCODING = "UTF-8";
+
   /** List of feed generators */
-  private List<FeedGenerator> feeds = new ArrayList<FeedGenerator>();
+  private List<FeedGenerator> feeds = new CopyOnWriteArrayList<FeedGenerator>();
+
+  /** The most recently requested feeds, keyed by generator, feed type and query */
+  private final Map<String, RenderedFeed> cache = new LinkedHashMap<String, RenderedFeed>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, RenderedFeed> eldest) {
+      return size() > MAX_CACHED_FEEDS;
+    }
+  };
+
+  /** Incremented whenever the cache is invalidated, so that outdated feeds that are still being rendered are dropped */
+  private final AtomicLong cacheGeneration = new AtomicLong();
 
   /**
    * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
@@ -106,45 +141,163 @@ public class FeedServlet extends HttpServlet {
       return;
     }
 
-    // Set the content type
-    if (feedInfo.getType().equals(Feed.Type.Atom))
-      response.setContentType("application/atom+xml");
-    else if (feedInfo.getType().equals(Feed.Type.RSS))
-      response.setContentType("application/rss+xml");
-
-    // Have a feed generator create the requested feed
-    Feed feed = null;
-    for (FeedGenerator generator : feeds) {
-      if (generator.accept(feedInfo.getQuery())) {
-        feed = generator.createFeed(feedInfo.getType(), feedInfo.getQuery());
-        if (feed == null) {
-          response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-          return;
-        }
+    // Find the feed generator
+    FeedGenerator generator = null;
+    for (FeedGenerator g : feeds) {
+      if (g.accept(feedInfo.getQuery())) {
+        generator = g;
         break;
       }
     }
 
     // Have we found a feed generator?
-    if (feed == null) {
+    if (generator == null) {
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
       return;
     }
 
+    // Look for the rendered feed, and have the feed generator create it if necessary
+    String key = getCacheKey(request, generator, feedInfo);
+    RenderedFeed renderedFeed = null;
+    synchronized (cache) {
+      renderedFeed = cache.get(key);
+    }
+    if (renderedFeed == null) {
+      long generation = cacheGeneration.get();
+      Feed feed = generator.createFeed(feedInfo.getType(), feedInfo.getQuery());
+      if (feed == null) {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
+      }
+      try {
+        renderedFeed = render(feed, feedInfo);
+      } catch (Exception e) {
+        logger.error("Error serializing feed", e);
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        return;
+      }
+      synchronized (cache) {
+        if (generation == cacheGeneration.get())
+          cache.put(key, renderedFeed);
+      }
+    }
+
+    response.setHeader("ETag", renderedFeed.etag);
+    response.setDateHeader("Last-Modified", renderedFeed.lastModified);
+    if (isNotModified(request, renderedFeed)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    // Set the content type
+    if (feedInfo.getType().equals(Feed.Type.Atom))
+      response.setContentType("application/atom+xml");
+    else if (feedInfo.getType().equals(Feed.Type.RSS))
+      response.setContentType("application/rss+xml");
+
     // Set character encoding
-    response.setCharacterEncoding(feed.getEncoding());
+    response.setCharacterEncoding(renderedFeed.encoding);
 
-    // Write back feed using Romeo
+    // Write back the feed
+    response.setContentLength(renderedFeed.content.length);
+    response.getOutputStream().write(renderedFeed.content);
+  }
+
+  /**
+   * Serializes the feed using Rome.
+   * 
+   * @param feed
+   *          the feed
+   * @param feedInfo
+   *          the requested feed type and version
+   * @return the rendered feed
+   * @throws Exception
+   *           if the feed can't be serialized
+   */
+  private RenderedFeed render(Feed feed, FeedInfo feedInfo) throws Exception {
+    String encoding = StringUtils.isNotBlank(feed.getEncoding()) ? feed.getEncoding() : DEFAULT_ENCODING;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Writer writer = new OutputStreamWriter(out, encoding);
     SyndFeedOutput output = new SyndFeedOutput();
-    Writer responseWriter = response.getWriter();
+    output.output(new RomeFeed(feed, feedInfo), writer);
+    writer.flush();
+    return new RenderedFeed(out.toByteArray(), encoding);
+  }
+
+  /**
+   * Returns <code>true</code> if the client already has the current version of the feed, as indicated by the request's
+   * <code>If-None-Match</code> or, if not present, <code>If-Modified-Since</code> header.
+   * 
+   * @param request
+   *          the http request
+   * @param renderedFeed
+   *          the current version of the feed
+   * @return <code>true</code> if the feed does not need to be sent
+   */
+  private boolean isNotModified(HttpServletRequest request, RenderedFeed renderedFeed) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String etag : ifNoneMatch.split(",")) {
+        etag = etag.trim();
+        if ("*".equals(etag) || renderedFeed.etag.equals(etag))
+          return true;
+      }
+      return false;
+    }
     try {
-      output.output(new RomeFeed(feed, feedInfo), responseWriter);
-    } catch (Exception e) {
-      logger.error("Error serializing feed", e);
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+      long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+      return ifModifiedSince >= 0 && renderedFeed.lastModified <= ifModifiedSince;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the key of the requested feed in the feed cache. Since the feed contents depend on the organization and
+   * the permissions of the current user, the server name and the user are part of the key.
+   * 
+   * @param request
+   *          the http request
+   * @param generator
+   *          the feed generator
+   * @param feedInfo
+   *          the requested feed
+   * @return the cache key
+   */
+  private String getCacheKey(HttpServletRequest request, FeedGenerator generator, FeedInfo feedInfo) {
+    StringBuilder key = new StringBuilder();
+    key.append(generator.getIdentifier());
+    key.append("|").append(feedInfo.getType());
+    key.append("|").append(feedInfo.getVersion());
+    key.append("|").append(StringUtils.join(feedInfo.getQuery(), "/"));
+    key.append("|").append(request.getServerName());
+    key.append("|").append(StringUtils.trimToEmpty(request.getRemoteUser()));
+    return key.toString();
+  }
+
+  /**
+   * Removes all rendered feeds from the cache.
+   */
+  private void invalidateCache() {
+    synchronized (cache) {
+      cacheGeneration.incrementAndGet();
+      cache.clear();
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Invalidates the cached feeds whenever the search index has changed.
+   * 
+   * @see org.osgi.service.event.EventHandler#handleEvent(org.osgi.service.event.Event)
+   */
+  @Override
+  public void handleEvent(Event event) {
+    logger.debug("Search index has changed, invalidating cached feeds");
+    invalidateCache();
+  }
+
   /**
    * Returns information about the requested feed by extracting all relevant pieces from the servlet request's uri.
    * <p>
@@ -211,6 +364,7 @@ public class FeedServlet extends HttpServlet {
   public void addFeedGenerator(FeedGenerator generator) {
     logger.info("Registering '{}' feed", generator.getIdentifier());
     feeds.add(generator);
+    invalidateCache();
   }
 
   /**
@@ -222,6 +376,34 @@ public class FeedServlet extends HttpServlet {
   public void removeFeedGenerator(FeedGenerator generator) {
     logger.info("Removing '{}' feed", generator.getIdentifier());
     feeds.remove(generator);
+    invalidateCache();
+  }
+
+  /**
+   * A feed as it is sent to clients.
+   */
+  private static final class RenderedFeed {
+
+    /** The serialized feed */
+    private final byte[] content;
+
+    /** The character encoding */
+    private final String encoding;
+
+    /** The entity tag, which is derived from the content */
+    private final String etag;
+
+    /** The time the feed was rendered at, truncated to seconds as in http date headers */
+    private final long lastModified;
+
+    RenderedFeed(byte[] content, String encoding) throws NoSuchAlgorithmException {
+      this.content = content;
+      this.encoding = encoding;
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      this.etag = "\"" + Checksum.create(ChecksumType.DEFAULT_TYPE, md5.digest(content)).getValue() + "\"";
+      this.lastModified = System.currentTimeMillis() / 1000 * 1000;
+    }
+
   }
 
 }
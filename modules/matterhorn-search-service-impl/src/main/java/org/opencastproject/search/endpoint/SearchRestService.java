@@ -109,6 +109,21 @@ public class SearchRestService {
     }
   }
 
+  @POST
+  @Path("flush")
+  @RestQuery(name = "flush", description = "Commits all mediapackages that have been added to the search index but are not yet visible to searches.", reponses = {
+          @RestResponse(description = "The search index was flushed, no content to return.", responseCode = HttpServletResponse.SC_NO_CONTENT),
+          @RestResponse(description = "There has been an internal error and the search index could not be flushed", responseCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR) }, returnDescription = "No content is returned.")
+  public Response flush() {
+    try {
+      searchService.flush();
+      return Response.noContent().build();
+    } catch (Exception e) {
+      logger.warn(e.getMessage(), e);
+      return Response.serverError().build();
+    }
+  }
+
   @DELETE
   @Path("{id}")
   @RestQuery(name = "remove", description = "Removes a mediapackage from the search index.", pathParameters = { @RestParameter(description = "The media package ID to remove from the search index.", isRequired = true, name = "id", type = RestParameter.Type.STRING) }, reponses = {
@@ -53,6 +53,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.EventAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,6 +80,21 @@ public final class SearchServiceImpl implements SearchService {
   /** Configuration key for an embedded solr configuration and data directory */
   public static final String CONFIG_SOLR_ROOT = "org.opencastproject.search.solr.dir";
 
+  /** Configuration key for the indexing mode, either <code>immediate</code> or <code>batched</code> */
+  public static final String CONFIG_INDEXING_MODE = "org.opencastproject.search.solr.indexing.mode";
+
+  /** Configuration key for the number of buffered documents that triggers a commit */
+  public static final String CONFIG_COMMIT_DOCUMENTS = "org.opencastproject.search.solr.commit.documents";
+
+  /** Configuration key for the time in milliseconds after which buffered documents are committed */
+  public static final String CONFIG_COMMIT_INTERVAL = "org.opencastproject.search.solr.commit.interval";
+
+  /** The indexing mode that commits every mediapackage as soon as it is added */
+  public static final String INDEXING_MODE_IMMEDIATE = "immediate";
+
+  /** The indexing mode that buffers added mediapackages and commits them in batches */
+  public static final String INDEXING_MODE_BATCHED = "batched";
+
   /** The job type */
   public static final String JOB_TYPE = "org.opencastproject.search";
 
@@ -116,6 +132,12 @@ public final class SearchServiceImpl implements SearchService {
   /** The service registry */
   private ServiceRegistry serviceRegistry;
 
+  /** The event admin that is told about changes to the index */
+  private EventAdmin eventAdmin;
+
+  /** Whether mediapackages are committed to the index as soon as they are added */
+  private boolean immediateIndexing = true;
+
   /** Dynamic reference. */
   public void setStaticMetadataService(StaticMetadataService mdService) {
     this.mdServices.add(mdService);
@@ -145,6 +167,10 @@ public final class SearchServiceImpl implements SearchService {
     this.securityService = securityService;
   }
 
+  public void setEventAdmin(EventAdmin eventAdmin) {
+    this.eventAdmin = eventAdmin;
+  }
+
   public void setAuthorizationService(AuthorizationService authorizationService) {
     this.authorizationService = authorizationService;
   }
@@ -217,6 +243,32 @@ public final class SearchServiceImpl implements SearchService {
     solrRequester = new SolrRequester(solrServer, securityService);
     indexManager = new SolrIndexManager(solrServer, workspace, mdServices, seriesService, mpeg7CatalogService,
             securityService);
+    indexManager.setEventAdmin(eventAdmin);
+
+    // Configure indexing
+    String indexingMode = StringUtils.trimToNull(cc.getBundleContext().getProperty(CONFIG_INDEXING_MODE));
+    if (indexingMode == null || INDEXING_MODE_IMMEDIATE.equalsIgnoreCase(indexingMode)) {
+      immediateIndexing = true;
+    } else if (INDEXING_MODE_BATCHED.equalsIgnoreCase(indexingMode)) {
+      immediateIndexing = false;
+    } else {
+      throw new IllegalStateException("Unknown search indexing mode '" + indexingMode + "'");
+    }
+    int commitDocuments = SolrIndexManager.DEFAULT_COMMIT_DOCUMENTS;
+    long commitInterval = SolrIndexManager.DEFAULT_COMMIT_INTERVAL;
+    try {
+      String documents = StringUtils.trimToNull(cc.getBundleContext().getProperty(CONFIG_COMMIT_DOCUMENTS));
+      if (documents != null)
+        commitDocuments = Integer.parseInt(documents);
+      String interval = StringUtils.trimToNull(cc.getBundleContext().getProperty(CONFIG_COMMIT_INTERVAL));
+      if (interval != null)
+        commitInterval = Long.parseLong(interval);
+      indexManager.setCommitPolicy(commitDocuments, commitInterval);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalStateException("Invalid search index commit policy", e);
+    }
+    logger.info("Indexing mode is '{}', committing buffered documents every {} documents or {} ms", new Object[] {
+            immediateIndexing ? INDEXING_MODE_IMMEDIATE : INDEXING_MODE_BATCHED, commitDocuments, commitInterval });
 
     // Populate the search index if it is empty
     try {
@@ -239,6 +291,12 @@ public final class SearchServiceImpl implements SearchService {
    * Service deactivator, called via declarative services configuration.
    */
   public void deactivate() {
+    try {
+      if (indexManager != null)
+        indexManager.close();
+    } catch (SolrServerException e) {
+      logger.warn("Unable to commit pending documents to the search index: {}", e.getMessage());
+    }
     SolrServerFactory.shutdown(solrServer);
   }
 
@@ -356,7 +414,7 @@ public final class SearchServiceImpl implements SearchService {
       } catch (NotFoundException e) {
         throw new IllegalStateException(e); // should not be possible
       }
-      if (indexManager.add(mediaPackage, acl)) {
+      if (indexManager.add(mediaPackage, acl, immediateIndexing)) {
         logger.info("Added mediapackage {} to the search index", mediaPackage.getIdentifier());
       } else {
         logger.warn("Failed to add mediapackage {} to the search index", mediaPackage.getIdentifier());
@@ -374,6 +432,8 @@ public final class SearchServiceImpl implements SearchService {
   public boolean delete(String mediaPackageId) throws SearchException, UnauthorizedException {
     SearchResult result;
     try {
+      // Make sure recently added mediapackages can be found
+      indexManager.flush();
       result = solrRequester.getForWrite(new SearchQuery().withId(mediaPackageId));
       if (result.getItems().length == 0) {
         logger.warn(
@@ -436,7 +496,7 @@ public final class SearchServiceImpl implements SearchService {
   }
 
   // FIXME: this should use paging. It is a work in progress...
-  protected void populateIndex() throws ServiceRegistryException, MediaPackageException {
+  protected void populateIndex() throws ServiceRegistryException, MediaPackageException, SolrServerException {
     List<Job> jobs = serviceRegistry.getJobs(JOB_TYPE, Status.FINISHED);
     Organization originalOrg = securityService.getOrganization();
     for (Job job : jobs) {
@@ -446,7 +506,7 @@ public final class SearchServiceImpl implements SearchService {
         Organization org = orgDirectory.getOrganization(orgId);
         securityService.setOrganization(org);
         AccessControlList acl = authorizationService.getAccessControlList(mediaPackage);
-        indexManager.add(mediaPackage, acl);
+        indexManager.add(mediaPackage, acl, false);
       } catch (NotFoundException e) {
         logger.warn("{} is not a registered organization", orgId);
       } catch (Exception e) {
@@ -455,5 +515,20 @@ public final class SearchServiceImpl implements SearchService {
         securityService.setOrganization(originalOrg);
       }
     }
+    indexManager.flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchService#flush()
+   */
+  @Override
+  public void flush() throws SearchException {
+    try {
+      indexManager.flush();
+    } catch (SolrServerException e) {
+      throw new SearchException(e);
+    }
   }
 }
@@ -0,0 +1,314 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+
+package org.opencastproject.search.impl.solr;
+
+import org.opencastproject.mediapackage.MediaPackage;
+import org.opencastproject.mediapackage.MediaPackageBuilderFactory;
+import org.opencastproject.mediapackage.MediaPackageElementFlavor;
+import org.opencastproject.mediapackage.MediaPackageException;
+import org.opencastproject.mediapackage.Track;
+import org.opencastproject.search.api.SearchResultTrack;
+import org.opencastproject.search.api.SearchResultTrackImpl;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Cache for the media packages that are stored in the search index. Media packages are parsed once per version, which
+ * is identified by the media package identifier and the date of the last modification in the index.
+ * <p>
+ * Since the cached media packages are shared by all callers, they must not be modified. The track views returned by
+ * {@link #getTracks(String, Date, String)} are read from the media package xml without building the media package if
+ * it has not been parsed already.
+ */
+public class MediaPackageCache {
+
+  /** The default number of media packages kept in memory */
+  public static final int DEFAULT_SIZE = 500;
+
+  /** The xml element holding the media package tracks */
+  private static final String MEDIA_ELEMENT = "media";
+
+  /** The xml element of a track */
+  private static final String TRACK_ELEMENT = "track";
+
+  /** Factory for the stream readers used to read tracks */
+  private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+  /** The cached media packages, keyed by identifier */
+  private final Map<String, Entry> entries;
+
+  /** Number of requests that could be answered from the cache */
+  private final AtomicLong hits = new AtomicLong();
+
+  /** Number of requests that required reading the media package xml */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache for up to <code>size</code> media packages.
+   * 
+   * @param size
+   *          the maximum number of cached media packages
+   */
+  public MediaPackageCache(final int size) {
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > size;
+      }
+    };
+  }
+
+  /**
+   * Returns the media package with the given identifier and modification date, parsing <code>xml</code> if that
+   * version of the media package is not in the cache.
+   * 
+   * @param id
+   *          the media package identifier
+   * @param modified
+   *          the date of the last modification, or <code>null</code> to bypass the cache
+   * @param xml
+   *          the media package xml
+   * @return the media package
+   * @throws MediaPackageException
+   *           if the media package can't be parsed
+   */
+  public MediaPackage getMediaPackage(String id, Date modified, String xml) throws MediaPackageException {
+    Entry entry = getEntry(id, modified);
+    if (entry != null && entry.mediaPackage != null) {
+      hits.incrementAndGet();
+      return entry.mediaPackage;
+    }
+    misses.incrementAndGet();
+    MediaPackage mediaPackage = MediaPackageBuilderFactory.newInstance().newMediaPackageBuilder().loadFromXml(xml);
+    if (modified != null) {
+      synchronized (entries) {
+        entry = entries.get(id);
+        if (entry == null || entry.modified != modified.getTime()) {
+          entry = new Entry(modified.getTime());
+          entries.put(id, entry);
+        }
+        entry.mediaPackage = mediaPackage;
+      }
+    }
+    return mediaPackage;
+  }
+
+  /**
+   * Returns the tracks of the media package with the given identifier and modification date. If that version of the
+   * media package is not in the cache, the tracks are read from <code>xml</code>.
+   * 
+   * @param id
+   *          the media package identifier
+   * @param modified
+   *          the date of the last modification, or <code>null</code> to bypass the cache
+   * @param xml
+   *          the media package xml
+   * @return the tracks
+   * @throws MediaPackageException
+   *           if the media package xml can't be read
+   */
+  public SearchResultTrack[] getTracks(String id, Date modified, String xml) throws MediaPackageException {
+    Entry entry = getEntry(id, modified);
+    if (entry != null) {
+      if (entry.tracks == null)
+        entry.tracks = toSearchResultTracks(entry.mediaPackage.getTracks());
+      hits.incrementAndGet();
+      return entry.tracks.clone();
+    }
+    misses.incrementAndGet();
+    SearchResultTrack[] tracks = readTracks(xml);
+    if (modified != null) {
+      synchronized (entries) {
+        entry = entries.get(id);
+        if (entry == null || entry.modified != modified.getTime()) {
+          entry = new Entry(modified.getTime());
+          entries.put(id, entry);
+        }
+        entry.tracks = tracks;
+      }
+    }
+    return tracks.clone();
+  }
+
+  /**
+   * Removes all media packages from the cache.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Returns the number of requests that have been answered from the cache.
+   * 
+   * @return the number of cache hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of requests that required reading the media package xml.
+   * 
+   * @return the number of cache misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the cache entry for the given version of a media package.
+   * 
+   * @param id
+   *          the media package identifier
+   * @param modified
+   *          the modification date
+   * @return the entry or <code>null</code> if that version of the media package is not cached
+   */
+  private Entry getEntry(String id, Date modified) {
+    if (id == null || modified == null)
+      return null;
+    synchronized (entries) {
+      Entry entry = entries.get(id);
+      if (entry != null && entry.modified == modified.getTime())
+        return entry;
+      return null;
+    }
+  }
+
+  /**
+   * Reads the tracks from the media package xml without building the media package.
+   * 
+   * @param xml
+   *          the media package xml
+   * @return the tracks
+   * @throws MediaPackageException
+   *           if the xml can't be read
+   */
+  static SearchResultTrack[] readTracks(String xml) throws MediaPackageException {
+    List<SearchResultTrack> tracks = new ArrayList<SearchResultTrack>();
+    XMLStreamReader reader = null;
+    try {
+      reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+      int depth = 0;
+      boolean inMedia = false;
+      boolean inTags = false;
+      String id = null;
+      String flavor = null;
+      String mimeType = null;
+      String url = null;
+      List<String> tags = null;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          String name = reader.getLocalName();
+          if (depth == 2 && MEDIA_ELEMENT.equals(name)) {
+            inMedia = true;
+          } else if (inMedia && depth == 3 && TRACK_ELEMENT.equals(name)) {
+            id = reader.getAttributeValue(null, "id");
+            flavor = reader.getAttributeValue(null, "type");
+            mimeType = null;
+            url = null;
+            tags = new ArrayList<String>();
+          } else if (inMedia && depth == 4 && "tags".equals(name)) {
+            inTags = true;
+          } else if (inMedia && depth == 4 && "mimetype".equals(name)) {
+            mimeType = StringUtils.trimToNull(reader.getElementText());
+            depth--;
+          } else if (inMedia && depth == 4 && "url".equals(name)) {
+            url = StringUtils.trimToNull(reader.getElementText());
+            depth--;
+          } else if (inTags && depth == 5 && "tag".equals(name)) {
+            tags.add(reader.getElementText());
+            depth--;
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (inMedia && depth == 3 && tags != null) {
+            MediaPackageElementFlavor f = flavor != null ? MediaPackageElementFlavor.parseFlavor(flavor) : null;
+            tracks.add(new SearchResultTrackImpl(id, f, mimeType, tags.toArray(new String[tags.size()]), url));
+            tags = null;
+          } else if (depth == 4) {
+            inTags = false;
+          } else if (depth == 2) {
+            inMedia = false;
+          }
+          depth--;
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new MediaPackageException("Unable to read tracks from media package", e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // Nothing to do
+        }
+      }
+    }
+    return tracks.toArray(new SearchResultTrack[tracks.size()]);
+  }
+
+  /**
+   * Creates the track views for the given tracks.
+   */
+  private static SearchResultTrack[] toSearchResultTracks(Track[] tracks) {
+    SearchResultTrack[] result = new SearchResultTrack[tracks.length];
+    for (int i = 0; i < tracks.length; i++) {
+      result[i] = SearchResultTrackImpl.fromTrack(tracks[i]);
+    }
+    return result;
+  }
+
+  /**
+   * A cached version of a media package.
+   */
+  private static final class Entry {
+
+    /** The modification date of this version */
+    private final long modified;
+
+    /** The parsed media package */
+    private volatile MediaPackage mediaPackage = null;
+
+    /** The media package tracks */
+    private volatile SearchResultTrack[] tracks = null;
+
+    Entry(long modified) {
+      this.modified = modified;
+    }
+
+  }
+
+}
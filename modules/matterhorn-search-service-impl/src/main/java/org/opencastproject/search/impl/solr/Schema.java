@@ -17,8 +17,12 @@
 package org.opencastproject.search.impl.solr;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
@@ -105,10 +109,31 @@ public final class Schema {
   public static final String SEGMENT_TEXT_PREFIX = "oc_text_";
 
   /**
-   * Just a constant to set the solr dynamic field name for segment hints.
+   * Just a constant to set the solr dynamic field name for segment hints. Segment hints are no longer written but still
+   * read from documents that have been indexed before the segment fields were introduced.
    */
   public static final String SEGMENT_HINT_PREFIX = "oc_hint_";
 
+  /**
+   * Solr dynamic field name for the segment start time in milliseconds.
+   */
+  public static final String SEGMENT_TIME_PREFIX = "oc_segment_time_";
+
+  /**
+   * Solr dynamic field name for the segment duration in milliseconds.
+   */
+  public static final String SEGMENT_DURATION_PREFIX = "oc_segment_duration_";
+
+  /**
+   * Solr dynamic field name for the segment preview urls.
+   */
+  public static final String SEGMENT_PREVIEW_URL_PREFIX = "oc_segment_preview_url_";
+
+  /**
+   * Solr dynamic field name for the segment preview types, in the same order as the preview urls.
+   */
+  public static final String SEGMENT_PREVIEW_TYPE_PREFIX = "oc_segment_preview_type_";
+
   /**
    * The solr highlighting tag to use.
    */
@@ -549,6 +574,49 @@ public final class Schema {
     doc.setField(SEGMENT_HINT_PREFIX + segmentHint.getSuffix(), segmentHint.getValue());
   }
 
+  public static String getSegmentHint(SolrDocument doc, String segment) {
+    return mkString(doc.getFieldValue(SEGMENT_HINT_PREFIX + segment));
+  }
+
+  public static Long getSegmentTime(SolrDocument doc, String segment) {
+    return mkLong(doc.getFieldValue(SEGMENT_TIME_PREFIX + segment));
+  }
+
+  public static void setSegmentTime(SolrInputDocument doc, DField<Long> segmentTime) {
+    doc.setField(SEGMENT_TIME_PREFIX + segmentTime.getSuffix(), segmentTime.getValue());
+  }
+
+  public static Long getSegmentDuration(SolrDocument doc, String segment) {
+    return mkLong(doc.getFieldValue(SEGMENT_DURATION_PREFIX + segment));
+  }
+
+  public static void setSegmentDuration(SolrInputDocument doc, DField<Long> segmentDuration) {
+    doc.setField(SEGMENT_DURATION_PREFIX + segmentDuration.getSuffix(), segmentDuration.getValue());
+  }
+
+  /**
+   * Returns the segment's preview urls, keyed by preview type.
+   */
+  public static Map<String, String> getSegmentPreviews(SolrDocument doc, String segment) {
+    Map<String, String> previews = new LinkedHashMap<String, String>();
+    Collection<Object> urls = doc.getFieldValues(SEGMENT_PREVIEW_URL_PREFIX + segment);
+    Collection<Object> types = doc.getFieldValues(SEGMENT_PREVIEW_TYPE_PREFIX + segment);
+    if (urls == null || types == null)
+      return previews;
+    Iterator<Object> typeIterator = types.iterator();
+    for (Object url : urls) {
+      if (!typeIterator.hasNext())
+        break;
+      previews.put(mkString(typeIterator.next()), mkString(url));
+    }
+    return previews;
+  }
+
+  public static void addSegmentPreview(SolrInputDocument doc, String segment, String type, String url) {
+    doc.addField(SEGMENT_PREVIEW_TYPE_PREFIX + segment, type);
+    doc.addField(SEGMENT_PREVIEW_URL_PREFIX + segment, url);
+  }
+
   //
 
   /**
@@ -567,6 +635,10 @@ public final class Schema {
     return v != null ? v.toString() : null;
   }
 
+  private static Long mkLong(Object v) {
+    return v != null ? ((Number) v).longValue() : null;
+  }
+
   private static Date mkDate(Object v) {
     return v != null ? (Date) v : null;
   }
@@ -16,6 +16,7 @@
 
 package org.opencastproject.search.impl.solr;
 
+import static org.opencastproject.event.EventAdminConstants.SEARCH_TOPIC;
 import static org.opencastproject.search.api.SearchService.READ_PERMISSION;
 import static org.opencastproject.search.api.SearchService.WRITE_PERMISSION;
 import static org.opencastproject.util.RequireUtil.notNull;
@@ -76,6 +77,8 @@ import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.servlet.SolrRequestParsers;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -89,12 +92,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedSet;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.TreeSet;
 
 /**
@@ -120,6 +128,30 @@ public class SolrIndexManager {
   /** Maximum number of important keywords to detect. */
   private static final int MAX_IMPORTANT_COUNT = 10;
 
+  /** The default number of buffered documents that triggers a commit */
+  public static final int DEFAULT_COMMIT_DOCUMENTS = 500;
+
+  /** The default time in milliseconds after which buffered documents are committed */
+  public static final long DEFAULT_COMMIT_INTERVAL = 5000L;
+
+  /** Documents that have been added but not yet sent to solr, keyed by identifier */
+  private final Map<String, SolrInputDocument> pendingDocuments = new LinkedHashMap<String, SolrInputDocument>();
+
+  /** Lock that makes sure that only one commit is in progress at any time */
+  private final Object commitLock = new Object();
+
+  /** Number of buffered documents that triggers a commit */
+  private int commitDocuments = DEFAULT_COMMIT_DOCUMENTS;
+
+  /** Time in milliseconds after which buffered documents are committed */
+  private long commitInterval = DEFAULT_COMMIT_INTERVAL;
+
+  /** Timer used to commit buffered documents */
+  private Timer commitTimer = null;
+
+  /** The scheduled commit of the buffered documents */
+  private TimerTask scheduledCommit = null;
+
   /** List of metadata services sorted by priority in reverse order. */
   private List<StaticMetadataService> mdServices;
 
@@ -131,6 +163,9 @@ public class SolrIndexManager {
 
   private SecurityService securityService;
 
+  /** The event admin that is notified about committed changes, may be <code>null</code> */
+  private EventAdmin eventAdmin;
+
   /** Convert a DublinCoreValue into a date. */
   private static Function<DublinCoreValue, Option<Date>> toDateF = new Function<DublinCoreValue, Option<Date>>() {
     @Override
@@ -190,6 +225,199 @@ public class SolrIndexManager {
     setStaticMetadataServices(notNull(mdServices, "metadata service"));
   }
 
+  /**
+   * Sets the event admin that is notified on the {@link org.opencastproject.event.EventAdminConstants#SEARCH_TOPIC}
+   * topic whenever changes to the index have been committed.
+   * 
+   * @param eventAdmin
+   *          the event admin, or <code>null</code> to send no events
+   */
+  public void setEventAdmin(EventAdmin eventAdmin) {
+    this.eventAdmin = eventAdmin;
+  }
+
+  /**
+   * Sets the thresholds that trigger a commit of documents that are added using
+   * {@link #add(MediaPackage, AccessControlList, boolean)} without flushing the index. Buffered documents are sent to
+   * solr and committed as soon as <code>documents</code> documents are waiting or the oldest of them has been waiting
+   * for <code>interval</code> milliseconds, whichever comes first.
+   * 
+   * @param documents
+   *          the number of buffered documents that triggers a commit
+   * @param interval
+   *          the time in milliseconds after which buffered documents are committed
+   */
+  public void setCommitPolicy(int documents, long interval) {
+    if (documents < 1)
+      throw new IllegalArgumentException("Number of documents per commit must be positive");
+    if (interval < 0)
+      throw new IllegalArgumentException("Commit interval must not be negative");
+    synchronized (pendingDocuments) {
+      this.commitDocuments = documents;
+      this.commitInterval = interval;
+    }
+  }
+
+  /**
+   * Returns the number of documents that have been added to the index but not yet committed.
+   * 
+   * @return the number of pending documents
+   */
+  public int getPendingDocuments() {
+    synchronized (pendingDocuments) {
+      return pendingDocuments.size();
+    }
+  }
+
+  /**
+   * Sends all buffered documents to solr and commits them, so that they are visible to subsequent searches. Nothing is
+   * committed if there are no pending documents.
+   * <p>
+   * If solr refuses the documents, they are sent again one at a time, and those that still fail are dropped, so that
+   * a single broken document can't hold back the others.
+   * 
+   * @throws SolrServerException
+   *           if an errors occurs while talking to solr or documents had to be dropped
+   */
+  public void flush() throws SolrServerException {
+    synchronized (commitLock) {
+      List<SolrInputDocument> documents = null;
+      synchronized (pendingDocuments) {
+        if (scheduledCommit != null) {
+          scheduledCommit.cancel();
+          scheduledCommit = null;
+        }
+        if (pendingDocuments.isEmpty())
+          return;
+        documents = new ArrayList<SolrInputDocument>(pendingDocuments.values());
+        pendingDocuments.clear();
+      }
+      int dropped = 0;
+      try {
+        solrServer.add(documents);
+      } catch (Exception e) {
+        logger.warn("Unable to add {} documents to the search index, adding them one at a time: {}",
+                documents.size(), e.getMessage());
+        dropped = addOneByOne(documents);
+      }
+      if (dropped < documents.size()) {
+        try {
+          solrServer.commit();
+        } catch (IOException e) {
+          throw new SolrServerException(e);
+        }
+        logger.debug("Committed {} documents to the search index", documents.size() - dropped);
+        sendIndexUpdatedEvent();
+      }
+      if (dropped > 0)
+        throw new SolrServerException(dropped + " of " + documents.size()
+                + " documents could not be added to the search index");
+    }
+  }
+
+  /**
+   * Sends the documents to solr one at a time. Documents that solr refuses are dropped.
+   * 
+   * @param documents
+   *          the documents
+   * @return the number of dropped documents
+   */
+  private int addOneByOne(List<SolrInputDocument> documents) {
+    int dropped = 0;
+    for (SolrInputDocument doc : documents) {
+      try {
+        solrServer.add(doc);
+      } catch (Exception e) {
+        logger.error("Dropping document {} that can't be added to the search index: {}", Schema.getId(doc),
+                e.getMessage());
+        dropped++;
+      }
+    }
+    return dropped;
+  }
+
+  /**
+   * Commits the pending documents and stops the timer that commits buffered documents.
+   * 
+   * @throws SolrServerException
+   *           if the pending documents can't be committed
+   */
+  public void close() throws SolrServerException {
+    try {
+      flush();
+    } finally {
+      synchronized (pendingDocuments) {
+        if (commitTimer != null) {
+          commitTimer.cancel();
+          commitTimer = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the documents to the buffer and commits them if the buffer is full. Otherwise, a commit is scheduled unless
+   * one is scheduled already.
+   * 
+   * @param documents
+   *          the documents
+   * @throws SolrServerException
+   *           if the documents need to be committed and talking to solr fails
+   */
+  private void buffer(SolrInputDocument... documents) throws SolrServerException {
+    boolean full = false;
+    synchronized (pendingDocuments) {
+      for (SolrInputDocument doc : documents) {
+        if (doc == null)
+          continue;
+        String id = Schema.getId(doc);
+        // Keep the order of updates by moving updated documents to the end
+        pendingDocuments.remove(id);
+        pendingDocuments.put(id, doc);
+      }
+      full = pendingDocuments.size() >= commitDocuments;
+      if (!full)
+        scheduleCommit();
+    }
+    if (full)
+      flush();
+  }
+
+  /**
+   * Schedules a commit of the pending documents after the commit interval, unless one is scheduled already. This
+   * method needs to be called while holding the lock on the pending documents.
+   */
+  private void scheduleCommit() {
+    if (scheduledCommit != null || pendingDocuments.isEmpty())
+      return;
+    if (commitTimer == null)
+      commitTimer = new Timer("Search index commits", true);
+    scheduledCommit = new TimerTask() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (SolrServerException e) {
+          logger.warn("Unable to commit buffered documents to the search index: {}", e.getMessage());
+        }
+      }
+    };
+    commitTimer.schedule(scheduledCommit, commitInterval);
+  }
+
+  /**
+   * Returns the document with the given identifier if it has been added to the index but not yet committed.
+   * 
+   * @param id
+   *          the document identifier
+   * @return the pending document or <code>null</code>
+   */
+  private SolrInputDocument getPendingDocument(String id) {
+    synchronized (pendingDocuments) {
+      return pendingDocuments.get(id);
+    }
+  }
+
   /**
    * Clears the search index. Make sure you know what you are doing.
    * 
@@ -197,14 +425,31 @@ public class SolrIndexManager {
    *           if an errors occurs while talking to solr
    */
   public void clear() throws SolrServerException {
-    try {
-      solrServer.deleteByQuery("*:*");
-      solrServer.commit();
-    } catch (IOException e) {
-      throw new SolrServerException(e);
+    synchronized (commitLock) {
+      synchronized (pendingDocuments) {
+        pendingDocuments.clear();
+      }
+      try {
+        solrServer.deleteByQuery("*:*");
+        solrServer.commit();
+        sendIndexUpdatedEvent();
+      } catch (IOException e) {
+        throw new SolrServerException(e);
+      }
     }
   }
 
+  /**
+   * Tells interested parties that changes to the index have been committed.
+   */
+  private void sendIndexUpdatedEvent() {
+    EventAdmin eventAdmin = this.eventAdmin;
+    if (eventAdmin == null)
+      return;
+    Dictionary<String, String> eventProperties = new Hashtable<String, String>();
+    eventAdmin.postEvent(new Event(SEARCH_TOPIC, eventProperties));
+  }
+
   /**
    * Removes the entry with the given <code>id</code> from the database. The entry can either be a series or an episode.
    * 
@@ -214,37 +459,36 @@ public class SolrIndexManager {
    *           if an errors occurs while talking to solr
    */
   public boolean delete(String id) throws SolrServerException {
-    try {
-      // Load the existing episode
-      QueryResponse solrResponse = null;
-      try {
-        SolrQuery query = new SolrQuery(Schema.ID + ":" + id + " AND -" + Schema.OC_DELETED + ":[* TO *]");
-        solrResponse = solrServer.query(query);
-      } catch (Exception e1) {
-        throw new SolrServerException(e1);
-      }
+    // Make sure the episode is visible if it has just been added
+    flush();
 
-      // Did we find the episode?
-      if (solrResponse.getResults().size() == 0) {
-        logger.warn("Trying to delete non-existing (or already deleted) episode {} from the search index", id);
-        return false;
-      }
+    // Load the existing episode
+    QueryResponse solrResponse = null;
+    try {
+      SolrQuery query = new SolrQuery(Schema.ID + ":" + id + " AND -" + Schema.OC_DELETED + ":[* TO *]");
+      solrResponse = solrServer.query(query);
+    } catch (Exception e1) {
+      throw new SolrServerException(e1);
+    }
 
-      // Use all existing fields
-      SolrDocument doc = solrResponse.getResults().get(0);
-      SolrInputDocument inputDocument = new SolrInputDocument();
-      for (String field : doc.getFieldNames()) {
-        inputDocument.setField(field, doc.get(field));
-      }
+    // Did we find the episode?
+    if (solrResponse.getResults().size() == 0) {
+      logger.warn("Trying to delete non-existing (or already deleted) episode {} from the search index", id);
+      return false;
+    }
 
-      // Set the oc_deleted field to the current date, then update
-      Schema.setOcDeleted(inputDocument, new Date());
-      solrServer.add(inputDocument);
-      solrServer.commit();
-      return true;
-    } catch (IOException e) {
-      throw new SolrServerException(e);
+    // Use all existing fields
+    SolrDocument doc = solrResponse.getResults().get(0);
+    SolrInputDocument inputDocument = new SolrInputDocument();
+    for (String field : doc.getFieldNames()) {
+      inputDocument.setField(field, doc.get(field));
     }
+
+    // Set the oc_deleted field to the current date, then update
+    Schema.setOcDeleted(inputDocument, new Date());
+    buffer(inputDocument);
+    flush();
+    return true;
   }
 
   /**
@@ -263,6 +507,28 @@ public class SolrIndexManager {
    */
   public boolean add(MediaPackage sourceMediaPackage, AccessControlList acl) throws SolrServerException,
           UnauthorizedException, MediaPackageException {
+    return add(sourceMediaPackage, acl, true);
+  }
+
+  /**
+   * Posts the media package to solr. If <code>flush</code> is <code>false</code>, the resulting documents are buffered
+   * and committed along with other documents once the thresholds defined by {@link #setCommitPolicy(int, long)} are
+   * reached, which is considerably faster when adding many media packages at once. Otherwise, the documents are
+   * committed right away along with all other pending documents, and they will be visible to any subsequent search.
+   * 
+   * @param sourceMediaPackage
+   *          the media package to post
+   * @param acl
+   *          the access control list for this mediapackage
+   * @param flush
+   *          <code>true</code> to commit the changes to the index immediately
+   * @throws SolrServerException
+   *           if an errors occurs while talking to solr
+   * @throws MediaPackageException
+   * @see #flush()
+   */
+  public boolean add(MediaPackage sourceMediaPackage, AccessControlList acl, boolean flush)
+          throws SolrServerException, UnauthorizedException, MediaPackageException {
     SolrInputDocument episodeDocument = null;
     SolrInputDocument seriesDocument = null;
     try {
@@ -283,16 +549,10 @@ public class SolrIndexManager {
     }
 
     // Post everything to the search index
-    try {
-      if (episodeDocument != null)
-        solrServer.add(episodeDocument);
-      if (seriesDocument != null)
-        solrServer.add(seriesDocument);
-      solrServer.commit();
-      return true;
-    } catch (Exception e) {
-      throw new SolrServerException(e);
-    }
+    buffer(episodeDocument, seriesDocument);
+    if (flush)
+      flush();
+    return true;
   }
 
   /**
@@ -679,20 +939,27 @@ public class SolrIndexManager {
 
     SolrInputDocument doc = new SolrInputDocument();
 
-    // Populate document with existing data
-    try {
-      StringBuffer query = new StringBuffer("q=");
-      query = query.append(Schema.ID).append(":").append(SolrUtils.clean(seriesId));
-      SolrParams params = SolrRequestParsers.parseQueryString(query.toString());
-      QueryResponse solrResponse = solrServer.query(params);
-      if (solrResponse.getResults().size() > 0) {
-        SolrDocument existingSolrDocument = solrResponse.getResults().get(0);
-        for (String fieldName : existingSolrDocument.getFieldNames()) {
-          doc.addField(fieldName, existingSolrDocument.getFieldValue(fieldName));
+    // Populate document with existing data, which may not have been committed yet
+    SolrInputDocument pendingDocument = getPendingDocument(seriesId);
+    if (pendingDocument != null) {
+      for (String fieldName : pendingDocument.getFieldNames()) {
+        doc.addField(fieldName, pendingDocument.getFieldValues(fieldName));
+      }
+    } else {
+      try {
+        StringBuffer query = new StringBuffer("q=");
+        query = query.append(Schema.ID).append(":").append(SolrUtils.clean(seriesId));
+        SolrParams params = SolrRequestParsers.parseQueryString(query.toString());
+        QueryResponse solrResponse = solrServer.query(params);
+        if (solrResponse.getResults().size() > 0) {
+          SolrDocument existingSolrDocument = solrResponse.getResults().get(0);
+          for (String fieldName : existingSolrDocument.getFieldNames()) {
+            doc.addField(fieldName, existingSolrDocument.getFieldValue(fieldName));
+          }
         }
+      } catch (Exception e) {
+        logger.error("Error trying to load series " + seriesId, e);
       }
-    } catch (Exception e) {
-      logger.error("Error trying to load series " + seriesId, e);
     }
 
     // Fill document
@@ -953,7 +1220,6 @@ public class SolrIndexManager {
           VideoSegment segment = vsegments.next();
 
           StringBuffer segmentText = new StringBuffer();
-          StringBuffer hintField = new StringBuffer();
 
           // Collect the video text elements to a segment text
           SpatioTemporalDecomposition spt = segment.getSpatioTemporalDecomposition();
@@ -998,9 +1264,9 @@ public class SolrIndexManager {
           MediaTimePoint timepoint = segment.getMediaTime().getMediaTimePoint();
           MediaDuration duration = segment.getMediaTime().getMediaDuration();
 
-          // TODO: define a class with hint field constants
-          hintField.append("time=" + timepoint.getTimeInMilliseconds() + "\n");
-          hintField.append("duration=" + duration.getDurationInMilliseconds() + "\n");
+          String segmentId = Integer.toString(segmentCount);
+          Schema.setSegmentTime(doc, new DField<Long>(timepoint.getTimeInMilliseconds(), segmentId));
+          Schema.setSegmentDuration(doc, new DField<Long>(duration.getDurationInMilliseconds(), segmentId));
 
           // Look for preview images. Their characteristics are that they are
           // attached as attachments with a flavor of preview/<something>.
@@ -1008,17 +1274,11 @@ public class SolrIndexManager {
           for (Attachment slide : mediaPackage.getAttachments(MediaPackageElements.PRESENTATION_SEGMENT_PREVIEW)) {
             MediaPackageReference ref = slide.getReference();
             if (ref != null && time.equals(ref.getProperty("time"))) {
-              hintField.append("preview");
-              hintField.append(".");
-              hintField.append(ref.getIdentifier());
-              hintField.append("=");
-              hintField.append(slide.getURI().toString());
-              hintField.append("\n");
+              Schema.addSegmentPreview(doc, segmentId, ref.getIdentifier(), slide.getURI().toString());
             }
           }
 
           logger.trace("Adding segment: " + timepoint.toString());
-          Schema.setSegmentHint(doc, new DField<String>(hintField.toString(), Integer.toString(segmentCount)));
 
           // increase segment counter
           segmentCount++;
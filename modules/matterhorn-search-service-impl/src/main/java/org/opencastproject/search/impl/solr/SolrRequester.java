@@ -20,8 +20,6 @@ import static org.opencastproject.search.api.SearchService.READ_PERMISSION;
 import static org.opencastproject.search.api.SearchService.WRITE_PERMISSION;
 
 import org.opencastproject.mediapackage.MediaPackage;
-import org.opencastproject.mediapackage.MediaPackageBuilder;
-import org.opencastproject.mediapackage.MediaPackageBuilderFactory;
 import org.opencastproject.search.api.MediaSegment;
 import org.opencastproject.search.api.MediaSegmentImpl;
 import org.opencastproject.search.api.SearchQuery;
@@ -30,6 +28,7 @@ import org.opencastproject.search.api.SearchResultImpl;
 import org.opencastproject.search.api.SearchResultItem;
 import org.opencastproject.search.api.SearchResultItem.SearchResultItemType;
 import org.opencastproject.search.api.SearchResultItemImpl;
+import org.opencastproject.search.api.SearchResultTrack;
 import org.opencastproject.security.api.SecurityService;
 import org.opencastproject.security.api.User;
 import org.opencastproject.util.SolrUtils;
@@ -45,6 +44,7 @@ import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.HighlightParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,10 +53,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Class implementing <code>LookupRequester</code> to provide connection to solr indexing facility.
@@ -68,6 +67,12 @@ public class SolrRequester {
    */
   private static Logger logger = LoggerFactory.getLogger(SolrRequester.class);
 
+  /** The tag that solr puts in front of every query match in highlighted segment text */
+  private static final String HIGHLIGHT_PRE = "<" + Schema.HIGHLIGHT_MATCH + ">";
+
+  /** The tag that solr puts after every query match in highlighted segment text */
+  private static final String HIGHLIGHT_POST = "</" + Schema.HIGHLIGHT_MATCH + ">";
+
   /**
    * The connection to the solr database
    */
@@ -78,6 +83,11 @@ public class SolrRequester {
    */
   private SecurityService securityService;
 
+  /**
+   * The parsed media packages, shared by all search results
+   */
+  private MediaPackageCache mediaPackageCache = new MediaPackageCache(MediaPackageCache.DEFAULT_SIZE);
+
   /**
    * Creates a new requester for solr that will be using the given connection object to query the search index.
    * 
@@ -135,6 +145,9 @@ public class SolrRequester {
     result.setLimit(solrResponse.getResults().size());
     result.setTotal(solrResponse.getResults().getNumFound());
 
+    // The segment text highlighting, keyed by document id. Not present if the query is not highlighted.
+    final Map<String, Map<String, List<String>>> highlighting = solrResponse.getHighlighting();
+
     // Walk through response and create new items with title, creator, etc:
     for (final SolrDocument doc : solrResponse.getResults()) {
       final SearchResultItemImpl item = SearchResultItemImpl.fill(new SearchResultItem() {
@@ -157,11 +170,10 @@ public class SolrRequester {
 
         @Override
         public MediaPackage getMediaPackage() {
-          MediaPackageBuilder builder = MediaPackageBuilderFactory.newInstance().newMediaPackageBuilder();
           String mediaPackageFieldValue = Schema.getOcMediapackage(doc);
           if (mediaPackageFieldValue != null) {
             try {
-              return builder.loadFromXml(mediaPackageFieldValue);
+              return mediaPackageCache.getMediaPackage(getId(), getModified(), mediaPackageFieldValue);
             } catch (Exception e) {
               logger.warn("Unable to read media package from search result", e);
             }
@@ -169,6 +181,19 @@ public class SolrRequester {
           return null;
         }
 
+        @Override
+        public SearchResultTrack[] getTracks() {
+          String mediaPackageFieldValue = Schema.getOcMediapackage(doc);
+          if (mediaPackageFieldValue != null) {
+            try {
+              return mediaPackageCache.getTracks(getId(), getModified(), mediaPackageFieldValue);
+            } catch (Exception e) {
+              logger.warn("Unable to read tracks from search result", e);
+            }
+          }
+          return new SearchResultTrack[0];
+        }
+
         @Override
         public long getDcExtent() {
           if (getType().equals(SearchResultItemType.AudioVisual)) {
@@ -330,7 +355,8 @@ public class SolrRequester {
         @Override
         public MediaSegment[] getSegments() {
           if (SearchResultItemType.AudioVisual.equals(getType()))
-            return createSearchResultSegments(doc, query).toArray(new MediaSegmentImpl[0]);
+            return createSearchResultSegments(doc, highlighting != null ? highlighting.get(getId()) : null).toArray(
+                    new MediaSegmentImpl[0]);
           else
             return new MediaSegmentImpl[0];
         }
@@ -344,14 +370,15 @@ public class SolrRequester {
   }
 
   /**
-   * Creates a list of <code>MediaSegment</code>s from the given result document.
+   * Creates a list of <code>MediaSegment</code>s from the given result document. The relevance of each segment is
+   * derived from the number of query matches that solr has highlighted in the segment's text.
    * 
    * @param doc
    *          the result document
-   * @param query
-   *          the original query
+   * @param highlights
+   *          the highlighted segment texts keyed by field name, or <code>null</code> if the query was not highlighted
    */
-  private List<MediaSegmentImpl> createSearchResultSegments(SolrDocument doc, SolrQuery query) {
+  private List<MediaSegmentImpl> createSearchResultSegments(SolrDocument doc, Map<String, List<String>> highlights) {
     List<MediaSegmentImpl> segments = new ArrayList<MediaSegmentImpl>();
 
     // The maximum number of hits in a segment
@@ -363,67 +390,37 @@ public class SolrRequester {
         continue;
 
       // Ceate a new segment
-      int segmentId = Integer.parseInt(fieldName.substring(Schema.SEGMENT_TEXT_PREFIX.length()));
-      MediaSegmentImpl segment = new MediaSegmentImpl(segmentId);
+      String segmentId = fieldName.substring(Schema.SEGMENT_TEXT_PREFIX.length());
+      MediaSegmentImpl segment = new MediaSegmentImpl(Integer.parseInt(segmentId));
       segment.setText(mkString(doc.getFieldValue(fieldName)));
 
-      // Read the hints for this segment
-      Properties segmentHints = new Properties();
-      try {
-        String hintFieldName = Schema.SEGMENT_HINT_PREFIX + segment.getIndex();
-        Object hintFieldValue = doc.getFieldValue(hintFieldName);
-        segmentHints.load(new ByteArrayInputStream(hintFieldValue.toString().getBytes()));
-      } catch (IOException e) {
-        logger.warn("Cannot load hint properties.");
-      }
-
-      // get segment time
-      String segmentTime = segmentHints.getProperty("time");
-      if (segmentTime == null)
-        throw new IllegalStateException("Found segment without time hint");
-      segment.setTime(Long.parseLong(segmentTime));
-
-      // get segment duration
-      String segmentDuration = segmentHints.getProperty("duration");
-      if (segmentDuration == null)
-        throw new IllegalStateException("Found segment without duration hint");
-      segment.setDuration(Long.parseLong(segmentDuration));
-
-      // get preview urls
-      for (Entry<Object, Object> entry : segmentHints.entrySet()) {
-        if (entry.getKey().toString().startsWith("preview.")) {
-          String[] parts = entry.getKey().toString().split("\\.");
-          segment.addPreview(entry.getValue().toString(), parts[1]);
-        }
+      // get segment time, duration and preview urls
+      Long segmentTime = Schema.getSegmentTime(doc, segmentId);
+      if (segmentTime != null) {
+        Long segmentDuration = Schema.getSegmentDuration(doc, segmentId);
+        if (segmentDuration == null)
+          throw new IllegalStateException("Found segment without duration");
+        segment.setTime(segmentTime);
+        segment.setDuration(segmentDuration);
+        for (Entry<String, String> preview : Schema.getSegmentPreviews(doc, segmentId).entrySet()) {
+          segment.addPreview(preview.getValue(), preview.getKey());
+        }
+      } else {
+        readSegmentHints(doc, segment);
       }
 
-      // calculate the segment's relevance with respect to the query
-      String queryText = query.getQuery();
-      String segmentText = segment.getText();
-      if (!StringUtils.isBlank(queryText) && !StringUtils.isBlank(segmentText)) {
-        segmentText = segmentText.toLowerCase();
-        Pattern p = Pattern.compile(".*fulltext:\\(([^)]*)\\).*");
-        Matcher m = p.matcher(queryText);
-        if (m.matches()) {
-          String[] queryTerms = StringUtils.split(m.group(1).toLowerCase());
-          int segmentHits = 0;
-          int textLength = segmentText.length();
-          for (String t : queryTerms) {
-            int startIndex = 0;
-            while (startIndex < textLength - 1) {
-              int foundAt = segmentText.indexOf(t, startIndex);
-              if (foundAt < 0)
-                break;
-              segmentHits++;
-              startIndex = foundAt + t.length();
-            }
+      // for now, just store the number of hits, but keep track of the maximum hit count
+      if (highlights != null) {
+        int segmentHits = 0;
+        List<String> snippets = highlights.get(fieldName);
+        if (snippets != null) {
+          for (String snippet : snippets) {
+            segmentHits += StringUtils.countMatches(snippet, HIGHLIGHT_PRE);
           }
-
-          // for now, just store the number of hits, but keep track of the maximum hit count
-          segment.setRelevance(segmentHits);
-          if (segmentHits > maxHits)
-            maxHits = segmentHits;
         }
+        segment.setRelevance(segmentHits);
+        if (segmentHits > maxHits)
+          maxHits = segmentHits;
       }
 
       segments.add(segment);
@@ -438,6 +435,46 @@ public class SolrRequester {
     return segments;
   }
 
+  /**
+   * Reads the segment time, duration and preview urls from the segment's hint field. Hints have been written by
+   * earlier versions of the index and are only read for documents that don't contain the segment fields.
+   * 
+   * @param doc
+   *          the result document
+   * @param segment
+   *          the segment
+   */
+  private void readSegmentHints(SolrDocument doc, MediaSegmentImpl segment) {
+    Properties segmentHints = new Properties();
+    try {
+      String hintFieldValue = Schema.getSegmentHint(doc, Integer.toString(segment.getIndex()));
+      if (hintFieldValue != null)
+        segmentHints.load(new ByteArrayInputStream(hintFieldValue.getBytes()));
+    } catch (IOException e) {
+      logger.warn("Cannot load hint properties.");
+    }
+
+    // get segment time
+    String segmentTime = segmentHints.getProperty("time");
+    if (segmentTime == null)
+      throw new IllegalStateException("Found segment without time hint");
+    segment.setTime(Long.parseLong(segmentTime));
+
+    // get segment duration
+    String segmentDuration = segmentHints.getProperty("duration");
+    if (segmentDuration == null)
+      throw new IllegalStateException("Found segment without duration hint");
+    segment.setDuration(Long.parseLong(segmentDuration));
+
+    // get preview urls
+    for (Entry<Object, Object> entry : segmentHints.entrySet()) {
+      if (entry.getKey().toString().startsWith("preview.")) {
+        String[] parts = entry.getKey().toString().split("\\.");
+        segment.addPreview(entry.getValue().toString(), parts[1]);
+      }
+    }
+  }
+
   /**
    * Modifies the query such that certain fields are being boosted (meaning they gain some weight).
    * 
@@ -545,6 +582,10 @@ public class SolrRequester {
    * @return the search results
    */
   private SolrQuery getForAction(SearchQuery q, String action, boolean applyPermissions) throws SolrServerException {
+    SolrQuery query = new SolrQuery();
+
+    // Only the user's query and text go into the main query, which is what is being scored and highlighted. All other
+    // restrictions are passed as filter queries.
     StringBuilder sb = new StringBuilder();
 
     String solrQueryRequest = q.getQuery();
@@ -555,34 +596,25 @@ public class SolrRequester {
     String solrIdRequest = StringUtils.trimToNull(q.getId());
     if (solrIdRequest != null) {
       String cleanSolrIdRequest = SolrUtils.clean(solrIdRequest);
-      if (sb.length() > 0)
-        sb.append(" AND ");
-      sb.append("(");
-      sb.append(Schema.ID);
-      sb.append(":");
-      sb.append(cleanSolrIdRequest);
+      StringBuilder idBuilder = new StringBuilder();
+      idBuilder.append(Schema.ID);
+      idBuilder.append(":");
+      idBuilder.append(cleanSolrIdRequest);
       if (q.isIncludeEpisodes()) {
-        sb.append(" OR ");
-        sb.append(Schema.DC_IS_PART_OF);
-        sb.append(":");
-        sb.append(cleanSolrIdRequest);
+        idBuilder.append(" OR ");
+        idBuilder.append(Schema.DC_IS_PART_OF);
+        idBuilder.append(":");
+        idBuilder.append(cleanSolrIdRequest);
       }
-      sb.append(")");
+      query.addFilterQuery(idBuilder.toString());
     }
 
     String solrSeriesIdRequest = StringUtils.trimToNull(q.getSeriesId());
     if (solrSeriesIdRequest != null) {
       String cleanSolrSeriesIdRequest = SolrUtils.clean(solrSeriesIdRequest);
-      if (sb.length() > 0) {
-        sb.append(" AND ");
-      }
-      sb.append("(");
-      sb.append(Schema.DC_IS_PART_OF);
-      sb.append(":");
-      sb.append(cleanSolrSeriesIdRequest);
-      sb.append(")");
+      query.addFilterQuery(Schema.DC_IS_PART_OF + ":" + cleanSolrSeriesIdRequest);
     }
-    
+
     String solrTextRequest = StringUtils.trimToNull(q.getText());
     if (solrTextRequest != null) {
       String cleanSolrTextRequest = SolrUtils.clean(q.getText());
@@ -595,67 +627,61 @@ public class SolrRequester {
     }
 
     if (q.getElementTags() != null && q.getElementTags().length > 0) {
-      if (sb.length() > 0)
-        sb.append(" AND ");
       StringBuilder tagBuilder = new StringBuilder();
       for (int i = 0; i < q.getElementTags().length; i++) {
         String tag = SolrUtils.clean(q.getElementTags()[i]);
         if (StringUtils.isEmpty(tag))
           continue;
-        if (tagBuilder.length() == 0) {
-          tagBuilder.append("(");
-        } else {
+        if (tagBuilder.length() > 0)
           tagBuilder.append(" OR ");
-        }
         tagBuilder.append(Schema.OC_ELEMENTTAGS);
         tagBuilder.append(":");
         tagBuilder.append(tag);
       }
-      if (tagBuilder.length() > 0) {
-        tagBuilder.append(") ");
-        sb.append(tagBuilder);
-      }
+      if (tagBuilder.length() > 0)
+        query.addFilterQuery(tagBuilder.toString());
     }
 
     if (q.getElementFlavors() != null && q.getElementFlavors().length > 0) {
-      if (sb.length() > 0)
-        sb.append(" AND ");
       StringBuilder flavorBuilder = new StringBuilder();
       for (int i = 0; i < q.getElementFlavors().length; i++) {
         String flavor = SolrUtils.clean(q.getElementFlavors()[i].toString());
         if (StringUtils.isEmpty(flavor))
           continue;
-        if (flavorBuilder.length() == 0) {
-          flavorBuilder.append("(");
-        } else {
+        if (flavorBuilder.length() > 0)
           flavorBuilder.append(" OR ");
-        }
         flavorBuilder.append(Schema.OC_ELEMENTFLAVORS);
         flavorBuilder.append(":");
         flavorBuilder.append(flavor);
       }
-      if (flavorBuilder.length() > 0) {
-        flavorBuilder.append(") ");
-        sb.append(flavorBuilder);
-      }
+      if (flavorBuilder.length() > 0)
+        query.addFilterQuery(flavorBuilder.toString());
     }
 
     if (q.getDeletedDate() != null) {
-      if (sb.length() > 0)
-        sb.append(" AND ");
-      sb.append(Schema.OC_DELETED + ":" + SolrUtils.serializeDateRange(q.getDeletedDate(), null));
+      query.addFilterQuery(Schema.OC_DELETED + ":" + SolrUtils.serializeDateRange(q.getDeletedDate(), null));
     }
 
-    if (sb.length() == 0)
+    if (sb.length() > 0) {
+      // Have solr mark the query matches in the segment text, they are used to calculate segment relevance
+      query.setHighlight(true);
+      query.addHighlightField(Schema.SEGMENT_TEXT_PREFIX + "*");
+      query.setHighlightFragsize(0);
+      query.setHighlightSnippets(1);
+      query.setHighlightSimplePre(HIGHLIGHT_PRE);
+      query.setHighlightSimplePost(HIGHLIGHT_POST);
+      query.set(HighlightParams.USE_PHRASE_HIGHLIGHTER, true);
+      query.set(HighlightParams.HIGHLIGHT_MULTI_TERM, true);
+    } else {
       sb.append("*:*");
+    }
 
     if (applyPermissions) {
-      sb.append(" AND ").append(Schema.OC_ORGANIZATION).append(":").append(securityService.getOrganization().getId());
+      query.addFilterQuery(Schema.OC_ORGANIZATION + ":" + securityService.getOrganization().getId());
       User user = securityService.getUser();
       String[] roles = user.getRoles();
       boolean userHasAnonymousRole = false;
       if (roles.length > 0) {
-        sb.append(" AND (");
         StringBuilder roleList = new StringBuilder();
         for (String role : roles) {
           if (roleList.length() > 0)
@@ -671,30 +697,23 @@ public class SolrRequester {
           roleList.append(Schema.OC_ACL_PREFIX).append(action).append(":").append(securityService.getOrganization().getAnonymousRole());
         }
 
-        sb.append(roleList.toString());
-        sb.append(")");
+        query.addFilterQuery(roleList.toString());
       }
     }
 
     if (q.isIncludeSeries() && !q.isIncludeEpisodes()) {
-      if (sb.length() > 0)
-        sb.append(" AND ");
-      sb.append(Schema.OC_MEDIATYPE + ":" + SearchResultItemType.Series);
+      query.addFilterQuery(Schema.OC_MEDIATYPE + ":" + SearchResultItemType.Series);
     }
 
     if (q.isIncludeEpisodes() && !q.isIncludeSeries()) {
-      if (sb.length() > 0)
-        sb.append(" AND ");
-      sb.append(Schema.OC_MEDIATYPE + ":" + SearchResultItemType.AudioVisual);
+      query.addFilterQuery(Schema.OC_MEDIATYPE + ":" + SearchResultItemType.AudioVisual);
     }
 
     if (q.getDeletedDate() == null) {
-      if (sb.length() > 0)
-        sb.append(" AND ");
-      sb.append("-" + Schema.OC_DELETED + ":[* TO *]");
+      query.addFilterQuery("-" + Schema.OC_DELETED + ":[* TO *]");
     }
 
-    SolrQuery query = new SolrQuery(sb.toString());
+    query.setQuery(sb.toString());
 
     if (q.getLimit() > 0)
       query.setRows(q.getLimit());
@@ -702,7 +721,10 @@ public class SolrRequester {
     if (q.getOffset() > 0)
       query.setStart(q.getOffset());
 
-    if (q.isSortByPublicationDate()) {
+    if (q.isSortByModificationDateAndId()) {
+      query.addSortField(Schema.OC_MODIFIED, ORDER.asc);
+      query.addSortField(Schema.ID, ORDER.asc);
+    } else if (q.isSortByPublicationDate()) {
       query.addSortField(Schema.OC_MODIFIED, ORDER.desc);
     } else if (q.isSortByCreationDate()) {
       query.addSortField(Schema.DC_CREATED, ORDER.desc);
@@ -753,6 +775,15 @@ public class SolrRequester {
     return createSearchResult(query);
   }
 
+  /**
+   * Returns the cache of the media packages that have been read from the search index.
+   * 
+   * @return the media package cache
+   */
+  public MediaPackageCache getMediaPackageCache() {
+    return mediaPackageCache;
+  }
+
   /**
    * Sets the security service.
    * 
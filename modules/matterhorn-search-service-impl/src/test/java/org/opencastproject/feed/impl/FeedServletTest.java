@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+
+package org.opencastproject.feed.impl;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+
+import org.opencastproject.feed.api.Feed;
+import org.opencastproject.feed.api.FeedGenerator;
+import org.opencastproject.metadata.api.StaticMetadataService;
+import org.opencastproject.metadata.mpeg7.Mpeg7CatalogService;
+import org.opencastproject.search.impl.solr.SolrIndexManager;
+import org.opencastproject.security.api.SecurityService;
+import org.opencastproject.series.api.SeriesService;
+import org.opencastproject.workspace.api.Workspace;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.SolrServer;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class FeedServletTest {
+
+  private FeedServlet servlet;
+
+  /** The number of feeds created by the generator */
+  private int feedsCreated;
+
+  /** The status of the last response */
+  private int status;
+
+  /** The headers of the last response */
+  private Map<String, String> headers;
+
+  /** The body of the last response */
+  private ByteArrayOutputStream body;
+
+  @Before
+  public void setUp() throws Exception {
+    FeedGenerator generator = EasyMock.createNiceMock(FeedGenerator.class);
+    expect(generator.getIdentifier()).andReturn("test").anyTimes();
+    expect(generator.accept((String[]) EasyMock.anyObject())).andReturn(true).anyTimes();
+    expect(generator.createFeed((Feed.Type) EasyMock.anyObject(), (String[]) EasyMock.anyObject())).andAnswer(
+            new IAnswer<Feed>() {
+              public Feed answer() throws Throwable {
+                feedsCreated++;
+                String query = StringUtils.join((String[]) getCurrentArguments()[1], "/");
+                String link = "http://localhost:8080/feeds/rss/2.0/" + query;
+                return new FeedImpl(Feed.Type.RSS, link, new PlainTextContent("Feed " + query), new PlainTextContent(
+                        "Feed #" + feedsCreated), link);
+              }
+            }).anyTimes();
+    EasyMock.replay(generator);
+
+    servlet = new FeedServlet();
+    servlet.addFeedGenerator(generator);
+  }
+
+  @Test
+  public void testNotModifiedWithMatchingETag() throws Exception {
+    get("/rss/2.0/latest", null, null);
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertTrue(body.size() > 0);
+    String etag = headers.get("ETag");
+    Assert.assertNotNull(etag);
+
+    get("/rss/2.0/latest", null, etag);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+    Assert.assertEquals(etag, headers.get("ETag"));
+    Assert.assertEquals(0, body.size());
+
+    get("/rss/2.0/latest", null, "\"outdated\"");
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertTrue(body.size() > 0);
+    Assert.assertEquals(1, feedsCreated);
+  }
+
+  @Test
+  public void testCacheIsInvalidatedByIndexUpdates() throws Exception {
+    // Deliver the events of the search index to the servlet
+    EventAdmin eventAdmin = EasyMock.createNiceMock(EventAdmin.class);
+    eventAdmin.postEvent(isA(Event.class));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        servlet.handleEvent((Event) getCurrentArguments()[0]);
+        return null;
+      }
+    }).anyTimes();
+    EasyMock.replay(eventAdmin);
+    SolrServer solrServer = org.easymock.classextension.EasyMock.createNiceMock(SolrServer.class);
+    Mpeg7CatalogService mpeg7CatalogService = org.easymock.classextension.EasyMock
+            .createNiceMock(Mpeg7CatalogService.class);
+    org.easymock.classextension.EasyMock.replay(solrServer, mpeg7CatalogService);
+    SolrIndexManager indexManager = new SolrIndexManager(solrServer, EasyMock.createNiceMock(Workspace.class),
+            new ArrayList<StaticMetadataService>(), EasyMock.createNiceMock(SeriesService.class), mpeg7CatalogService,
+            EasyMock.createNiceMock(SecurityService.class));
+    indexManager.setEventAdmin(eventAdmin);
+
+    get("/rss/2.0/latest", null, null);
+    String etag = headers.get("ETag");
+    get("/rss/2.0/latest", null, null);
+    Assert.assertEquals(1, feedsCreated);
+
+    indexManager.clear();
+
+    get("/rss/2.0/latest", null, etag);
+    Assert.assertEquals(2, feedsCreated);
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertFalse(etag.equals(headers.get("ETag")));
+  }
+
+  @Test
+  public void testFeedsAreCachedPerUserAndQuery() throws Exception {
+    get("/rss/2.0/latest", "alice", null);
+    String etag = headers.get("ETag");
+    get("/rss/2.0/latest", "bob", etag);
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertEquals(2, feedsCreated);
+
+    get("/rss/2.0/series/1", "alice", null);
+    Assert.assertEquals(3, feedsCreated);
+
+    get("/rss/2.0/latest", "alice", etag);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+    get("/rss/2.0/latest", "bob", null);
+    get("/rss/2.0/series/1", "alice", null);
+    Assert.assertEquals(3, feedsCreated);
+  }
+
+  /**
+   * Requests a feed and records the response.
+   *
+   * @param path
+   *          the path info
+   * @param user
+   *          the remote user, or <code>null</code>
+   * @param ifNoneMatch
+   *          the entity tag the client has, or <code>null</code>
+   */
+  private void get(String path, String user, String ifNoneMatch) throws Exception {
+    HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+    expect(request.getPathInfo()).andReturn(path).anyTimes();
+    expect(request.getServerName()).andReturn("localhost").anyTimes();
+    expect(request.getRemoteUser()).andReturn(user).anyTimes();
+    expect(request.getHeader("If-None-Match")).andReturn(ifNoneMatch).anyTimes();
+    expect(request.getDateHeader("If-Modified-Since")).andReturn(-1L).anyTimes();
+    EasyMock.replay(request);
+
+    status = HttpServletResponse.SC_OK;
+    headers = new HashMap<String, String>();
+    body = new ByteArrayOutputStream();
+    HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+    response.setStatus(anyInt());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        status = (Integer) getCurrentArguments()[0];
+        return null;
+      }
+    }).anyTimes();
+    response.sendError(anyInt());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        status = (Integer) getCurrentArguments()[0];
+        return null;
+      }
+    }).anyTimes();
+    response.setHeader(isA(String.class), isA(String.class));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        headers.put((String) getCurrentArguments()[0], (String) getCurrentArguments()[1]);
+        return null;
+      }
+    }).anyTimes();
+    expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+    }).anyTimes();
+    EasyMock.replay(response);
+
+    servlet.doGet(request, response);
+  }
+
+}
@@ -39,10 +39,13 @@ import org.opencastproject.mediapackage.identifier.IdBuilderFactory;
 import org.opencastproject.metadata.api.StaticMetadataService;
 import org.opencastproject.metadata.dublincore.StaticMetadataServiceDublinCoreImpl;
 import org.opencastproject.metadata.mpeg7.Mpeg7CatalogService;
+import org.opencastproject.search.api.MediaSegment;
+import org.opencastproject.search.api.SearchException;
 import org.opencastproject.search.api.SearchQuery;
 import org.opencastproject.search.api.SearchResult;
 import org.opencastproject.search.api.SearchResultItem;
 import org.opencastproject.search.api.SearchService;
+import org.opencastproject.search.impl.solr.Schema;
 import org.opencastproject.search.impl.solr.SolrIndexManager;
 import org.opencastproject.search.impl.solr.SolrRequester;
 import org.opencastproject.security.api.AccessControlEntry;
@@ -63,7 +66,12 @@ import junit.framework.Assert;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.After;
@@ -79,7 +87,9 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Tests the functionality of the search service.
@@ -92,6 +102,9 @@ public class SearchServiceImplTest {
   /** The search service */
   private SearchServiceImpl service = null;
 
+  /** The search index manager */
+  private SolrIndexManager indexManager = null;
+
   /** The solr root directory */
   private final String solrRoot = "target" + File.separator + "opencast" + File.separator + "searchindex";
 
@@ -118,6 +131,9 @@ public class SearchServiceImplTest {
   private final Organization defaultOrganization = new DefaultOrganization();
   private final User defaultUser = userWithPermissions;
 
+  /** Identifiers of the documents that solr refuses to add */
+  private final Set<String> rejectedDocuments = new HashSet<String>();
+
   private Responder<User> userResponder;
   private Responder<Organization> organizationResponder;
 
@@ -143,13 +159,17 @@ public class SearchServiceImplTest {
   public void setUp() throws Exception {
     final File dcFile = new File(getClass().getResource("/dublincore.xml").toURI());
     final File dcSeriesFile = new File(getClass().getResource("/series-dublincore.xml").toURI());
+    final File mpeg7File = new File(getClass().getResource("/mpeg7.xml").toURI());
     Assert.assertNotNull(dcFile);
 
     // workspace
     Workspace workspace = EasyMock.createNiceMock(Workspace.class);
     EasyMock.expect(workspace.get((URI) EasyMock.anyObject())).andAnswer(new IAnswer<File>() {
       public File answer() throws Throwable {
-        return EasyMock.getCurrentArguments()[0].toString().contains("series") ? dcSeriesFile : dcFile;
+        String uri = EasyMock.getCurrentArguments()[0].toString();
+        if (uri.contains("mpeg7"))
+          return mpeg7File;
+        return uri.contains("series") ? dcSeriesFile : dcFile;
       }
     }).anyTimes();
     EasyMock.replay(workspace);
@@ -186,8 +206,9 @@ public class SearchServiceImplTest {
     service.setSecurityService(securityService);
     service.setServiceRegistry(serviceRegistry);
     SolrServer solrServer = SearchServiceImpl.setupSolr(new File(solrRoot));
-    service.testSetup(solrServer, new SolrRequester(solrServer, securityService), new SolrIndexManager(solrServer,
-            workspace, Arrays.asList(mdService), seriesService, mpeg7CatalogService, securityService));
+    indexManager = new SolrIndexManager(new RejectingSolrServer(solrServer), workspace, Arrays.asList(mdService),
+            seriesService, mpeg7CatalogService, securityService);
+    service.testSetup(solrServer, new SolrRequester(solrServer, securityService), indexManager);
 
     // acl
     acl = new AccessControlList(new AccessControlEntry("ROLE_ANONYMOUS", "read", true));
@@ -307,6 +328,40 @@ public class SearchServiceImplTest {
     assertEquals(1, seriesMetadataResult.getItems().length);
   }
 
+  /**
+   * Tests whether segments are returned with their time and duration and ranked by the query matches in their text.
+   */
+  @Test
+  public void testSegments() throws Exception {
+    MediaPackage mediaPackage = getMediaPackage("/manifest-segments.xml");
+    service.add(mediaPackage);
+
+    SearchResultItem[] items = service.getByQuery(new SearchQuery().withId("10.0000/3")).getItems();
+    assertEquals(1, items.length);
+    MediaSegment[] segments = items[0].getSegments();
+    assertEquals(2, segments.length);
+    Arrays.sort(segments);
+    assertEquals(0, segments[0].getTime());
+    assertEquals(10000, segments[0].getDuration());
+    assertEquals(10000, segments[1].getTime());
+    assertEquals(20000, segments[1].getDuration());
+
+    items = service.getByQuery(new SearchQuery().withText("photosynthesis")).getItems();
+    assertEquals(1, items.length);
+    segments = items[0].getSegments();
+    Arrays.sort(segments);
+    assertEquals(50, segments[0].getRelevance());
+    assertEquals(100, segments[1].getRelevance());
+
+    // Matches in other fields of the query must not count
+    items = service.getByQuery(new SearchQuery().withText("light").withId("10.0000/3")).getItems();
+    assertEquals(1, items.length);
+    segments = items[0].getSegments();
+    Arrays.sort(segments);
+    assertEquals(0, segments[0].getRelevance());
+    assertEquals(100, segments[1].getRelevance());
+  }
+
   @Test
   public void testSearchForPartialStrings() throws Exception {
     MediaPackage mediaPackage = getMediaPackage("/manifest-simple.xml");
@@ -382,6 +437,73 @@ public class SearchServiceImplTest {
     assertEquals(1, resultItem.getMediaPackage().getCatalogs().length);
   }
 
+  /**
+   * Adds media packages without committing them right away.
+   */
+  @Test
+  public void testBatchedIndexing() throws Exception {
+    MediaPackage mediaPackage = getMediaPackage("/manifest-simple.xml");
+    SearchQuery q = new SearchQuery().withId("10.0000/1");
+
+    // Buffered documents are not visible before they are flushed
+    indexManager.setCommitPolicy(100, 60000L);
+    assertTrue(indexManager.add(mediaPackage, acl, false));
+    assertEquals(1, indexManager.getPendingDocuments());
+    assertEquals(0, service.getByQuery(q).size());
+    service.flush();
+    assertEquals(0, indexManager.getPendingDocuments());
+    assertEquals(1, service.getByQuery(q).size());
+
+    // Buffered documents are committed once the buffer is full
+    service.clear();
+    indexManager.setCommitPolicy(1, 60000L);
+    indexManager.add(mediaPackage, acl, false);
+    assertEquals(0, indexManager.getPendingDocuments());
+    assertEquals(1, service.getByQuery(q).size());
+
+    // Buffered documents are committed once the commit interval has passed
+    service.clear();
+    indexManager.setCommitPolicy(100, 10L);
+    indexManager.add(mediaPackage, acl, false);
+    for (int i = 0; i < 500 && service.getByQuery(q).size() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, indexManager.getPendingDocuments());
+    assertEquals(1, service.getByQuery(q).size());
+  }
+
+  /**
+   * Makes sure that documents that solr refuses don't keep others from being committed.
+   */
+  @Test
+  public void testRejectedDocumentsAreDropped() throws Exception {
+    rejectedDocuments.add("10.0000/2");
+    indexManager.setCommitPolicy(100, 60000L);
+    indexManager.add(getMediaPackage("/manifest-simple.xml"), acl, false);
+    indexManager.add(getMediaPackage("/manifest-full.xml"), acl, false);
+    try {
+      service.flush();
+      fail("Flushing a rejected document must fail");
+    } catch (SearchException e) {
+      // expected
+    }
+    assertEquals(0, indexManager.getPendingDocuments());
+    assertEquals(1, service.getByQuery(new SearchQuery().withId("10.0000/1")).size());
+    assertEquals(0, service.getByQuery(new SearchQuery().withId("10.0000/2")).size());
+
+    // A failed immediate add is not tried again with the next commit
+    try {
+      indexManager.add(getMediaPackage("/manifest-full.xml"), acl, true);
+      fail("Adding a rejected document must fail");
+    } catch (SolrServerException e) {
+      // expected
+    }
+    assertEquals(0, indexManager.getPendingDocuments());
+    rejectedDocuments.clear();
+    service.flush();
+    assertEquals(0, service.getByQuery(new SearchQuery().withId("10.0000/2")).size());
+  }
+
   /**
    * Ads a simple media package that has a dublin core for the episode only.
    */
@@ -560,4 +682,31 @@ public class SearchServiceImplTest {
     // This time we should have 10 results
     assertEquals(10, service.getByQuery(new SearchQuery()).size());
   }
+
+  /**
+   * Passes requests on to solr, but refuses to add the documents listed in {@link #rejectedDocuments}.
+   */
+  private class RejectingSolrServer extends SolrServer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SolrServer solrServer;
+
+    RejectingSolrServer(SolrServer solrServer) {
+      this.solrServer = solrServer;
+    }
+
+    @Override
+    public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException {
+      if (request instanceof UpdateRequest && ((UpdateRequest) request).getDocuments() != null) {
+        for (SolrInputDocument doc : ((UpdateRequest) request).getDocuments()) {
+          if (rejectedDocuments.contains(Schema.getId(doc)))
+            throw new SolrServerException("Document " + Schema.getId(doc) + " is rejected");
+        }
+      }
+      return solrServer.request(request);
+    }
+
+  }
+
 }
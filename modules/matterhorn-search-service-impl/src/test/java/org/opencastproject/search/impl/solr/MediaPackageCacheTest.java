@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.search.impl.solr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.opencastproject.mediapackage.MediaPackage;
+import org.opencastproject.mediapackage.MediaPackageElementFlavor;
+import org.opencastproject.search.api.SearchResultTrack;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests the media package cache.
+ */
+public class MediaPackageCacheTest {
+
+  /** The media package xml */
+  private String xml = null;
+
+  @Before
+  public void setUp() throws Exception {
+    xml = IOUtils.toString(MediaPackageCacheTest.class.getResourceAsStream("/manifest-tracks.xml"), "UTF-8");
+  }
+
+  @Test
+  public void testMediaPackageIsParsedOncePerVersion() throws Exception {
+    MediaPackageCache cache = new MediaPackageCache(10);
+    Date modified = new Date(1000);
+    MediaPackage mediaPackage = cache.getMediaPackage("10.0000/4", modified, xml);
+    assertEquals("10.0000/4", mediaPackage.getIdentifier().toString());
+    assertSame(mediaPackage, cache.getMediaPackage("10.0000/4", new Date(1000), xml));
+    assertEquals(1, cache.getHits());
+    assertNotSame(mediaPackage, cache.getMediaPackage("10.0000/4", new Date(2000), xml));
+    assertNotSame(mediaPackage, cache.getMediaPackage("10.0000/4", null, xml));
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void testCacheSize() throws Exception {
+    MediaPackageCache cache = new MediaPackageCache(1);
+    Date modified = new Date(1000);
+    MediaPackage mediaPackage = cache.getMediaPackage("a", modified, xml);
+    cache.getMediaPackage("b", modified, xml);
+    assertNotSame(mediaPackage, cache.getMediaPackage("a", modified, xml));
+  }
+
+  @Test
+  public void testTracksAreReadWithoutMediaPackage() throws Exception {
+    SearchResultTrack[] tracks = MediaPackageCache.readTracks(xml);
+    assertEquals(2, tracks.length);
+    assertEquals("track-1", tracks[0].getId());
+    assertEquals(MediaPackageElementFlavor.parseFlavor("presenter/delivery"), tracks[0].getFlavor());
+    assertEquals("video/mp4", tracks[0].getMimeType());
+    assertArrayEquals(new String[] { "engage", "rss" }, tracks[0].getTags());
+    assertEquals("http://localhost/track-1.mp4", tracks[0].getUrl());
+    assertEquals("track-2", tracks[1].getId());
+    assertEquals(0, tracks[1].getTags().length);
+    assertEquals("http://localhost/track-2.m4a", tracks[1].getUrl());
+  }
+
+  @Test
+  public void testTracksMatchMediaPackage() throws Exception {
+    MediaPackageCache cache = new MediaPackageCache(10);
+    Date modified = new Date(1000);
+    cache.getMediaPackage("10.0000/4", modified, xml);
+    SearchResultTrack[] tracks = cache.getTracks("10.0000/4", modified, xml);
+    assertEquals(1, cache.getHits());
+    SearchResultTrack[] parsed = MediaPackageCache.readTracks(xml);
+    assertEquals(parsed.length, tracks.length);
+    for (int i = 0; i < tracks.length; i++) {
+      assertEquals(parsed[i].getId(), tracks[i].getId());
+      assertEquals(parsed[i].getFlavor(), tracks[i].getFlavor());
+      assertEquals(parsed[i].getMimeType(), tracks[i].getMimeType());
+      assertArrayEquals(parsed[i].getTags(), tracks[i].getTags());
+      assertEquals(parsed[i].getUrl(), tracks[i].getUrl());
+    }
+  }
+
+}
@@ -77,6 +77,22 @@ public class SearchServiceRemoteImpl extends RemoteBase implements SearchService
     return;
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.search.api.SearchService#flush()
+   */
+  @Override
+  public void flush() throws SearchException {
+    HttpPost post = new HttpPost("/flush");
+    HttpResponse response = getResponse(post, HttpStatus.SC_NO_CONTENT);
+    if (response == null) {
+      throw new SearchException("Unable to flush the remote search index");
+    } else {
+      closeConnection(response);
+    }
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -20,6 +20,7 @@ import static org.apache.commons.lang.StringUtils.isBlank;
 import org.opencastproject.job.api.JaxbJobList;
 import org.opencastproject.job.api.Job;
 import org.opencastproject.job.api.Job.Status;
+import org.opencastproject.job.api.JobCompletions;
 import org.opencastproject.job.api.JobParser;
 import org.opencastproject.security.api.TrustedHttpClient;
 import org.opencastproject.serviceregistry.api.JaxbServiceRegistrationList;
@@ -35,6 +36,7 @@ import org.opencastproject.util.QueryStringBuilder;
 import org.opencastproject.util.UrlSupport;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
@@ -56,6 +58,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -72,6 +76,9 @@ import javax.xml.bind.Marshaller;
  * Other than with the other <code>-remote</code> implementations, this one needs to be configured to find it's
  * counterpart implementation. It may either point to a load balancer hiding a number of running instances or to one
  * specific instance.
+ * <p>
+ * Since the services ordered by load are asked for before every request to a remote service, they are reused for a
+ * short time and then revalidated using the version tag returned by the service registry.
  */
 public class ServiceRegistryRemoteImpl implements ServiceRegistry {
 
@@ -81,6 +88,12 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
   /** Configuration key for the service registry */
   public static final String OPT_SERVICE_REGISTRY_URL = "org.opencastproject.serviceregistry.url";
 
+  /** Configuration key for the number of milliseconds that services ordered by load are reused without asking */
+  public static final String OPT_LOAD_CACHE_TTL = "org.opencastproject.serviceregistry.loadcache.ttl";
+
+  /** The default number of milliseconds that services ordered by load are reused without asking */
+  public static final long DEFAULT_LOAD_CACHE_TTL = 1000;
+
   /** The http client to use when connecting to remote servers */
   protected TrustedHttpClient client = null;
 
@@ -90,6 +103,12 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
   /** The base URL of this server */
   protected String serverUrl = UrlSupport.DEFAULT_BASE_URL;
 
+  /** The number of milliseconds that services ordered by load are reused without asking the service registry */
+  protected long loadCacheTtl = DEFAULT_LOAD_CACHE_TTL;
+
+  /** The services ordered by load as last returned by the service registry, by service type */
+  protected final Map<String, CachedRegistrations> loadCache = new ConcurrentHashMap<String, CachedRegistrations>();
+
   private static final JAXBContext jaxbContext;
 
   static {
@@ -122,6 +141,22 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
       throw new ServiceException(OPT_SERVICE_REGISTRY_URL + " is malformed: " + serviceURLProperty);
     }
     serverUrl = context.getBundleContext().getProperty("org.opencastproject.server.url");
+
+    String ttl = StringUtils.trimToNull(context.getBundleContext().getProperty(OPT_LOAD_CACHE_TTL));
+    if (ttl != null) {
+      try {
+        loadCacheTtl = Math.max(0, Long.parseLong(ttl));
+      } catch (NumberFormatException e) {
+        throw new ServiceException(OPT_LOAD_CACHE_TTL + " is not a number: " + ttl);
+      }
+    }
+  }
+
+  /**
+   * Forgets the services ordered by load, e. g. because registrations have been changed through this client.
+   */
+  protected void invalidateLoadCache() {
+    loadCache.clear();
   }
 
   /**
@@ -158,6 +193,7 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
     int responseStatusCode;
     try {
       response = client.execute(post);
+      invalidateLoadCache();
       responseStatusCode = response.getStatusLine().getStatusCode();
       if (responseStatusCode == HttpStatus.SC_NO_CONTENT) {
         logger.info("Registered '" + host + "'.");
@@ -191,6 +227,7 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
     int responseStatusCode;
     try {
       response = client.execute(post);
+      invalidateLoadCache();
       responseStatusCode = response.getStatusLine().getStatusCode();
       if (responseStatusCode == HttpStatus.SC_NO_CONTENT) {
         logger.info("Unregistered '" + host + "'.");
@@ -229,6 +266,7 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
     int responseStatusCode;
     try {
       response = client.execute(post);
+      invalidateLoadCache();
       responseStatusCode = response.getStatusLine().getStatusCode();
       if (responseStatusCode == HttpStatus.SC_OK) {
         logger.info("Registered '" + serviceType + "' on host '" + host + "' with path '" + path + "'.");
@@ -266,6 +304,7 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
     int responseStatusCode;
     try {
       response = client.execute(post);
+      invalidateLoadCache();
       responseStatusCode = response.getStatusLine().getStatusCode();
       if (responseStatusCode == HttpStatus.SC_NO_CONTENT) {
         logger.info("Unregistered '" + serviceType + "' on host '" + host + "'.");
@@ -303,6 +342,7 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
     int responseStatusCode;
     try {
       response = client.execute(post);
+      invalidateLoadCache();
       responseStatusCode = response.getStatusLine().getStatusCode();
       if (responseStatusCode == HttpStatus.SC_NO_CONTENT) {
         logger.info("Set maintenance mode on '" + host + "' to '" + maintenance + "'.");
@@ -502,6 +542,32 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.serviceregistry.api.ServiceRegistry#getJobCompletions(long, long)
+   */
+  @Override
+  public JobCompletions getJobCompletions(long since, long timeout) throws ServiceRegistryException {
+    String servicePath = new QueryStringBuilder("completions.xml").add("since", Long.toString(since))
+            .add("timeout", Long.toString(timeout)).toString();
+    HttpGet get = new HttpGet(UrlSupport.concat(serviceURL, servicePath));
+    HttpResponse response = null;
+    int responseStatusCode;
+    try {
+      response = client.execute(get);
+      responseStatusCode = response.getStatusLine().getStatusCode();
+      if (responseStatusCode == HttpStatus.SC_OK) {
+        return JobParser.parseJobCompletions(response.getEntity().getContent());
+      }
+    } catch (IOException e) {
+      throw new ServiceRegistryException("Unable to get job completions", e);
+    } finally {
+      client.close(response);
+    }
+    throw new ServiceRegistryException("Unable to get job completions (" + responseStatusCode + ")");
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -509,17 +575,34 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
    */
   @Override
   public List<ServiceRegistration> getServiceRegistrationsByLoad(String serviceType) throws ServiceRegistryException {
+    long now = System.currentTimeMillis();
+    CachedRegistrations cached = loadCache.get(serviceType);
+    if (cached != null && now < cached.expires)
+      return new ArrayList<ServiceRegistration>(cached.registrations);
+
+    // Once the cached services have expired, ask whether they are still current
     String servicePath = new QueryStringBuilder("available.xml").add("serviceType", serviceType).toString();
     HttpGet get = new HttpGet(UrlSupport.concat(serviceURL, servicePath));
+    if (cached != null && cached.version != null)
+      get.setHeader("If-None-Match", cached.version);
     HttpResponse response = null;
     int responseStatusCode;
     try {
       response = client.execute(get);
       responseStatusCode = response.getStatusLine().getStatusCode();
-      if (responseStatusCode == HttpStatus.SC_OK) {
+      if (responseStatusCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+        loadCache.put(serviceType, new CachedRegistrations(cached.registrations, cached.version, now + loadCacheTtl));
+        return new ArrayList<ServiceRegistration>(cached.registrations);
+      } else if (responseStatusCode == HttpStatus.SC_OK) {
         JaxbServiceRegistrationList serviceList = ServiceRegistrationParser.parseRegistrations(response.getEntity()
                 .getContent());
-        return new ArrayList<ServiceRegistration>(serviceList.getRegistrations());
+        List<ServiceRegistration> registrations = new ArrayList<ServiceRegistration>(serviceList.getRegistrations());
+        Header version = response.getFirstHeader("ETag");
+        if (loadCacheTtl > 0 || version != null) {
+          loadCache.put(serviceType, new CachedRegistrations(registrations, version == null ? null : version.getValue(),
+                  now + loadCacheTtl));
+        }
+        return new ArrayList<ServiceRegistration>(registrations);
       }
     } catch (IOException e) {
       throw new ServiceRegistryException("Unable to get service registrations", e);
@@ -803,4 +886,36 @@ public class ServiceRegistryRemoteImpl implements ServiceRegistry {
     throw new ServiceRegistryException("Unable to get service statistics (" + responseStatusCode + ")");
   }
 
+  /**
+   * The services of a type ordered by load, as returned by the service registry.
+   */
+  protected static final class CachedRegistrations {
+
+    /** The registrations */
+    private final List<ServiceRegistration> registrations;
+
+    /** The version tag of the registrations, or <code>null</code> if the service registry does not provide one */
+    private final String version;
+
+    /** The time in milliseconds after which the service registry needs to be asked again */
+    private final long expires;
+
+    /**
+     * Creates a cache entry.
+     * 
+     * @param registrations
+     *          the registrations
+     * @param version
+     *          the version tag
+     * @param expires
+     *          the expiration time
+     */
+    CachedRegistrations(List<ServiceRegistration> registrations, String version, long expires) {
+      this.registrations = registrations;
+      this.version = version;
+      this.expires = expires;
+    }
+
+  }
+
 }
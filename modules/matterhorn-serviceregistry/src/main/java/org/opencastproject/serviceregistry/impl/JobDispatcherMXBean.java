@@ -0,0 +1,38 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.serviceregistry.impl;
+
+/**
+ * A JMX interface exposing the state of the service registry's job dispatcher.
+ */
+public interface JobDispatcherMXBean {
+
+  /** Gets the number of jobs that were waiting to be dispatched during the last round of dispatching */
+  int getQueuedJobs();
+
+  /** Gets the total number of jobs that have been accepted by a service */
+  long getDispatchedJobs();
+
+  /** Gets the mean time in milliseconds between the creation of a job and its dispatching */
+  long getMeanDispatchLatency();
+
+  /** Gets the longest time in milliseconds between the creation of a job and its dispatching */
+  long getMaxDispatchLatency();
+
+  /** Gets the duration of the last round of dispatching in milliseconds */
+  long getLastRoundDuration();
+
+}
@@ -20,6 +20,7 @@ import static org.apache.commons.lang.StringUtils.isBlank;
 import org.opencastproject.job.api.JaxbJob;
 import org.opencastproject.job.api.Job;
 import org.opencastproject.job.api.Job.Status;
+import org.opencastproject.job.api.JobCompletions;
 import org.opencastproject.job.api.JobParser;
 import org.opencastproject.rest.RestConstants;
 import org.opencastproject.security.api.Organization;
@@ -30,6 +31,7 @@ import org.opencastproject.security.api.TrustedHttpClientException;
 import org.opencastproject.security.api.User;
 import org.opencastproject.security.api.UserDirectoryService;
 import org.opencastproject.serviceregistry.api.JaxbServiceStatistics;
+import org.opencastproject.serviceregistry.api.JobCompletionLog;
 import org.opencastproject.serviceregistry.api.ServiceRegistration;
 import org.opencastproject.serviceregistry.api.ServiceRegistry;
 import org.opencastproject.serviceregistry.api.ServiceRegistryException;
@@ -54,6 +56,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -63,9 +66,19 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -91,6 +104,12 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
 
   /** Configuration key for the interval to check whether the hosts in the service registry are still alive. **/
   protected static final String OPT_HEARTBEATINTERVAL = "org.opencastproject.serviceregistry.heartbeat.interval";
+
+  /** Configuration key for the number of jobs that are dispatched in parallel */
+  protected static final String OPT_DISPATCHTHREADS = "org.opencastproject.serviceregistry.dispatchthreads";
+
+  /** The name of the job dispatcher's JMX bean */
+  protected static final String JMX_DISPATCHER_NAME = "org.opencastproject.serviceregistry.api.ServiceRegistry:type=JobDispatcher";
   
   /** The http client to use when connecting to remote servers */
   protected TrustedHttpClient client = null;
@@ -103,6 +122,15 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
 
   /** Default delay between checking if hosts are still alive in minutes **/
   static final long DEFAULT_HEART_BEAT = 1;
+
+  /** Default number of jobs that are dispatched in parallel */
+  static final int DEFAULT_DISPATCH_THREADS = 4;
+
+  /**
+   * Interval after which the in-memory host loads are reconciled with the database, in milliseconds. This also bounds
+   * how long changes made by other nodes may go unnoticed when load balancing.
+   */
+  static final long HOST_LOAD_REFRESH_INTERVAL = 60000;
   
   /** The JPA provider */
   protected PersistenceProvider persistenceProvider;
@@ -123,7 +151,34 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
   protected int maxJobs = 1;
 
   /** The thread pool to use for dispatching queued jobs and checking on phantom services. */
-  protected ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1);
+  protected ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(2);
+
+  /** The bounded thread pool used to hand jobs over to the services in parallel */
+  protected ExecutorService dispatchExecutor = null;
+
+  /** The job dispatcher, or <code>null</code> if dispatching is disabled */
+  protected JobDispatcher jobDispatcher = null;
+
+  /** Number of jobs currently loading each host, maintained in memory and reconciled with the database periodically */
+  protected final Map<String, AtomicInteger> hostLoads = new ConcurrentHashMap<String, AtomicInteger>();
+
+  /** Time when the host loads have last been read from the database, or 0 if they need to be reloaded */
+  protected volatile long hostLoadsRefreshed = 0;
+
+  /** The service registrations as seen by the dispatcher and load balancing, or <code>null</code> if invalidated */
+  protected volatile LoadTable loadTable = null;
+
+  /** Serializes reading the load table from the database */
+  private final Object loadTableLock = new Object();
+
+  /** Incremented whenever the registrations or host loads change, so that clients can tell if their copy is current */
+  protected final AtomicLong loadTableVersion = new AtomicLong();
+
+  /** Incremented whenever the load table is invalidated, so that a table that is being read concurrently is discarded */
+  private final AtomicLong loadTableInvalidations = new AtomicLong();
+
+  /** The jobs that have recently reached a final state, for clients waiting on their completion */
+  protected final JobCompletionLog completionLog = new JobCompletionLog();
 
   /** The security service */
   protected SecurityService securityService = null;
@@ -234,10 +289,32 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       }
     }
 
-    // Schedule the job dispatching.
-    if (dispatchInterval > 0)
-      scheduledExecutor.scheduleWithFixedDelay(new JobDispatcher(), dispatchInterval, dispatchInterval,
+    int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+    if (cc != null) {
+      String dispatchThreadsString = StringUtils.trimToNull(cc.getBundleContext().getProperty(OPT_DISPATCHTHREADS));
+      if (dispatchThreadsString != null) {
+        try {
+          dispatchThreads = Integer.parseInt(dispatchThreadsString);
+        } catch (NumberFormatException e) {
+          logger.warn("Number of dispatch threads '{}' is malformed, setting to {}", dispatchThreadsString,
+                  DEFAULT_DISPATCH_THREADS);
+        }
+        if (dispatchThreads < 1) {
+          logger.warn("Number of dispatch threads {} too low, adjusting to 1", dispatchThreads);
+          dispatchThreads = 1;
+        }
+      }
+    }
+
+    // Schedule the job dispatching. Besides running at a fixed delay, the dispatcher is woken up whenever new work is
+    // put into the queue.
+    if (dispatchInterval > 0) {
+      dispatchExecutor = Executors.newFixedThreadPool(dispatchThreads);
+      jobDispatcher = new JobDispatcher();
+      scheduledExecutor.scheduleWithFixedDelay(jobDispatcher, dispatchInterval, dispatchInterval,
               TimeUnit.MILLISECONDS);
+      registerMBean(jobDispatcher);
+    }
 
     
     long heartbeatInterval = DEFAULT_HEART_BEAT;
@@ -286,6 +363,137 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
     if (scheduledExecutor != null) {
       scheduledExecutor.shutdown();
     }
+    if (dispatchExecutor != null) {
+      dispatchExecutor.shutdown();
+    }
+    if (jobDispatcher != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(JMX_DISPATCHER_NAME));
+      } catch (Exception e) {
+        logger.debug("Unable to unregister the job dispatcher mbean: {}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Registers the job dispatcher's statistics with jmx.
+   * 
+   * @param dispatcher
+   *          the job dispatcher
+   */
+  protected void registerMBean(JobDispatcher dispatcher) {
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(JMX_DISPATCHER_NAME);
+      if (mbs.isRegistered(name)) {
+        mbs.unregisterMBean(name);
+      }
+      mbs.registerMBean(dispatcher, name);
+    } catch (Exception e) {
+      logger.warn("Unable to register {} as an mbean: {}", dispatcher, e);
+    }
+  }
+
+  /**
+   * Requests an immediate round of dispatching. Requests that arrive while a round is pending are coalesced into that
+   * round, and the fixed delay dispatching remains in place as a fallback.
+   */
+  protected void wakeUpDispatcher() {
+    JobDispatcher dispatcher = jobDispatcher;
+    if (dispatcher == null || !dispatcher.requested.compareAndSet(false, true))
+      return;
+    try {
+      scheduledExecutor.execute(dispatcher);
+    } catch (RejectedExecutionException e) {
+      dispatcher.requested.set(false);
+      logger.debug("Job dispatcher is shutting down, not dispatching");
+    }
+  }
+
+  /**
+   * Marks the in-memory service registrations and host loads as stale, so they are read from the database the next time
+   * they are needed.
+   */
+  protected void invalidateLoadTable() {
+    loadTableInvalidations.incrementAndGet();
+    loadTableVersion.incrementAndGet();
+    loadTable = null;
+    hostLoadsRefreshed = 0;
+  }
+
+  /**
+   * Returns the version of the service registrations and host loads, which changes whenever the result of
+   * {@link #getServiceRegistrationsByLoad(String)} may have changed. If the host loads are due for reconciliation, they
+   * are read from the database first, so that changes made by other nodes are reflected in the version.
+   * 
+   * @return the load table version
+   */
+  public long getLoadTableVersion() {
+    if (loadTable != null && System.currentTimeMillis() - hostLoadsRefreshed > HOST_LOAD_REFRESH_INTERVAL) {
+      try {
+        getLoadTable(null, true);
+      } catch (PersistenceException e) {
+        logger.warn("Unable to reconcile the service registrations and host loads: {}", e.getMessage());
+      }
+    }
+    return loadTableVersion.get();
+  }
+
+  /**
+   * Returns the in-memory service registrations. They are read from the database along with the host loads if they have
+   * been invalidated by a registration change or, if <code>reconcile</code> is set, if the host loads are due for
+   * reconciliation with the database.
+   * 
+   * @param em
+   *          the entity manager to use for reading, or <code>null</code> to use a new one
+   * @param reconcile
+   *          whether to reconcile the host loads if they are due
+   * @return the load table
+   */
+  protected LoadTable getLoadTable(EntityManager em, boolean reconcile) {
+    LoadTable table = loadTable;
+    if (table != null && (!reconcile || System.currentTimeMillis() - hostLoadsRefreshed <= HOST_LOAD_REFRESH_INTERVAL))
+      return table;
+    synchronized (loadTableLock) {
+      long now = System.currentTimeMillis();
+      table = loadTable;
+      if (table != null && (!reconcile || now - hostLoadsRefreshed <= HOST_LOAD_REFRESH_INTERVAL))
+        return table;
+      long invalidations = loadTableInvalidations.get();
+      boolean changed = false;
+      EntityManager tableEm = em != null ? em : emf.createEntityManager();
+      try {
+        LoadTable previous = table;
+        table = new LoadTable(getServiceRegistrations(tableEm));
+        // An invalidated table has already been accounted for in the version
+        changed = previous != null && !table.hasSameRegistrations(previous);
+        Map<String, Integer> loadsFromDb = getHostLoads(tableEm, true);
+        changed |= hostLoads.keySet().retainAll(loadsFromDb.keySet());
+        for (Map.Entry<String, Integer> entry : loadsFromDb.entrySet()) {
+          int value = entry.getValue();
+          AtomicInteger load = hostLoads.get(entry.getKey());
+          if (load == null) {
+            hostLoads.put(entry.getKey(), new AtomicInteger(value));
+            changed = true;
+          } else if (load.getAndSet(value) != value) {
+            changed = true;
+          }
+        }
+      } finally {
+        if (em == null)
+          tableEm.close();
+      }
+      loadTable = table;
+      hostLoadsRefreshed = now;
+      if (changed)
+        loadTableVersion.incrementAndGet();
+      // If the registrations have changed while they were being read, read them again next time
+      if (loadTableInvalidations.get() != invalidations) {
+        loadTable = null;
+        hostLoadsRefreshed = 0;
+      }
+      return table;
+    }
   }
 
   /**
@@ -376,6 +584,8 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       em.persist(job);
       tx.commit();
       setJobUri(job);
+      if (dispatchable)
+        wakeUpDispatcher();
       return job;
     } catch (RollbackException e) {
       if (tx.isActive()) {
@@ -411,6 +621,8 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       em.persist(job);
       tx.commit();
       setJobUri(job);
+      if (dispatchable)
+        wakeUpDispatcher();
       return job;
     } catch (RollbackException e) {
       if (tx.isActive()) {
@@ -461,7 +673,16 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
   public Job updateJob(Job job) throws ServiceRegistryException {
     EntityManager em = emf.createEntityManager();
     try {
-      return updateInternal(em, job);
+      Job updatedJob = updateInternal(em, job);
+      // Requeued jobs need to be dispatched, and finished jobs free up a slot for jobs waiting in the queue
+      Status status = updatedJob.getStatus();
+      if (Status.QUEUED.equals(status)) {
+        wakeUpDispatcher();
+      } else if ((Status.FINISHED.equals(status) || Status.FAILED.equals(status)) && jobDispatcher != null
+              && jobDispatcher.getQueuedJobs() > 0) {
+        wakeUpDispatcher();
+      }
+      return updatedJob;
     } catch (PersistenceException e) {
       throw new ServiceRegistryException(e);
     } finally {
@@ -502,9 +723,15 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       if (fromDb == null) {
         throw new NoResultException();
       }
+      Status previousStatus = fromDb.getStatus();
+      String previousHost = getProcessorHost(fromDb);
       update(fromDb, (JaxbJob) job);
       em.merge(fromDb);
       tx.commit();
+      updateHostLoad(previousHost, previousStatus, -1);
+      updateHostLoad(getProcessorHost(fromDb), fromDb.getStatus(), 1);
+      if (!fromDb.getStatus().equals(previousStatus))
+        completionLog.record(fromDb);
       ((JaxbJob) job).setVersion(fromDb.getVersion());
       setJobUri(job);
       return job;
@@ -516,6 +743,44 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
     }
   }
 
+  /**
+   * Returns the host of the service that a persisted job has been handed to.
+   * 
+   * @param job
+   *          the job
+   * @return the processing host, or <code>null</code> if the job is not assigned to a service
+   */
+  private String getProcessorHost(JobJpaImpl job) {
+    ServiceRegistrationJpaImpl processor = job.getProcessorServiceRegistration();
+    return processor == null ? null : processor.getHost();
+  }
+
+  /**
+   * Adds or removes the load caused by a job in the given status from the in-memory host loads.
+   * 
+   * @param host
+   *          the processing host
+   * @param status
+   *          the job status
+   * @param delta
+   *          <code>1</code> to add the job's load, <code>-1</code> to remove it
+   */
+  protected void updateHostLoad(String host, Status status, int delta) {
+    if (host == null || status == null || !JOB_STATUSES_INFLUENCING_LOAD_BALANCING.contains(status))
+      return;
+    AtomicInteger load = hostLoads.get(host);
+    if (load == null)
+      return;
+    int current;
+    int updated;
+    do {
+      current = load.get();
+      updated = Math.max(0, current + delta);
+    } while (!load.compareAndSet(current, updated));
+    if (updated != current)
+      loadTableVersion.incrementAndGet();
+  }
+
   /**
    * Sets the queue and runtimes and other elements of a persistent job based on a job that's been modified in memory.
    * Times on both the objects must be modified, since the in-memory job must not be stale.
@@ -611,6 +876,7 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       }
       logger.info("Registering {} with a maximum load of {}", host, maxJobs);
       tx.commit();
+      invalidateLoadTable();
     } catch (Exception e) {
       if (tx.isActive()) {
         tx.rollback();
@@ -645,6 +911,7 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       }
       logger.info("Unregistering {}", host, maxJobs);
       tx.commit();
+      invalidateLoadTable();
     } catch (Exception e) {
       if (tx.isActive()) {
         tx.rollback();
@@ -739,6 +1006,9 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
         em.merge(registration);
       }
       tx.commit();
+      invalidateLoadTable();
+      if (online)
+        wakeUpDispatcher();
       return registration;
     } catch (Exception e) {
       if (tx.isActive()) {
@@ -772,6 +1042,7 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       query.setParameter("serviceType", serviceType);
       @SuppressWarnings("unchecked")
       List<JobJpaImpl> unregisteredJobs = query.getResultList();
+      List<JobJpaImpl> failedJobs = new ArrayList<JobJpaImpl>();
       for (JobJpaImpl job : unregisteredJobs) {
         if (job.isDispatchable()) {
           logger.info("Rescheduling lost job {}", job);
@@ -780,10 +1051,17 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
         } else {
           logger.info("Marking lost job {} as failed", job);
           job.setStatus(Status.FAILED);
+          failedJobs.add(job);
         }
         em.merge(job);
       }
       tx.commit();
+      for (JobJpaImpl job : failedJobs) {
+        completionLog.record(job);
+      }
+      invalidateLoadTable();
+      if (!unregisteredJobs.isEmpty())
+        wakeUpDispatcher();
     } catch (Exception e) {
       if (tx.isActive()) {
         tx.rollback();
@@ -812,6 +1090,9 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       reg.setMaintenanceMode(maintenance);
       em.merge(reg);
       tx.commit();
+      invalidateLoadTable();
+      if (!maintenance)
+        wakeUpDispatcher();
     } catch (RollbackException e) {
       if (tx.isActive()) {
         tx.rollback();
@@ -849,6 +1130,16 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
     return em.createNamedQuery("ServiceRegistration.getAll").getResultList();
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.serviceregistry.api.ServiceRegistry#getJobCompletions(long, long)
+   */
+  @Override
+  public JobCompletions getJobCompletions(long since, long timeout) throws ServiceRegistryException {
+    return completionLog.getCompletions(since, timeout);
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -1080,23 +1371,28 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
   }
 
   /**
-   * Do not look at this, it will burn your eyes! This is due to JPA's inability to do a left outer join with join
-   * conditions.
-   * 
    * {@inheritDoc}
+   * <p>
+   * The registrations and host loads are read from the in-memory load table rather than from the database, which is
+   * only queried if the table has been invalidated or is due for reconciliation.
    * 
    * @see org.opencastproject.serviceregistry.api.ServiceRegistry#getServiceRegistrationsByLoad(java.lang.String)
    */
   @Override
   public List<ServiceRegistration> getServiceRegistrationsByLoad(String serviceType) throws ServiceRegistryException {
-    EntityManager em = emf.createEntityManager();
+    List<ServiceRegistration> available = null;
     try {
-      Map<String, Integer> loadByHost = getHostLoads(em, true);
-      List<ServiceRegistration> serviceRegistrations = getServiceRegistrationsByType(serviceType);
-      return filterAndSortServiceRegistrations(serviceRegistrations, serviceType, loadByHost);
-    } finally {
-      em.close();
+      // Reconcile if due, since nodes that don't dispatch jobs would otherwise never see changes made by other nodes
+      available = getLoadTable(null, true).getAvailableRegistrations(serviceType);
+    } catch (PersistenceException e) {
+      throw new ServiceRegistryException(e);
     }
+    Map<String, Integer> loadByHost = new HashMap<String, Integer>();
+    for (ServiceRegistration registration : available) {
+      AtomicInteger load = hostLoads.get(registration.getHost());
+      loadByHost.put(registration.getHost(), load == null ? 0 : load.get());
+    }
+    return filterAndSortServiceRegistrations(available, serviceType, loadByHost);
   }
 
   /**
@@ -1393,12 +1689,13 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
       }
     }
 
-    // We've tried dispatching to every online service that can handle this type of job, with no luck.
+    // We've tried dispatching to every online service that can handle this type of job, with no luck. Don't go through
+    // updateJob(), since that would wake up the dispatcher right away.
     if (triedDispatching) {
       try {
         jpaJob.setStatus(Status.QUEUED);
         jpaJob.setProcessorServiceRegistration(null);
-        updateJob(jpaJob);
+        updateInternal(em, jpaJob);
       } catch (Exception e) {
         logger.error("Unable to put job back into queue", e);
       }
@@ -1459,10 +1756,111 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
   }
 
   /**
-   * This dispatcher implementation will check for jobs in the QUEUED {@link #org.opencastproject.job.api.Job.Status}. If new jobs are found, the
-   * dispatcher will attempt to dispatch each job to the least loaded service.
+   * An immutable snapshot of the service registrations, with the registrations that are available for load balancing
+   * grouped by service type.
    */
-  class JobDispatcher implements Runnable {
+  static final class LoadTable {
+
+    /** All service registrations */
+    private final List<ServiceRegistration> registrations;
+
+    /** The registrations that are online and not in maintenance mode, by service type */
+    private final Map<String, List<ServiceRegistration>> available = new HashMap<String, List<ServiceRegistration>>();
+
+    /**
+     * Creates the load table from the current service registrations.
+     * 
+     * @param registrations
+     *          the service registrations
+     */
+    LoadTable(List<ServiceRegistration> registrations) {
+      this.registrations = Collections.unmodifiableList(new ArrayList<ServiceRegistration>(registrations));
+      for (ServiceRegistration registration : registrations) {
+        if (!registration.isOnline() || registration.isInMaintenanceMode())
+          continue;
+        List<ServiceRegistration> ofType = available.get(registration.getServiceType());
+        if (ofType == null) {
+          ofType = new ArrayList<ServiceRegistration>();
+          available.put(registration.getServiceType(), ofType);
+        }
+        ofType.add(registration);
+      }
+    }
+
+    /**
+     * Returns all service registrations.
+     * 
+     * @return the registrations
+     */
+    List<ServiceRegistration> getRegistrations() {
+      return registrations;
+    }
+
+    /**
+     * Returns whether the other table contains the same registrations in the same state.
+     * 
+     * @param other
+     *          the other load table
+     * @return <code>true</code> if the registrations are the same
+     */
+    boolean hasSameRegistrations(LoadTable other) {
+      if (registrations.size() != other.registrations.size())
+        return false;
+      for (int i = 0; i < registrations.size(); i++) {
+        ServiceRegistration a = registrations.get(i);
+        ServiceRegistration b = other.registrations.get(i);
+        if (!StringUtils.equals(a.getHost(), b.getHost()) || !StringUtils.equals(a.getServiceType(), b.getServiceType())
+                || !StringUtils.equals(a.getPath(), b.getPath()) || a.isJobProducer() != b.isJobProducer()
+                || a.isOnline() != b.isOnline() || a.isInMaintenanceMode() != b.isInMaintenanceMode())
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * Returns the registrations of a service type that are online and not in maintenance mode.
+     * 
+     * @param serviceType
+     *          the service type
+     * @return the available registrations, which must not be modified
+     */
+    List<ServiceRegistration> getAvailableRegistrations(String serviceType) {
+      List<ServiceRegistration> ofType = available.get(serviceType);
+      if (ofType == null)
+        return Collections.emptyList();
+      return ofType;
+    }
+
+  }
+
+  /**
+   * This dispatcher implementation will check for jobs in the QUEUED {@link #org.opencastproject.job.api.Job.Status}. If
+   * new jobs are found, the dispatcher will attempt to dispatch each job to the least loaded service. Jobs are handed
+   * over to the services in parallel using the dispatch thread pool, while host loads and service registrations are
+   * kept in memory and only reloaded from the database when they have changed or are due for reconciliation.
+   */
+  class JobDispatcher implements Runnable, JobDispatcherMXBean {
+
+    /** Whether a round of dispatching has been requested */
+    final AtomicBoolean requested = new AtomicBoolean(false);
+
+    /** Whether a round of dispatching is currently in progress */
+    private final AtomicBoolean dispatching = new AtomicBoolean(false);
+
+    /** The number of jobs found in the queue during the last round */
+    private volatile int queuedJobs = 0;
+
+    /** The duration of the last round in milliseconds */
+    private volatile long lastRoundDuration = 0;
+
+    /** The number of jobs that have been accepted by a service */
+    private final AtomicLong dispatchedJobs = new AtomicLong();
+
+    /** The accumulated time between job creation and dispatching, in milliseconds */
+    private final AtomicLong totalDispatchLatency = new AtomicLong();
+
+    /** The longest time between job creation and dispatching, in milliseconds */
+    private final AtomicLong maxDispatchLatency = new AtomicLong();
 
     /**
      * {@inheritDoc}
@@ -1471,12 +1869,41 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
      */
     @Override
     public void run() {
+      // Only one round at a time. If a round is already running, it will pick up the request once it's done.
+      while (dispatching.compareAndSet(false, true)) {
+        try {
+          requested.set(false);
+          dispatch();
+        } finally {
+          dispatching.set(false);
+        }
+        if (!requested.get())
+          break;
+      }
+    }
+
+    /**
+     * Runs one round of dispatching.
+     */
+    private void dispatch() {
+      long start = System.currentTimeMillis();
       EntityManager em = emf.createEntityManager();
       try {
         List<Job> jobsToDispatch = getDispatchableJobs(em);
-        Map<String, Integer> hostLoads = getHostLoads(em, true);
-        List<ServiceRegistration> serviceRegistrations = getServiceRegistrations(em);
+        queuedJobs = jobsToDispatch.size();
+        if (jobsToDispatch.isEmpty())
+          return;
+
+        List<ServiceRegistration> serviceRegistrations = getLoadTable(em, true).getRegistrations();
+
+        // Jobs that are planned in this round add to the load, so that they are spread across the hosts
+        Map<String, Integer> plannedLoads = new HashMap<String, Integer>();
+        for (ServiceRegistration registration : serviceRegistrations) {
+          AtomicInteger load = hostLoads.get(registration.getHost());
+          plannedLoads.put(registration.getHost(), load == null ? 0 : load.get());
+        }
 
+        List<Callable<String>> dispatchTasks = new ArrayList<Callable<String>>();
         for (Job job : jobsToDispatch) {
 
           // Set the job's user and organization prior to dispatching
@@ -1485,6 +1912,7 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
           Organization organization = organizationDirectoryService.getOrganization(creatorOrganization);
           securityService.setOrganization(organization);
           User user = userDirectoryService.loadUser(creator);
+          securityService.setOrganization(null);
           if (user == null) {
             logger.warn("Unable to dispatch job {}: creator '{}' is not available", job.getId(), creator);
             continue;
@@ -1492,36 +1920,157 @@ public class ServiceRegistryJpaImpl implements ServiceRegistry {
             logger.warn("Unable to dispatch job {}: organization '{}' is not available", job.getId(), organization);
             continue;
           }
-          securityService.setUser(user);
 
-          // Start dispatching
-          try {
-            String hostAcceptingJob = dispatchJob(em, job,
-                    filterAndSortServiceRegistrations(serviceRegistrations, job.getJobType(), hostLoads));
-            if (hostAcceptingJob == null) {
-              ServiceRegistryJpaImpl.logger.debug("Job {} could not be dispatched and is put back into queue",
-                      job.getId());
-            } else {
-              ServiceRegistryJpaImpl.logger.debug("Job {} dispatched to {}", job.getId(), hostAcceptingJob);
-              if (hostLoads.containsKey(hostAcceptingJob)) {
-                Integer previousServiceLoad = hostLoads.get(hostAcceptingJob);
-                hostLoads.put(hostAcceptingJob, ++previousServiceLoad);
-              } else {
-                hostLoads.put(hostAcceptingJob, 1);
-              }
-            }
-          } catch (ServiceRegistryException e) {
-            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
-            ServiceRegistryJpaImpl.logger.error("Error dispatching job " + job, cause);
-          } finally {
-            securityService.setUser(null);
-            securityService.setOrganization(null);
+          List<ServiceRegistration> services = filterAndSortServiceRegistrations(serviceRegistrations,
+                  job.getJobType(), plannedLoads);
+          if (services.isEmpty()) {
+            logger.debug("No service is available to handle jobs of type '{}'", job.getJobType());
+            continue;
           }
+          String plannedHost = services.get(0).getHost();
+          plannedLoads.put(plannedHost, plannedLoads.get(plannedHost) + 1);
+          dispatchTasks.add(new DispatchTask(job, services, user, organization));
         }
+
+        // Hand the jobs over to the services, and wait for the round to complete so jobs are not dispatched twice
+        dispatchExecutor.invokeAll(dispatchTasks);
+      } catch (InterruptedException e) {
+        ServiceRegistryJpaImpl.logger.info("Job dispatching has been interrupted");
+        Thread.currentThread().interrupt();
       } catch (Throwable t) {
         ServiceRegistryJpaImpl.logger.warn("Error dispatching jobs", t);
       } finally {
         em.close();
+        lastRoundDuration = System.currentTimeMillis() - start;
+      }
+    }
+
+    /**
+     * Records a successful dispatch.
+     * 
+     * @param job
+     *          the dispatched job
+     */
+    void recordDispatch(Job job) {
+      dispatchedJobs.incrementAndGet();
+      if (job.getDateCreated() == null)
+        return;
+      long latency = Math.max(0, System.currentTimeMillis() - job.getDateCreated().getTime());
+      totalDispatchLatency.addAndGet(latency);
+      long max = maxDispatchLatency.get();
+      while (latency > max && !maxDispatchLatency.compareAndSet(max, latency)) {
+        max = maxDispatchLatency.get();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.opencastproject.serviceregistry.impl.JobDispatcherMXBean#getQueuedJobs()
+     */
+    @Override
+    public int getQueuedJobs() {
+      return queuedJobs;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.opencastproject.serviceregistry.impl.JobDispatcherMXBean#getDispatchedJobs()
+     */
+    @Override
+    public long getDispatchedJobs() {
+      return dispatchedJobs.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.opencastproject.serviceregistry.impl.JobDispatcherMXBean#getMeanDispatchLatency()
+     */
+    @Override
+    public long getMeanDispatchLatency() {
+      long dispatched = dispatchedJobs.get();
+      return dispatched == 0 ? 0 : totalDispatchLatency.get() / dispatched;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.opencastproject.serviceregistry.impl.JobDispatcherMXBean#getMaxDispatchLatency()
+     */
+    @Override
+    public long getMaxDispatchLatency() {
+      return maxDispatchLatency.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.opencastproject.serviceregistry.impl.JobDispatcherMXBean#getLastRoundDuration()
+     */
+    @Override
+    public long getLastRoundDuration() {
+      return lastRoundDuration;
+    }
+
+  }
+
+  /**
+   * Hands a single job over to the least loaded service accepting it, using the security context of the job's creator.
+   */
+  class DispatchTask implements Callable<String> {
+
+    /** The job to dispatch */
+    private final Job job;
+
+    /** The candidate services, ordered by load */
+    private final List<ServiceRegistration> services;
+
+    /** The job's creator */
+    private final User user;
+
+    /** The creator's organization */
+    private final Organization organization;
+
+    DispatchTask(Job job, List<ServiceRegistration> services, User user, Organization organization) {
+      this.job = job;
+      this.services = services;
+      this.user = user;
+      this.organization = organization;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.Callable#call()
+     */
+    @Override
+    public String call() {
+      securityService.setOrganization(organization);
+      securityService.setUser(user);
+      EntityManager em = emf.createEntityManager();
+      try {
+        String hostAcceptingJob = dispatchJob(em, job, services);
+        if (hostAcceptingJob == null) {
+          ServiceRegistryJpaImpl.logger.debug("Job {} could not be dispatched and is put back into queue",
+                  job.getId());
+        } else {
+          ServiceRegistryJpaImpl.logger.debug("Job {} dispatched to {}", job.getId(), hostAcceptingJob);
+          jobDispatcher.recordDispatch(job);
+        }
+        return hostAcceptingJob;
+      } catch (ServiceRegistryException e) {
+        Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+        ServiceRegistryJpaImpl.logger.error("Error dispatching job " + job, cause);
+        return null;
+      } catch (Throwable t) {
+        ServiceRegistryJpaImpl.logger.warn("Error dispatching job " + job, t);
+        return null;
+      } finally {
+        em.close();
+        securityService.setUser(null);
+        securityService.setOrganization(null);
       }
     }
   }
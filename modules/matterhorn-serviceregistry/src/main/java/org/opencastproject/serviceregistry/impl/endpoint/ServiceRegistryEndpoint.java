@@ -18,6 +18,7 @@ package org.opencastproject.serviceregistry.impl.endpoint;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_CREATED;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
@@ -25,6 +26,7 @@ import static org.apache.commons.lang.StringUtils.isNotBlank;
 import org.opencastproject.job.api.JaxbJob;
 import org.opencastproject.job.api.JaxbJobList;
 import org.opencastproject.job.api.Job;
+import org.opencastproject.job.api.JobCompletions;
 import org.opencastproject.job.api.JobParser;
 import org.opencastproject.rest.RestConstants;
 import org.opencastproject.serviceregistry.api.JaxbServiceRegistration;
@@ -51,6 +53,7 @@ import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -59,8 +62,10 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
 /**
@@ -70,6 +75,9 @@ import javax.ws.rs.core.Response.Status;
 @RestService(name = "serviceregistry", title = "Service Registry", notes = { "All paths above are relative to the REST endpoint base" }, abstractText = "Provides registration and management functions for servers and services in this matterhorn instance or cluster.")
 public class ServiceRegistryEndpoint {
 
+  /** The maximum number of milliseconds a client may wait for job completions */
+  public static final long MAX_COMPLETIONS_TIMEOUT = 30000;
+
   /** The remote service maanger */
   protected ServiceRegistry serviceRegistry = null;
 
@@ -188,19 +196,33 @@ public class ServiceRegistryEndpoint {
   @GET
   @Path("available.xml")
   @Produces(MediaType.TEXT_XML)
-  @RestQuery(name = "availableasxml", description = "Lists available services by service type identifier, ordered by load.", returnDescription = "The services list as XML", restParameters = { @RestParameter(name = "serviceType", isRequired = false, type = Type.STRING, description = "The service type identifier") }, reponses = {
+  @RestQuery(name = "availableasxml", description = "Lists available services by service type identifier, ordered by load. The response is tagged with the version of the registrations and loads, so that clients can ask whether their copy is still current using If-None-Match.", returnDescription = "The services list as XML", restParameters = { @RestParameter(name = "serviceType", isRequired = false, type = Type.STRING, description = "The service type identifier") }, reponses = {
           @RestResponse(responseCode = SC_OK, description = "Returned the available services."),
+          @RestResponse(responseCode = SC_NOT_MODIFIED, description = "The services and their loads have not changed since the tagged version."),
           @RestResponse(responseCode = SC_BAD_REQUEST, description = "No service type specified, bad request.") })
-  public Response getAvailableServicesAsXml(@QueryParam("serviceType") String serviceType) {
+  public Response getAvailableServicesAsXml(@QueryParam("serviceType") String serviceType,
+          @HeaderParam("If-None-Match") String ifNoneMatch) {
     if (isBlank(serviceType))
       throw new WebApplicationException(Response.status(Status.BAD_REQUEST).entity("Service type must be specified")
               .build());
+
+    // The version is taken before the registrations, so that the tag never claims more than what is returned
+    EntityTag tag = null;
+    if (serviceRegistry instanceof ServiceRegistryJpaImpl) {
+      tag = new EntityTag(Long.toString(((ServiceRegistryJpaImpl) serviceRegistry).getLoadTableVersion()));
+      if (("\"" + tag.getValue() + "\"").equals(StringUtils.trim(ifNoneMatch)))
+        return Response.notModified(tag).build();
+    }
+
     JaxbServiceRegistrationList registrations = new JaxbServiceRegistrationList();
     try {
       for (ServiceRegistration reg : serviceRegistry.getServiceRegistrationsByLoad(serviceType)) {
         registrations.add(new JaxbServiceRegistration(reg));
       }
-      return Response.ok(registrations).build();
+      ResponseBuilder response = Response.ok(registrations);
+      if (tag != null)
+        response.tag(tag);
+      return response.build();
     } catch (ServiceRegistryException e) {
       throw new WebApplicationException(e);
     }
@@ -212,8 +234,9 @@ public class ServiceRegistryEndpoint {
   @RestQuery(name = "availableasjson", description = "Lists available services by service type identifier, ordered by load.", returnDescription = "The services list as JSON", restParameters = { @RestParameter(name = "serviceType", isRequired = false, type = Type.STRING, description = "The service type identifier") }, reponses = {
           @RestResponse(responseCode = SC_OK, description = "Returned the available services."),
           @RestResponse(responseCode = SC_BAD_REQUEST, description = "No service type specified, bad request.") })
-  public Response getAvailableServicesAsJson(@QueryParam("serviceType") String serviceType) {
-    return getAvailableServicesAsXml(serviceType);
+  public Response getAvailableServicesAsJson(@QueryParam("serviceType") String serviceType,
+          @HeaderParam("If-None-Match") String ifNoneMatch) {
+    return getAvailableServicesAsXml(serviceType, ifNoneMatch);
   }
 
   @GET
@@ -361,6 +384,30 @@ public class ServiceRegistryEndpoint {
 
   }
 
+  @GET
+  @Path("completions.xml")
+  @Produces(MediaType.TEXT_XML)
+  @RestQuery(name = "completions", description = "Returns the jobs that reached a final state after the given position, waiting for the next completion if there is none yet.", returnDescription = "The completed jobs and the position to continue from", restParameters = {
+          @RestParameter(name = "since", isRequired = false, type = Type.STRING, defaultValue = "-1", description = "The position returned by the previous call, or -1 to get the current position"),
+          @RestParameter(name = "timeout", isRequired = false, type = Type.STRING, defaultValue = "0", description = "The maximum number of milliseconds to wait for a completion") }, reponses = { @RestResponse(responseCode = SC_OK, description = "Job completions returned.") })
+  public JobCompletions getJobCompletions(@QueryParam("since") String since, @QueryParam("timeout") String timeout) {
+    long position = -1;
+    long wait = 0;
+    try {
+      if (isNotBlank(since))
+        position = Long.parseLong(since);
+      if (isNotBlank(timeout))
+        wait = Math.min(Math.max(0, Long.parseLong(timeout)), MAX_COMPLETIONS_TIMEOUT);
+    } catch (NumberFormatException e) {
+      throw new WebApplicationException(Status.BAD_REQUEST);
+    }
+    try {
+      return serviceRegistry.getJobCompletions(position, wait);
+    } catch (ServiceRegistryException e) {
+      throw new WebApplicationException(e);
+    }
+  }
+
   @GET
   @Path("count")
   @Produces(MediaType.TEXT_PLAIN)
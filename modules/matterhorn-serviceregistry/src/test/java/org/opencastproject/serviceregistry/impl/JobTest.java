@@ -26,14 +26,22 @@ import org.opencastproject.security.api.DefaultOrganization;
 import org.opencastproject.security.api.Organization;
 import org.opencastproject.security.api.OrganizationDirectoryService;
 import org.opencastproject.security.api.SecurityService;
+import org.opencastproject.security.api.TrustedHttpClient;
 import org.opencastproject.security.api.User;
+import org.opencastproject.security.api.UserDirectoryService;
 import org.opencastproject.serviceregistry.api.ServiceRegistration;
 import org.opencastproject.util.UrlSupport;
 
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.eclipse.persistence.jpa.PersistenceProvider;
 import org.junit.After;
 import org.junit.Assert;
@@ -41,10 +49,15 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class JobTest {
 
@@ -284,6 +297,116 @@ public class JobTest {
     Assert.assertEquals(LOCALHOST, type2Hosts.get(1).getHost());
   }
 
+  @Test
+  public void testLoadTableFollowsJobsAndRegistrations() throws Exception {
+    Assert.assertEquals(2, serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1).size());
+    long version = serviceRegistry.getLoadTableVersion();
+
+    // Jobs starting and finishing are reflected without reading the host loads again
+    JobJpaImpl job = (JobJpaImpl) serviceRegistry.createJob(JOB_TYPE_1, OPERATION_NAME, null, null, false);
+    job.setStatus(Status.RUNNING);
+    job.setProcessorServiceRegistration(regType1Localhost);
+    serviceRegistry.updateJob(job);
+    Assert.assertTrue(serviceRegistry.getLoadTableVersion() > version);
+    Assert.assertNotNull(serviceRegistry.loadTable);
+    Assert.assertEquals(REMOTEHOST, serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1).get(0).getHost());
+    Assert.assertEquals(1, serviceRegistry.hostLoads.get(LOCALHOST).get());
+
+    job.setStatus(Status.FINISHED);
+    serviceRegistry.updateJob(job);
+    Assert.assertEquals(0, serviceRegistry.hostLoads.get(LOCALHOST).get());
+
+    // Registration changes invalidate the load table
+    version = serviceRegistry.getLoadTableVersion();
+    serviceRegistry.setMaintenanceStatus(REMOTEHOST, true);
+    Assert.assertTrue(serviceRegistry.getLoadTableVersion() > version);
+    Assert.assertNull(serviceRegistry.loadTable);
+    List<ServiceRegistration> type1Hosts = serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1);
+    Assert.assertEquals(1, type1Hosts.size());
+    Assert.assertEquals(LOCALHOST, type1Hosts.get(0).getHost());
+    serviceRegistry.setMaintenanceStatus(REMOTEHOST, false);
+    Assert.assertEquals(2, serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1).size());
+  }
+
+  @Test
+  public void testJobsAreDispatchedOnCreation() throws Exception {
+    // Accept every job that is handed to a service, and record the hosts it has been handed to
+    final List<String> dispatchedTo = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch dispatched = new CountDownLatch(2);
+    TrustedHttpClient client = EasyMock.createNiceMock(TrustedHttpClient.class);
+    EasyMock.expect(client.execute((HttpUriRequest) EasyMock.anyObject())).andAnswer(new IAnswer<HttpResponse>() {
+      public HttpResponse answer() throws Throwable {
+        URI uri = ((HttpUriRequest) EasyMock.getCurrentArguments()[0]).getURI();
+        dispatchedTo.add(uri.getScheme() + "://" + uri.getAuthority());
+        dispatched.countDown();
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_NO_CONTENT, "No Content");
+      }
+    }).anyTimes();
+    EasyMock.replay(client);
+    serviceRegistry.setTrustedHttpClient(client);
+    Organization organization = new DefaultOrganization();
+    User user = new User("anonymous", organization.getId(), new String[] { organization.getAnonymousRole() });
+    UserDirectoryService userDirectoryService = EasyMock.createNiceMock(UserDirectoryService.class);
+    EasyMock.expect(userDirectoryService.loadUser((String) EasyMock.anyObject())).andReturn(user).anyTimes();
+    EasyMock.replay(userDirectoryService);
+    serviceRegistry.setUserDirectoryService(userDirectoryService);
+    Assert.assertEquals(2, serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1).size());
+    Assert.assertEquals(0, serviceRegistry.hostLoads.get(LOCALHOST).get());
+    Assert.assertEquals(0, serviceRegistry.hostLoads.get(REMOTEHOST).get());
+
+    // Queued jobs are dispatched right away rather than at the next dispatch interval, and spread across the hosts
+    Job job1 = serviceRegistry.createJob(JOB_TYPE_1, OPERATION_NAME, null, null, true);
+    Job job2 = serviceRegistry.createJob(JOB_TYPE_1, OPERATION_NAME, null, null, true);
+    Assert.assertTrue(dispatched.await(ServiceRegistryJpaImpl.DEFAULT_DISPATCH_PERIOD / 2, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(new HashSet<String>(Arrays.asList(LOCALHOST, REMOTEHOST)), new HashSet<String>(dispatchedTo));
+    job1 = serviceRegistry.getJob(job1.getId());
+    job2 = serviceRegistry.getJob(job2.getId());
+    Assert.assertEquals(Status.DISPATCHING, job1.getStatus());
+    Assert.assertEquals(Status.DISPATCHING, job2.getStatus());
+    Assert.assertEquals(1, serviceRegistry.hostLoads.get(LOCALHOST).get());
+    Assert.assertEquals(1, serviceRegistry.hostLoads.get(REMOTEHOST).get());
+
+    // Host loads follow the jobs as they are run and finished
+    Job localJob = LOCALHOST.equals(job1.getProcessingHost()) ? job1 : job2;
+    Job remoteJob = localJob == job1 ? job2 : job1;
+    localJob.setStatus(Status.RUNNING);
+    serviceRegistry.updateJob(localJob);
+    Assert.assertEquals(1, serviceRegistry.hostLoads.get(LOCALHOST).get());
+    localJob.setStatus(Status.FINISHED);
+    serviceRegistry.updateJob(localJob);
+    Assert.assertEquals(0, serviceRegistry.hostLoads.get(LOCALHOST).get());
+    Assert.assertEquals(1, serviceRegistry.hostLoads.get(REMOTEHOST).get());
+    remoteJob.setStatus(Status.FAILED);
+    serviceRegistry.updateJob(remoteJob);
+    Assert.assertEquals(0, serviceRegistry.hostLoads.get(REMOTEHOST).get());
+    Assert.assertEquals(2, serviceRegistry.jobDispatcher.getDispatchedJobs());
+  }
+
+  @Test
+  public void testLoadTableIsReconciledWhenRead() throws Exception {
+    Assert.assertEquals(2, serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1).size());
+    long version = serviceRegistry.getLoadTableVersion();
+
+    // Removing load from an idle host changes nothing
+    serviceRegistry.updateHostLoad(LOCALHOST, Status.RUNNING, -1);
+    Assert.assertEquals(version, serviceRegistry.getLoadTableVersion());
+
+    // Reconciling unchanged registrations and loads keeps the version
+    serviceRegistry.hostLoadsRefreshed = 1;
+    serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1);
+    Assert.assertTrue(serviceRegistry.hostLoadsRefreshed > 1);
+    Assert.assertEquals(version, serviceRegistry.getLoadTableVersion());
+
+    // Loads that have diverged from the database are reconciled on the read path once they are due
+    serviceRegistry.hostLoads.get(LOCALHOST).set(5);
+    serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1);
+    Assert.assertEquals(5, serviceRegistry.hostLoads.get(LOCALHOST).get());
+    serviceRegistry.hostLoadsRefreshed = 1;
+    serviceRegistry.getServiceRegistrationsByLoad(JOB_TYPE_1);
+    Assert.assertEquals(0, serviceRegistry.hostLoads.get(LOCALHOST).get());
+    Assert.assertTrue(serviceRegistry.getLoadTableVersion() > version);
+  }
+
   @Test
   public void testHandlerRegistration() throws Exception {
     String url = "http://type1handler:8080";
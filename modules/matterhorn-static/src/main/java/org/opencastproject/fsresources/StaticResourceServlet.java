@@ -23,15 +23,26 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.zip.CRC32;
 
 import javax.activation.MimetypesFileTypeMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
@@ -52,6 +63,10 @@ public class StaticResourceServlet extends HttpServlet {
   private static final MimetypesFileTypeMap MIME_TYPES_MAP;
   /** The logger */
   private static final Logger logger = LoggerFactory.getLogger(StaticResourceServlet.class);
+  /** The name of the statistics mbean */
+  protected static final String JMX_STATISTICS_NAME = "org.opencastproject.fsresources:type=StaticResourceStatistics";
+  /** The maximum number of files whose metadata is cached */
+  private static final int MAX_CACHED_FILES = 10000;
 
   /** static initializer */
   static {
@@ -61,6 +76,19 @@ public class StaticResourceServlet extends HttpServlet {
   /** The filesystem directory to serve files fro */
   protected String distributionDirectory;
 
+  /** The metadata of the most recently served files, keyed by path */
+  private final Map<String, FileMetadata> metadataCache = Collections.synchronizedMap(new LinkedHashMap<String, FileMetadata>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, FileMetadata> eldest) {
+      return size() > MAX_CACHED_FILES;
+    }
+  });
+
+  /** The requests answered by this servlet */
+  protected StaticResourceStatistics statistics = new StaticResourceStatistics(metadataCache);
+
   /**
    * No-arg constructor
    */
@@ -97,12 +125,29 @@ public class StaticResourceServlet extends HttpServlet {
     } catch (IOException ex) {
       java.util.logging.Logger.getLogger(StaticResourceServlet.class.getName()).log(Level.SEVERE, null, ex);
     }
+
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(JMX_STATISTICS_NAME);
+      if (mbs.isRegistered(name)) {
+        mbs.unregisterMBean(name);
+      }
+      mbs.registerMBean(statistics, name);
+    } catch (Exception e) {
+      logger.warn("Unable to register {} as an mbean: {}", statistics, e);
+    }
   }
 
   /**
    * OSGI Deactivation callback
    */
   public void deactivate() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(JMX_STATISTICS_NAME));
+    } catch (Exception e) {
+      logger.debug("Unable to unregister the static resource statistics mbean: {}", e.getMessage());
+    }
+    metadataCache.clear();
   }
 
   /**
@@ -113,94 +158,162 @@ public class StaticResourceServlet extends HttpServlet {
    */
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-    logger.debug("Looking for static resource '{}'", req.getRequestURI());
-    String path = req.getPathInfo();
-    if (path == null) {
-      resp.sendError(HttpServletResponse.SC_FORBIDDEN);
-      return;
-    }
+    long requestStart = System.nanoTime();
+    int status = HttpServletResponse.SC_OK;
+    CountingChannel out = null;
+    try {
+      logger.debug("Looking for static resource '{}'", req.getRequestURI());
+      String path = req.getPathInfo();
+      if (path == null) {
+        status = HttpServletResponse.SC_FORBIDDEN;
+        resp.sendError(status);
+        return;
+      }
 
-    String normalized = path.trim().replaceAll("/+", "/").replaceAll("\\.\\.", "");
-    if (normalized != null && normalized.startsWith("/") && normalized.length() > 1) {
-      normalized = normalized.substring(1);
-    }
+      String normalized = path.trim().replaceAll("/+", "/").replaceAll("\\.\\.", "");
+      if (normalized != null && normalized.startsWith("/") && normalized.length() > 1) {
+        normalized = normalized.substring(1);
+      }
+
+      File f = new File(distributionDirectory, normalized);
+      FileMetadata metadata = getMetadata(f);
+      if (metadata == null) {
+        logger.debug("unable to find file '{}', returning HTTP 404", f);
+        status = HttpServletResponse.SC_NOT_FOUND;
+        resp.sendError(status);
+        return;
+      }
 
-    File f = new File(distributionDirectory, normalized);
-    String eTag = null;
-    if (f.isFile() && f.canRead()) {
       logger.debug("Serving static resource '{}'", f.getAbsolutePath());
-      eTag = computeEtag(f);
+      String eTag = metadata.eTag;
       if (eTag.equals(req.getHeader("If-None-Match"))) {
-        resp.setStatus(304);
+        status = HttpServletResponse.SC_NOT_MODIFIED;
+        resp.setStatus(status);
         return;
       }
       resp.setHeader("ETag", eTag);
-      String contentType = MIME_TYPES_MAP.getContentType(f);
+      String contentType = metadata.contentType;
       if (!"application/octet-stream".equals(contentType)) {
         resp.setContentType(contentType);
       }
-      resp.setHeader("Content-Length", Long.toString(f.length()));
-      resp.setDateHeader("Last-Modified", f.lastModified());
+      resp.setHeader("Content-Length", Long.toString(metadata.length));
+      resp.setDateHeader("Last-Modified", metadata.lastModified);
 
       resp.setHeader("Accept-Ranges", "bytes");
-      ArrayList<Range> ranges = parseRange(req, resp, eTag, f.lastModified(), f.length());
+      ArrayList<Range> ranges = parseRange(req, resp, eTag, metadata.lastModified, metadata.length);
 
-      if ((((ranges == null) || (ranges.isEmpty())) && (req.getHeader("Range") == null)) || (ranges == FULL_RANGE)) {
-        IOException e = copyRange(new FileInputStream(f), resp.getOutputStream(), 0, f.length());
-        if (e != null) {
-          try {
-            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            return;
-          } catch (IOException e1) {
-            logger.warn("unable to send http 500 error: {}", e1);
+      FileInputStream in = null;
+      try {
+        if ((((ranges == null) || (ranges.isEmpty())) && (req.getHeader("Range") == null)) || (ranges == FULL_RANGE)) {
+          in = new FileInputStream(f);
+          out = new CountingChannel(Channels.newChannel(resp.getOutputStream()));
+          copyRange(in.getChannel(), out, 0, metadata.length - 1);
+        } else {
+          if ((ranges == null) || (ranges.isEmpty())) {
+            // either the range was not satisfiable, or the file is empty
+            if (metadata.length > 0)
+              status = HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
             return;
           }
-        }
-      } else {
-        if ((ranges == null) || (ranges.isEmpty())) {
-          return;
-        }
-        if (ranges.size() == 1) {
-          Range range = (Range) ranges.get(0);
-          resp.addHeader("Content-Range", "bytes " + range.start + "-" + range.end + "/" + range.length);
-          long length = range.end - range.start + 1;
-          if (length < Integer.MAX_VALUE) {
-            resp.setContentLength((int) length);
+          status = HttpServletResponse.SC_PARTIAL_CONTENT;
+          if (ranges.size() == 1) {
+            Range range = (Range) ranges.get(0);
+            resp.addHeader("Content-Range", "bytes " + range.start + "-" + range.end + "/" + range.length);
+            long length = range.end - range.start + 1;
+            if (length < Integer.MAX_VALUE) {
+              resp.setContentLength((int) length);
+            } else {
+              // Set the content-length as String to be able to use a long
+              resp.setHeader("content-length", "" + length);
+            }
+            try {
+              resp.setBufferSize(2048);
+            } catch (IllegalStateException e) {
+              logger.debug(e.getMessage(), e);
+            }
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            in = new FileInputStream(f);
+            out = new CountingChannel(Channels.newChannel(resp.getOutputStream()));
+            copyRange(in.getChannel(), out, range.start, range.end);
           } else {
-            // Set the content-length as String to be able to use a long
-            resp.setHeader("content-length", "" + length);
-          }
-          try {
-            resp.setBufferSize(2048);
-          } catch (IllegalStateException e) {
-            logger.debug(e.getMessage(), e);
-          }
-          resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-          IOException e = copyRange(new FileInputStream(f), resp.getOutputStream(), range.start, range.end);
-          if (e != null) {
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setContentType("multipart/byteranges; boundary=" + mimeSeparation);
             try {
-              resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-              return;
-            } catch (IOException e1) {
-              logger.warn("unable to send http 500 error: {}", e1);
-              return;
+              resp.setBufferSize(2048);
+            } catch (IllegalStateException e) {
+              logger.debug(e.getMessage(), e);
             }
+            in = new FileInputStream(f);
+            out = new CountingChannel(Channels.newChannel(resp.getOutputStream()));
+            copy(in.getChannel(), resp.getOutputStream(), out, ranges.iterator(), contentType);
           }
+        }
+      } catch (FileNotFoundException e) {
+        // the file has been retracted since its metadata was looked up
+        metadataCache.remove(f.getPath());
+        logger.debug("unable to open file '{}', returning HTTP 404", f);
+        status = HttpServletResponse.SC_NOT_FOUND;
+        resp.sendError(status);
+      } catch (IOException e) {
+        status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        if (resp.isCommitted()) {
+          // most likely, the client has gone away, which is common with players seeking in a video
+          logger.debug("Unable to serve static resource '{}': {}", f, e.getMessage());
         } else {
-          resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-          resp.setContentType("multipart/byteranges; boundary=" + mimeSeparation);
           try {
-            resp.setBufferSize(2048);
-          } catch (IllegalStateException e) {
-            logger.debug(e.getMessage(), e);
+            resp.sendError(status);
+          } catch (IOException e1) {
+            logger.warn("unable to send http 500 error: {}", e1);
+          }
+        }
+      } finally {
+        if (in != null) {
+          try {
+            in.close();
+          } catch (IOException e) {
+            logger.debug("Unable to close '{}': {}", f, e.getMessage());
           }
-          copy(f, resp.getOutputStream(), ranges.iterator(), contentType);
         }
       }
-    } else {
-      logger.debug("unable to find file '{}', returning HTTP 404");
-      resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+    } finally {
+      statistics.requestServed(status, out != null ? out.getCount() : 0, System.nanoTime() - requestStart);
+    }
+  }
+
+  /**
+   * Returns the metadata of a file that can be served.
+   * <p>
+   * The metadata is cached for as long as the file's modification date and length don't change. Distributing a file
+   * replaces it and retracting a file removes it, so both are noticed at the cost of looking up the modification date
+   * and length. The length catches files that are replaced within the resolution of the modification date.
+   * 
+   * @param file
+   *          the file
+   * @return the metadata, or <code>null</code> if the file does not exist or can't be read
+   */
+  protected FileMetadata getMetadata(File file) {
+    String key = file.getPath();
+    long lastModified = file.lastModified();
+    if (lastModified == 0L) {
+      // the file does not exist (anymore)
+      metadataCache.remove(key);
+      return null;
+    }
+    long length = file.length();
+    FileMetadata metadata = metadataCache.get(key);
+    if (metadata != null && metadata.lastModified == lastModified && metadata.length == length) {
+      statistics.metadataLookup(true);
+      return metadata;
+    }
+    statistics.metadataLookup(false);
+    if (!file.isFile() || !file.canRead()) {
+      metadataCache.remove(key);
+      return null;
     }
+    metadata = new FileMetadata(length, lastModified, computeEtag(file.getName(), lastModified, length),
+            MIME_TYPES_MAP.getContentType(file));
+    metadataCache.put(key, metadata);
+    return metadata;
   }
 
   /**
@@ -211,10 +324,26 @@ public class StaticResourceServlet extends HttpServlet {
    * @return the etag
    */
   protected String computeEtag(File file) {
+    return computeEtag(file.getName(), file.lastModified(), file.length());
+  }
+
+  /**
+   * Computes an etag for a file using the filename, last modified, and length of the file that have already been looked
+   * up.
+   * 
+   * @param name
+   *          the file name
+   * @param lastModified
+   *          the file's modification date
+   * @param length
+   *          the file length
+   * @return the etag
+   */
+  protected String computeEtag(String name, long lastModified, long length) {
     CRC32 crc = new CRC32();
-    crc.update(file.getName().getBytes());
-    checksum(file.lastModified(), crc);
-    checksum(file.length(), crc);
+    crc.update(name.getBytes());
+    checksum(lastModified, crc);
+    checksum(length, crc);
     return Long.toString(crc.getValue());
   }
 
@@ -225,9 +354,9 @@ public class StaticResourceServlet extends HttpServlet {
     }
   }
 
-  protected void copy(File f, ServletOutputStream out, Iterator<Range> ranges, String contentType) throws IOException {
-    IOException exception = null;
-    while ((exception == null) && (ranges.hasNext())) {
+  protected void copy(FileChannel in, ServletOutputStream out, WritableByteChannel channel, Iterator<Range> ranges,
+          String contentType) throws IOException {
+    while (ranges.hasNext()) {
       Range currentRange = (Range) ranges.next();
       // Writing MIME header.
       out.println();
@@ -239,17 +368,12 @@ public class StaticResourceServlet extends HttpServlet {
       out.println();
 
       // Printing content
-      InputStream in = new FileInputStream(f);
-      exception = copyRange(in, out, currentRange.start, currentRange.end);
-      in.close();
+      copyRange(in, channel, currentRange.start, currentRange.end);
     }
     out.println();
     out.print("--" + mimeSeparation + "--");
-    // Rethrow any exception that has occurred
-    if (exception != null) {
-      throw exception;
-    }
   }
+
   /**
    * MIME multipart separation string
    */
@@ -364,49 +488,98 @@ public class StaticResourceServlet extends HttpServlet {
   }
 
   /**
-   * Copy the contents of the specified input stream to the specified output stream, and ensure that both streams are
-   * closed before returning (even in the face of an exception).
+   * Copies a range of a file to the specified channel. The file channel transfers the bytes itself, which allows the
+   * operating system to do the copying where the target channel supports it, and avoids reading through the file up
+   * to the start of the range.
    * 
-   * @param istream
-   *          The input stream to read from
-   * @param ostream
-   *          The output stream to write to
+   * @param in
+   *          The file to read from
+   * @param out
+   *          The channel to write to
    * @param start
    *          Start of the range which will be copied
    * @param end
    *          End of the range which will be copied
-   * @return Exception which occurred during processing
+   * @return the number of bytes copied
+   * @throws IOException
+   *           if reading from the file or writing to the channel fails
    */
-  protected IOException copyRange(InputStream istream, ServletOutputStream ostream, long start, long end) {
+  protected long copyRange(FileChannel in, WritableByteChannel out, long start, long end) throws IOException {
     logger.debug("Serving bytes:{}-{}", start, end);
-    try {
-      istream.skip(start);
-    } catch (IOException e) {
-      return e;
-    }
-    IOException exception = null;
-    long bytesToRead = end - start + 1;
-    byte[] buffer = new byte[2048];
-    int len = buffer.length;
-    while ((bytesToRead > 0) && (len >= buffer.length)) {
-      try {
-        len = istream.read(buffer);
-        if (bytesToRead >= len) {
-          ostream.write(buffer, 0, len);
-          bytesToRead -= len;
-        } else {
-          ostream.write(buffer, 0, (int) bytesToRead);
-          bytesToRead = 0;
-        }
-      } catch (IOException e) {
-        exception = e;
-        len = -1;
-      }
-      if (len < buffer.length) {
+    long position = start;
+    long bytesToCopy = end - start + 1;
+    while (bytesToCopy > 0) {
+      long copied = in.transferTo(position, bytesToCopy, out);
+      if (copied <= 0) {
+        // the file has been truncated since its length was looked up
         break;
       }
+      position += copied;
+      bytesToCopy -= copied;
+    }
+    return position - start;
+  }
+
+  /**
+   * The metadata of a file that is needed to serve it.
+   */
+  protected static final class FileMetadata {
+
+    /** The file length */
+    protected final long length;
+
+    /** The file's modification date */
+    protected final long lastModified;
+
+    /** The etag */
+    protected final String eTag;
+
+    /** The content type */
+    protected final String contentType;
+
+    FileMetadata(long length, long lastModified, String eTag, String contentType) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.eTag = eTag;
+      this.contentType = contentType;
+    }
+  }
+
+  /**
+   * A channel that counts the bytes written to it, so that bytes served are recorded even if the client goes away.
+   */
+  private static final class CountingChannel implements WritableByteChannel {
+
+    /** The channel to write to */
+    private final WritableByteChannel channel;
+
+    /** The number of bytes written */
+    private long count = 0L;
+
+    CountingChannel(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int written = channel.write(src);
+      count += written;
+      return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
     }
-    return exception;
   }
 
   protected class Range {
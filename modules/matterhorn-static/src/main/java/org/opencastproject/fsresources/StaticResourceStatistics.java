@@ -0,0 +1,199 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.fsresources;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the requests answered by the {@link StaticResourceServlet}.
+ */
+public class StaticResourceStatistics implements StaticResourceStatisticsMXBean {
+
+  /** Number of nanoseconds in a millisecond */
+  private static final double NANOS_PER_MILLI = 1000000.0;
+
+  /** The servlet's file metadata cache, which must be synchronized */
+  private final Map<String, ?> metadataCache;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong partialContentResponses = new AtomicLong();
+  private final AtomicLong notModifiedResponses = new AtomicLong();
+  private final AtomicLong notFoundResponses = new AtomicLong();
+  private final AtomicLong bytesServed = new AtomicLong();
+  private final AtomicLong totalLatency = new AtomicLong();
+  private final AtomicLong maxLatency = new AtomicLong();
+  private final AtomicLong metadataCacheHits = new AtomicLong();
+  private final AtomicLong metadataCacheMisses = new AtomicLong();
+
+  /**
+   * Creates the statistics for a servlet.
+   *
+   * @param metadataCache
+   *          the servlet's file metadata cache
+   */
+  public StaticResourceStatistics(Map<String, ?> metadataCache) {
+    this.metadataCache = metadataCache;
+  }
+
+  /**
+   * Records a request that has been answered.
+   *
+   * @param status
+   *          the response status
+   * @param bytes
+   *          the number of content bytes sent
+   * @param nanos
+   *          the time it took to answer the request, in nanoseconds
+   */
+  void requestServed(int status, long bytes, long nanos) {
+    requests.incrementAndGet();
+    switch (status) {
+      case 206:
+        partialContentResponses.incrementAndGet();
+        break;
+      case 304:
+        notModifiedResponses.incrementAndGet();
+        break;
+      case 404:
+        notFoundResponses.incrementAndGet();
+        break;
+      default:
+        break;
+    }
+    bytesServed.addAndGet(bytes);
+    totalLatency.addAndGet(nanos);
+    long max = maxLatency.get();
+    while (nanos > max && !maxLatency.compareAndSet(max, nanos)) {
+      max = maxLatency.get();
+    }
+  }
+
+  /**
+   * Records a lookup of file metadata.
+   *
+   * @param hit
+   *          <code>true</code> if the metadata was found in the cache
+   */
+  void metadataLookup(boolean hit) {
+    if (hit)
+      metadataCacheHits.incrementAndGet();
+    else
+      metadataCacheMisses.incrementAndGet();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getRequests()
+   */
+  @Override
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getPartialContentResponses()
+   */
+  @Override
+  public long getPartialContentResponses() {
+    return partialContentResponses.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getNotModifiedResponses()
+   */
+  @Override
+  public long getNotModifiedResponses() {
+    return notModifiedResponses.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getNotFoundResponses()
+   */
+  @Override
+  public long getNotFoundResponses() {
+    return notFoundResponses.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getBytesServed()
+   */
+  @Override
+  public long getBytesServed() {
+    return bytesServed.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getAverageLatency()
+   */
+  @Override
+  public double getAverageLatency() {
+    long count = requests.get();
+    return count == 0 ? 0 : totalLatency.get() / NANOS_PER_MILLI / count;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getMaxLatency()
+   */
+  @Override
+  public double getMaxLatency() {
+    return maxLatency.get() / NANOS_PER_MILLI;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getCachedFiles()
+   */
+  @Override
+  public int getCachedFiles() {
+    return metadataCache.size();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getMetadataCacheHits()
+   */
+  @Override
+  public long getMetadataCacheHits() {
+    return metadataCacheHits.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.opencastproject.fsresources.StaticResourceStatisticsMXBean#getMetadataCacheMisses()
+   */
+  @Override
+  public long getMetadataCacheMisses() {
+    return metadataCacheMisses.get();
+  }
+
+}
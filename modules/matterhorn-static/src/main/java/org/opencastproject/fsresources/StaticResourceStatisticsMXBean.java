@@ -0,0 +1,51 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.fsresources;
+
+/**
+ * An MXBean that exposes the amount of static content served and the time it took to a JMX agent
+ */
+public interface StaticResourceStatisticsMXBean {
+  /** Gets the number of requests for static resources */
+  long getRequests();
+
+  /** Gets the number of requests that were answered with partial content */
+  long getPartialContentResponses();
+
+  /** Gets the number of requests that were answered with "not modified" */
+  long getNotModifiedResponses();
+
+  /** Gets the number of requests for resources that don't exist */
+  long getNotFoundResponses();
+
+  /** Gets the number of bytes of content served */
+  long getBytesServed();
+
+  /** Gets the average time in milliseconds it took to answer a request */
+  double getAverageLatency();
+
+  /** Gets the longest time in milliseconds it took to answer a request */
+  double getMaxLatency();
+
+  /** Gets the number of files whose metadata is cached */
+  int getCachedFiles();
+
+  /** Gets the number of requests that were answered using cached file metadata */
+  long getMetadataCacheHits();
+
+  /** Gets the number of requests for which file metadata had to be read from the filesystem */
+  long getMetadataCacheMisses();
+}
@@ -0,0 +1,253 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.fsresources;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class StaticResourceServletTest {
+
+  private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+  private File distributionDirectory;
+
+  private File file;
+
+  private StaticResourceServlet servlet;
+
+  /** The status of the last response */
+  private int status;
+
+  /** The headers of the last response */
+  private Map<String, String> headers;
+
+  /** The body of the last response */
+  private ByteArrayOutputStream body;
+
+  @Before
+  public void setUp() throws Exception {
+    distributionDirectory = new File("target", "static-test");
+    FileUtils.deleteQuietly(distributionDirectory);
+    file = new File(distributionDirectory, "mediapackage/track.txt");
+    FileUtils.writeStringToFile(file, CONTENT);
+    servlet = new StaticResourceServlet();
+    servlet.distributionDirectory = distributionDirectory.getAbsolutePath();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(distributionDirectory);
+  }
+
+  @Test
+  public void testGet() throws Exception {
+    get("/mediapackage/track.txt", null, null);
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertEquals(CONTENT, body.toString());
+    Assert.assertEquals(Integer.toString(CONTENT.length()), headers.get("Content-Length"));
+    Assert.assertEquals("bytes", headers.get("Accept-Ranges"));
+    Assert.assertNotNull(headers.get("ETag"));
+    Assert.assertEquals(1, servlet.statistics.getRequests());
+    Assert.assertEquals(CONTENT.length(), servlet.statistics.getBytesServed());
+
+    get("/mediapackage/missing.txt", null, null);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, status);
+    Assert.assertEquals(1, servlet.statistics.getNotFoundResponses());
+  }
+
+  @Test
+  public void testSingleRange() throws Exception {
+    get("/mediapackage/track.txt", "bytes=10-19", null);
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+    Assert.assertEquals("abcdefghij", body.toString());
+    Assert.assertEquals("bytes 10-19/" + CONTENT.length(), headers.get("Content-Range"));
+    Assert.assertEquals("10", headers.get("Content-Length"));
+
+    // Open and suffix ranges
+    get("/mediapackage/track.txt", "bytes=30-", null);
+    Assert.assertEquals("uvwxyz", body.toString());
+    Assert.assertEquals("bytes 30-35/" + CONTENT.length(), headers.get("Content-Range"));
+    get("/mediapackage/track.txt", "bytes=-4", null);
+    Assert.assertEquals("wxyz", body.toString());
+    Assert.assertEquals(10 + 6 + 4, servlet.statistics.getBytesServed());
+    Assert.assertEquals(3, servlet.statistics.getPartialContentResponses());
+  }
+
+  @Test
+  public void testMultipleRanges() throws Exception {
+    get("/mediapackage/track.txt", "bytes=0-1,34-35", null);
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+    Assert.assertTrue(headers.get("Content-Type").startsWith("multipart/byteranges"));
+    String multipart = body.toString();
+    String boundary = "--" + StaticResourceServlet.mimeSeparation;
+    int first = multipart.indexOf("Content-Range: bytes 0-1/" + CONTENT.length());
+    int second = multipart.indexOf("Content-Range: bytes 34-35/" + CONTENT.length());
+    Assert.assertTrue(first > multipart.indexOf(boundary));
+    Assert.assertTrue(second > first);
+    Assert.assertTrue(multipart.indexOf("01", first) < second);
+    Assert.assertTrue(multipart.indexOf("yz", second) > second);
+    Assert.assertTrue(multipart.trim().endsWith(boundary + "--"));
+  }
+
+  @Test
+  public void testUnsatisfiableRange() throws Exception {
+    get("/mediapackage/track.txt", "bytes=100-200", null);
+    Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, status);
+    Assert.assertEquals("bytes */" + CONTENT.length(), headers.get("Content-Range"));
+    Assert.assertEquals(0, body.size());
+
+    get("/mediapackage/track.txt", "lines=1-2", null);
+    Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, status);
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    get("/mediapackage/track.txt", null, null);
+    String etag = headers.get("ETag");
+
+    get("/mediapackage/track.txt", null, etag);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+    Assert.assertEquals(0, body.size());
+    Assert.assertEquals(1, servlet.statistics.getNotModifiedResponses());
+
+    get("/mediapackage/track.txt", null, "\"outdated\"");
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertEquals(CONTENT, body.toString());
+  }
+
+  @Test
+  public void testMetadataCacheIsInvalidated() throws Exception {
+    get("/mediapackage/track.txt", null, null);
+    String etag = headers.get("ETag");
+    get("/mediapackage/track.txt", null, etag);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+    Assert.assertEquals(1, servlet.statistics.getMetadataCacheHits());
+    Assert.assertEquals(1, servlet.statistics.getCachedFiles());
+
+    // A file that is replaced within the resolution of the modification date is still noticed
+    long lastModified = file.lastModified();
+    FileUtils.writeStringToFile(file, "replaced");
+    Assert.assertTrue(file.setLastModified(lastModified));
+    get("/mediapackage/track.txt", null, etag);
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertEquals("replaced", body.toString());
+    Assert.assertEquals("8", headers.get("Content-Length"));
+    Assert.assertFalse(etag.equals(headers.get("ETag")));
+
+    // So is a file with a different modification date
+    etag = headers.get("ETag");
+    FileUtils.writeStringToFile(file, "modified");
+    Assert.assertTrue(file.setLastModified(lastModified + 60000L));
+    get("/mediapackage/track.txt", null, etag);
+    Assert.assertEquals(HttpServletResponse.SC_OK, status);
+    Assert.assertEquals("modified", body.toString());
+    Assert.assertFalse(etag.equals(headers.get("ETag")));
+
+    // And a file that has been deleted
+    Assert.assertTrue(file.delete());
+    get("/mediapackage/track.txt", null, null);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, status);
+    Assert.assertEquals(0, servlet.statistics.getCachedFiles());
+  }
+
+  /**
+   * Requests a file and records the response.
+   *
+   * @param path
+   *          the path info
+   * @param range
+   *          the range header, or <code>null</code>
+   * @param ifNoneMatch
+   *          the entity tag the client has, or <code>null</code>
+   */
+  private void get(String path, String range, String ifNoneMatch) throws Exception {
+    HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+    expect(request.getPathInfo()).andReturn(path).anyTimes();
+    expect(request.getHeader("Range")).andReturn(range).anyTimes();
+    expect(request.getHeader("If-None-Match")).andReturn(ifNoneMatch).anyTimes();
+    EasyMock.replay(request);
+
+    status = HttpServletResponse.SC_OK;
+    headers = new HashMap<String, String>();
+    body = new ByteArrayOutputStream();
+    HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+    IAnswer<Object> recordStatus = new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        status = (Integer) getCurrentArguments()[0];
+        return null;
+      }
+    };
+    response.setStatus(anyInt());
+    expectLastCall().andAnswer(recordStatus).anyTimes();
+    response.sendError(anyInt());
+    expectLastCall().andAnswer(recordStatus).anyTimes();
+    IAnswer<Object> recordHeader = new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        headers.put((String) getCurrentArguments()[0], getCurrentArguments()[1].toString());
+        return null;
+      }
+    };
+    response.setHeader(isA(String.class), isA(String.class));
+    expectLastCall().andAnswer(recordHeader).anyTimes();
+    response.addHeader(isA(String.class), isA(String.class));
+    expectLastCall().andAnswer(recordHeader).anyTimes();
+    response.setContentLength(anyInt());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        headers.put("Content-Length", getCurrentArguments()[0].toString());
+        return null;
+      }
+    }).anyTimes();
+    response.setContentType(isA(String.class));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        headers.put("Content-Type", (String) getCurrentArguments()[0]);
+        return null;
+      }
+    }).anyTimes();
+    expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+    }).anyTimes();
+    EasyMock.replay(response);
+
+    servlet.doGet(request, response);
+  }
+
+}
@@ -53,4 +53,11 @@ public class FootprintsListImpl implements FootprintList {
     footprints.add((FootprintImpl) footprint);
     total = footprints.size();
   }
+
+  /**
+   * @return the footprints
+   */
+  public List<FootprintImpl> getFootprints() {
+    return footprints;
+  }
 }
@@ -0,0 +1,130 @@
+/**
+ *  Copyright 2009, 2010 The Regents of the University of California
+ *  Licensed under the Educational Community License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance
+ *  with the License. You may obtain a copy of the License at
+ *
+ *  http://www.osedu.org/licenses/ECL-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an "AS IS"
+ *  BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ */
+package org.opencastproject.usertracking.impl;
+
+import java.nio.ByteBuffer;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * The aggregated user tracking statistics of a mediapackage: the number of sessions that have watched it and the
+ * number of footprints on every second of it. These are maintained as user actions are added, so that they can be
+ * reported without going through the user actions themselves.
+ */
+@Entity(name = "MediapackageStatistics")
+@Table(name = "user_action_statistics")
+public class MediapackageStatistics {
+
+  @Id
+  @Column(name = "mediapackage_id", length = 128)
+  private String mediapackageId;
+
+  @Column(name = "views")
+  private long views;
+
+  @Column(name = "outpoint")
+  private int outpoint;
+
+  @Lob
+  @Column(name = "footprints", length = 2147483647)
+  private byte[] footprints;
+
+  /**
+   * Default constructor needed by JPA.
+   */
+  public MediapackageStatistics() {
+  }
+
+  /**
+   * Creates the statistics of a mediapackage.
+   *
+   * @param mediapackageId
+   *          the mediapackage identifier
+   */
+  public MediapackageStatistics(String mediapackageId) {
+    this.mediapackageId = mediapackageId;
+  }
+
+  /**
+   * @return the mediapackage identifier
+   */
+  public String getMediapackageId() {
+    return mediapackageId;
+  }
+
+  /**
+   * @return the number of distinct sessions that have accessed the mediapackage
+   */
+  public long getViews() {
+    return views;
+  }
+
+  /**
+   * @param views
+   *          the number of distinct sessions that have accessed the mediapackage
+   */
+  public void setViews(long views) {
+    this.views = views;
+  }
+
+  /**
+   * @return the highest outpoint of all footprints
+   */
+  public int getOutpoint() {
+    return outpoint;
+  }
+
+  /**
+   * @param outpoint
+   *          the highest outpoint of all footprints
+   */
+  public void setOutpoint(int outpoint) {
+    this.outpoint = outpoint;
+  }
+
+  /**
+   * Returns the number of footprints per second of the mediapackage.
+   *
+   * @return the footprints per second
+   */
+  public int[] getFootprints() {
+    if (footprints == null)
+      return new int[0];
+    ByteBuffer buffer = ByteBuffer.wrap(footprints);
+    int[] result = new int[footprints.length / 4];
+    buffer.asIntBuffer().get(result);
+    return result;
+  }
+
+  /**
+   * Sets the number of footprints per second of the mediapackage.
+   *
+   * @param counts
+   *          the footprints per second
+   * @param length
+   *          the number of seconds to store
+   */
+  public void setFootprints(int[] counts, int length) {
+    ByteBuffer buffer = ByteBuffer.allocate(length * 4);
+    buffer.asIntBuffer().put(counts, 0, length);
+    footprints = buffer.array();
+  }
+
+}
@@ -35,22 +35,41 @@ import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Dictionary;
 import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
 import javax.persistence.Query;
 import javax.persistence.TemporalType;
 import javax.persistence.spi.PersistenceProvider;
 
 /**
  * Implementation of org.opencastproject.usertracking.api.UserTrackingService
+ * <p>
+ * The number of views and the footprints of a mediapackage are aggregated as user actions are added. The aggregates of
+ * the most recently used mediapackages are kept in memory and written to the database periodically, so that reporting
+ * them does not require going through the user actions. Note that this assumes a single user tracking service per
+ * database.
  * 
  * @see org.opencastproject.usertracking.api.UserTrackingService
  */
@@ -58,6 +77,43 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
 
   public static final String FOOTPRINT_KEY = "FOOTPRINT";
 
+  /** Configuration key for the number of mediapackages whose statistics are kept in memory */
+  public static final String STATISTICS_CACHE_SIZE_KEY = "org.opencastproject.usertracking.statistics.cachesize";
+
+  /** Configuration key for the number of seconds between writes of the statistics to the database */
+  public static final String STATISTICS_PERSIST_INTERVAL_KEY =
+          "org.opencastproject.usertracking.statistics.persistinterval";
+
+  /** The default number of mediapackages whose statistics are kept in memory */
+  public static final int DEFAULT_STATISTICS_CACHE_SIZE = 1000;
+
+  /** The default number of seconds between writes of the statistics to the database */
+  public static final long DEFAULT_STATISTICS_PERSIST_INTERVAL = 60;
+
+  /** Configuration key for switching on the write-behind mode, in which user actions are queued and written in batches */
+  public static final String WRITE_BEHIND_KEY = "org.opencastproject.usertracking.writebehind";
+
+  /** Configuration key for the maximum number of user actions waiting to be written in write-behind mode */
+  public static final String WRITE_BEHIND_QUEUE_SIZE_KEY = "org.opencastproject.usertracking.writebehind.queuesize";
+
+  /** Configuration key for the maximum number of user actions written in one transaction in write-behind mode */
+  public static final String WRITE_BEHIND_BATCH_SIZE_KEY = "org.opencastproject.usertracking.writebehind.batchsize";
+
+  /** Configuration key for the number of milliseconds to wait for room in a full queue before dropping a user action */
+  public static final String WRITE_BEHIND_TIMEOUT_KEY = "org.opencastproject.usertracking.writebehind.timeout";
+
+  /** The default maximum number of user actions waiting to be written */
+  public static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 10000;
+
+  /** The default maximum number of user actions written in one transaction */
+  public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 500;
+
+  /** The default number of milliseconds to wait for room in a full queue */
+  public static final long DEFAULT_WRITE_BEHIND_TIMEOUT = 100;
+
+  /** The number of sessions that are remembered to have already been counted as views */
+  private static final int MAX_KNOWN_SESSIONS = 10000;
+
   private static final Logger logger = LoggerFactory.getLogger(UserTrackingServiceImpl.class);
 
   @SuppressWarnings("unused")
@@ -65,6 +121,106 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
 
   private boolean detailedTracking = false;
 
+  /** The number of mediapackages whose statistics are kept in memory */
+  protected int statisticsCacheSize = DEFAULT_STATISTICS_CACHE_SIZE;
+
+  /** The number of seconds between writes of the statistics to the database */
+  protected long statisticsPersistInterval = DEFAULT_STATISTICS_PERSIST_INTERVAL;
+
+  /** The statistics of the most recently used mediapackages, also used as the lock for updating them */
+  protected final Map<String, Statistics> statistics = new LinkedHashMap<String, Statistics>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Statistics> eldest) {
+      if (size() <= statisticsCacheSize)
+        return false;
+      if (eldest.getValue().dirty || eldest.getValue().pins > 0)
+        evictedStatistics.put(eldest.getKey(), eldest.getValue());
+      return true;
+    }
+  };
+
+  /** Statistics that have been removed from memory before they were written to the database or while in use */
+  protected final ConcurrentMap<String, Statistics> evictedStatistics = new ConcurrentHashMap<String, Statistics>();
+
+  /** Serializes loading and writing statistics, so that outdated statistics are neither read nor written */
+  private final Object persistLock = new Object();
+
+  /** The sessions that have recently been counted as views, by mediapackage and session identifier */
+  private final Map<String, Boolean> knownSessions = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > MAX_KNOWN_SESSIONS;
+    }
+  };
+
+  /** Writes the statistics to the database */
+  private ScheduledExecutorService statisticsPersister = null;
+
+  /** The periodic statistics write */
+  private ScheduledFuture<?> statisticsPersistTask = null;
+
+  /** Whether user actions are queued and written in batches rather than written as they come in */
+  protected volatile boolean writeBehind = false;
+
+  /** The maximum number of user actions waiting to be written */
+  protected volatile int writeBehindQueueSize = DEFAULT_WRITE_BEHIND_QUEUE_SIZE;
+
+  /** The maximum number of user actions written in one transaction */
+  protected volatile int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+
+  /** The number of milliseconds to wait for room in a full queue before dropping a user action */
+  protected volatile long writeBehindTimeout = DEFAULT_WRITE_BEHIND_TIMEOUT;
+
+  /** The user actions waiting to be written */
+  private final Queue<UserAction> writeBehindQueue = new ConcurrentLinkedQueue<UserAction>();
+
+  /** The number of user actions in the queue, which is expensive to ask the queue itself for */
+  private final AtomicInteger writeBehindQueueLength = new AtomicInteger();
+
+  /** Notified whenever user actions are taken off the queue */
+  private final Object writeBehindQueueSpace = new Object();
+
+  /** Notified whenever user actions are put into an empty queue */
+  private final Object writeBehindQueueContent = new Object();
+
+  /** Serializes the writing of queued user actions */
+  private final Object writeBehindLock = new Object();
+
+  /** The last footprint of every recent session in write-behind mode, guarded by {@link #writeBehindLock} */
+  private final Map<String, UserAction> lastFootprints = new LinkedHashMap<String, UserAction>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, UserAction> eldest) {
+      return size() > MAX_KNOWN_SESSIONS;
+    }
+  };
+
+  /** The thread writing the queued user actions, which stops when it is no longer referenced here */
+  private volatile Thread writeBehindWriter = null;
+
+  /** Whether the writer thread is waiting for user actions */
+  private volatile boolean writeBehindWriterIdle = false;
+
+  /** The number of user actions accepted into the queue */
+  private final AtomicLong queuedActions = new AtomicLong();
+
+  /** The number of user actions that had to wait for room in the queue */
+  private final AtomicLong throttledActions = new AtomicLong();
+
+  /** The number of user actions dropped because the queue was full or they could not be written */
+  private final AtomicLong droppedActions = new AtomicLong();
+
+  /** The number of queued footprints that were merged into the previous footprint of their session */
+  private final AtomicLong mergedFootprints = new AtomicLong();
+
+  /** The number of queued user actions written to the database */
+  private final AtomicLong writtenActions = new AtomicLong();
+
   /**
    * Sets the search service
    * 
@@ -107,17 +263,52 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
   public void activate() {
     logger.debug("activate()");
     emf = persistenceProvider.createEntityManagerFactory("org.opencastproject.usertracking", persistenceProperties);
+    statisticsPersister = Executors.newSingleThreadScheduledExecutor();
+    scheduleStatisticsPersister();
   }
 
   /**
    * Deactivation callback
    */
+  public void deactivate() {
+    destroy();
+  }
+
+  /**
+   * Writes the pending statistics and releases the database.
+   */
   public void destroy() {
+    stopWriteBehindWriter();
+    if (statisticsPersister != null) {
+      statisticsPersister.shutdown();
+      statisticsPersister = null;
+    }
     if (emf != null && emf.isOpen()) {
+      persistStatistics();
       emf.close();
     }
   }
 
+  /**
+   * Schedules the periodic write of the statistics, replacing an earlier schedule.
+   */
+  private synchronized void scheduleStatisticsPersister() {
+    if (statisticsPersister == null)
+      return;
+    if (statisticsPersistTask != null)
+      statisticsPersistTask.cancel(false);
+    statisticsPersistTask = statisticsPersister.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          persistStatistics();
+        } catch (Throwable t) {
+          logger.warn("Unable to write user tracking statistics: {}", t.getMessage());
+        }
+      }
+    }, statisticsPersistInterval, statisticsPersistInterval, TimeUnit.SECONDS);
+  }
+
   @Override
   public void updated(Dictionary props) throws ConfigurationException {
     if (props == null) {
@@ -129,25 +320,91 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
     if (val != null && String.class.isInstance(val)) {
       detailedTracking = Boolean.valueOf((String) val);
     }
+
+    val = props.get(STATISTICS_CACHE_SIZE_KEY);
+    if (val != null && String.class.isInstance(val)) {
+      try {
+        statisticsCacheSize = Integer.parseInt(((String) val).trim());
+      } catch (NumberFormatException e) {
+        throw new ConfigurationException(STATISTICS_CACHE_SIZE_KEY, "Not a number: " + val);
+      }
+    }
+
+    val = props.get(STATISTICS_PERSIST_INTERVAL_KEY);
+    if (val != null && String.class.isInstance(val)) {
+      try {
+        long interval = Long.parseLong(((String) val).trim());
+        if (interval != statisticsPersistInterval) {
+          statisticsPersistInterval = interval;
+          scheduleStatisticsPersister();
+        }
+      } catch (NumberFormatException e) {
+        throw new ConfigurationException(STATISTICS_PERSIST_INTERVAL_KEY, "Not a number: " + val);
+      }
+    }
+
+    writeBehindQueueSize = getPositiveInt(props, WRITE_BEHIND_QUEUE_SIZE_KEY, writeBehindQueueSize);
+    writeBehindBatchSize = getPositiveInt(props, WRITE_BEHIND_BATCH_SIZE_KEY, writeBehindBatchSize);
+
+    val = props.get(WRITE_BEHIND_TIMEOUT_KEY);
+    if (val != null && String.class.isInstance(val)) {
+      try {
+        writeBehindTimeout = Math.max(0, Long.parseLong(((String) val).trim()));
+      } catch (NumberFormatException e) {
+        throw new ConfigurationException(WRITE_BEHIND_TIMEOUT_KEY, "Not a number: " + val);
+      }
+    }
+
+    val = props.get(WRITE_BEHIND_KEY);
+    if (val != null && String.class.isInstance(val)) {
+      writeBehind = Boolean.valueOf(((String) val).trim());
+      logger.info("User actions are {}", writeBehind ? "queued and written in batches" : "written as they come in");
+    }
   }
 
-  public int getViews(String mediapackageId) {
-    EntityManager em = null;
+  /**
+   * Returns the positive integer configured as <code>key</code>.
+   * 
+   * @param props
+   *          the configuration
+   * @param key
+   *          the configuration key
+   * @param defaultValue
+   *          the value to return if the key is not configured
+   * @return the configured value
+   * @throws ConfigurationException
+   *           if the configured value is not a positive integer
+   */
+  private int getPositiveInt(Dictionary props, String key, int defaultValue) throws ConfigurationException {
+    Object val = props.get(key);
+    if (val == null || !String.class.isInstance(val))
+      return defaultValue;
     try {
-      em = emf.createEntityManager();
-      Query q = em.createNamedQuery("countSessionsOfMediapackage");
-      q.setParameter("mediapackageId", mediapackageId);
-      return ((Long) q.getSingleResult()).intValue();
-    } finally {
-      if (em != null && em.isOpen()) {
-        em.close();
-      }
+      int value = Integer.parseInt(((String) val).trim());
+      if (value > 0)
+        return value;
+    } catch (NumberFormatException e) {
+      // Handled below
+    }
+    throw new ConfigurationException(key, "Not a positive number: " + val);
+  }
+
+  public int getViews(String mediapackageId) {
+    Statistics s = getStatistics(mediapackageId);
+    synchronized (statistics) {
+      return (int) s.views;
     }
   }
 
   @SuppressWarnings("unchecked")
   public UserAction addUserFootprint(UserAction a) throws UserTrackingException {
     a.setType("FOOTPRINT");
+    if (writeBehind) {
+      enqueue(a);
+      return a;
+    }
+    String mediapackageId = a.getMediapackageId();
+    prepareStatistics(a);
     EntityManager em = null;
     EntityTransaction tx = null;
     try {
@@ -159,6 +416,10 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
       q.setParameter("sessionId", a.getSessionId());
       Collection<UserAction> userActions = q.getResultList();
 
+      // The footprint is added to the statistics after it has been stored
+      int inpoint = a.getInpoint();
+      int outpoint = a.getOutpoint();
+      boolean newSession = false;
       if (userActions.size() >= 1) {
         UserAction last = userActions.iterator().next();
         if (last.getMediapackageId().equals(a.getMediapackageId()) && last.getType().equals(a.getType())
@@ -166,12 +427,15 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
           last.setOutpoint(a.getOutpoint());
           a = last;
         } else {
+          newSession = isNewSession(em, a);
           em.persist(a);
         }
       } else {
+        newSession = isNewSession(em, a);
         em.persist(a);
       }
       tx.commit();
+      updateStatistics(a.getMediapackageId(), newSession, inpoint, outpoint);
       return a;
     } catch (Exception e) {
       if (tx != null && tx.isActive()) {
@@ -179,6 +443,7 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
       }
       throw new UserTrackingException(e);
     } finally {
+      releaseStatistics(mediapackageId);
       if (em != null && em.isOpen()) {
         em.close();
       }
@@ -186,14 +451,22 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
   }
 
   public UserAction addUserTrackingEvent(UserAction a) throws UserTrackingException {
+    if (writeBehind) {
+      enqueue(a);
+      return a;
+    }
+    prepareStatistics(a);
     EntityManager em = null;
     EntityTransaction tx = null;
     try {
       em = emf.createEntityManager();
       tx = em.getTransaction();
       tx.begin();
+      boolean newSession = isNewSession(em, a);
       em.persist(a);
       tx.commit();
+      if (newSession)
+        updateStatistics(a.getMediapackageId(), true, 0, 0);
       return a;
     } catch (Exception e) {
       if (tx.isActive()) {
@@ -201,6 +474,7 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
       }
       throw new UserTrackingException(e);
     } finally {
+      releaseStatistics(a.getMediapackageId());
       if (em != null && em.isOpen()) {
         em.close();
       }
@@ -536,44 +810,495 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
   }
 
   public FootprintList getFootprints(String mediapackageId, String userId) {
+    Statistics s = getStatistics(mediapackageId);
+
+    // Get one more item than the known outpoint to append a footprint of 0 views at the end of the result set
+    int[] resultArray;
+    synchronized (statistics) {
+      resultArray = new int[s.outpoint + 1];
+      System.arraycopy(s.footprints, 0, resultArray, 0, s.outpoint);
+    }
+
+    FootprintList list = new FootprintsListImpl();
+    int current = -1;
+    int last = -1;
+    for (int i = 0; i < resultArray.length; i++) {
+      current = resultArray[i];
+      if (last != current) {
+        Footprint footprint = new FootprintImpl();
+        footprint.setPosition(i);
+        footprint.setViews(current);
+        list.add(footprint);
+      }
+      last = current;
+    }
+    return list;
+  }
+
+  /**
+   * Returns the number of user actions that have been accepted for writing in write-behind mode.
+   * 
+   * @return the number of queued user actions
+   */
+  public long getQueuedActions() {
+    return queuedActions.get();
+  }
+
+  /**
+   * Returns the number of user actions that had to wait for room in the write-behind queue.
+   * 
+   * @return the number of throttled user actions
+   */
+  public long getThrottledActions() {
+    return throttledActions.get();
+  }
+
+  /**
+   * Returns the number of user actions that have been dropped in write-behind mode, either because the queue was full
+   * or because they could not be written to the database.
+   * 
+   * @return the number of dropped user actions
+   */
+  public long getDroppedActions() {
+    return droppedActions.get();
+  }
+
+  /**
+   * Returns the number of queued footprints that have been merged into the previous footprint of their session.
+   * 
+   * @return the number of merged footprints
+   */
+  public long getMergedFootprints() {
+    return mergedFootprints.get();
+  }
+
+  /**
+   * Returns the number of queued user actions that have been written to the database, including merged footprints.
+   * 
+   * @return the number of written user actions
+   */
+  public long getWrittenActions() {
+    return writtenActions.get();
+  }
+
+  /**
+   * Puts a user action into the write-behind queue. If the queue is full, the caller is held back for up to
+   * {@link #writeBehindTimeout} milliseconds before the user action is dropped.
+   * 
+   * @param a
+   *          the user action
+   * @return <code>true</code> if the user action has been queued
+   */
+  private boolean enqueue(UserAction a) {
+    startWriteBehindWriter();
+    if (!reserveQueueSpace()) {
+      long dropped = droppedActions.incrementAndGet();
+      if (dropped == 1 || dropped % 1000 == 0)
+        logger.warn("User tracking queue is full, {} user actions have been dropped so far", dropped);
+      return false;
+    }
+    writeBehindQueue.add(a);
+    queuedActions.incrementAndGet();
+    if (writeBehindWriterIdle) {
+      synchronized (writeBehindQueueContent) {
+        writeBehindQueueContent.notify();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reserves room for one user action in the write-behind queue, waiting for the writer to make room if necessary.
+   * 
+   * @return <code>true</code> if room has been reserved
+   */
+  private boolean reserveQueueSpace() {
+    if (writeBehindQueueLength.incrementAndGet() <= writeBehindQueueSize)
+      return true;
+    writeBehindQueueLength.decrementAndGet();
+    if (writeBehindTimeout <= 0)
+      return false;
+    throttledActions.incrementAndGet();
+    long deadline = System.currentTimeMillis() + writeBehindTimeout;
+    synchronized (writeBehindQueueSpace) {
+      while (true) {
+        if (writeBehindQueueLength.incrementAndGet() <= writeBehindQueueSize)
+          return true;
+        writeBehindQueueLength.decrementAndGet();
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+          return false;
+        try {
+          writeBehindQueueSpace.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts the thread writing the queued user actions unless it is running already.
+   */
+  private synchronized void startWriteBehindWriter() {
+    if (writeBehindWriter != null)
+      return;
+    writeBehindWriter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (writeBehindWriter == Thread.currentThread()) {
+          try {
+            if (writeQueuedActions(writeBehindBatchSize) == 0)
+              awaitQueuedActions();
+          } catch (Throwable t) {
+            logger.warn("Unable to write queued user actions: {}", t.getMessage());
+          }
+        }
+      }
+    }, "User tracking writer");
+    writeBehindWriter.setDaemon(true);
+    writeBehindWriter.start();
+  }
+
+  /**
+   * Stops the thread writing the queued user actions and writes whatever is left in the queue.
+   */
+  private void stopWriteBehindWriter() {
+    Thread writer = null;
+    synchronized (this) {
+      writer = writeBehindWriter;
+      writeBehindWriter = null;
+    }
+    if (writer != null) {
+      synchronized (writeBehindQueueContent) {
+        writeBehindQueueContent.notify();
+      }
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        logger.warn("Interrupted while waiting for the user tracking writer to finish");
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (emf != null && emf.isOpen())
+      flushQueuedActions();
+  }
+
+  /**
+   * Waits until user actions are put into the write-behind queue.
+   */
+  private void awaitQueuedActions() {
+    synchronized (writeBehindQueueContent) {
+      writeBehindWriterIdle = true;
+      try {
+        if (writeBehindQueueLength.get() == 0)
+          writeBehindQueueContent.wait(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        writeBehindWriterIdle = false;
+      }
+    }
+  }
+
+  /**
+   * Writes all user actions that are currently waiting in the write-behind queue.
+   */
+  public void flushQueuedActions() {
+    while (writeQueuedActions(writeBehindBatchSize) > 0)
+      ;
+  }
+
+  /**
+   * Takes up to <code>max</code> user actions from the write-behind queue and writes them in one transaction. Footprints
+   * that continue the previous footprint of their session are merged into it rather than written as a new row. If the
+   * transaction fails, the user actions are dropped.
+   * 
+   * @param max
+   *          the maximum number of user actions to write
+   * @return the number of user actions taken from the queue
+   */
+  private int writeQueuedActions(int max) {
+    synchronized (writeBehindLock) {
+      List<UserAction> batch = new ArrayList<UserAction>(Math.min(max, writeBehindQueueLength.get()));
+      UserAction queued = null;
+      while (batch.size() < max && (queued = writeBehindQueue.poll()) != null) {
+        batch.add(queued);
+      }
+      if (batch.isEmpty())
+        return 0;
+      writeBehindQueueLength.addAndGet(-batch.size());
+      synchronized (writeBehindQueueSpace) {
+        writeBehindQueueSpace.notifyAll();
+      }
+
+      for (UserAction a : batch) {
+        prepareStatistics(a);
+      }
+
+      // Merging footprints changes earlier user actions, but the statistics need to see every footprint as it came in
+      int[] inpoints = new int[batch.size()];
+      int[] outpoints = new int[batch.size()];
+      for (int i = 0; i < batch.size(); i++) {
+        inpoints[i] = batch.get(i).getInpoint();
+        outpoints[i] = batch.get(i).getOutpoint();
+      }
+
+      boolean[] newSessions = new boolean[batch.size()];
+      Map<UserAction, Boolean> merged = new IdentityHashMap<UserAction, Boolean>();
+      int mergeCount = 0;
+      EntityManager em = null;
+      EntityTransaction tx = null;
+      try {
+        em = emf.createEntityManager();
+        tx = em.getTransaction();
+        tx.begin();
+        for (int i = 0; i < batch.size(); i++) {
+          UserAction a = batch.get(i);
+          if (FOOTPRINT_KEY.equals(a.getType()) && a.getSessionId() != null) {
+            UserAction last = lastFootprints.get(a.getSessionId());
+            if (last != null && last.getMediapackageId() != null
+                    && last.getMediapackageId().equals(a.getMediapackageId()) && last.getOutpoint() == a.getInpoint()) {
+              last.setOutpoint(a.getOutpoint());
+              // Footprints written in an earlier transaction need to be updated, the others are still to be inserted
+              if (last.getId() != null)
+                merged.put(last, Boolean.TRUE);
+              mergeCount++;
+              continue;
+            }
+            lastFootprints.put(a.getSessionId(), a);
+          }
+          newSessions[i] = isNewSession(em, a);
+          em.persist(a);
+        }
+        for (UserAction last : merged.keySet()) {
+          em.merge(last);
+        }
+        tx.commit();
+      } catch (RuntimeException e) {
+        if (tx != null && tx.isActive()) {
+          tx.rollback();
+        }
+        // The footprints of this batch are gone, so they must not be continued
+        lastFootprints.clear();
+        droppedActions.addAndGet(batch.size());
+        logger.warn("Unable to write {} queued user actions: {}", batch.size(), e.getMessage());
+        releaseStatistics(batch);
+        return batch.size();
+      } finally {
+        if (em != null && em.isOpen()) {
+          em.close();
+        }
+      }
+
+      for (int i = 0; i < batch.size(); i++) {
+        UserAction a = batch.get(i);
+        if (FOOTPRINT_KEY.equals(a.getType()))
+          updateStatistics(a.getMediapackageId(), newSessions[i], inpoints[i], outpoints[i]);
+        else if (newSessions[i])
+          updateStatistics(a.getMediapackageId(), true, 0, 0);
+      }
+      releaseStatistics(batch);
+      mergedFootprints.addAndGet(mergeCount);
+      writtenActions.addAndGet(batch.size());
+      logger.debug("Wrote {} queued user actions", batch.size());
+      return batch.size();
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the user action is the first one of its session for the mediapackage, meaning that the
+   * session needs to be counted as a view. Must be called before the user action is persisted.
+   * 
+   * @param em
+   *          the entity manager
+   * @param a
+   *          the user action
+   * @return whether the session is new to the mediapackage
+   */
+  private boolean isNewSession(EntityManager em, UserAction a) {
+    if (a.getSessionId() == null || a.getMediapackageId() == null)
+      return false;
+    String key = a.getMediapackageId() + "/" + a.getSessionId();
+    synchronized (knownSessions) {
+      if (knownSessions.containsKey(key))
+        return false;
+    }
+    Query q = em.createNamedQuery("countActionsOfSessionAndMediapackage");
+    // Don't flush the user actions of a write-behind batch one by one, this session has not been seen before anyway
+    q.setFlushMode(FlushModeType.COMMIT);
+    q.setParameter("sessionId", a.getSessionId());
+    q.setParameter("mediapackageId", a.getMediapackageId());
+    boolean newSession = ((Long) q.getSingleResult()).longValue() == 0;
+    synchronized (knownSessions) {
+      knownSessions.put(key, Boolean.TRUE);
+    }
+    return newSession;
+  }
+
+  /**
+   * Makes sure the statistics of the user action's mediapackage are known before the user action is stored, so that it
+   * is not part of the statistics if they need to be aggregated from the existing user actions. The statistics are
+   * pinned, so they are kept in memory even if they are evicted, until they are released again using
+   * {@link #releaseStatistics(String)}.
+   * 
+   * @param a
+   *          the user action
+   */
+  private void prepareStatistics(UserAction a) {
+    String mediapackageId = a.getMediapackageId();
+    if (mediapackageId == null)
+      return;
+    while (true) {
+      Statistics s = getStatistics(mediapackageId);
+      synchronized (statistics) {
+        // Make sure the statistics have not been evicted in the meantime
+        if (statistics.get(mediapackageId) != s)
+          continue;
+        s.pins++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Releases the statistics of a mediapackage that have been pinned by {@link #prepareStatistics(UserAction)}.
+   * 
+   * @param mediapackageId
+   *          the mediapackage
+   */
+  private void releaseStatistics(String mediapackageId) {
+    if (mediapackageId == null)
+      return;
+    synchronized (statistics) {
+      Statistics s = statistics.get(mediapackageId);
+      if (s == null)
+        s = evictedStatistics.get(mediapackageId);
+      if (s == null || s.pins == 0)
+        return;
+      s.pins--;
+      // Evicted statistics without changes don't need to be kept until the next write
+      if (s.pins == 0 && !s.dirty)
+        evictedStatistics.remove(mediapackageId, s);
+    }
+  }
+
+  /**
+   * Releases the statistics of the mediapackages of a batch of user actions.
+   * 
+   * @param batch
+   *          the user actions
+   */
+  private void releaseStatistics(List<UserAction> batch) {
+    for (UserAction a : batch) {
+      releaseStatistics(a.getMediapackageId());
+    }
+  }
+
+  /**
+   * Adds a view and a footprint to the statistics of a mediapackage.
+   * 
+   * @param mediapackageId
+   *          the mediapackage
+   * @param newSession
+   *          whether to count a view
+   * @param inpoint
+   *          the footprint's inpoint
+   * @param outpoint
+   *          the footprint's outpoint, which is equal to the inpoint if there is no footprint
+   */
+  private void updateStatistics(String mediapackageId, boolean newSession, int inpoint, int outpoint) {
+    if (mediapackageId == null)
+      return;
+    while (true) {
+      Statistics s = getStatistics(mediapackageId);
+      synchronized (statistics) {
+        // Make sure the statistics have not been evicted in the meantime
+        if (statistics.get(mediapackageId) != s)
+          continue;
+        if (newSession)
+          s.views++;
+        s.addFootprint(inpoint, outpoint);
+        s.dirty = true;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the statistics of a mediapackage, loading them if they are not in memory.
+   * 
+   * @param mediapackageId
+   *          the mediapackage
+   * @return the statistics
+   */
+  private Statistics getStatistics(String mediapackageId) {
+    Statistics s = null;
+    synchronized (statistics) {
+      s = statistics.get(mediapackageId);
+    }
+    if (s != null)
+      return s;
+
+    Statistics loaded = null;
+    synchronized (persistLock) {
+      // Evicted statistics are moved back in one step, so that they can always be found in one of the two places
+      synchronized (statistics) {
+        s = statistics.get(mediapackageId);
+        if (s == null) {
+          s = evictedStatistics.remove(mediapackageId);
+          if (s != null)
+            statistics.put(mediapackageId, s);
+        }
+      }
+      if (s != null)
+        return s;
+      loaded = loadStatistics(mediapackageId);
+    }
+
+    synchronized (statistics) {
+      s = statistics.get(mediapackageId);
+      if (s == null) {
+        s = loaded;
+        statistics.put(mediapackageId, s);
+      }
+      return s;
+    }
+  }
+
+  /**
+   * Loads the statistics of a mediapackage from the database. If there are no statistics yet, they are aggregated from
+   * the user actions once.
+   * 
+   * @param mediapackageId
+   *          the mediapackage
+   * @return the statistics
+   */
+  private Statistics loadStatistics(String mediapackageId) {
     EntityManager em = null;
     try {
       em = emf.createEntityManager();
-      Query q = em.createNamedQuery("findUserActionsByTypeAndMediapackageIdOrderByOutpointDESC");
+      MediapackageStatistics stored = em.find(MediapackageStatistics.class, mediapackageId);
+      if (stored != null)
+        return new Statistics(stored);
+
+      logger.debug("Aggregating user tracking statistics of mediapackage {}", mediapackageId);
+      Statistics s = new Statistics(mediapackageId);
+      Query q = em.createNamedQuery("countSessionsOfMediapackage");
+      q.setParameter("mediapackageId", mediapackageId);
+      s.views = ((Long) q.getSingleResult()).longValue();
+      q = em.createNamedQuery("findUserActionsByTypeAndMediapackageIdOrderByOutpointDESC");
       q.setParameter("type", FOOTPRINT_KEY);
       q.setParameter("mediapackageId", mediapackageId);
       @SuppressWarnings("unchecked")
       Collection<UserAction> userActions = q.getResultList();
-
-      int[] resultArray = new int[1];
-      boolean first = true;
-
       for (UserAction a : userActions) {
-        if (first) {
-          // Get one more item than the known outpoint to append a footprint of 0 views at the end of the result set
-          resultArray = new int[a.getOutpoint() + 1];
-          first = false;
-        }
-        for (int i = a.getInpoint(); i < a.getOutpoint(); i++) {
-          resultArray[i]++;
-        }
-      }
-      FootprintList list = new FootprintsListImpl();
-      int current = -1;
-      int last = -1;
-      int lastPositionAdded = -1;
-      for (int i = 0; i < resultArray.length; i++) {
-        current = resultArray[i];
-        if (last != current) {
-          Footprint footprint = new FootprintImpl();
-          footprint.setPosition(i);
-          footprint.setViews(current);
-          list.add(footprint);
-          lastPositionAdded = i;
-        }
-        last = current;
+        s.addFootprint(a.getInpoint(), a.getOutpoint());
       }
-      return list;
+      // Only store what has been aggregated, so that looking up an unknown mediapackage doesn't create a row
+      s.dirty = s.views > 0 || s.outpoint > 0;
+      return s;
     } finally {
       if (em != null && em.isOpen()) {
         em.close();
@@ -581,6 +1306,71 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
     }
   }
 
+  /**
+   * Writes the statistics that have changed since they were last written to the database.
+   */
+  protected void persistStatistics() {
+    synchronized (persistLock) {
+      List<Statistics> changed = new ArrayList<Statistics>();
+      List<MediapackageStatistics> entities = new ArrayList<MediapackageStatistics>();
+      synchronized (statistics) {
+        for (Statistics s : statistics.values()) {
+          if (s.dirty) {
+            changed.add(s);
+            entities.add(s.toEntity());
+            s.dirty = false;
+          }
+        }
+        // Evicted statistics that are still in use may not have changed
+        for (Statistics s : evictedStatistics.values()) {
+          if (s.dirty) {
+            changed.add(s);
+            entities.add(s.toEntity());
+            s.dirty = false;
+          }
+        }
+      }
+      if (entities.isEmpty())
+        return;
+
+      EntityManager em = null;
+      EntityTransaction tx = null;
+      try {
+        em = emf.createEntityManager();
+        tx = em.getTransaction();
+        tx.begin();
+        for (MediapackageStatistics entity : entities) {
+          em.merge(entity);
+        }
+        tx.commit();
+        synchronized (statistics) {
+          for (Statistics s : changed) {
+            if (s.pins == 0)
+              evictedStatistics.remove(s.mediapackageId, s);
+          }
+        }
+        logger.debug("Wrote user tracking statistics of {} mediapackages", entities.size());
+      } catch (RuntimeException e) {
+        if (tx != null && tx.isActive()) {
+          tx.rollback();
+        }
+        // Try again next time
+        synchronized (statistics) {
+          for (Statistics s : changed) {
+            s.dirty = true;
+            if (statistics.get(s.mediapackageId) != s)
+              evictedStatistics.putIfAbsent(s.mediapackageId, s);
+          }
+        }
+        throw e;
+      } finally {
+        if (em != null && em.isOpen()) {
+          em.close();
+        }
+      }
+    }
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -616,4 +1406,90 @@ public class UserTrackingServiceImpl implements UserTrackingService, ManagedServ
   public boolean getUserTrackingEnabled() {
     return detailedTracking;
   }
+
+  /**
+   * The in-memory statistics of a mediapackage. Access is guarded by {@link UserTrackingServiceImpl#statistics}.
+   */
+  static final class Statistics {
+
+    /** The mediapackage */
+    private final String mediapackageId;
+
+    /** The number of sessions */
+    private long views = 0;
+
+    /** The highest outpoint of all footprints */
+    private int outpoint = 0;
+
+    /** The number of footprints per second, may be longer than the highest outpoint */
+    private int[] footprints;
+
+    /** Whether there are changes that have not been written to the database */
+    private boolean dirty = false;
+
+    /** The number of user actions that are being stored and are yet to be added to the statistics */
+    private int pins = 0;
+
+    /**
+     * Creates empty statistics.
+     * 
+     * @param mediapackageId
+     *          the mediapackage
+     */
+    Statistics(String mediapackageId) {
+      this.mediapackageId = mediapackageId;
+      this.footprints = new int[0];
+    }
+
+    /**
+     * Creates statistics from what has been stored in the database.
+     * 
+     * @param stored
+     *          the stored statistics
+     */
+    Statistics(MediapackageStatistics stored) {
+      this.mediapackageId = stored.getMediapackageId();
+      this.views = stored.getViews();
+      this.footprints = stored.getFootprints();
+      this.outpoint = Math.min(stored.getOutpoint(), footprints.length);
+    }
+
+    /**
+     * Counts the seconds from <code>in</code> (inclusive) to <code>out</code> (exclusive) as watched.
+     * 
+     * @param in
+     *          the inpoint
+     * @param out
+     *          the outpoint
+     */
+    void addFootprint(int in, int out) {
+      if (out <= 0)
+        return;
+      if (out > footprints.length) {
+        int[] grown = new int[Math.max(out, footprints.length + footprints.length / 2)];
+        System.arraycopy(footprints, 0, grown, 0, footprints.length);
+        footprints = grown;
+      }
+      if (out > outpoint)
+        outpoint = out;
+      for (int i = Math.max(in, 0); i < out; i++) {
+        footprints[i]++;
+      }
+    }
+
+    /**
+     * Returns a copy of the statistics that can be stored in the database.
+     * 
+     * @return the entity
+     */
+    MediapackageStatistics toEntity() {
+      MediapackageStatistics entity = new MediapackageStatistics(mediapackageId);
+      entity.setViews(views);
+      entity.setOutpoint(outpoint);
+      entity.setFootprints(footprints, outpoint);
+      return entity;
+    }
+
+  }
+
 }
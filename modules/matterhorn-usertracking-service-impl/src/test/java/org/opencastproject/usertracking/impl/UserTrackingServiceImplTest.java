@@ -23,13 +23,23 @@ import org.eclipse.persistence.jpa.PersistenceProvider;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.opencastproject.usertracking.api.FootprintList;
+import org.opencastproject.usertracking.api.UserAction;
+import org.opencastproject.usertracking.endpoint.FootprintImpl;
+import org.opencastproject.usertracking.endpoint.FootprintsListImpl;
 
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
 public class UserTrackingServiceImplTest {
   private ComboPooledDataSource pooledDataSource = null;
   private UserTrackingServiceImpl service = null;
+  private Map<String, Object> props = null;
 
   @Before
   public void setUp() throws Exception {
@@ -41,7 +51,7 @@ public class UserTrackingServiceImplTest {
     pooledDataSource.setPassword("sa");
 
     // Set up the persistence properties
-    Map<String, Object> props = new HashMap<String, Object>();
+    props = new HashMap<String, Object>();
     props.put("javax.persistence.nonJtaDataSource", pooledDataSource);
     props.put("eclipselink.ddl-generation", "create-tables");
     props.put("eclipselink.ddl-generation.output-mode", "database");
@@ -55,6 +65,7 @@ public class UserTrackingServiceImplTest {
 
   @After
   public void tearDown() throws Exception {
+    service.destroy();
     service = null;
   }
 
@@ -110,4 +121,176 @@ public class UserTrackingServiceImplTest {
     Assert.assertEquals(userAction.getMediapackageId(), fromDb.getMediapackageId());
     Assert.assertEquals(userAction.getType(), fromDb.getType());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testFootprintStatistics() throws Exception {
+    addFootprint("session1", 10, 20);
+    addFootprint("session1", 20, 30);
+    addFootprint("session2", 15, 25);
+
+    Assert.assertEquals(2, service.getViews("mp"));
+    assertFootprints(service.getFootprints("mp", null), 0, 0, 10, 1, 15, 2, 25, 1, 30, 0);
+
+    // Other user actions count as views, but not as footprints
+    UserActionImpl userAction = new UserActionImpl();
+    userAction.setMediapackageId("mp");
+    userAction.setSessionId("session3");
+    userAction.setUserId("me");
+    userAction.setType("PLAY");
+    service.addUserTrackingEvent(userAction);
+    Assert.assertEquals(3, service.getViews("mp"));
+    assertFootprints(service.getFootprints("mp", null), 0, 0, 10, 1, 15, 2, 25, 1, 30, 0);
+
+    // Unknown mediapackages have neither views nor footprints
+    Assert.assertEquals(0, service.getViews("unknown"));
+    assertFootprints(service.getFootprints("unknown", null), 0, 0);
+  }
+
+  @Test
+  public void testStatisticsArePersisted() throws Exception {
+    addFootprint("session1", 0, 5);
+    addFootprint("session2", 3, 8);
+    service.destroy();
+
+    service = new UserTrackingServiceImpl();
+    service.setPersistenceProvider(new PersistenceProvider());
+    service.setPersistenceProperties(props);
+    service.activate();
+    Assert.assertEquals(2, service.getViews("mp"));
+    assertFootprints(service.getFootprints("mp", null), 0, 1, 3, 2, 5, 1, 8, 0);
+
+    // The statistics continue from where they were
+    addFootprint("session2", 8, 10);
+    assertFootprints(service.getFootprints("mp", null), 0, 1, 3, 2, 5, 1, 10, 0);
+    Assert.assertEquals(2, service.getViews("mp"));
+  }
+
+  @Test
+  public void testStatisticsAreEvicted() throws Exception {
+    service.statisticsCacheSize = 1;
+    addFootprint("session1", 0, 5);
+    service.getViews("other");
+    Assert.assertEquals(1, service.evictedStatistics.size());
+    Assert.assertEquals(1, service.getViews("mp"));
+    assertFootprints(service.getFootprints("mp", null), 0, 1, 5, 0);
+    // The statistics of "other" are empty, so there is nothing to keep until the next write
+    Assert.assertTrue(service.evictedStatistics.isEmpty());
+    service.persistStatistics();
+    Assert.assertTrue(service.evictedStatistics.isEmpty());
+    Assert.assertEquals(0, service.getViews("other"));
+  }
+
+  @Test
+  public void testPreparedStatisticsAreNotEvicted() throws Exception {
+    Hashtable<String, String> config = new Hashtable<String, String>();
+    config.put(UserTrackingServiceImpl.WRITE_BEHIND_KEY, "true");
+    service.updated(config);
+    service.statisticsCacheSize = 1;
+
+    // Preparing the statistics of the second mediapackage evicts the still empty statistics of the first one
+    addFootprint("session1", 0, 5);
+    UserActionImpl userAction = new UserActionImpl();
+    userAction.setMediapackageId("other");
+    userAction.setSessionId("session2");
+    userAction.setUserId("me");
+    userAction.setType("PLAY");
+    service.addUserTrackingEvent(userAction);
+    service.flushQueuedActions();
+
+    Assert.assertEquals(1, service.getViews("mp"));
+    assertFootprints(service.getFootprints("mp", null), 0, 1, 5, 0);
+    Assert.assertEquals(1, service.getViews("other"));
+    service.persistStatistics();
+    Assert.assertTrue(service.evictedStatistics.isEmpty());
+  }
+
+  @Test
+  public void testUnknownMediapackagesAreNotPersisted() throws Exception {
+    addFootprint("session1", 0, 5);
+    Assert.assertEquals(0, service.getViews("unknown"));
+    assertFootprints(service.getFootprints("unknown", null), 0, 0);
+    service.persistStatistics();
+
+    EntityManager em = service.emf.createEntityManager();
+    try {
+      Assert.assertNotNull(em.find(MediapackageStatistics.class, "mp"));
+      Assert.assertNull(em.find(MediapackageStatistics.class, "unknown"));
+    } finally {
+      em.close();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteBehind() throws Exception {
+    Hashtable<String, String> config = new Hashtable<String, String>();
+    config.put(UserTrackingServiceImpl.WRITE_BEHIND_KEY, "true");
+    service.updated(config);
+
+    addFootprint("session1", 0, 5);
+    addFootprint("session1", 5, 10);
+    addFootprint("session2", 3, 8);
+    service.flushQueuedActions();
+    addFootprint("session1", 10, 12);
+    service.flushQueuedActions();
+
+    // Consecutive footprints of a session end up in one row, whether or not they are written together
+    Assert.assertEquals(4, service.getWrittenActions());
+    Assert.assertEquals(2, service.getMergedFootprints());
+    EntityManager em = service.emf.createEntityManager();
+    try {
+      Query q = em.createNamedQuery("findUserActionsByType");
+      q.setParameter("type", UserTrackingServiceImpl.FOOTPRINT_KEY);
+      List<UserAction> actions = q.getResultList();
+      Assert.assertEquals(2, actions.size());
+      for (UserAction action : actions) {
+        if ("session1".equals(action.getSessionId()))
+          Assert.assertEquals(12, action.getOutpoint());
+      }
+    } finally {
+      em.close();
+    }
+    Assert.assertEquals(2, service.getViews("mp"));
+    assertFootprints(service.getFootprints("mp", null), 0, 1, 3, 2, 8, 1, 12, 0);
+  }
+
+  @Test
+  public void testWriteBehindDropsWhenFull() throws Exception {
+    Hashtable<String, String> config = new Hashtable<String, String>();
+    config.put(UserTrackingServiceImpl.WRITE_BEHIND_KEY, "true");
+    config.put(UserTrackingServiceImpl.WRITE_BEHIND_QUEUE_SIZE_KEY, "2");
+    config.put(UserTrackingServiceImpl.WRITE_BEHIND_TIMEOUT_KEY, "0");
+    service.updated(config);
+
+    // Keep the writer from getting past the first batch by holding on to the statistics
+    synchronized (service.statistics) {
+      for (int i = 0; i < 10; i++) {
+        addFootprint("session" + i, 0, 5);
+      }
+      Assert.assertTrue(service.getDroppedActions() > 0);
+    }
+    service.flushQueuedActions();
+    Assert.assertEquals(10, service.getQueuedActions() + service.getDroppedActions());
+    Assert.assertEquals(service.getQueuedActions(), service.getWrittenActions());
+    Assert.assertEquals(service.getWrittenActions(), service.getViews("mp"));
+  }
+
+  private void addFootprint(String sessionId, int in, int out) throws Exception {
+    UserActionImpl userAction = new UserActionImpl();
+    userAction.setInpoint(in);
+    userAction.setOutpoint(out);
+    userAction.setMediapackageId("mp");
+    userAction.setSessionId(sessionId);
+    userAction.setUserId("me");
+    service.addUserFootprint(userAction);
+  }
+
+  private void assertFootprints(FootprintList list, int... positionsAndViews) {
+    List<FootprintImpl> footprints = ((FootprintsListImpl) list).getFootprints();
+    Assert.assertEquals(positionsAndViews.length / 2, footprints.size());
+    for (int i = 0; i < footprints.size(); i++) {
+      Assert.assertEquals(positionsAndViews[2 * i], footprints.get(i).getPosition());
+      Assert.assertEquals(positionsAndViews[2 * i + 1], footprints.get(i).getViews());
+    }
+  }
+}
@@ -1041,7 +1041,8 @@ public class WorkflowServiceImpl implements WorkflowService, JobProducer, Manage
       }
     }
 
-    // Synchronize the job status with the workflow
+    // Synchronize the job status with the workflow. The workflow is serialized once, and the result is shared by the
+    // job payload, the search index and the copy handed to the workflow listeners.
     WorkflowState workflowState = workflowInstance.getState();
     String xml;
     try {
@@ -1083,7 +1084,7 @@ public class WorkflowServiceImpl implements WorkflowService, JobProducer, Manage
         throw new IllegalStateException("Found a workflow state that is not handled");
       }
 
-      index(workflowInstance);
+      index(workflowInstance, xml);
 
       // Update the service registry
       serviceRegistry.updateJob(job);
@@ -1095,26 +1096,50 @@ public class WorkflowServiceImpl implements WorkflowService, JobProducer, Manage
       throw new WorkflowDatabaseException(e);
     }
 
+    // Listeners run asynchronously and therefore receive a copy, which is only created if anybody needs to be notified
+    if (listeners.isEmpty() || !isNotificationRequired(originalWorkflowInstance, workflowInstance))
+      return;
     try {
-      WorkflowInstance clone = WorkflowParser.parseWorkflowInstance(WorkflowParser.toXml(workflowInstance));
+      WorkflowInstance clone = WorkflowParser.parseWorkflowInstance(xml);
       fireListeners(originalWorkflowInstance, clone);
-    } catch (Exception e) {
-      // Can't happen, since we are converting from an in-memory object
-      throw new IllegalStateException("In-memory workflow instance could not be serialized", e);
+    } catch (WorkflowParsingException e) {
+      // Can't happen, since we just serialized the workflow instance
+      throw new IllegalStateException("Serialized workflow instance could not be parsed", e);
     }
   }
 
+  /**
+   * Returns <code>true</code> if either the state or the current operation of the workflow have changed, which means
+   * that the workflow listeners need to be notified.
+   * 
+   * @param oldWorkflowInstance
+   *          the workflow before the update, or <code>null</code> if it is new
+   * @param newWorkflowInstance
+   *          the updated workflow
+   * @return <code>true</code> if the listeners need to be notified
+   */
+  protected boolean isNotificationRequired(WorkflowInstance oldWorkflowInstance, WorkflowInstance newWorkflowInstance) {
+    if (oldWorkflowInstance == null || !oldWorkflowInstance.getState().equals(newWorkflowInstance.getState()))
+      return true;
+    WorkflowOperationInstance currentOperation = newWorkflowInstance.getCurrentOperation();
+    return currentOperation != null
+            && (oldWorkflowInstance.getCurrentOperation() == null || !oldWorkflowInstance.getCurrentOperation().equals(
+                    currentOperation));
+  }
+
   /**
    * Updates the search index entries for this workflow instance.
    * 
    * @param workflowInstance
    *          the workflow
+   * @param xml
+   *          the serialized workflow
    * @throws WorkflowDatabaseException
    *           if there is a problem storing the workflow instance
    */
-  protected void index(final WorkflowInstance workflowInstance) throws WorkflowDatabaseException {
+  protected void index(final WorkflowInstance workflowInstance, String xml) throws WorkflowDatabaseException {
     // Update the search index
-    index.update(workflowInstance);
+    index.update(workflowInstance, xml);
   }
 
   /**
@@ -80,6 +80,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -166,6 +167,15 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
   /** The key in solr documents representing the organization that owns this workflow instance */
   private static final String ORG_KEY = "oc_org";
 
+  /**
+   * The key in solr documents combining the workflow definition, the current operation and the state, which allows for
+   * the statistics to be collected using a single facet
+   */
+  private static final String STATISTICS_KEY = "statistics";
+
+  /** The separator between the parts of the <code>STATISTICS_KEY</code> value */
+  private static final char STATISTICS_SEPARATOR = '/';
+
   /** The key in solr documents representing the prefix to an access control entry */
   private static final String ACL_KEY_PREFIX = "oc_acl_";
 
@@ -224,9 +234,9 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
     activate();
   }
 
-  private long count() throws WorkflowDatabaseException {
+  private long count(String query) throws WorkflowDatabaseException {
     try {
-      QueryResponse response = solrServer.query(new SolrQuery("*:*"));
+      QueryResponse response = solrServer.query(new SolrQuery(query).setRows(0));
       return response.getResults().getNumFound();
     } catch (SolrServerException e) {
       throw new WorkflowDatabaseException(e);
@@ -250,15 +260,19 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
       }
     }
 
-    // If the solr is empty, add all of the existing workflows
+    // If the solr is empty, add all of the existing workflows. The same is true for indexes that have been created before
+    // the statistics field has been introduced.
     long instancesInSolr = 0;
+    long outdatedInstancesInSolr = 0;
     try {
-      instancesInSolr = count();
+      instancesInSolr = count("*:*");
+      if (instancesInSolr > 0)
+        outdatedInstancesInSolr = count("*:* -" + STATISTICS_KEY + ":[* TO *]");
     } catch (WorkflowDatabaseException e) {
       throw new IllegalStateException(e);
     }
-    if (instancesInSolr == 0) {
-      // this may be a new index, so get all of the existing workflows and index them
+    if (instancesInSolr == 0 || outdatedInstancesInSolr > 0) {
+      // this may be a new or outdated index, so get all of the existing workflows and index them
       long instancesInServiceRegistry;
       try {
         instancesInServiceRegistry = serviceRegistry.count(WorkflowService.JOB_TYPE, null);
@@ -356,9 +370,23 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
   }
 
   public void index(final WorkflowInstance instance) throws WorkflowDatabaseException {
+    index(instance, null);
+  }
+
+  /**
+   * Adds the workflow instance to the search index, using its serialized form if it is available.
+   * 
+   * @param instance
+   *          the instance
+   * @param xml
+   *          the serialized workflow instance, or <code>null</code> if it needs to be serialized
+   * @throws WorkflowDatabaseException
+   *           if indexing fails
+   */
+  public void index(final WorkflowInstance instance, final String xml) throws WorkflowDatabaseException {
     if (synchronousIndexing) {
       try {
-        SolrInputDocument doc = createDocument(instance);
+        SolrInputDocument doc = createDocument(instance, xml);
         synchronized (solrServer) {
           solrServer.add(doc);
           solrServer.commit();
@@ -370,7 +398,7 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
       indexingExecutor.submit(new Runnable() {
         public void run() {
           try {
-            SolrInputDocument doc = createDocument(instance);
+            SolrInputDocument doc = createDocument(instance, xml);
             synchronized (solrServer) {
               solrServer.add(doc);
               // Use solr's autoCommit feature instead of committing on each document addition.
@@ -395,21 +423,35 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
    * @throws Exception
    */
   protected SolrInputDocument createDocument(WorkflowInstance instance) throws Exception {
+    return createDocument(instance, null);
+  }
+
+  /**
+   * Adds the workflow instance to the search index.
+   * 
+   * @param instance
+   *          the instance
+   * @param xml
+   *          the serialized workflow instance, or <code>null</code> if it needs to be serialized
+   * @return the solr input document
+   * @throws Exception
+   */
+  protected SolrInputDocument createDocument(WorkflowInstance instance, String xml) throws Exception {
     SolrInputDocument doc = new SolrInputDocument();
     doc.addField(ID_KEY, instance.getId());
     doc.addField(WORKFLOW_DEFINITION_KEY, instance.getTemplate());
     doc.addField(STATE_KEY, instance.getState().toString());
-    String xml = WorkflowParser.toXml(instance);
+    if (xml == null)
+      xml = WorkflowParser.toXml(instance);
     doc.addField(XML_KEY, xml);
 
     // index the current operation if there is one. If the workflow is finished, there is no current operation, so use a
     // constant
     WorkflowOperationInstance op = instance.getCurrentOperation();
-    if (op == null) {
-      doc.addField(OPERATION_KEY, NO_OPERATION_KEY);
-    } else {
-      doc.addField(OPERATION_KEY, op.getTemplate());
-    }
+    String operation = op == null ? NO_OPERATION_KEY : op.getTemplate();
+    doc.addField(OPERATION_KEY, operation);
+    doc.addField(STATISTICS_KEY, new StringBuilder().append(instance.getTemplate()).append(STATISTICS_SEPARATOR)
+            .append(operation).append(STATISTICS_SEPARATOR).append(instance.getState().toString()).toString());
 
     MediaPackage mp = instance.getMediaPackage();
     doc.addField(MEDIAPACKAGE_KEY, mp.getIdentifier().toString());
@@ -564,154 +606,107 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
    */
   @Override
   public WorkflowStatistics getStatistics() throws WorkflowDatabaseException {
-
-    long total = 0;
-    long paused = 0;
-    long failed = 0;
-    long failing = 0;
-    long instantiated = 0;
-    long running = 0;
-    long stopped = 0;
-    long succeeded = 0;
-
     WorkflowStatistics stats = new WorkflowStatistics();
 
-    // Get all definitions and then query for the numbers and the current operation per definition
+    // Every document carries a combination of definition, operation and state, so a single facet holds all the numbers
+    Map<String, Map<String, OperationReport>> operationsByTemplate = new TreeMap<String, Map<String, OperationReport>>();
     try {
       String orgId = securityService.getOrganization().getId();
       StringBuilder queryString = new StringBuilder().append(ORG_KEY).append(":").append(orgId);
       appendSolrAuthFragment(queryString, READ_PERMISSION);
       SolrQuery solrQuery = new SolrQuery(queryString.toString());
-      solrQuery.addFacetField(WORKFLOW_DEFINITION_KEY);
-      solrQuery.addFacetField(OPERATION_KEY);
-      solrQuery.setFacetMinCount(0);
+      solrQuery.setRows(0);
+      solrQuery.addFacetField(STATISTICS_KEY);
+      solrQuery.setFacetMinCount(1);
+      solrQuery.setFacetLimit(-1);
       solrQuery.setFacet(true);
       QueryResponse response = solrServer.query(solrQuery);
 
-      FacetField templateFacet = response.getFacetField(WORKFLOW_DEFINITION_KEY);
-      FacetField operationFacet = response.getFacetField(OPERATION_KEY);
-
-      // For every template and every operation
-      if (templateFacet != null && templateFacet.getValues() != null) {
-
-        for (Count template : templateFacet.getValues()) {
-
-          WorkflowDefinitionReport templateReport = new WorkflowDefinitionReport();
-          templateReport.setId(template.getName());
-
-          long templateTotal = 0;
-          long templatePaused = 0;
-          long templateFailed = 0;
-          long templateFailing = 0;
-          long templateInstantiated = 0;
-          long templateRunning = 0;
-          long templateStopped = 0;
-          long templateSucceeded = 0;
-
-          if (operationFacet != null && operationFacet.getValues() != null) {
-
-            for (Count operation : operationFacet.getValues()) {
-
-              OperationReport operationReport = new OperationReport();
-              operationReport.setId(operation.getName());
-
-              StringBuilder baseSolrQuery = new StringBuilder().append(ORG_KEY).append(":").append(orgId);
-              appendSolrAuthFragment(baseSolrQuery, READ_PERMISSION);
-              solrQuery = new SolrQuery(baseSolrQuery.toString());
-              solrQuery.addFacetField(STATE_KEY);
-              solrQuery.addFacetQuery(STATE_KEY + ":" + WorkflowState.FAILED);
-              solrQuery.addFacetQuery(STATE_KEY + ":" + WorkflowState.FAILING);
-              solrQuery.addFacetQuery(STATE_KEY + ":" + WorkflowState.INSTANTIATED);
-              solrQuery.addFacetQuery(STATE_KEY + ":" + WorkflowState.PAUSED);
-              solrQuery.addFacetQuery(STATE_KEY + ":" + WorkflowState.RUNNING);
-              solrQuery.addFacetQuery(STATE_KEY + ":" + WorkflowState.STOPPED);
-              solrQuery.addFacetQuery(STATE_KEY + ":" + WorkflowState.SUCCEEDED);
-              solrQuery.addFilterQuery(WORKFLOW_DEFINITION_KEY + ":" + template.getName());
-              solrQuery.addFilterQuery(OPERATION_KEY + ":" + operation.getName());
-              solrQuery.setFacetMinCount(0);
-              solrQuery.setFacet(true);
-
-              response = solrServer.query(solrQuery);
-
-              // Add the states
-              FacetField stateFacet = response.getFacetField(STATE_KEY);
-              for (Count stateValue : stateFacet.getValues()) {
-                WorkflowState state = WorkflowState.valueOf(stateValue.getName().toUpperCase());
-                templateTotal += stateValue.getCount();
-                total += stateValue.getCount();
-                switch (state) {
-                  case FAILED:
-                    operationReport.setFailed(stateValue.getCount());
-                    templateFailed += stateValue.getCount();
-                    failed += stateValue.getCount();
-                    break;
-                  case FAILING:
-                    operationReport.setFailing(stateValue.getCount());
-                    templateFailing += stateValue.getCount();
-                    failing += stateValue.getCount();
-                    break;
-                  case INSTANTIATED:
-                    operationReport.setInstantiated(stateValue.getCount());
-                    templateInstantiated += stateValue.getCount();
-                    instantiated += stateValue.getCount();
-                    break;
-                  case PAUSED:
-                    operationReport.setPaused(stateValue.getCount());
-                    templatePaused += stateValue.getCount();
-                    paused += stateValue.getCount();
-                    break;
-                  case RUNNING:
-                    operationReport.setRunning(stateValue.getCount());
-                    templateRunning += stateValue.getCount();
-                    running += stateValue.getCount();
-                    break;
-                  case STOPPED:
-                    operationReport.setStopped(stateValue.getCount());
-                    templateStopped += stateValue.getCount();
-                    stopped += stateValue.getCount();
-                    break;
-                  case SUCCEEDED:
-                    operationReport.setFinished(stateValue.getCount());
-                    templateSucceeded += stateValue.getCount();
-                    succeeded += stateValue.getCount();
-                    break;
-                  default:
-                    throw new IllegalStateException("State '" + state + "' is not handled");
-                }
-              }
-
-              templateReport.getOperations().add(operationReport);
-            }
+      FacetField statisticsFacet = response.getFacetField(STATISTICS_KEY);
+      if (statisticsFacet != null && statisticsFacet.getValues() != null) {
+        for (Count value : statisticsFacet.getValues()) {
+          String key = value.getName();
+          int stateSeparator = key.lastIndexOf(STATISTICS_SEPARATOR);
+          int operationSeparator = stateSeparator > 0 ? key.lastIndexOf(STATISTICS_SEPARATOR, stateSeparator - 1) : -1;
+          if (operationSeparator < 0) {
+            logger.warn("Skipping malformed workflow statistics entry '{}'", key);
+            continue;
+          }
+          String template = key.substring(0, operationSeparator);
+          String operation = key.substring(operationSeparator + 1, stateSeparator);
+          WorkflowState state = WorkflowState.valueOf(key.substring(stateSeparator + 1).toUpperCase());
+
+          Map<String, OperationReport> operations = operationsByTemplate.get(template);
+          if (operations == null) {
+            operations = new TreeMap<String, OperationReport>();
+            operationsByTemplate.put(template, operations);
+          }
+          OperationReport operationReport = operations.get(operation);
+          if (operationReport == null) {
+            operationReport = new OperationReport();
+            operationReport.setId(operation);
+            operations.put(operation, operationReport);
           }
 
-          // Update the template statistics
-          templateReport.setTotal(templateTotal);
-          templateReport.setFailed(templateFailed);
-          templateReport.setFailing(templateFailing);
-          templateReport.setInstantiated(templateInstantiated);
-          templateReport.setPaused(templatePaused);
-          templateReport.setRunning(templateRunning);
-          templateReport.setStopped(templateStopped);
-          templateReport.setFinished(templateSucceeded);
-
-          // Add the definition report to the statistics
-          stats.getDefinitions().add(templateReport);
-
+          long count = value.getCount();
+          operationReport.setTotal(operationReport.getTotal() + count);
+          switch (state) {
+            case FAILED:
+              operationReport.setFailed(operationReport.getFailed() + count);
+              break;
+            case FAILING:
+              operationReport.setFailing(operationReport.getFailing() + count);
+              break;
+            case INSTANTIATED:
+              operationReport.setInstantiated(operationReport.getInstantiated() + count);
+              break;
+            case PAUSED:
+              operationReport.setPaused(operationReport.getPaused() + count);
+              break;
+            case RUNNING:
+              operationReport.setRunning(operationReport.getRunning() + count);
+              break;
+            case STOPPED:
+              operationReport.setStopped(operationReport.getStopped() + count);
+              break;
+            case SUCCEEDED:
+              operationReport.setFinished(operationReport.getFinished() + count);
+              break;
+            default:
+              throw new IllegalStateException("State '" + state + "' is not handled");
+          }
         }
-
       }
     } catch (SolrServerException e) {
       throw new WorkflowDatabaseException(e);
     }
 
-    stats.setTotal(total);
-    stats.setFailed(failed);
-    stats.setFailing(failing);
-    stats.setInstantiated(instantiated);
-    stats.setPaused(paused);
-    stats.setRunning(running);
-    stats.setStopped(stopped);
-    stats.setFinished(succeeded);
+    // Sum up the operations per definition, and the definitions for the overall statistics
+    for (Map.Entry<String, Map<String, OperationReport>> entry : operationsByTemplate.entrySet()) {
+      WorkflowDefinitionReport templateReport = new WorkflowDefinitionReport();
+      templateReport.setId(entry.getKey());
+      for (OperationReport operationReport : entry.getValue().values()) {
+        templateReport.setTotal(templateReport.getTotal() + operationReport.getTotal());
+        templateReport.setFailed(templateReport.getFailed() + operationReport.getFailed());
+        templateReport.setFailing(templateReport.getFailing() + operationReport.getFailing());
+        templateReport.setInstantiated(templateReport.getInstantiated() + operationReport.getInstantiated());
+        templateReport.setPaused(templateReport.getPaused() + operationReport.getPaused());
+        templateReport.setRunning(templateReport.getRunning() + operationReport.getRunning());
+        templateReport.setStopped(templateReport.getStopped() + operationReport.getStopped());
+        templateReport.setFinished(templateReport.getFinished() + operationReport.getFinished());
+        templateReport.getOperations().add(operationReport);
+      }
+
+      stats.setTotal(stats.getTotal() + templateReport.getTotal());
+      stats.setFailed(stats.getFailed() + templateReport.getFailed());
+      stats.setFailing(stats.getFailing() + templateReport.getFailing());
+      stats.setInstantiated(stats.getInstantiated() + templateReport.getInstantiated());
+      stats.setPaused(stats.getPaused() + templateReport.getPaused());
+      stats.setRunning(stats.getRunning() + templateReport.getRunning());
+      stats.setStopped(stats.getStopped() + templateReport.getStopped());
+      stats.setFinished(stats.getFinished() + templateReport.getFinished());
+      stats.getDefinitions().add(templateReport);
+    }
 
     return stats;
   }
@@ -1029,6 +1024,17 @@ public class WorkflowServiceSolrIndex implements WorkflowServiceIndex {
     index(instance);
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * @see org.opencastproject.workflow.impl.WorkflowServiceIndex#update(org.opencastproject.workflow.api.WorkflowInstance,
+   *      java.lang.String)
+   */
+  @Override
+  public void update(WorkflowInstance instance, String xml) throws WorkflowDatabaseException {
+    index(instance, xml);
+  }
+
   /**
    * Clears the index of all workflow instances.
    */
@@ -315,11 +315,17 @@ public class WorkflowStatisticsTest {
     assertEquals(stopped, stats.getStopped());
     assertEquals(total, stats.getTotal());
 
-    // TODO: Test the operations
-    // Make sure they are as expected
-    // for (WorkflowDefinitionReport report : stats.getDefinitions()) {
-    //
-    // }
+    // Make sure the operation and definition reports add up
+    long definitionTotal = 0;
+    for (WorkflowDefinitionReport report : stats.getDefinitions()) {
+      long operationTotal = 0;
+      for (OperationReport operationReport : report.getOperations()) {
+        operationTotal += operationReport.getTotal();
+      }
+      assertEquals(report.getTotal(), operationTotal);
+      definitionTotal += report.getTotal();
+    }
+    assertEquals(total, definitionTotal);
 
   }
 
@@ -24,6 +24,7 @@ import org.opencastproject.util.UrlSupport;
 import org.opencastproject.workingfilerepository.api.PathMappable;
 import org.opencastproject.workingfilerepository.api.WorkingFileRepository;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -38,8 +39,12 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * A very simple (read: inadequate) implementation that stores all files under a root directory using the media package
@@ -53,10 +58,16 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
   /** The extension we use for the md5 hash calculated from the file contents */
   public static final String MD5_EXTENSION = ".md5";
 
-  /** The filename filter matching .md5 files */
+  /** The extension of temporary files that are used to atomically replace an md5 file */
+  private static final String MD5_TEMP_EXTENSION = ".tmp";
+
+  /** The size of the buffer used when writing files to the repository */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The filename filter matching .md5 files, but not the temporary files they are written to */
   private static final FilenameFilter MD5_FINAME_FILTER = new FilenameFilter() {
     public boolean accept(File dir, String name) {
-      return name.endsWith(MD5_EXTENSION);
+      return name.endsWith(MD5_EXTENSION) && !name.endsWith(MD5_TEMP_EXTENSION);
     }
   };
 
@@ -194,6 +205,9 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
         for (File f : files) {
           if (f.getName().endsWith(MD5_EXTENSION)) {
             md5Exists = true;
+          } else if (f.getName().endsWith(MD5_EXTENSION + MD5_TEMP_EXTENSION)) {
+            // an md5 file that is being written
+            continue;
           } else {
             fileName = f.getName();
           }
@@ -249,9 +263,11 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
         logger.debug("Attempting to overwrite the file at {}", f.getAbsolutePath());
       }
       out = new FileOutputStream(f);
-      IOUtils.copy(in, out);
-      createMd5(f);
+      String md5 = copyAndDigest(in, out);
+      out.close();
+      writeMd5(f, md5);
     } catch (IOException e) {
+      IOUtils.closeQuietly(out);
       FileUtils.deleteDirectory(dir);
       throw e;
     } finally {
@@ -262,28 +278,61 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
   }
 
   /**
-   * Creates a file containing the md5 hash for the contents of a source file.
+   * Copies the contents of <code>in</code> to <code>out</code> and calculates the md5 hash of the data while it passes
+   * by, so that the file does not need to be read again once it has been written.
+   * 
+   * @param in
+   *          the source stream
+   * @param out
+   *          the target stream
+   * @return the md5 hash of the data
+   * @throws IOException
+   *           if copying the data fails
+   */
+  protected String copyAndDigest(InputStream in, OutputStream out) throws IOException {
+    MessageDigest digest = null;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not supported by this platform", e);
+    }
+    DigestInputStream digestIn = new DigestInputStream(in, digest);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int bytesRead = 0;
+    while ((bytesRead = digestIn.read(buffer)) != -1) {
+      out.write(buffer, 0, bytesRead);
+    }
+    return new String(Hex.encodeHex(digest.digest()));
+  }
+
+  /**
+   * Stores the md5 hash next to the source file. The hash is written to a temporary file first which is then renamed,
+   * so that the presence of an md5 file always indicates a complete file along with its complete hash.
    * 
    * @param f
-   *          the source file containing the data to hash
+   *          the source file
+   * @param md5
+   *          the md5 hash of the file contents
+   * @return the md5 file
    * @throws IOException
-   *           if the hash cannot be created
+   *           if the md5 file cannot be written
    */
-  protected File createMd5(File f) throws IOException {
-    FileInputStream md5In = null;
-    File md5File = null;
+  protected File writeMd5(File f, String md5) throws IOException {
+    File md5File = getMd5File(f);
+    File tempFile = new File(f.getParent(), md5File.getName() + MD5_TEMP_EXTENSION);
     try {
-      md5In = new FileInputStream(f);
-      String md5 = DigestUtils.md5Hex(md5In);
-      IOUtils.closeQuietly(md5In);
-      md5File = getMd5File(f);
-      FileUtils.writeStringToFile(md5File, md5);
+      FileUtils.writeStringToFile(tempFile, md5, "utf-8");
+      if (!tempFile.renameTo(md5File)) {
+        // Some platforms don't allow for renaming to an existing file
+        FileUtils.deleteQuietly(md5File);
+        if (!tempFile.renameTo(md5File))
+          throw new IOException("Unable to move " + tempFile + " to " + md5File);
+      }
       return md5File;
     } catch (IOException e) {
+      FileUtils.deleteQuietly(tempFile);
       FileUtils.deleteQuietly(md5File);
       throw e;
-    } finally {
-      IOUtils.closeQuietly(md5In);
     }
   }
 
@@ -496,10 +545,13 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
         logger.debug("Attempting to overwrite the file at {}", f.getAbsolutePath());
       }
       out = new FileOutputStream(f);
-      IOUtils.copy(in, out);
-      createMd5(f);
+      String md5 = copyAndDigest(in, out);
+      out.close();
+      writeMd5(f, md5);
     } catch (IOException e) {
+      IOUtils.closeQuietly(out);
       FileUtils.deleteQuietly(f);
+      FileUtils.deleteQuietly(getMd5File(f));
       throw e;
     } finally {
       IOUtils.closeQuietly(out);
@@ -534,7 +586,7 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
     try {
       destFile = new File(destDir, toFileName);
       FileSupport.link(source, destFile);
-      createMd5(destFile);
+      writeMd5(destFile, getFileDigest(source));
     } catch (Exception e) {
       FileUtils.deleteDirectory(destDir);
     }
@@ -571,10 +623,11 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
     }
 
     try {
+      String md5 = getFileDigest(source);
       FileUtils.moveFile(source, dest);
       if (!sourceMd5.delete())
         throw new IOException("Unable to delete " + sourceMd5.getAbsolutePath());
-      createMd5(dest);
+      writeMd5(dest, md5);
     } catch (IOException e) {
       FileUtils.deleteDirectory(destDir);
       throw new IllegalStateException("unable to copy file" + e);
@@ -680,7 +733,7 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
 
     // Check if there is a precalculated md5 hash
     File md5HashFile = getMd5File(file);
-    if (file.exists()) {
+    if (md5HashFile.isFile()) {
       logger.trace("Reading precalculated hash for {} from {}", file, md5HashFile.getName());
       return FileUtils.readFileToString(md5HashFile, "utf-8");
     }
@@ -697,7 +750,7 @@ public class WorkingFileRepositoryImpl implements WorkingFileRepository, PathMap
 
     // Write the md5 hash to disk for later reference
     try {
-      FileUtils.writeStringToFile(md5HashFile, md5, "utf-8");
+      writeMd5(file, md5);
     } catch (IOException e) {
       logger.warn("Error storing cached md5 checksum at {}", md5HashFile);
       throw e;
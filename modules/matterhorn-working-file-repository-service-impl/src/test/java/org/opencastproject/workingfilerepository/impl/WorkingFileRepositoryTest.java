@@ -19,6 +19,7 @@ package org.opencastproject.workingfilerepository.impl;
 import static org.junit.Assert.fail;
 
 import org.opencastproject.util.NotFoundException;
+import org.opencastproject.util.PathSupport;
 import org.opencastproject.util.UrlSupport;
 
 import junit.framework.Assert;
@@ -149,6 +150,26 @@ public class WorkingFileRepositoryTest {
     Assert.assertEquals(1, repo.getCollectionSize(collectionId));
   }
 
+  @Test
+  public void testMd5BeingWritten() throws Exception {
+    URI uri = repo.getURI(mediaPackageID, mediaPackageElementID);
+    File elementFile = new File(PathSupport.concat(new String[] { repo.rootDirectory,
+            WorkingFileRepositoryImpl.MEDIAPACKAGE_PATH_PREFIX, mediaPackageID, mediaPackageElementID,
+            "opencast_header.gif" }));
+    File collectionFile = new File(PathSupport.concat(new String[] { repo.rootDirectory,
+            WorkingFileRepositoryImpl.COLLECTION_PATH_PREFIX, collectionId, filename }));
+    Assert.assertTrue(elementFile.isFile());
+    Assert.assertTrue(collectionFile.isFile());
+
+    // Temporary md5 files are neither taken for the element's file nor listed
+    FileUtils.writeStringToFile(new File(elementFile.getPath() + ".md5.tmp"), "");
+    FileUtils.writeStringToFile(new File(collectionFile.getPath() + ".md5.tmp"), "");
+    Assert.assertEquals(uri, repo.getURI(mediaPackageID, mediaPackageElementID));
+    Assert.assertEquals(1, repo.getCollectionSize(collectionId));
+    Assert.assertEquals(1, repo.getCollectionContents(collectionId).length);
+    Assert.assertTrue(repo.getCollectionContents(collectionId)[0].toString().endsWith("/" + filename));
+  }
+
   @Test
   public void testCopy() throws Exception {
     String newFileName = "newfile.gif";
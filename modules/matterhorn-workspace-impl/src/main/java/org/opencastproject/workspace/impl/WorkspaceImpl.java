@@ -23,6 +23,7 @@ import org.opencastproject.workingfilerepository.api.PathMappable;
 import org.opencastproject.workingfilerepository.api.WorkingFileRepository;
 import org.opencastproject.workspace.api.Workspace;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -41,7 +42,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Timer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -62,6 +73,12 @@ public class WorkspaceImpl implements Workspace {
   /** Configuration key for the workspace root directory */
   public static final String WORKSPACE_ROOTDIR_KEY = "org.opencastproject.workspace.rootdir";
 
+  /** The size of the buffer used when downloading files */
+  protected static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The maximum number of checksums that are kept in memory */
+  protected static final int MAX_CHECKSUMS = 10000;
+
   protected String wsRoot = null;
   protected long maxAgeInSeconds = -1;
   protected long garbageCollectionPeriodInSeconds = -1;
@@ -74,6 +91,19 @@ public class WorkspaceImpl implements Workspace {
   protected String wfrRoot = null;
   protected String wfrUrl = null;
 
+  /** The transfers that are currently in progress, keyed by the uri of the file being transferred */
+  protected final ConcurrentMap<String, FutureTask<File>> downloads = new ConcurrentHashMap<String, FutureTask<File>>();
+
+  /** The most recently used md5 checksums of workspace files, keyed by absolute path */
+  protected final Map<String, FileChecksum> checksums = new LinkedHashMap<String, FileChecksum>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, FileChecksum> eldest) {
+      return size() > MAX_CHECKSUMS;
+    }
+  };
+
   public WorkspaceImpl() {
   }
 
@@ -179,9 +209,63 @@ public class WorkspaceImpl implements Workspace {
    * 
    * @see org.opencastproject.workspace.api.Workspace#get(java.net.URI)
    */
-  public File get(URI uri) throws NotFoundException, IOException {
+  public File get(final URI uri) throws NotFoundException, IOException {
+    final File f = getWorkspaceFile(uri, false);
+
+    // If another thread is already fetching the file, wait for it instead of starting a second transfer
+    String key = uri.toString();
+    FutureTask<File> fetch = new FutureTask<File>(new Callable<File>() {
+      public File call() throws Exception {
+        return fetch(uri, f);
+      }
+    });
+    FutureTask<File> running = downloads.putIfAbsent(key, fetch);
+    if (running == null) {
+      try {
+        fetch.run();
+      } finally {
+        downloads.remove(key, fetch);
+      }
+      running = fetch;
+    } else {
+      logger.debug("Waiting on another thread to download {}", uri);
+    }
+
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while waiting for " + uri, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof NotFoundException)
+        throw (NotFoundException) cause;
+      else if (cause instanceof IOException)
+        throw (IOException) cause;
+      else if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      else if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IOException("Unable to get " + uri, cause);
+    }
+  }
+
+  /**
+   * Makes sure that the workspace file <code>f</code> is an up to date copy of the resource at <code>uri</code>, either
+   * by linking or copying it from the working file repository root, if that is reachable on the local filesystem, or
+   * by downloading it.
+   * 
+   * @param uri
+   *          the resource
+   * @param f
+   *          the workspace file
+   * @return the workspace file
+   * @throws NotFoundException
+   *           if the resource does not exist or can't be downloaded
+   * @throws IOException
+   *           if the resource can't be linked or copied from the working file repository root
+   */
+  protected File fetch(URI uri, File f) throws NotFoundException, IOException {
     String urlString = uri.toString();
-    File f = getWorkspaceFile(uri, false);
 
     // Does the file exist and is it up to date?
     Long workspaceFileLastModified = new Long(0); // make sure this is not null, otherwise the requested file can not be
@@ -198,11 +282,21 @@ public class WorkspaceImpl implements Workspace {
           // if the file exists in the workspace, but is older than the wfr copy, replace it
           if (workspaceFileLastModified < wfrCopy.lastModified()) {
             logger.debug("Replacing {} with an updated version from the file repository", f.getAbsolutePath());
-            if (linkingEnabled) {
+            forgetMd5(f);
+            try {
+              if (linkingEnabled) {
+                FileUtils.deleteQuietly(f);
+                FileSupport.link(wfrCopy, f);
+              } else {
+                FileSupport.copy(wfrCopy, f);
+              }
+            } catch (IOException e) {
               FileUtils.deleteQuietly(f);
-              FileSupport.link(wfrCopy, f);
-            } else {
-              FileSupport.copy(wfrCopy, f);
+              // the file may have been removed from the working file repository in the meantime
+              if (!wfrCopy.isFile())
+                throw new NotFoundException(uri + " does not exist", e);
+              logger.warn("Could not copy {} to {}", wfrCopy, f.getAbsolutePath());
+              throw e;
             }
           } else {
             logger.debug("{} is up to date", f);
@@ -213,18 +307,12 @@ public class WorkspaceImpl implements Workspace {
       }
     }
 
-    String ifNoneMatch = null;
-    if (f.isFile()) {
-      ifNoneMatch = md5(f);
-    }
-
     HttpGet get = new HttpGet(urlString);
-    if (ifNoneMatch != null)
-      get.setHeader("If-None-Match", ifNoneMatch);
+    if (f.isFile())
+      get.setHeader("If-None-Match", md5(f));
     InputStream in = null;
     OutputStream out = null;
     HttpResponse response = null;
-    File lockFile = new File(f.getParent(), f.getName() + ".lock");
     try {
       response = trustedHttpClient.execute(get);
       if (HttpServletResponse.SC_NOT_FOUND == response.getStatusLine().getStatusCode()) {
@@ -234,20 +322,22 @@ public class WorkspaceImpl implements Workspace {
         return f;
       }
 
-      // if the lock file exists, another thread is currently downloading the file. wait for it.
-      while (lockFile.isFile()) {
-        logger.debug("Waiting on another thread to download {}", urlString);
-        Thread.sleep(5000);
-        if (!lockFile.isFile() && f.isFile()) {
-          return f;
-        }
-      }
-
       logger.info("Downloading {} to {}", urlString, f.getAbsolutePath());
-      f.createNewFile();
-      in = response.getEntity().getContent();
+      forgetMd5(f);
+      DigestInputStream digestIn = new DigestInputStream(response.getEntity().getContent(),
+              MessageDigest.getInstance("MD5"));
+      in = digestIn;
       out = new FileOutputStream(f);
-      IOUtils.copyLarge(in, out);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int n = 0;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      out.close();
+      rememberMd5(f, new String(Hex.encodeHex(digestIn.getMessageDigest().digest())));
+    } catch (NotFoundException e) {
+      FileUtils.deleteQuietly(f);
+      throw e;
     } catch (Exception e) {
       logger.warn("Could not copy {} to {}", urlString, f.getAbsolutePath());
       FileUtils.deleteQuietly(f);
@@ -256,14 +346,14 @@ public class WorkspaceImpl implements Workspace {
       IOUtils.closeQuietly(in);
       IOUtils.closeQuietly(out);
       trustedHttpClient.close(response);
-      FileUtils.deleteQuietly(lockFile);
     }
 
     return f;
   }
 
   /**
-   * Returns the md5 of a file
+   * Returns the md5 of a file. The checksum is taken from memory if the file has not been modified since it was last
+   * computed.
    * 
    * @param file
    *          the source file
@@ -281,15 +371,51 @@ public class WorkspaceImpl implements Workspace {
     if (!file.isFile())
       throw new IllegalArgumentException("File " + file.getAbsolutePath() + " can not be read");
 
+    FileChecksum checksum = null;
+    synchronized (checksums) {
+      checksum = checksums.get(file.getAbsolutePath());
+    }
+    if (checksum != null && checksum.matches(file))
+      return checksum.md5;
+
     InputStream in = null;
     try {
       in = new FileInputStream(file);
-      return DigestUtils.md5Hex(in);
+      String md5 = DigestUtils.md5Hex(in);
+      rememberMd5(file, md5);
+      return md5;
     } finally {
       IOUtils.closeQuietly(in);
     }
   }
 
+  /**
+   * Keeps the md5 of <code>file</code> in memory as long as the file is not modified.
+   * 
+   * @param file
+   *          the file
+   * @param md5
+   *          the file's md5 hash
+   */
+  protected void rememberMd5(File file, String md5) {
+    FileChecksum checksum = new FileChecksum(file, md5);
+    synchronized (checksums) {
+      checksums.put(file.getAbsolutePath(), checksum);
+    }
+  }
+
+  /**
+   * Removes the md5 of <code>file</code> from memory, since the file is about to change.
+   * 
+   * @param file
+   *          the file
+   */
+  protected void forgetMd5(File file) {
+    synchronized (checksums) {
+      checksums.remove(file.getAbsolutePath());
+    }
+  }
+
   /**
    * {@inheritDoc}
    * 
@@ -318,6 +444,7 @@ public class WorkspaceImpl implements Workspace {
 
     // Remove the file and optionally its parent directory if empty
     File f = getWorkspaceFile(uri, false);
+    forgetMd5(f);
     if (f.isFile()) {
       synchronized (wsRoot) {
         FileUtils.forceDelete(f);
@@ -358,6 +485,7 @@ public class WorkspaceImpl implements Workspace {
     FileOutputStream out = null;
     synchronized (wsRoot) {
       workspaceFile = getWorkspaceFile(uri, true);
+      forgetMd5(workspaceFile);
       FileUtils.touch(workspaceFile);
     }
 
@@ -373,9 +501,14 @@ public class WorkspaceImpl implements Workspace {
     } else {
       InputStream tee = null;
       try {
+        DigestInputStream digestIn = new DigestInputStream(in, MessageDigest.getInstance("MD5"));
         out = new FileOutputStream(workspaceFile);
-        tee = new TeeInputStream(in, out, true);
+        tee = new TeeInputStream(digestIn, out, true);
         wfr.put(mediaPackageID, mediaPackageElementID, fileName, tee);
+        out.close();
+        rememberMd5(workspaceFile, new String(Hex.encodeHex(digestIn.getMessageDigest().digest())));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("MD5 is not supported", e);
       } finally {
         IOUtils.closeQuietly(tee);
         IOUtils.closeQuietly(out);
@@ -402,6 +535,7 @@ public class WorkspaceImpl implements Workspace {
     FileOutputStream out = null;
     synchronized (wsRoot) {
       tempFile = getWorkspaceFile(uri, true);
+      forgetMd5(tempFile);
       FileUtils.touch(tempFile);
       out = new FileOutputStream(tempFile);
     }
@@ -516,6 +650,8 @@ public class WorkspaceImpl implements Workspace {
       URI copyURI = wfr.getURI(toMediaPackage, toMediaPackageElement, toFileName);
       File copy = getWorkspaceFile(copyURI, true);
       FileUtils.forceMkdir(copy.getParentFile());
+      forgetMd5(original);
+      forgetMd5(copy);
       FileUtils.moveFile(original, copy);
     }
 
@@ -547,6 +683,7 @@ public class WorkspaceImpl implements Workspace {
     }
     File f = new File(PathSupport.concat(new String[] { wsRoot, WorkingFileRepository.COLLECTION_PATH_PREFIX,
             collectionId, fileName }));
+    forgetMd5(f);
     FileUtils.deleteQuietly(f);
   }
 
@@ -612,4 +749,46 @@ public class WorkspaceImpl implements Workspace {
   public URI getBaseUri() {
     return wfr.getBaseUri();
   }
+
+  /**
+   * The md5 checksum of a file along with the file attributes that were current when the checksum was computed.
+   */
+  protected static final class FileChecksum {
+
+    /** The file's modification date */
+    private final long lastModified;
+
+    /** The file's size in bytes */
+    private final long length;
+
+    /** The md5 checksum */
+    private final String md5;
+
+    /**
+     * Creates a checksum for the current state of <code>file</code>.
+     * 
+     * @param file
+     *          the file
+     * @param md5
+     *          the file's md5 hash
+     */
+    FileChecksum(File file, String md5) {
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+      this.md5 = md5;
+    }
+
+    /**
+     * Returns <code>true</code> if the file has not been modified since the checksum was taken.
+     * 
+     * @param file
+     *          the file
+     * @return <code>true</code> if the checksum is still valid
+     */
+    boolean matches(File file) {
+      return file.lastModified() == lastModified && file.length() == length;
+    }
+
+  }
+
 }
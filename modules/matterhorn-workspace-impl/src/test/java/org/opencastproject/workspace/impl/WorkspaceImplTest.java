@@ -23,6 +23,7 @@ import org.opencastproject.workingfilerepository.api.WorkingFileRepository;
 
 import junit.framework.Assert;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
@@ -30,15 +31,25 @@ import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -217,4 +228,104 @@ public class WorkspaceImplTest {
 
   }
 
+  @Test
+  public void testConcurrentGetDownloadsOnce() throws Exception {
+    WorkingFileRepository repo = EasyMock.createNiceMock(WorkingFileRepository.class);
+    EasyMock.expect(repo.getBaseUri()).andReturn(new URI("http://localhost:8080/files")).anyTimes();
+    EasyMock.replay(repo);
+    workspace.setRepository(repo);
+
+    // The download blocks until both threads have asked for the file
+    final byte[] content = "downloaded content".getBytes();
+    final CountDownLatch downloading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger downloads = new AtomicInteger();
+    TrustedHttpClient httpClient = EasyMock.createNiceMock(TrustedHttpClient.class);
+    EasyMock.makeThreadSafe(httpClient, false);
+    EasyMock.expect(httpClient.execute((HttpUriRequest) EasyMock.anyObject())).andAnswer(new IAnswer<HttpResponse>() {
+      public HttpResponse answer() throws Throwable {
+        downloads.incrementAndGet();
+        downloading.countDown();
+        release.await(10, TimeUnit.SECONDS);
+        HttpEntity entity = EasyMock.createNiceMock(HttpEntity.class);
+        EasyMock.expect(entity.getContent()).andReturn(new ByteArrayInputStream(content));
+        StatusLine statusLine = EasyMock.createNiceMock(StatusLine.class);
+        EasyMock.expect(statusLine.getStatusCode()).andReturn(HttpServletResponse.SC_OK).anyTimes();
+        HttpResponse response = EasyMock.createNiceMock(HttpResponse.class);
+        EasyMock.expect(response.getEntity()).andReturn(entity);
+        EasyMock.expect(response.getStatusLine()).andReturn(statusLine).anyTimes();
+        EasyMock.replay(response, entity, statusLine);
+        return response;
+      }
+    }).anyTimes();
+    EasyMock.replay(httpClient);
+    workspace.trustedHttpClient = httpClient;
+
+    final URI uri = new URI("http://remotehost:8080/static/video.mp4");
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Callable<File> get = new Callable<File>() {
+        public File call() throws Exception {
+          return workspace.get(uri);
+        }
+      };
+      Future<File> first = executor.submit(get);
+      Assert.assertTrue(downloading.await(10, TimeUnit.SECONDS));
+      Future<File> second = executor.submit(get);
+      // Give the second thread the chance to join the running download
+      while (!workspace.downloads.containsKey(uri.toString()))
+        Thread.sleep(10);
+      Thread.sleep(200);
+      release.countDown();
+
+      File file = first.get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(file, second.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals("downloaded content", FileUtils.readFileToString(file));
+      Assert.assertEquals(1, downloads.get());
+      Assert.assertTrue(workspace.downloads.isEmpty());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testGetFromRepositoryRootFailure() throws Exception {
+    WorkingFileRepository repo = EasyMock.createNiceMock(WorkingFileRepository.class);
+    EasyMock.expect(repo.getBaseUri()).andReturn(new URI("http://localhost:8080/files")).anyTimes();
+    EasyMock.replay(repo);
+    workspace.setRepository(repo);
+    workspace.wfrRoot = new File(repoRoot).getAbsolutePath();
+    workspace.wfrUrl = "http://localhost:8080/files";
+    File wfrCopy = new File(PathSupport.concat(new String[] { repoRoot, "mediapackage", "foo", "bar", "header.gif" }));
+    FileUtils.writeStringToFile(wfrCopy, "repository content");
+    URI uri = new URI("http://localhost:8080/files/mediapackage/foo/bar/header.gif");
+
+    // Files in the working file repository root are copied
+    File file = workspace.get(uri);
+    Assert.assertEquals("repository content", FileUtils.readFileToString(file));
+
+    // Failing to copy a file that exists is not mistaken for the file missing
+    FileUtils.deleteQuietly(file);
+    FileUtils.writeStringToFile(new File(new File(file, file.getName()), "blocker"), "");
+    try {
+      workspace.get(uri);
+      Assert.fail("Copying onto a directory must fail");
+    } catch (NotFoundException e) {
+      Assert.fail("A file that can't be copied is not missing");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMd5IsRecomputedWhenFileChanges() throws Exception {
+    File file = new File(workspaceRoot, "md5.txt");
+    FileUtils.writeStringToFile(file, "first version");
+    Assert.assertEquals(DigestUtils.md5Hex("first version"), workspace.md5(file));
+    Assert.assertEquals(DigestUtils.md5Hex("first version"), workspace.md5(file));
+
+    FileUtils.writeStringToFile(file, "second, longer version");
+    Assert.assertEquals(DigestUtils.md5Hex("second, longer version"), workspace.md5(file));
+  }
+
 }